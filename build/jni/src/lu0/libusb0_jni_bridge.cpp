@@ -233,6 +233,78 @@ JNIEXPORT jint JNICALL Java_org_koiroha_usb_impl_libusb_LibUSB0_interrupt_1read(
 	return result;
 }
 
+/*
+ * Class:     org_koiroha_usb_impl_libusb_LibUSB0
+ * Method:    bulk_write_direct
+ * Signature: (JILjava/nio/ByteBuffer;III)I
+ */
+JNIEXPORT jint JNICALL Java_org_koiroha_usb_impl_libusb_LibUSB0_bulk_1write_1direct(JNIEnv *env, jclass, jlong handle, jint ep, jobject buf, jint offset, jint length, jint timeout){
+	usb_dev_handle* dev = jlong_to_devhandle(handle);
+	char* buffer = (char*)env->GetDirectBufferAddress(buf);
+	if(buffer == NULL){
+		JVM jvm(env);
+		jvm.raise(ILLEGAL_ARGUMENT_EXCEPTION_CLASS, "not direct buffer");
+		return 0;
+	}
+	int result = usb_bulk_write(dev, ep, buffer + offset, length, timeout);
+	DUMP(buffer + offset, bigger(0, result), ">> usb_bulk_write(%p,%d,direct,%d,%d):=%d", dev, ep, length, timeout, result);
+	return result;
+}
+
+/*
+ * Class:     org_koiroha_usb_impl_libusb_LibUSB0
+ * Method:    bulk_read_direct
+ * Signature: (JILjava/nio/ByteBuffer;III)I
+ */
+JNIEXPORT jint JNICALL Java_org_koiroha_usb_impl_libusb_LibUSB0_bulk_1read_1direct(JNIEnv *env, jclass, jlong handle, jint ep, jobject buf, jint offset, jint length, jint timeout){
+	usb_dev_handle* dev = jlong_to_devhandle(handle);
+	char* buffer = (char*)env->GetDirectBufferAddress(buf);
+	if(buffer == NULL){
+		JVM jvm(env);
+		jvm.raise(ILLEGAL_ARGUMENT_EXCEPTION_CLASS, "not direct buffer");
+		return 0;
+	}
+	int result = usb_bulk_read(dev, ep, buffer + offset, length, timeout);
+	DUMP(buffer + offset, bigger(0, result), "<< usb_bulk_read(%p,%d,direct,%d,%d):=%d", dev, ep, length, timeout, result);
+	return result;
+}
+
+/*
+ * Class:     org_koiroha_usb_impl_libusb_LibUSB0
+ * Method:    interrupt_write_direct
+ * Signature: (JILjava/nio/ByteBuffer;III)I
+ */
+JNIEXPORT jint JNICALL Java_org_koiroha_usb_impl_libusb_LibUSB0_interrupt_1write_1direct(JNIEnv *env, jclass, jlong handle, jint ep, jobject buf, jint offset, jint length, jint timeout){
+	usb_dev_handle* dev = jlong_to_devhandle(handle);
+	char* buffer = (char*)env->GetDirectBufferAddress(buf);
+	if(buffer == NULL){
+		JVM jvm(env);
+		jvm.raise(ILLEGAL_ARGUMENT_EXCEPTION_CLASS, "not direct buffer");
+		return 0;
+	}
+	int result = usb_interrupt_write(dev, ep, buffer + offset, length, timeout);
+	DUMP(buffer + offset, bigger(0, result), ">> usb_interrupt_write(%p,%d,direct,%d,%d):=%d", dev, ep, length, timeout, result);
+	return result;
+}
+
+/*
+ * Class:     org_koiroha_usb_impl_libusb_LibUSB0
+ * Method:    interrupt_read_direct
+ * Signature: (JILjava/nio/ByteBuffer;III)I
+ */
+JNIEXPORT jint JNICALL Java_org_koiroha_usb_impl_libusb_LibUSB0_interrupt_1read_1direct(JNIEnv *env, jclass, jlong handle, jint ep, jobject buf, jint offset, jint length, jint timeout){
+	usb_dev_handle* dev = jlong_to_devhandle(handle);
+	char* buffer = (char*)env->GetDirectBufferAddress(buf);
+	if(buffer == NULL){
+		JVM jvm(env);
+		jvm.raise(ILLEGAL_ARGUMENT_EXCEPTION_CLASS, "not direct buffer");
+		return 0;
+	}
+	int result = usb_interrupt_read(dev, ep, buffer + offset, length, timeout);
+	DUMP(buffer + offset, bigger(0, result), "<< usb_interrupt_read(%p,%d,direct,%d,%d):=%d", dev, ep, length, timeout, result);
+	return result;
+}
+
 /*
  * Class:     org_koiroha_usb_impl_libusb_LibUSB0
  * Method:    control_msg
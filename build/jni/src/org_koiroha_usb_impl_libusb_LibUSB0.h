@@ -145,6 +145,38 @@ JNIEXPORT jint JNICALL Java_org_koiroha_usb_impl_libusb_LibUSB0_interrupt_1write
 JNIEXPORT jint JNICALL Java_org_koiroha_usb_impl_libusb_LibUSB0_interrupt_1read
   (JNIEnv *, jclass, jlong, jint, jbyteArray, jint, jint, jint);
 
+/*
+ * Class:     org_koiroha_usb_impl_libusb_LibUSB0
+ * Method:    bulk_write_direct
+ * Signature: (JILjava/nio/ByteBuffer;III)I
+ */
+JNIEXPORT jint JNICALL Java_org_koiroha_usb_impl_libusb_LibUSB0_bulk_1write_1direct
+  (JNIEnv *, jclass, jlong, jint, jobject, jint, jint, jint);
+
+/*
+ * Class:     org_koiroha_usb_impl_libusb_LibUSB0
+ * Method:    bulk_read_direct
+ * Signature: (JILjava/nio/ByteBuffer;III)I
+ */
+JNIEXPORT jint JNICALL Java_org_koiroha_usb_impl_libusb_LibUSB0_bulk_1read_1direct
+  (JNIEnv *, jclass, jlong, jint, jobject, jint, jint, jint);
+
+/*
+ * Class:     org_koiroha_usb_impl_libusb_LibUSB0
+ * Method:    interrupt_write_direct
+ * Signature: (JILjava/nio/ByteBuffer;III)I
+ */
+JNIEXPORT jint JNICALL Java_org_koiroha_usb_impl_libusb_LibUSB0_interrupt_1write_1direct
+  (JNIEnv *, jclass, jlong, jint, jobject, jint, jint, jint);
+
+/*
+ * Class:     org_koiroha_usb_impl_libusb_LibUSB0
+ * Method:    interrupt_read_direct
+ * Signature: (JILjava/nio/ByteBuffer;III)I
+ */
+JNIEXPORT jint JNICALL Java_org_koiroha_usb_impl_libusb_LibUSB0_interrupt_1read_1direct
+  (JNIEnv *, jclass, jlong, jint, jobject, jint, jint, jint);
+
 /*
  * Class:     org_koiroha_usb_impl_libusb_LibUSB0
  * Method:    control_msg
@@ -346,6 +346,14 @@ JNIEXPORT jint JNICALL Java_org_koiroha_usb_impl_openusb_OpenUSB__1xfer__Lorg_ko
 JNIEXPORT jint JNICALL Java_org_koiroha_usb_impl_openusb_OpenUSB__1xfer__IJBB_3Ljava_lang_Object_2
   (JNIEnv *, jclass, jint, jlong, jbyte, jbyte, jobjectArray);
 
+/*
+ * Class:     org_koiroha_usb_impl_openusb_OpenUSB
+ * Method:    _xfer_direct
+ * Signature: (IJBBLjava/nio/ByteBuffer;IIILorg/koiroha/usb/impl/openusb/OpenUSB$request_result_t;)I
+ */
+JNIEXPORT jint JNICALL Java_org_koiroha_usb_impl_openusb_OpenUSB__1xfer_1direct
+  (JNIEnv *, jclass, jint, jlong, jbyte, jbyte, jobject, jint, jint, jint, jobject);
+
 /*
  * Class:     org_koiroha_usb_impl_openusb_OpenUSB
  * Method:    _abort
@@ -93,6 +93,59 @@ JNIEXPORT jint JNICALL Java_org_koiroha_usb_impl_openusb_OpenUSB__1xfer__IJBB_3L
 	return ret;
 }
 
+/*
+ * Class:     org_koiroha_usb_impl_openusb_OpenUSB
+ * Method:    _xfer_direct
+ * Signature: (IJBBLjava/nio/ByteBuffer;IIILorg/koiroha/usb/impl/openusb/OpenUSB$request_result_t;)I
+ */
+JNIEXPORT jint JNICALL Java_org_koiroha_usb_impl_openusb_OpenUSB__1xfer_1direct
+  (JNIEnv *env, jclass, jint type, jlong dev, jbyte ifc, jbyte ept, jobject buf, jint offset, jint length, jint timeout, jobject result)
+{
+	JVM jvm(env);
+	TRACE("xfer_direct(%d,%p,%d,%d,direct,%d,%d,%d)", type, (void*)dev, (int)ifc & 0xFF, (int)ept & 0xFF, offset, length, timeout);
+
+	// refer native address of direct buffer without copy
+	uint8_t* payload = (uint8_t*)jvm.env->GetDirectBufferAddress(buf);
+	if(payload == NULL){
+		jvm.raise(ILLEGAL_ARGUMENT_EXCEPTION_CLASS, "not direct buffer");
+		return 0;
+	}
+	payload += offset;
+
+	int32_t ret = OPENUSB_SUCCESS;
+	openusb_request_result_t res;
+	switch(type){
+	case USB_TYPE_INTERRUPT:
+		openusb_intr_request_t intr;
+		memset(&intr, 0, sizeof(intr));
+		intr.payload = payload;
+		intr.length = (uint32_t)length;
+		intr.timeout = (uint32_t)timeout;
+		ret = openusb_intr_xfer((openusb_dev_handle_t)dev, (uint8_t)ifc, (uint8_t)ept, &intr);
+		res = intr.result;
+		break;
+	case USB_TYPE_BULK:
+		openusb_bulk_request_t bulk;
+		memset(&bulk, 0, sizeof(bulk));
+		bulk.payload = payload;
+		bulk.length = (uint32_t)length;
+		bulk.timeout = (uint32_t)timeout;
+		ret = openusb_bulk_xfer((openusb_dev_handle_t)dev, (uint8_t)ifc, (uint8_t)ept, &bulk);
+		res = bulk.result;
+		break;
+	default:
+		jvm.abort("unsupported transfer type: %d", type);
+		return 0;
+	}
+
+	// store result
+	if(ret == OPENUSB_SUCCESS){
+		jvm.setInt(result, CLS_REQUEST_RESULT, "status", (jint)res.status);
+		jvm.setInt(result, CLS_REQUEST_RESULT, "transferred_bytes", (jint)res.transferred_bytes);
+	}
+	return ret;
+}
+
 /*
  * Class:     org_koiroha_usb_impl_openusb_OpenUSB
  * Method:    _abort
@@ -0,0 +1,160 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.bench;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.koiroha.usb.*;
+import org.openjdk.jmh.annotations.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// BulkBenchmark: バルク転送ベンチマーク
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * 模擬デバイスに対するバルク転送のスループットを計測します。エンドポイントの帯域と応答時間は
+ * 無制限に設定しているため、計測値は usb4j の転送経路 (型の検証、メトリクスの記録、ブリッジ
+ * 呼び出し) のオーバーヘッドを示します。1 操作あたりのバイト数は {@code size} です。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BulkBenchmark {
+
+	/** 1 回の転送サイズです。 */
+	@Param({ "64", "512", "4096", "65536" })
+	public int size;
+
+	/** ベンチマーク環境です。 */
+	private Fixture fixture = null;
+
+	/** 書き込み専用 BULK OUT エンドポイント (0x02) です。 */
+	private Endpoint sink = null;
+
+	/** 読み込み専用 BULK IN エンドポイント (0x82) です。 */
+	private Endpoint source = null;
+
+	/** ループバック BULK OUT エンドポイント (0x01) です。 */
+	private Endpoint loopOut = null;
+
+	/** ループバック BULK IN エンドポイント (0x81) です。 */
+	private Endpoint loopIn = null;
+
+	/** 転送に使用する配列です。 */
+	private byte[] array = null;
+
+	/** 転送に使用するダイレクトバッファです。 */
+	private ByteBuffer direct = null;
+
+	// ======================================================================
+	// ベンチマークの準備
+	// ======================================================================
+	/**
+	 * ループバックデバイスをオープンしてバッファを用意します。
+	 * <p>
+	 * @throws USBException デバイスのオープンに失敗した場合
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws USBException{
+		fixture = new Fixture();
+		sink = fixture.getEndpoint(0x02);
+		source = fixture.getEndpoint(0x82);
+		loopOut = fixture.getEndpoint(0x01);
+		loopIn = fixture.getEndpoint(0x81);
+		array = new byte[size];
+		direct = ByteBuffer.allocateDirect(size);
+		return;
+	}
+
+	// ======================================================================
+	// ベンチマークの後処理
+	// ======================================================================
+	/**
+	 * デバイスをクローズします。
+	 * <p>
+	 * @throws USBException クローズに失敗した場合
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws USBException{
+		fixture.dispose();
+		return;
+	}
+
+	// ======================================================================
+	// 書き込み
+	// ======================================================================
+	/**
+	 * 配列を使用した BULK OUT 転送を計測します。
+	 * <p>
+	 * @throws USBException 転送に失敗した場合
+	 */
+	@Benchmark
+	public void write() throws USBException{
+		sink.write(array, 0, size, 1000);
+		return;
+	}
+
+	// ======================================================================
+	// 読み込み
+	// ======================================================================
+	/**
+	 * 配列を使用した BULK IN 転送を計測します。
+	 * <p>
+	 * @return 読み込んだバイト数
+	 * @throws USBException 転送に失敗した場合
+	 */
+	@Benchmark
+	public int read() throws USBException{
+		return source.read(array, 0, size, 1000);
+	}
+
+	// ======================================================================
+	// ダイレクトバッファの読み込み
+	// ======================================================================
+	/**
+	 * ダイレクトバッファを使用した BULK IN 転送を計測します。
+	 * <p>
+	 * @return 読み込んだバイト数
+	 * @throws USBException 転送に失敗した場合
+	 */
+	@Benchmark
+	public int readDirect() throws USBException{
+		direct.clear();
+		return source.read(direct, 1000);
+	}
+
+	// ======================================================================
+	// ループバック
+	// ======================================================================
+	/**
+	 * BULK OUT で書き込んだデータを BULK IN で読み戻すまでを計測します。
+	 * <p>
+	 * @return 読み込んだバイト数
+	 * @throws USBException 転送に失敗した場合
+	 */
+	@Benchmark
+	public int loopback() throws USBException{
+		loopOut.write(array, 0, size, 1000);
+		int len = 0;
+		while(len < size){
+			len += loopIn.read(array, len, size - len, 1000);
+		}
+		return len;
+	}
+
+}
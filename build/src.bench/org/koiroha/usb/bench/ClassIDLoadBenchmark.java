@@ -0,0 +1,227 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.bench;
+
+import java.io.*;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.koiroha.usb.util.ClassID;
+import org.openjdk.jmh.annotations.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// ClassIDLoadBenchmark: クラス ID 読み込みベンチマーク
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * IDS ファイルの解析とバイナリ形式のデータベースによる {@link ClassID} の構築時間、および
+ * 構築後の参照時間を計測します。IDS ファイルは {@code ids} パラメータで指定できます (デフォルト
+ * はリポジトリに同梱の usb.ids)。
+ * <p>
+ * ヒープ使用量は 2 つの方法で比較します。{@link #retainedIDS(Heap)} と
+ * {@link #retainedDatabase(Heap)} は構築した {@link ClassID} が保持するヒープ量を GC 後の
+ * 使用量の差で計測し、副次結果 {@code retainedBytes} として出力します (これらの計測時間は GC
+ * を含むため比較に使用しないでください)。構築中に確保されるヒープ量は GC プロファイラを指定
+ * して {@link #loadIDS()} と {@link #loadDatabase()} の {@code gc.alloc.rate.norm} で比較
+ * します。
+ * <pre>
+ * java -jar benchmarks.jar ClassIDLoadBenchmark -prof gc
+ * </pre>
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClassIDLoadBenchmark {
+
+	/** IDS ファイルのパスです。 */
+	@Param({ "build/src.tools/org/koiroha/usb/tools/usb.ids" })
+	public String ids;
+
+	/** IDS ファイルの URL です。 */
+	private URL url = null;
+
+	/** IDS ファイルから作成したデータベースファイルです。 */
+	private File database = null;
+
+	/** 参照の計測に使用するデータベースの {@link ClassID} です。 */
+	private ClassID classId = null;
+
+	/** 参照するベンダー ID の順序です。 */
+	private int vendor = 0;
+
+	// ======================================================================
+	// ベンチマークの準備
+	// ======================================================================
+	/**
+	 * IDS ファイルからデータベースファイルを作成します。
+	 * <p>
+	 * @throws Exception データベースの作成に失敗した場合
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws Exception{
+		url = new File(ids).toURI().toURL();
+		database = File.createTempFile("usb4j", ".db");
+		database.deleteOnExit();
+		OutputStream out = new FileOutputStream(database);
+		try{
+			ClassID.getClassIDFromIDS(url).writeDatabase(out);
+		} finally {
+			out.close();
+		}
+		classId = ClassID.getClassIDFromDatabase(database);
+		return;
+	}
+
+	// ======================================================================
+	// ベンチマークの後処理
+	// ======================================================================
+	/**
+	 * データベースファイルを削除します。
+	 * <p>
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		classId = null;
+		database.delete();
+		return;
+	}
+
+	// ======================================================================
+	// IDS ファイルの読み込み
+	// ======================================================================
+	/**
+	 * IDS ファイルを解析して {@link ClassID} を構築する時間を計測します。
+	 * <p>
+	 * @return クラス ID
+	 * @throws Exception 読み込みに失敗した場合
+	 */
+	@Benchmark
+	public ClassID loadIDS() throws Exception{
+		return ClassID.getClassIDFromIDS(url);
+	}
+
+	// ======================================================================
+	// データベースの読み込み
+	// ======================================================================
+	/**
+	 * データベースファイルから {@link ClassID} を構築する時間を計測します。
+	 * <p>
+	 * @return クラス ID
+	 * @throws Exception 読み込みに失敗した場合
+	 */
+	@Benchmark
+	public ClassID loadDatabase() throws Exception{
+		return ClassID.getClassIDFromDatabase(database);
+	}
+
+	// ======================================================================
+	// IDS ファイルから構築した場合の保持ヒープ量
+	// ======================================================================
+	/**
+	 * IDS ファイルを DOM で解析して構築した {@link ClassID} が保持するヒープ量を計測します。
+	 * <p>
+	 * @param heap ヒープ量の記録
+	 * @return クラス ID
+	 * @throws Exception 読み込みに失敗した場合
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 2, batchSize = 1)
+	@Measurement(iterations = 5, batchSize = 1)
+	public ClassID retainedIDS(Heap heap) throws Exception{
+		long before = Heap.used();
+		ClassID id = ClassID.getClassIDFromIDS(url);
+		heap.retainedBytes += Heap.used() - before;
+		return id;
+	}
+
+	// ======================================================================
+	// データベースから構築した場合の保持ヒープ量
+	// ======================================================================
+	/**
+	 * データベースファイルをメモリマップして構築した {@link ClassID} が保持するヒープ量を計測
+	 * します。
+	 * <p>
+	 * @param heap ヒープ量の記録
+	 * @return クラス ID
+	 * @throws Exception 読み込みに失敗した場合
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 2, batchSize = 1)
+	@Measurement(iterations = 5, batchSize = 1)
+	public ClassID retainedDatabase(Heap heap) throws Exception{
+		long before = Heap.used();
+		ClassID id = ClassID.getClassIDFromDatabase(database);
+		heap.retainedBytes += Heap.used() - before;
+		return id;
+	}
+
+	// ======================================================================
+	// ベンダー名の参照
+	// ======================================================================
+	/**
+	 * データベースからのベンダー名の参照時間を計測します。
+	 * <p>
+	 * @return ベンダー名
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public String lookupVendor(){
+		vendor = (vendor + 7) & 0x0FFF;
+		return classId.getVendor(0x0400 + vendor);
+	}
+
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	// Heap: ヒープ量の記録
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	/**
+	 * 構築した {@link ClassID} が保持するヒープ量を副次結果として出力する補助カウンタです。
+	 * <p>
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Heap {
+
+		/** 構築後に保持されたヒープ量 (バイト) です。 */
+		public long retainedBytes = 0;
+
+		/**
+		 * 反復ごとに記録をリセットします。
+		 * <p>
+		 */
+		@Setup(Level.Iteration)
+		public void reset(){
+			retainedBytes = 0;
+			return;
+		}
+
+		/**
+		 * ガベージコレクションを実行した後のヒープ使用量を参照します。
+		 * <p>
+		 * @return ヒープ使用量
+		 */
+		static long used(){
+			Runtime r = Runtime.getRuntime();
+			for(int i=0; i<3; i++){
+				System.gc();
+			}
+			return r.totalMemory() - r.freeMemory();
+		}
+	}
+
+}
@@ -0,0 +1,174 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.bench;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.koiroha.usb.*;
+import org.koiroha.usb.impl.USBContextImpl;
+import org.koiroha.usb.impl.sim.*;
+import org.openjdk.jmh.annotations.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// ContextBenchmark: コンテキストベンチマーク
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * {@code devices} 台の模擬デバイスが接続された状態で {@link USBContext#sync()} と
+ * {@link USBContext#lookup(int, int)} を計測します。デバイスは 16 種類の製品 ID に分散して
+ * います。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContextBenchmark {
+
+	/** 接続するデバイス数です。 */
+	@Param({ "100", "500" })
+	public int devices;
+
+	/** 模擬ブリッジです。 */
+	private SimulatedBridge bridge = null;
+
+	/** 同期済みのコンテキストです。 */
+	private USBContextImpl context = null;
+
+	/** 取り付け/取り外しを繰り返すデバイスです。 */
+	private SimulatedDevice volatileDevice = null;
+
+	/** 製品 ID の検索順序です。 */
+	private int product = 0;
+
+	// ======================================================================
+	// ベンチマークの準備
+	// ======================================================================
+	/**
+	 * デバイスを取り付けてコンテキストを同期します。
+	 * <p>
+	 * @throws USBException 同期に失敗した場合
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws USBException{
+		bridge = new SimulatedBridge();
+		for(int i=0; i<devices; i++){
+			SimulatedDevice d = SimulatedDevice.createLoopback(Fixture.VENDOR_ID, i % 16);
+			d.setSerialNumber(String.format("%08d", i));
+			bridge.attach(d);
+		}
+		volatileDevice = SimulatedDevice.createLoopback(Fixture.VENDOR_ID + 1, 0);
+		context = bridge.create();
+		context.sync();
+		return;
+	}
+
+	// ======================================================================
+	// ベンチマークの後処理
+	// ======================================================================
+	/**
+	 * コンテキストを解放します。
+	 * <p>
+	 * @throws USBException 解放に失敗した場合
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws USBException{
+		context.dispose();
+		return;
+	}
+
+	// ======================================================================
+	// 変化のない同期
+	// ======================================================================
+	/**
+	 * 構成に変化のない状態での同期を計測します。全てのデバイスは既存のインスタンスと一致
+	 * します。
+	 * <p>
+	 * @throws USBException 同期に失敗した場合
+	 */
+	@Benchmark
+	public void syncUnchanged() throws USBException{
+		context.sync();
+		return;
+	}
+
+	// ======================================================================
+	// 取り付け/取り外しを伴う同期
+	// ======================================================================
+	/**
+	 * 1 台のデバイスの取り付けまたは取り外しを反映する同期を計測します。
+	 * <p>
+	 * @throws USBException 同期に失敗した場合
+	 */
+	@Benchmark
+	public void syncChanged() throws USBException{
+		if(bridge.getDevices().contains(volatileDevice)){
+			bridge.detach(volatileDevice);
+		} else {
+			bridge.attach(volatileDevice);
+		}
+		context.sync();
+		return;
+	}
+
+	// ======================================================================
+	// 初回の同期
+	// ======================================================================
+	/**
+	 * 新しいコンテキストの構築から初回の同期、解放までを計測します。
+	 * <p>
+	 * @return デバイス数
+	 * @throws USBException 同期に失敗した場合
+	 */
+	@Benchmark
+	public int coldSync() throws USBException{
+		USBContextImpl c = bridge.create();
+		c.sync();
+		int count = c.lookup().size();
+		c.dispose();
+		return count;
+	}
+
+	// ======================================================================
+	// 全デバイスの検索
+	// ======================================================================
+	/**
+	 * 全デバイスの検索を計測します。
+	 * <p>
+	 * @return デバイスのリスト
+	 * @throws USBException 検索に失敗した場合
+	 */
+	@Benchmark
+	public List<Device> lookupAll() throws USBException{
+		return context.lookup();
+	}
+
+	// ======================================================================
+	// ベンダー ID / 製品 ID による検索
+	// ======================================================================
+	/**
+	 * ベンダー ID と製品 ID を指定した検索を計測します。
+	 * <p>
+	 * @return デバイスのリスト
+	 * @throws USBException 検索に失敗した場合
+	 */
+	@Benchmark
+	public List<Device> lookupByProduct() throws USBException{
+		product = (product + 1) & 0x0F;
+		return context.lookup(Fixture.VENDOR_ID, product);
+	}
+
+}
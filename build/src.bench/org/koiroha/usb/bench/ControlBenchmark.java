@@ -0,0 +1,140 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.koiroha.usb.*;
+import org.koiroha.usb.desc.Descriptor;
+import org.openjdk.jmh.annotations.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// ControlBenchmark: コントロール転送ベンチマーク
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * 模擬デバイスに対する標準デバイスリクエストの往復時間を計測します。{@code latency} に
+ * デバイスの応答時間 (マイクロ秒) を指定できます。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ControlBenchmark {
+
+	/** デバイスの応答時間 (マイクロ秒) です。 */
+	@Param({ "0", "125" })
+	public long latency;
+
+	/** ベンチマーク環境です。 */
+	private Fixture fixture = null;
+
+	/** 記述子の取得に使用するバッファです。 */
+	private final byte[] buffer = new byte[255];
+
+	// ======================================================================
+	// ベンチマークの準備
+	// ======================================================================
+	/**
+	 * ループバックデバイスをオープンして応答時間を設定します。
+	 * <p>
+	 * @throws USBException デバイスのオープンに失敗した場合
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws USBException{
+		fixture = new Fixture();
+		fixture.model.setControlLatency(latency);
+		return;
+	}
+
+	// ======================================================================
+	// ベンチマークの後処理
+	// ======================================================================
+	/**
+	 * デバイスをクローズします。
+	 * <p>
+	 * @throws USBException クローズに失敗した場合
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws USBException{
+		fixture.dispose();
+		return;
+	}
+
+	// ======================================================================
+	// ステータスの取得
+	// ======================================================================
+	/**
+	 * {@code GET_STATUS} 要求の往復時間を計測します。
+	 * <p>
+	 * @return ステータス
+	 * @throws USBException 要求に失敗した場合
+	 */
+	@Benchmark
+	public int getStatus() throws USBException{
+		return fixture.device.getStatus();
+	}
+
+	// ======================================================================
+	// 記述子の取得
+	// ======================================================================
+	/**
+	 * デバイス記述子を取得する {@code GET_DESCRIPTOR} 要求の往復時間を計測します。デバイス
+	 * 記述子は記述子キャッシュを経由しないため、毎回コントロール転送が実行されます。
+	 * <p>
+	 * @return 転送バイト数
+	 * @throws USBException 要求に失敗した場合
+	 */
+	@Benchmark
+	public int getDescriptor() throws USBException{
+		ControlRequest request = new ControlRequest(0x80, ControlRequest.GET_DESCRIPTOR,
+			(Descriptor.TYPE_DEVICE & 0xFF) << 8, 0, buffer);
+		return fixture.device.deviceRequest(request);
+	}
+
+	// ======================================================================
+	// キャッシュされた記述子の取得
+	// ======================================================================
+	/**
+	 * コンフィギュレーション記述子を取得する {@code GET_DESCRIPTOR} 要求の時間を計測します。
+	 * 最初の要求以降は記述子キャッシュから返されコントロール転送は実行されないため、
+	 * {@link #getDescriptor()} との差がキャッシュによって省略される時間となります。
+	 * <p>
+	 * @return 転送バイト数
+	 * @throws USBException 要求に失敗した場合
+	 */
+	@Benchmark
+	public int getCachedDescriptor() throws USBException{
+		ControlRequest request = new ControlRequest(0x80, ControlRequest.GET_DESCRIPTOR,
+			(Descriptor.TYPE_CONFIGURATION & 0xFF) << 8, 0, buffer);
+		return fixture.device.deviceRequest(request);
+	}
+
+	// ======================================================================
+	// コンフィギュレーションの設定
+	// ======================================================================
+	/**
+	 * データステージを持たない {@code SET_CONFIGURATION} 要求の往復時間を計測します。
+	 * <p>
+	 * @throws USBException 要求に失敗した場合
+	 */
+	@Benchmark
+	public void setConfiguration() throws USBException{
+		fixture.device.setActiveConfiguration(1);
+		return;
+	}
+
+}
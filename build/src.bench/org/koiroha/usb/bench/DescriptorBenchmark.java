@@ -0,0 +1,162 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.bench;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.koiroha.usb.*;
+import org.koiroha.usb.desc.*;
+import org.koiroha.usb.impl.*;
+import org.koiroha.usb.impl.sim.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// DescriptorBenchmark: 記述子解析ベンチマーク
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * デバイス記述子とコンフィギュレーション記述子の解析、および {@link ConfigurationImpl} 以下の
+ * ノードの構築時間を計測します。コンフィギュレーションは {@code interfaces} 個のインター
+ * フェースがそれぞれ 4 つのエンドポイントを持つ構成です。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DescriptorBenchmark {
+
+	/** コンフィギュレーションのインターフェース数です。 */
+	@Param({ "1", "4" })
+	public int interfaces;
+
+	/** 記述子を取得したブリッジです。 */
+	private SimulatedBridge bridge = null;
+
+	/** デバイス記述子のバイナリです。 */
+	private byte[] device = null;
+
+	/** コンフィギュレーション記述子以下のバイナリです。 */
+	private byte[] configuration = null;
+
+	// ======================================================================
+	// ベンチマークの準備
+	// ======================================================================
+	/**
+	 * 模擬デバイスから記述子のバイナリを取得します。
+	 * <p>
+	 * @throws USBException 記述子の取得に失敗した場合
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws USBException{
+		SimulatedDevice model = new SimulatedDevice(Fixture.VENDOR_ID, Fixture.PRODUCT_ID);
+		for(int i=0; i<interfaces; i++){
+			int intf = model.addInterface(0xFF, 0, 0);
+			model.addEndpoint(intf, 0x01 + i * 2, TransferType.BULK, 512, 0);
+			model.addEndpoint(intf, 0x81 + i * 2, TransferType.BULK, 512, 0);
+			model.addEndpoint(intf, 0x02 + i * 2, TransferType.INTERRUPT, 64, 4);
+			model.addEndpoint(intf, 0x82 + i * 2, TransferType.ISOCHRONOUS, 1023, 1);
+		}
+		bridge = new SimulatedBridge();
+		bridge.attach(model);
+		USBContextImpl context = bridge.create();
+		context.sync();
+		Device d = context.lookup().get(0);
+		d.open();
+		device = getDescriptor(d, Descriptor.TYPE_DEVICE, 18);
+		configuration = getDescriptor(d, Descriptor.TYPE_CONFIGURATION, 9);
+		configuration = getDescriptor(d, Descriptor.TYPE_CONFIGURATION,
+			new ConfigurationDescriptor(ByteBuffer.wrap(configuration)).getTotalLength());
+		d.close();
+		context.dispose();
+		return;
+	}
+
+	// ======================================================================
+	// デバイス記述子の解析
+	// ======================================================================
+	/**
+	 * デバイス記述子の解析を計測します。
+	 * <p>
+	 * @return デバイス記述子
+	 */
+	@Benchmark
+	public DeviceDescriptor parseDevice(){
+		return new DeviceDescriptor(ByteBuffer.wrap(device));
+	}
+
+	// ======================================================================
+	// コンフィギュレーション記述子の解析
+	// ======================================================================
+	/**
+	 * コンフィギュレーション記述子単体の解析を計測します。
+	 * <p>
+	 * @return コンフィギュレーション記述子
+	 */
+	@Benchmark
+	public ConfigurationDescriptor parseConfiguration(){
+		return new ConfigurationDescriptor(ByteBuffer.wrap(configuration));
+	}
+
+	// ======================================================================
+	// コンフィギュレーションの構築
+	// ======================================================================
+	/**
+	 * デバイスを構築して {@link ConfigurationImpl} 以下の全てのノードを解析するまでを計測
+	 * します。
+	 * <p>
+	 * @param bh ブラックホール
+	 */
+	@Benchmark
+	public void buildTree(Blackhole bh){
+		DeviceDescriptor desc = new DeviceDescriptor(ByteBuffer.wrap(device));
+		ByteBuffer[] conf = { ByteBuffer.wrap(configuration) };
+		DeviceImpl d = new DeviceImpl(bridge, desc, conf){};
+		for(Configuration c: d.getConfigurations()){
+			for(Interface i: c.getInterfaces()){
+				for(AltSetting a: i.getAltSettings()){
+					for(Endpoint e: a.getEndpoints()){
+						bh.consume(e.getDescriptor());
+					}
+				}
+			}
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 記述子の取得
+	// ======================================================================
+	/**
+	 * {@code GET_DESCRIPTOR} 要求で指定された記述子を取得します。
+	 * <p>
+	 * @param device デバイス
+	 * @param type 記述子のタイプ
+	 * @param length 記述子の長さ
+	 * @return 記述子のバイナリ
+	 * @throws USBException 要求に失敗した場合
+	 */
+	private static byte[] getDescriptor(Device device, byte type, int length) throws USBException{
+		byte[] buffer = new byte[length];
+		ControlRequest request = new ControlRequest(0x80, ControlRequest.GET_DESCRIPTOR, (type & 0xFF) << 8, 0, buffer);
+		int len = device.deviceRequest(request);
+		byte[] desc = new byte[len];
+		System.arraycopy(buffer, 0, desc, 0, len);
+		return desc;
+	}
+
+}
@@ -0,0 +1,145 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.bench;
+
+import java.util.*;
+
+import org.koiroha.usb.*;
+import org.koiroha.usb.impl.USBContextImpl;
+import org.koiroha.usb.impl.sim.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// Fixture: ベンチマーク環境
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * {@link SimulatedBridge} にループバックデバイスを取り付け、オープンしてインターフェースを要求
+ * した状態を用意します。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ */
+final class Fixture {
+
+	// ======================================================================
+	// ベンダー ID
+	// ======================================================================
+	/**
+	 * ベンチマークで使用するデバイスのベンダー ID です。
+	 * <p>
+	 */
+	public static final int VENDOR_ID = 0x1234;
+
+	// ======================================================================
+	// 製品 ID
+	// ======================================================================
+	/**
+	 * ベンチマークで使用するデバイスの製品 ID です。
+	 * <p>
+	 */
+	public static final int PRODUCT_ID = 0x5678;
+
+	// ======================================================================
+	// ブリッジ
+	// ======================================================================
+	/**
+	 * 模擬ブリッジです。
+	 * <p>
+	 */
+	public final SimulatedBridge bridge = new SimulatedBridge();
+
+	// ======================================================================
+	// 模擬デバイス
+	// ======================================================================
+	/**
+	 * 取り付けたループバックデバイスです。
+	 * <p>
+	 */
+	public final SimulatedDevice model = SimulatedDevice.createLoopback(VENDOR_ID, PRODUCT_ID);
+
+	// ======================================================================
+	// コンテキスト
+	// ======================================================================
+	/**
+	 * ブリッジから構築したコンテキストです。
+	 * <p>
+	 */
+	public final USBContextImpl context;
+
+	// ======================================================================
+	// デバイス
+	// ======================================================================
+	/**
+	 * オープン済みのデバイスです。
+	 * <p>
+	 */
+	public final Device device;
+
+	// ======================================================================
+	// エンドポイント
+	// ======================================================================
+	/**
+	 * アドレスをキーとした要求済みインターフェースのエンドポイントです。
+	 * <p>
+	 */
+	private final Map<Integer,Endpoint> endpoints = new HashMap<Integer,Endpoint>();
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * ループバックデバイスを取り付けてオープンし、インターフェースを要求します。
+	 * <p>
+	 * @throws USBException デバイスのオープンに失敗した場合
+	 */
+	public Fixture() throws USBException{
+		model.setSerialNumber("BENCH-0001");
+		bridge.attach(model);
+		context = bridge.create();
+		context.sync();
+		device = context.lookup(VENDOR_ID, PRODUCT_ID).get(0);
+		device.open();
+		Interface intf = device.getConfigurations().get(0).getInterfaces().get(0);
+		intf.claim();
+		for(Endpoint e: intf.getAltSettings().get(0).getEndpoints()){
+			endpoints.put(e.getDescriptor().getEndpointAddress(), e);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// エンドポイントの参照
+	// ======================================================================
+	/**
+	 * 指定されたアドレスのエンドポイントを参照します。
+	 * <p>
+	 * @param address エンドポイントアドレス
+	 * @return エンドポイント
+	 */
+	public Endpoint getEndpoint(int address){
+		return endpoints.get(address);
+	}
+
+	// ======================================================================
+	// 後処理
+	// ======================================================================
+	/**
+	 * デバイスをクローズしてコンテキストを解放します。
+	 * <p>
+	 * @throws USBException 解放に失敗した場合
+	 */
+	public void dispose() throws USBException{
+		device.close();
+		context.dispose();
+		return;
+	}
+
+}
@@ -0,0 +1,159 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.koiroha.usb.*;
+import org.koiroha.usb.util.*;
+import org.openjdk.jmh.annotations.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// StreamBenchmark: バルクストリームベンチマーク
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * {@code size} バイトの小さな読み書きについて、エンドポイントへの直接の転送と
+ * {@link BulkInputStream}/{@link BulkOutputStream} を経由した転送を比較します。エンドポイント
+ * には {@code latency} マイクロ秒の応答時間を設定します。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamBenchmark {
+
+	/** 1 回の読み書きのサイズです。 */
+	@Param({ "16", "200" })
+	public int size;
+
+	/** 1 回の転送の応答時間 (マイクロ秒) です。 */
+	@Param({ "0", "50" })
+	public long latency;
+
+	/** ベンチマーク環境です。 */
+	private Fixture fixture = null;
+
+	/** 書き込み専用 BULK OUT エンドポイント (0x02) です。 */
+	private Endpoint sink = null;
+
+	/** 読み込み専用 BULK IN エンドポイント (0x82) です。 */
+	private Endpoint source = null;
+
+	/** 出力ストリームです。 */
+	private BulkOutputStream out = null;
+
+	/** 入力ストリームです。 */
+	private BulkInputStream in = null;
+
+	/** 読み書きに使用する配列です。 */
+	private byte[] array = null;
+
+	// ======================================================================
+	// ベンチマークの準備
+	// ======================================================================
+	/**
+	 * ループバックデバイスをオープンしてストリームを構築します。
+	 * <p>
+	 * @throws USBException デバイスのオープンに失敗した場合
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws USBException{
+		fixture = new Fixture();
+		fixture.model.getEndpoint(0x02).setLatency(latency);
+		fixture.model.getEndpoint(0x82).setLatency(latency);
+		sink = fixture.getEndpoint(0x02);
+		source = fixture.getEndpoint(0x82);
+		out = new BulkOutputStream(sink);
+		in = new BulkInputStream(source);
+		array = new byte[size];
+		return;
+	}
+
+	// ======================================================================
+	// ベンチマークの後処理
+	// ======================================================================
+	/**
+	 * ストリームをクローズしてデバイスをクローズします。
+	 * <p>
+	 * @throws IOException クローズに失敗した場合
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException{
+		out.close();
+		in.close();
+		fixture.dispose();
+		return;
+	}
+
+	// ======================================================================
+	// 直接の書き込み
+	// ======================================================================
+	/**
+	 * エンドポイントへ直接書き込みます。
+	 * <p>
+	 * @throws USBException 転送に失敗した場合
+	 */
+	@Benchmark
+	public void writeDirect() throws USBException{
+		sink.write(array, 0, size, 1000);
+		return;
+	}
+
+	// ======================================================================
+	// ストリームへの書き込み
+	// ======================================================================
+	/**
+	 * 出力ストリームへ書き込みます。
+	 * <p>
+	 * @throws IOException 転送に失敗した場合
+	 */
+	@Benchmark
+	public void writeStream() throws IOException{
+		out.write(array, 0, size);
+		return;
+	}
+
+	// ======================================================================
+	// 直接の読み込み
+	// ======================================================================
+	/**
+	 * エンドポイントから直接読み込みます。
+	 * <p>
+	 * @return 読み込んだ長さ
+	 * @throws USBException 転送に失敗した場合
+	 */
+	@Benchmark
+	public int readDirect() throws USBException{
+		return source.read(array, 0, size, 1000);
+	}
+
+	// ======================================================================
+	// ストリームからの読み込み
+	// ======================================================================
+	/**
+	 * 入力ストリームから読み込みます。
+	 * <p>
+	 * @return 読み込んだ長さ
+	 * @throws IOException 転送に失敗した場合
+	 */
+	@Benchmark
+	public int readStream() throws IOException{
+		return in.read(array, 0, size);
+	}
+
+}
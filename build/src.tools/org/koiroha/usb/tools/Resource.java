@@ -10,6 +10,7 @@
 */
 package org.koiroha.usb.tools;
 
+import java.io.*;
 import java.net.URL;
 import java.util.*;
 import java.util.logging.Level;
@@ -63,8 +64,23 @@ public final class Resource {
 		Thread t = new Thread(){
 			@Override
 			public void run(){
-				URL url = getResource("org/koiroha/usb/tools/usb.ids");
 				try{
+					// ビルド時に作成されたデータベースがあれば使用
+					URL db = getResource("org/koiroha/usb/tools/usb.ids.db");
+					if(db != null){
+						if(db.getProtocol().equals("file")){
+							classID = ClassID.getClassIDFromDatabase(new File(db.toURI()));
+						} else {
+							InputStream in = db.openStream();
+							try{
+								classID = ClassID.getClassIDFromDatabase(in);
+							} finally {
+								in.close();
+							}
+						}
+						return;
+					}
+					URL url = getResource("org/koiroha/usb/tools/usb.ids");
 					classID = ClassID.getClassIDFromIDS(url);
 				} catch(Exception ex){
 					throw new RuntimeException(ex);
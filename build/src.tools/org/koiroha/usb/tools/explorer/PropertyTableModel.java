@@ -19,6 +19,7 @@ import javax.swing.table.*;
 
 import org.koiroha.usb.*;
 import org.koiroha.usb.desc.*;
+import org.koiroha.usb.impl.*;
 import org.koiroha.usb.tools.Resource;
 
 // ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
@@ -60,6 +61,33 @@ public class PropertyTableModel extends AbstractTableModel {
 	 */
 	private final List<String[]> prop = new ArrayList<String[]>();
 
+	// ======================================================================
+	// 転送メトリクス
+	// ======================================================================
+	/**
+	 * 表示中の転送メトリクスです。表示していない場合は null です。
+	 * <p>
+	 */
+	private TransferMetrics metrics = null;
+
+	// ======================================================================
+	// 転送メトリクスの表示位置
+	// ======================================================================
+	/**
+	 * 転送メトリクスを表示している先頭の行です。
+	 * <p>
+	 */
+	private int metricsRow = -1;
+
+	// ======================================================================
+	// 前回の統計
+	// ======================================================================
+	/**
+	 * スループットの算出に使用する前回表示した統計です。
+	 * <p>
+	 */
+	private TransferStatistics previous = null;
+
 	// ======================================================================
 	// コンストラクタ
 	// ======================================================================
@@ -87,6 +115,7 @@ public class PropertyTableModel extends AbstractTableModel {
 			fireTableRowsDeleted(0, prop.size()-1);
 		}
 		prop.clear();
+		metrics = null;
 		if(desc == null){
 			return;
 		}
@@ -230,6 +259,7 @@ public class PropertyTableModel extends AbstractTableModel {
 			fireTableRowsDeleted(0, prop.size()-1);
 		}
 		prop.clear();
+		metrics = null;
 
 		SortedMap<String,String> map = new TreeMap<String, String>();
 		for(Map.Entry<Object,Object> e: p.entrySet()){
@@ -245,6 +275,66 @@ public class PropertyTableModel extends AbstractTableModel {
 		return;
 	}
 
+	// ======================================================================
+	// 転送メトリクスの設定
+	// ======================================================================
+	/**
+	 * 現在の表示の末尾に指定された転送メトリクスを追加します。表示内容は
+	 * {@link #refreshMetrics()} の呼び出しで更新されます。
+	 * <p>
+	 * @param m 転送メトリクス
+	 */
+	public void setMetrics(TransferMetrics m){
+		metrics = m;
+		metricsRow = prop.size();
+		previous = m.getStatistics();
+		for(int i=0; i<4; i++){
+			prop.add(new String[3]);
+		}
+		setMetricsRows(previous, 0.0);
+		fireTableRowsInserted(metricsRow, prop.size()-1);
+		return;
+	}
+
+	// ======================================================================
+	// 転送メトリクスの更新
+	// ======================================================================
+	/**
+	 * 表示中の転送メトリクスを最新の値に更新します。転送メトリクスを表示していない場合は
+	 * 何も行いません。
+	 * <p>
+	 */
+	public void refreshMetrics(){
+		if(metrics == null){
+			return;
+		}
+		TransferStatistics stat = metrics.getStatistics();
+		setMetricsRows(stat, stat.getThroughput(previous));
+		previous = stat;
+		fireTableRowsUpdated(metricsRow, prop.size()-1);
+		return;
+	}
+
+	// ======================================================================
+	// 転送メトリクス行の設定
+	// ======================================================================
+	/**
+	 * 指定された統計で転送メトリクスの行を設定します。
+	 * <p>
+	 * @param stat 統計
+	 * @param throughput スループット (バイト/秒)
+	 */
+	private void setMetricsRows(TransferStatistics stat, double throughput){
+		prop.set(metricsRow, new String[]{"<html><i>Transfers", "",
+			String.format("%d (timeout %d, error %d)", stat.getTransferCount(), stat.getTimeoutCount(), stat.getErrorCount())});
+		prop.set(metricsRow + 1, new String[]{"<html><i>Bytes", "", RS.format("bytes", stat.getByteCount())});
+		prop.set(metricsRow + 2, new String[]{"<html><i>Throughput", "", String.format("%.1f KB/s", throughput / 1024)});
+		prop.set(metricsRow + 3, new String[]{"<html><i>Latency", "",
+			String.format("avg %.1f\u03bcs, p50<%d\u03bcs, p99<%d\u03bcs",
+				stat.getAverageLatency(), stat.getLatencyPercentile(0.5), stat.getLatencyPercentile(0.99))});
+		return;
+	}
+
 	// ======================================================================
 	// プロパティの追加
 	// ======================================================================
@@ -23,6 +23,7 @@ import javax.swing.tree.TreePath;
 
 import org.koiroha.usb.*;
 import org.koiroha.usb.desc.*;
+import org.koiroha.usb.impl.*;
 import org.koiroha.usb.impl.libusb.LibUSB0;
 import org.koiroha.usb.tools.*;
 
@@ -101,6 +102,20 @@ public class USBExplorer extends JFrame {
 	 */
 	private final JButton open = new JButton();
 
+	// ======================================================================
+	// 転送メトリクスの更新
+	// ======================================================================
+	/**
+	 * 表示中の転送メトリクスを 1 秒ごとに更新するためのタイマーです。
+	 * <p>
+	 */
+	private final Timer timer = new Timer(1000, new ActionListener(){
+		public void actionPerformed(ActionEvent e) {
+			tableModel.refreshMetrics();
+			return;
+		}
+	});
+
 	// ======================================================================
 	// コンストラクタ
 	// ======================================================================
@@ -206,6 +221,7 @@ public class USBExplorer extends JFrame {
 		this.addWindowListener(new WindowAdapter(){
 			@Override
 			public void windowClosing(WindowEvent e) {
+				timer.stop();
 				treeModel.release();
 				return;
 			}
@@ -306,6 +322,7 @@ public class USBExplorer extends JFrame {
 		if(path == null){
 			open.setIcon(RS.getIcon("open.png"));
 			open.setEnabled(false);
+			timer.stop();
 			return;
 		}
 
@@ -334,6 +351,17 @@ public class USBExplorer extends JFrame {
 			tableModel.setDescriptor(device, (Descriptor)value);
 		}
 
+		// デバイスとエンドポイントは転送メトリクスを表示
+		if(value instanceof DeviceImpl){
+			tableModel.setMetrics(((DeviceImpl)value).getMetrics());
+			timer.start();
+		} else if(value instanceof EndpointImpl){
+			tableModel.setMetrics(((EndpointImpl)value).getMetrics());
+			timer.start();
+		} else {
+			timer.stop();
+		}
+
 		// デバイスオープンボタンの状態設定
 		if(value instanceof Device){
 			open.setEnabled(true);
@@ -67,21 +67,50 @@ public class Ids2Xml {
 	/**
 	 * アプリケーションを実行します。
 	 * <p>
+	 * <pre>
+	 * java org.koiroha.usb.tools.ids2xml.Ids2Xml [-db] [-o 出力ファイル] [IDS ファイルの URL]
+	 * </pre>
+	 * {@code -db} を指定した場合は XML の代わりに {@link ClassID#getClassIDFromDatabase(File)}
+	 * で読み込むことの出来るバイナリ形式のデータベースを出力します。
+	 * <p>
 	 * @param args コマンドライン引数
-	 * @throws IOException 読み込みまたは書き込みに失敗した場合
+	 * @throws Exception 読み込みまたは書き込みに失敗した場合
 	 */
-	public static void main(String[] args) throws IOException{
+	public static void main(String[] args) throws Exception{
 		Charset charset = Charset.defaultCharset();
 		URL url = new URL("http://www.linux-usb.org/usb.ids");
-		Writer out = new OutputStreamWriter(System.out);
+		File file = null;
+		boolean database = false;
 
 		// コマンドライン引数の解析
-		// TODO
+		for(int i=0; i<args.length; i++){
+			if(args[i].equals("-db")){
+				database = true;
+			} else if(args[i].equals("-o") && i + 1 < args.length){
+				file = new File(args[++i]);
+			} else {
+				url = new URL(new File(".").toURI().toURL(), args[i]);
+			}
+		}
 
-		Reader in = ClassID.getIDSToClassIDStream(new InputStreamReader(url.openStream(), charset));
-		convert(in, out);
-		out.flush();
-		in.close();
+		OutputStream os = (file == null)? System.out: new FileOutputStream(file);
+		try{
+			// バイナリ形式のデータベースを出力
+			if(database){
+				ClassID.getClassIDFromIDS(url).writeDatabase(os);
+				return;
+			}
+
+			Writer out = new OutputStreamWriter(os);
+			Reader in = ClassID.getIDSToClassIDStream(new InputStreamReader(url.openStream(), charset));
+			convert(in, out);
+			out.flush();
+			in.close();
+		} finally {
+			if(file != null){
+				os.close();
+			}
+		}
 		return;
 	}
 
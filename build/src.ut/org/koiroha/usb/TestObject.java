@@ -11,8 +11,9 @@
 package org.koiroha.usb;
 
 import java.io.*;
-import java.util.Date;
+import java.util.*;
 import java.util.logging.*;
+import java.util.logging.Formatter;
 
 import org.junit.BeforeClass;
 
@@ -77,4 +78,42 @@ public class TestObject {
 		return;
 	}
 
+	// ======================================================================
+	// デバイスのオープン
+	// ======================================================================
+	/**
+	 * 指定されたコンテキストを同期して最初のデバイスをオープンし、最初のコンフィギュレーション
+	 * の最初のインターフェースを要求します。
+	 * <p>
+	 * @param context コンテキスト
+	 * @return オープンしたデバイス
+	 * @throws USBException デバイスのオープンに失敗した場合
+	 */
+	protected static Device openDevice(USBContext context) throws USBException{
+		context.sync();
+		Device device = context.lookup().get(0);
+		device.open();
+		device.getConfigurations().get(0).getInterfaces().get(0).claim();
+		return device;
+	}
+
+	// ======================================================================
+	// エンドポイントの参照
+	// ======================================================================
+	/**
+	 * 指定されたデバイスの最初のコンフィギュレーション、インターフェース、代替設定の
+	 * エンドポイントをアドレス {@code bEndpointAddress} をキーとして記述子の順に返します。
+	 * <p>
+	 * @param device デバイス
+	 * @return エンドポイント
+	 */
+	protected static Map<Integer,Endpoint> getEndpoints(Device device){
+		Interface intf = device.getConfigurations().get(0).getInterfaces().get(0);
+		Map<Integer,Endpoint> endpoints = new LinkedHashMap<Integer,Endpoint>();
+		for(Endpoint e: intf.getAltSettings().get(0).getEndpoints()){
+			endpoints.put(e.getDescriptor().getEndpointAddress(), e);
+		}
+		return endpoints;
+	}
+
 }
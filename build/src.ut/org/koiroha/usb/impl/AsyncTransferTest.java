@@ -0,0 +1,340 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.*;
+import org.koiroha.usb.*;
+import org.koiroha.usb.event.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// AsyncTransferTest: 非同期転送テスト
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * {@link MemoryBridge} を使用した非同期転送のテストケースです。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ */
+public class AsyncTransferTest extends TestObject {
+
+	/** ログ出力先です。 */
+	private static final java.util.logging.Logger logger = java.util.logging.Logger.getLogger(AsyncTransferTest.class.getName());
+
+	/** テスト対象のブリッジです。 */
+	private MemoryBridge bridge = null;
+
+	/** テスト対象のデバイスです。 */
+	private Device device = null;
+
+	/** BULK OUT エンドポイントです。 */
+	private Endpoint out = null;
+
+	/** BULK IN エンドポイントです。 */
+	private Endpoint in = null;
+
+	/** INTERRUPT IN エンドポイントです。 */
+	private Endpoint intr = null;
+
+	// ======================================================================
+	// テストの準備
+	// ======================================================================
+	/**
+	 * メモリブリッジのデバイスをオープンしてインターフェースを要求します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Before
+	public void setUp() throws Exception{
+		bridge = new MemoryBridge();
+		device = openDevice(bridge.create());
+		Map<Integer,Endpoint> endpoints = getEndpoints(device);
+		out = endpoints.get(0x02);
+		in = endpoints.get(0x81);
+		intr = endpoints.get(0x83);
+		return;
+	}
+
+	// ======================================================================
+	// テストの後処理
+	// ======================================================================
+	/**
+	 * デバイスをクローズします。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@After
+	public void tearDown() throws Exception{
+		device.close();
+		return;
+	}
+
+	// ======================================================================
+	// 転送順序のテスト
+	// ======================================================================
+	/**
+	 * {@link Endpoint#submit(byte[], int, int, int, TransferListener)} のためのテスト・メソッド。
+	 * 発行順に転送が実行され完了通知される事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testOrdering() throws Exception{
+		final int count = 200;
+		bridge.setLatency(1);
+		out.setQueueDepth(8);
+		in.setQueueDepth(8);
+
+		// 完了通知の順序を記録
+		final List<AsyncTransfer> completed = Collections.synchronizedList(new ArrayList<AsyncTransfer>());
+		TransferListener l = new TransferListener(){
+			public void transferCompleted(TransferEvent e){
+				completed.add(e.getTransfer());
+			}
+		};
+
+		// 書き込みと読み込みを交互に発行
+		long t0 = System.currentTimeMillis();
+		List<AsyncTransfer> reads = new ArrayList<AsyncTransfer>();
+		List<AsyncTransfer> writes = new ArrayList<AsyncTransfer>();
+		for(int i=0; i<count; i++){
+			writes.add(out.submit(new byte[]{ (byte)i, 0, 0 }, 0, 3, 1000, l));
+			reads.add(in.submit(new byte[MemoryBridge.MAX_PACKET_SIZE], 0, MemoryBridge.MAX_PACKET_SIZE, 1000, l));
+		}
+
+		// 全ての読み込みが書き込み順のデータを受信している事を確認
+		for(int i=0; i<count; i++){
+			AsyncTransfer t = reads.get(i);
+			assertEquals(3, t.get().intValue());
+			assertEquals((byte)i, t.getBuffer()[0]);
+			assertEquals(3, writes.get(i).get().intValue());
+		}
+		long t1 = System.currentTimeMillis();
+		logger.info(String.format("%d transfers in %dms", count * 2, t1 - t0));
+		awaitSize(completed, count * 2);
+
+		// エンドポイントごとの完了通知順序を確認
+		List<AsyncTransfer> r = new ArrayList<AsyncTransfer>();
+		List<AsyncTransfer> w = new ArrayList<AsyncTransfer>();
+		synchronized(completed){
+			for(AsyncTransfer t: completed){
+				((t.getEndpoint() == in)? r: w).add(t);
+			}
+		}
+		assertEquals(reads, r);
+		assertEquals(writes, w);
+		return;
+	}
+
+	// ======================================================================
+	// キュー深さのテスト
+	// ======================================================================
+	/**
+	 * {@link Endpoint#setQueueDepth(int)} のためのテスト・メソッド。
+	 * キュー深さを超える発行が待機する事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testQueueDepth() throws Exception{
+		in.setQueueDepth(2);
+		assertEquals(2, in.getQueueDepth());
+		in.submit(new byte[64], 0, 64, 5000, null);
+		in.submit(new byte[64], 0, 64, 5000, null);
+
+		// 3 つ目の発行は待機する
+		final AsyncTransfer[] third = new AsyncTransfer[1];
+		Thread thread = new Thread(){
+			@Override
+			public void run(){
+				try{
+					third[0] = in.submit(new byte[64], 0, 64, 5000, null);
+				} catch(USBException ex){
+					ex.printStackTrace();
+				}
+			}
+		};
+		thread.start();
+		thread.join(300);
+		assertTrue(thread.isAlive());
+
+		// データの到着で先頭の転送が完了し 3 つ目が発行される
+		out.write(new byte[]{ 1 }, 0, 1, 1000);
+		thread.join(3000);
+		assertFalse(thread.isAlive());
+		assertNotNull(third[0]);
+
+		// 残りの転送を完了
+		out.write(new byte[]{ 2 }, 0, 1, 1000);
+		out.write(new byte[]{ 3 }, 0, 1, 1000);
+		assertEquals(1, third[0].get(3, TimeUnit.SECONDS).intValue());
+		assertEquals(3, third[0].getBuffer()[0]);
+		return;
+	}
+
+	// ======================================================================
+	// 中断のテスト
+	// ======================================================================
+	/**
+	 * {@link AsyncTransfer#cancel(boolean)} のためのテスト・メソッド。
+	 * 実行待ちの転送が中断できる事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testCancel() throws Exception{
+		in.setQueueDepth(2);
+		final List<TransferEvent> events = new ArrayList<TransferEvent>();
+		TransferListener l = new TransferListener(){
+			public void transferCompleted(TransferEvent e){
+				synchronized(events){
+					events.add(e);
+				}
+			}
+		};
+		AsyncTransfer first = in.submit(new byte[64], 0, 64, 5000, l);
+		AsyncTransfer second = in.submit(new byte[64], 0, 64, 5000, l);
+
+		// 実行待ちの転送を中断
+		Thread.sleep(100);
+		assertTrue(second.cancel(true));
+		assertTrue(second.isCancelled());
+		assertTrue(second.isDone());
+		assertFalse(second.cancel(true));
+		try{
+			second.get();
+			fail();
+		} catch(CancellationException ex){/* */}
+
+		// 中断後も先頭の転送は完了する
+		out.write(new byte[]{ 9 }, 0, 1, 1000);
+		assertEquals(1, first.get(3, TimeUnit.SECONDS).intValue());
+		awaitSize(events, 2);
+		synchronized(events){
+			assertEquals(2, events.size());
+			assertTrue(events.get(0).isCancelled());
+			assertEquals(-1, events.get(0).getLength());
+			assertEquals(1, events.get(1).getLength());
+		}
+
+		// 中断された転送はキューを解放している
+		AsyncTransfer t = in.submit(new byte[64], 0, 64, 1000, null);
+		out.write(new byte[]{ 10 }, 0, 1, 1000);
+		assertEquals(1, t.get(3, TimeUnit.SECONDS).intValue());
+		return;
+	}
+
+	// ======================================================================
+	// 失敗のテスト
+	// ======================================================================
+	/**
+	 * {@link AsyncTransfer#get()} のためのテスト・メソッド。
+	 * 転送の失敗が {@link ExecutionException} として通知される事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testFailure() throws Exception{
+		AsyncTransfer t = in.submit(new byte[64], 0, 64, 100, null);
+		try{
+			t.get();
+			fail();
+		} catch(ExecutionException ex){
+			assertTrue(ex.getCause() instanceof org.koiroha.usb.TimeoutException);
+		}
+		assertTrue(t.isDone());
+		assertFalse(t.isCancelled());
+
+		// ブリッジへの発行に失敗した転送は例外で終了しキューを解放
+		final List<TransferEvent> events = new ArrayList<TransferEvent>();
+		TransferListener l = new TransferListener(){
+			public void transferCompleted(TransferEvent e){
+				events.add(e);
+				return;
+			}
+		};
+		bridge.setSubmitFailure(true);
+		for(int i=0; i<in.getQueueDepth() + 1; i++){
+			try{
+				in.submit(new byte[64], 0, 64, 100, l);
+				fail();
+			} catch(USBException ex){/* */}
+		}
+		assertEquals(in.getQueueDepth() + 1, events.size());
+		assertTrue(events.get(0).getException() instanceof USBException);
+		bridge.setSubmitFailure(false);
+		out.write(new byte[]{ 1 }, 0, 1, 1000);
+		assertEquals(1, in.submit(new byte[64], 0, 64, 1000, null).get().intValue());
+		return;
+	}
+
+	// ======================================================================
+	// 割り込み転送のテスト
+	// ======================================================================
+	/**
+	 * {@link Endpoint#submit(byte[], int, int, int, TransferListener)} のためのテスト・メソッド。
+	 * 割り込み転送とサポートしない引数を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testInterrupt() throws Exception{
+		intr.setQueueDepth(4);
+		List<AsyncTransfer> list = new ArrayList<AsyncTransfer>();
+		for(int i=0; i<10; i++){
+			list.add(intr.submit(new byte[8], 0, 8, 1000, null));
+		}
+		for(int i=0; i<10; i++){
+			assertEquals(4, list.get(i).get().intValue());
+			assertEquals((byte)i, list.get(i).getBuffer()[0]);
+		}
+
+		try{
+			intr.submit(new byte[8], 4, 8, 1000, null);
+			fail();
+		} catch(IndexOutOfBoundsException ex){/* */}
+		try{
+			intr.setQueueDepth(0);
+			fail();
+		} catch(IllegalArgumentException ex){/* */}
+		return;
+	}
+
+	// ======================================================================
+	// 完了通知の待機
+	// ======================================================================
+	/**
+	 * リスナへの通知は {@link AsyncTransfer#get()} の復帰と前後するため、指定された
+	 * リストが指定件数に達するまで待機します。
+	 * <p>
+	 * @param list 通知を記録するリスト
+	 * @param size 待機する件数
+	 * @throws InterruptedException 割り込みが発生した場合
+	 */
+	private static void awaitSize(List<?> list, int size) throws InterruptedException{
+		long limit = System.currentTimeMillis() + 3000;
+		while(System.currentTimeMillis() < limit){
+			synchronized(list){
+				if(list.size() >= size){
+					return;
+				}
+			}
+			Thread.sleep(10);
+		}
+		return;
+	}
+
+}
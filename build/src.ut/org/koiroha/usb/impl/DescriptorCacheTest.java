@@ -0,0 +1,271 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.junit.*;
+import org.koiroha.usb.*;
+import org.koiroha.usb.desc.Descriptor;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// DescriptorCacheTest: 記述子キャッシュテスト
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * {@link MemoryBridge} を使用した記述子キャッシュのテストケースです。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ */
+public class DescriptorCacheTest extends TestObject {
+
+	/** テスト対象のブリッジです。 */
+	private MemoryBridge bridge = null;
+
+	/** テスト対象のコンテキストです。 */
+	private USBContextImpl context = null;
+
+	// ======================================================================
+	// テストの準備
+	// ======================================================================
+	/**
+	 * メモリブリッジのコンテキストを構築します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Before
+	public void setUp() throws Exception{
+		bridge = new MemoryBridge();
+		context = bridge.create();
+		context.sync();
+		return;
+	}
+
+	// ======================================================================
+	// テストの後処理
+	// ======================================================================
+	/**
+	 * コンテキストを解放します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@After
+	public void tearDown() throws Exception{
+		context.dispose();
+		return;
+	}
+
+	// ======================================================================
+	// 文字列記述子のテスト
+	// ======================================================================
+	/**
+	 * {@link DeviceImpl#getString(int, int)} のためのテスト・メソッド。2 回目以降の
+	 * 取得でデバイスへの要求が行われない事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testCachedString() throws Exception{
+		Device device = context.lookup().get(0);
+		device.open();
+		try{
+			// キーの決定で言語 ID とシリアル番号を 1 度だけ読み込む
+			int count = bridge.getDescriptorCount();
+			assertEquals("Memory Device", device.getString(2, 0x0409));
+			assertEquals(count + 3, bridge.getDescriptorCount());
+			count += 2;
+
+			// 2 回目以降はキャッシュから返される
+			assertEquals("Memory Device", device.getString(2, 0x0409));
+			assertEquals("SN1", device.getString(3, 0x0409));
+			assertEquals("SN1", device.getString(3, 0x0409));
+			assertEquals(0x0409, device.getLangID()[0]);
+			assertEquals(count + 3, bridge.getDescriptorCount());
+			assertEquals(2, context.getDescriptorCache().getHitCount());
+
+			// 失敗した要求はキャッシュされない
+			try{
+				device.getString(9, 0x0409);
+				fail();
+			} catch(USBException ex){/* */}
+			try{
+				device.getString(9, 0x0409);
+				fail();
+			} catch(USBException ex){/* */}
+			assertEquals(count + 5, bridge.getDescriptorCount());
+		} finally {
+			device.close();
+		}
+		return;
+	}
+
+	// ======================================================================
+	// コンフィギュレーション記述子とクラス固有記述子のテスト
+	// ======================================================================
+	/**
+	 * {@link DeviceImpl#deviceRequest(ControlRequest)} のためのテスト・メソッド。
+	 * GET_DESCRIPTOR 要求によるコンフィギュレーション記述子とインターフェース宛ての
+	 * クラス固有記述子がキャッシュから返される事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testCachedRequest() throws Exception{
+		Device device = context.lookup().get(0);
+		device.open();
+		try{
+			int count = bridge.getDescriptorCount() + 2;
+
+			// 先頭部分の要求は同じ長さ以下の要求にのみ使用される
+			byte[] head = new byte[9];
+			assertEquals(9, device.deviceRequest(getDescriptor(ControlRequest.RCPT_DEVICE, Descriptor.TYPE_CONFIGURATION, 0, head)));
+			assertEquals(4, device.deviceRequest(getDescriptor(ControlRequest.RCPT_DEVICE, Descriptor.TYPE_CONFIGURATION, 0, new byte[4])));
+			assertEquals(count + 1, bridge.getDescriptorCount());
+			int total = (head[2] & 0xFF) | ((head[3] & 0xFF) << 8);
+			byte[] conf = new byte[total];
+			assertEquals(total, device.deviceRequest(getDescriptor(ControlRequest.RCPT_DEVICE, Descriptor.TYPE_CONFIGURATION, 0, conf)));
+			assertEquals(count + 2, bridge.getDescriptorCount());
+
+			// 記述子全体を超える要求も記述子全体のキャッシュから返される
+			byte[] large = new byte[total + 16];
+			assertEquals(total, device.deviceRequest(getDescriptor(ControlRequest.RCPT_DEVICE, Descriptor.TYPE_CONFIGURATION, 0, large)));
+			assertEquals(count + 3, bridge.getDescriptorCount());
+			byte[] again = new byte[total + 16];
+			assertEquals(total, device.deviceRequest(getDescriptor(ControlRequest.RCPT_DEVICE, Descriptor.TYPE_CONFIGURATION, 0, again)));
+			assertEquals(conf[total - 1], again[total - 1]);
+			assertEquals(count + 3, bridge.getDescriptorCount());
+
+			// インターフェース宛てのクラス固有記述子
+			int len = MemoryBridge.REPORT_DESCRIPTOR.length;
+			for(int i=0; i<3; i++){
+				byte[] report = new byte[len + 1];
+				assertEquals(len, device.deviceRequest(getDescriptor(ControlRequest.RCPT_INTERFACE, MemoryBridge.TYPE_REPORT, 0, report)));
+				assertEquals(MemoryBridge.REPORT_DESCRIPTOR[len - 1], report[len - 1]);
+			}
+			assertEquals(count + 4, bridge.getDescriptorCount());
+		} finally {
+			device.close();
+		}
+		return;
+	}
+
+	// ======================================================================
+	// GET_DESCRIPTOR 要求の構築
+	// ======================================================================
+	/**
+	 * 指定された宛先への GET_DESCRIPTOR 要求を構築します。
+	 * <p>
+	 * @param recipient 宛先
+	 * @param type 記述子のタイプ
+	 * @param index 言語 ID またはインターフェース番号
+	 * @param buffer 受信バッファ
+	 * @return デバイスリクエスト
+	 */
+	private static ControlRequest getDescriptor(int recipient, byte type, int index, byte[] buffer){
+		return new ControlRequest(ControlRequest.DIR.IN, ControlRequest.TYPE.STANDARD, recipient,
+			ControlRequest.GET_DESCRIPTOR, (type & 0xFF) << 8, index, buffer);
+	}
+
+	// ======================================================================
+	// 保存と読み込みのテスト
+	// ======================================================================
+	/**
+	 * {@link DescriptorCache#save(File)} と {@link DescriptorCache#load(File)} の
+	 * ためのテスト・メソッド。保存した内容を別のコンテキストで使用できる事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testSnapshot() throws Exception{
+		Device device = context.lookup().get(0);
+		device.open();
+		device.getString(1, 0x0409);
+		device.getString(2, 0x0409);
+		device.close();
+		File file = File.createTempFile("usb4j", ".cache");
+		try{
+			context.getDescriptorCache().save(file);
+
+			// 読み込んだ内容はシリアル番号の確認のみで使用される
+			MemoryBridge bridge2 = new MemoryBridge();
+			USBContextImpl context2 = bridge2.create();
+			context2.getDescriptorCache().load(file);
+			context2.sync();
+			Device device2 = context2.lookup().get(0);
+			device2.open();
+			assertEquals("koiroha.org", device2.getString(1, 0x0409));
+			assertEquals("Memory Device", device2.getString(2, 0x0409));
+			assertEquals(2, bridge2.getDescriptorCount());
+			device2.close();
+			context2.dispose();
+
+			// 同じ位置に接続された同じ製品の別の個体には使用されない
+			MemoryBridge bridge3 = new MemoryBridge();
+			bridge3.setSerialPrefix("XX");
+			USBContextImpl context3 = bridge3.create();
+			context3.getDescriptorCache().load(file);
+			context3.sync();
+			Device device3 = context3.lookup().get(0);
+			device3.open();
+			assertEquals("XX1", device3.getString(3, 0x0409));
+			assertEquals("koiroha.org", device3.getString(1, 0x0409));
+			assertEquals(4, bridge3.getDescriptorCount());
+			device3.close();
+			context3.dispose();
+		} finally {
+			file.delete();
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 破棄のテスト
+	// ======================================================================
+	/**
+	 * {@link DeviceImpl#reset()} と取り外しのためのテスト・メソッド。リセットや取り外し
+	 * の後はデバイスから記述子を取得し直す事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testInvalidate() throws Exception{
+		Device device = context.lookup().get(0);
+		device.open();
+		device.getString(2, 0x0409);
+		device.reset();
+
+		// リセット後のデバイスは再取得される
+		context.sync();
+		device = context.lookup().get(0);
+		device.open();
+		int count = bridge.getDescriptorCount();
+		device.getString(2, 0x0409);
+		assertEquals(count + 3, bridge.getDescriptorCount());
+		device.close();
+
+		// 取り外して再度取り付けたデバイスは再取得される
+		bridge.detach(1);
+		context.sync();
+		bridge.attach(1, MemoryBridge.PRODUCT_ID);
+		context.sync();
+		device = context.lookup().get(0);
+		device.open();
+		count = bridge.getDescriptorCount();
+		device.getString(2, 0x0409);
+		assertEquals(count + 3, bridge.getDescriptorCount());
+		device.close();
+		return;
+	}
+
+}
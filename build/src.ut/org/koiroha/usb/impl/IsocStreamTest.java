@@ -0,0 +1,335 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.impl;
+
+import static org.junit.Assert.*;
+
+import java.nio.*;
+import java.util.*;
+
+import org.junit.*;
+import org.koiroha.usb.*;
+import org.koiroha.usb.event.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// IsocStreamTest: 等時間隔ストリームテスト
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * {@link MemoryBridge} を使用した多重バッファ等時間隔受信のテストケースです。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ */
+public class IsocStreamTest extends TestObject {
+
+	/** 1 回の転送のフレーム数です。 */
+	private static final int FRAMES = 4;
+
+	/** テスト対象のブリッジです。 */
+	private MemoryBridge bridge = null;
+
+	/** テスト対象のデバイスです。 */
+	private Device device = null;
+
+	/** ISOCHRONOUS IN エンドポイントです。 */
+	private Endpoint isoc = null;
+
+	// ======================================================================
+	// テストの準備
+	// ======================================================================
+	/**
+	 * メモリブリッジのデバイスをオープンしてインターフェースを要求します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Before
+	public void setUp() throws Exception{
+		bridge = new MemoryBridge();
+		device = openDevice(bridge.create());
+		isoc = getEndpoints(device).get(0x84);
+		return;
+	}
+
+	// ======================================================================
+	// テストの後処理
+	// ======================================================================
+	/**
+	 * デバイスをクローズします。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@After
+	public void tearDown() throws Exception{
+		isoc.stopIsocRead();
+		device.close();
+		return;
+	}
+
+	// ======================================================================
+	// 連続受信のテスト
+	// ======================================================================
+	/**
+	 * {@link Endpoint#startIsocStream(IsocTransferListener, long, int, int, int)} のための
+	 * テスト・メソッド。開始フレームが連続し、データを取りこぼさない事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testContinuousFrames() throws Exception{
+		Recorder r = new Recorder(true);
+		IsocStream s = isoc.startIsocStream(r, 100, FRAMES, 64, 4);
+		assertEquals(4, s.getBufferCount());
+		r.await(20);
+		s.stop();
+		r.awaitStopped();
+		assertFalse(s.isActive());
+
+		// 開始フレームが連続し各フレームにフレーム番号が格納されている
+		long expected = 100;
+		for(long[] frames: r.frames){
+			assertEquals(expected, frames[0]);
+			for(int i=0; i<FRAMES; i++){
+				assertEquals(expected + i, frames[i + 1]);
+			}
+			expected += FRAMES;
+		}
+		assertEquals(0, s.getOverrunCount());
+		assertEquals(0, s.getUnderrunCount());
+		assertTrue(s.getNextFrame() >= expected);
+		assertEquals(4, s.getFreeBufferCount());
+		assertNull(r.aborted);
+		return;
+	}
+
+	// ======================================================================
+	// オーバーランのテスト
+	// ======================================================================
+	/**
+	 * {@link IsocStream#getOverrunCount()} のためのテスト・メソッド。バッファが返却され
+	 * ない場合にオーバーランが数えられ、返却後に受信が再開する事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testOverrun() throws Exception{
+		Recorder r = new Recorder(false);
+		IsocStream s = isoc.startIsocStream(r, 0, FRAMES, 64, 2);
+
+		// 全てのバッファをリスナが保持するとオーバーランが発生する (以降の受信は全て予備の
+		// イベントで行われフレームが欠落する)
+		r.await(2);
+		long skipped = s.getOverrunCount() + 3;
+		long limit = System.currentTimeMillis() + 3000;
+		while(s.getOverrunCount() < skipped && System.currentTimeMillis() < limit){
+			Thread.sleep(10);
+		}
+		assertTrue(s.getOverrunCount() >= skipped);
+		assertEquals(0, s.getFreeBufferCount());
+
+		// 返却後は受信が再開しフレーム番号は欠落分を含めて進んでいる
+		List<IsocTransferEvent> held = r.drain();
+		assertEquals(2, held.size());
+		assertEquals(0, held.get(0).getStartFrame());
+		long last = held.get(1).getStartFrame();
+		assertTrue(last > held.get(0).getStartFrame());
+		for(IsocTransferEvent e: held){
+			e.release();
+		}
+		r.await(3);
+		IsocTransferEvent e = r.drain().get(0);
+		assertTrue("e=" + e.getStartFrame() + " last=" + last, e.getStartFrame() >= last + FRAMES * 4);
+		assertEquals(0, e.getStartFrame() % FRAMES);
+
+		// 二重返却や他のイベントの返却は例外
+		e.release();
+		try{
+			e.release();
+			fail();
+		} catch(IllegalStateException ex){/* */}
+		try{
+			s.release(new IsocTransferEvent(isoc, 0, new byte[1][1]));
+			fail();
+		} catch(IllegalArgumentException ex){/* */}
+		return;
+	}
+
+	// ======================================================================
+	// アンダーランのテスト
+	// ======================================================================
+	/**
+	 * {@link IsocStream#getUnderrunCount()} のためのテスト・メソッド。データの無い
+	 * フレームがアンダーランとして数えられる事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testUnderrun() throws Exception{
+		bridge.setIsocErrorInterval(FRAMES);
+		Recorder r = new Recorder(true);
+		IsocStream s = isoc.startIsocStream(r, 0, FRAMES, 64, 3);
+		r.await(5);
+		isoc.stopIsocRead();
+		r.awaitStopped();
+		assertTrue(s.getUnderrunCount() >= 5);
+		assertEquals(0, s.getOverrunCount());
+
+		// 既に等時間隔受信が行われている場合は例外
+		s = isoc.startIsocStream(r, 0, FRAMES, 64, 3);
+		try{
+			isoc.startIsocStream(r, 0, FRAMES, 64, 3);
+			fail();
+		} catch(USBException ex){/* */}
+		try{
+			isoc.startIsocRead(r, 0, FRAMES, 64);
+			fail();
+		} catch(USBException ex){/* */}
+		s.stop();
+		return;
+	}
+
+	// ======================================================================
+	// 不正なエンドポイントのテスト
+	// ======================================================================
+	/**
+	 * {@link Endpoint#startIsocStream(IsocTransferListener, long, int, int, int)} のための
+	 * テスト・メソッド。等時間隔でないエンドポイントや不正な引数で例外が発生する事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testInvalid() throws Exception{
+		Endpoint bulk = isoc.getAltSetting().getEndpoints().get(1);
+		try{
+			bulk.startIsocStream(new Recorder(true), 0, FRAMES, 64, 2);
+			fail();
+		} catch(USBException ex){/* */}
+		try{
+			isoc.startIsocStream(new Recorder(true), 0, FRAMES, 64, 0);
+			fail();
+		} catch(IllegalArgumentException ex){/* */}
+		return;
+	}
+
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	// Recorder: 受信記録リスナ
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	/**
+	 * 受信したフレーム番号を記録するリスナです。
+	 * <p>
+	 */
+	private static class Recorder implements IsocTransferListener {
+
+		/** 受信直後にイベントを返却する場合 true です。 */
+		private final boolean release;
+
+		/** 受信ごとの開始フレームと各フレームのフレーム番号です。 */
+		public final List<long[]> frames = Collections.synchronizedList(new ArrayList<long[]>());
+
+		/** 返却していないイベントです。 */
+		private final List<IsocTransferEvent> held = new ArrayList<IsocTransferEvent>();
+
+		/** 受信回数です。 */
+		private int count = 0;
+
+		/** 終了通知を受けた場合 true です。 */
+		private boolean stopped = false;
+
+		/** 中断の原因となった例外です。 */
+		public USBException aborted = null;
+
+		/**
+		 * @param release 受信直後にイベントを返却する場合 true
+		 */
+		public Recorder(boolean release){
+			this.release = release;
+			return;
+		}
+
+		/**
+		 * @param e 受信したデータ
+		 */
+		public void receive(IsocTransferEvent e){
+			long[] f = new long[e.getFrameSize() + 1];
+			f[0] = e.getStartFrame();
+			for(int i=0; i<e.getFrameSize(); i++){
+				if(! e.getError()[i]){
+					ByteBuffer b = ByteBuffer.wrap(e.getBuffer()[i], 0, e.getLength()[i]);
+					b.order(USB.BYTE_ORDER);
+					f[i + 1] = b.getInt() & 0xFFFFFFFFL;
+				}
+			}
+			frames.add(f);
+			synchronized(this){
+				if(release){
+					e.release();
+				} else {
+					held.add(e);
+				}
+				count ++;
+				notifyAll();
+			}
+			return;
+		}
+
+		/**
+		 * @param e 例外イベント
+		 */
+		public void transferAborted(IsocTransferEvent e){
+			aborted = e.getException();
+			return;
+		}
+
+		/**
+		 * @param e 終了イベント
+		 */
+		public synchronized void transferStopped(IsocTransferEvent e){
+			stopped = true;
+			notifyAll();
+			return;
+		}
+
+		/**
+		 * @param n 待機する累計の受信回数
+		 * @throws InterruptedException 割り込まれた場合
+		 */
+		public synchronized void await(int n) throws InterruptedException{
+			long limit = System.currentTimeMillis() + 3000;
+			while(count < n && System.currentTimeMillis() < limit){
+				wait(100);
+			}
+			assertTrue(count >= n);
+			return;
+		}
+
+		/**
+		 * @throws InterruptedException 割り込まれた場合
+		 */
+		public synchronized void awaitStopped() throws InterruptedException{
+			long limit = System.currentTimeMillis() + 3000;
+			while(! stopped && System.currentTimeMillis() < limit){
+				wait(100);
+			}
+			assertTrue(stopped);
+			return;
+		}
+
+		/**
+		 * @return 保持していたイベント
+		 */
+		public synchronized List<IsocTransferEvent> drain(){
+			List<IsocTransferEvent> list = new ArrayList<IsocTransferEvent>(held);
+			held.clear();
+			return list;
+		}
+	}
+
+}
@@ -0,0 +1,1319 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.impl;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.koiroha.usb.*;
+import org.koiroha.usb.desc.*;
+import org.koiroha.usb.event.IsocTransferEvent;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// MemoryBridge: メモリブリッジ
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * 実デバイスを使用せずにテストを行うためのメモリ上のブリッジです。1 つのデバイスと以下の
+ * エンドポイントを持つインターフェースを 1 つ提供します。
+ * <p>
+ * <table>
+ * <tr><th>アドレス</th><th>転送タイプ</th><th>動作</th></tr>
+ * <tr><td>0x02</td><td>BULK OUT</td><td>書き込まれたデータをパケットに分割してループバックキューに格納</td></tr>
+ * <tr><td>0x81</td><td>BULK IN</td><td>ループバックキューからデータを読み込み</td></tr>
+ * <tr><td>0x83</td><td>INTERRUPT IN</td><td>4 バイトの通し番号を返す</td></tr>
+ * <tr><td>0x84</td><td>ISOCHRONOUS IN</td><td>1 フレーム 1 ミリ秒で先頭 4 バイトにフレーム番号を持つデータを返す</td></tr>
+ * </table>
+ * <p>
+ * 非同期転送は {@link TransferScheduler} を使用して実行されます。{@link #setScheduled(boolean)}
+ * を指定した場合は同期転送もスケジューラーを経由し、同時呼び出しをサポートしないネイティブ
+ * ライブラリと同様に全ての転送が 1 つのスレッドで実行されます。
+ * <p>
+ * アドレス 1 のデバイスは常に接続されています。{@link #attach(int, int)} と
+ * {@link #detach(int)} でデバイスの取り付け/取り外しを模擬できます。デバイスはメーカー、製品、
+ * アドレスを含むシリアル番号の文字列記述子を持ちます。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ */
+public class MemoryBridge implements USBBridge {
+
+	/** ベンダー ID です。 */
+	public static final int VENDOR_ID = 0x1234;
+
+	/** プロダクト ID です。 */
+	public static final int PRODUCT_ID = 0x5678;
+
+	/** バルク転送の最大パケットサイズです。 */
+	public static final int MAX_PACKET_SIZE = 64;
+
+	/** 等時間隔転送の最大パケットサイズです。 */
+	public static final int ISOC_PACKET_SIZE = 32;
+
+	// ======================================================================
+	// ループバックキュー
+	// ======================================================================
+	/**
+	 * BULK OUT に書き込まれたパケットのキューです。
+	 * <p>
+	 */
+	private final LinkedList<byte[]> loopback = new LinkedList<byte[]>();
+
+	// ======================================================================
+	// 割り込み通し番号
+	// ======================================================================
+	/**
+	 * INTERRUPT IN が返す通し番号です。
+	 * <p>
+	 */
+	private int sequence = 0;
+
+	// ======================================================================
+	// 転送遅延
+	// ======================================================================
+	/**
+	 * 1 回の転送にかかる時間 (ミリ秒) です。
+	 * <p>
+	 */
+	private volatile long latency = 0;
+
+	// ======================================================================
+	// ダイレクト転送回数
+	// ======================================================================
+	/**
+	 * ダイレクトバッファを使用した転送の呼び出し回数です。
+	 * <p>
+	 */
+	private volatile int directCount = 0;
+
+	// ======================================================================
+	// 等時間隔エラー間隔
+	// ======================================================================
+	/**
+	 * 等時間隔転送でデータを返さないフレームの間隔です。0 の場合は全てのフレームでデータを
+	 * 返します。
+	 * <p>
+	 */
+	private volatile int isocErrorInterval = 0;
+
+	// ======================================================================
+	// クラス固有記述子タイプ
+	// ======================================================================
+	/**
+	 * インターフェース宛てに要求されるクラス固有記述子 (HID レポート記述子) のタイプです。
+	 * <p>
+	 */
+	public static final byte TYPE_REPORT = 0x22;
+
+	// ======================================================================
+	// クラス固有記述子
+	// ======================================================================
+	/**
+	 * インターフェース宛ての要求で返すクラス固有記述子のバイナリです。
+	 * <p>
+	 */
+	public static final byte[] REPORT_DESCRIPTOR = {
+		0x06, 0x00, (byte)0xFF, 0x09, 0x01, (byte)0xA1, 0x01, 0x15, 0x00, 0x26, (byte)0xFF, 0x00,
+		0x75, 0x08, (byte)0x95, 0x40, 0x09, 0x01, (byte)0x81, 0x02, (byte)0xC0,
+	};
+
+	// ======================================================================
+	// 接続デバイス
+	// ======================================================================
+	/**
+	 * アドレスをキーとした接続中のデバイスの製品 ID です。
+	 * <p>
+	 */
+	private final Map<Integer,Integer> connected = new TreeMap<Integer,Integer>();
+
+	// ======================================================================
+	// 取り付け/取り外し通知
+	// ======================================================================
+	/**
+	 * 取り付け/取り外しをコンテキストに通知する場合 true です。
+	 * <p>
+	 */
+	private volatile boolean notifySupported = false;
+
+	// ======================================================================
+	// 差分通知
+	// ======================================================================
+	/**
+	 * 取り付け/取り外しをアドレスごとにコンテキストへ通知する場合 true です。
+	 * <p>
+	 */
+	private volatile boolean incremental = false;
+
+	// ======================================================================
+	// 監視中コンテキスト
+	// ======================================================================
+	/**
+	 * 取り付け/取り外しの通知を行うコンテキストです。
+	 * <p>
+	 */
+	private final List<USBContextImpl> watching = new ArrayList<USBContextImpl>();
+
+	// ======================================================================
+	// 検索回数
+	// ======================================================================
+	/**
+	 * {@link #find(USBContextImpl)} の呼び出し回数です。
+	 * <p>
+	 */
+	private volatile int findCount = 0;
+
+	// ======================================================================
+	// デバイス解放回数
+	// ======================================================================
+	/**
+	 * {@link #release(DeviceImpl)} の呼び出し回数です。
+	 * <p>
+	 */
+	private volatile int releaseCount = 0;
+
+	// ======================================================================
+	// 記述子要求回数
+	// ======================================================================
+	/**
+	 * GET_DESCRIPTOR 要求の実行回数です。
+	 * <p>
+	 */
+	private volatile int descriptorCount = 0;
+
+	// ======================================================================
+	// シリアル番号の接頭辞
+	// ======================================================================
+	/**
+	 * デバイスのシリアル番号の文字列に付加する接頭辞です。
+	 * <p>
+	 */
+	private volatile String serialPrefix = "SN";
+
+	// ======================================================================
+	// スライス時間
+	// ======================================================================
+	/**
+	 * 入力転送を分割して実行する時間 (ミリ秒) です。
+	 * <p>
+	 */
+	public static final int SLICE = 50;
+
+	// ======================================================================
+	// 転送スケジューラー
+	// ======================================================================
+	/**
+	 * 転送を実行するスケジューラーです。
+	 * <p>
+	 */
+	private final TransferScheduler scheduler = new TransferScheduler(this, 1, SLICE);
+
+	// ======================================================================
+	// 同期転送のスケジュール
+	// ======================================================================
+	/**
+	 * 同期転送もスケジューラーを経由する場合 true です。
+	 * <p>
+	 */
+	private volatile boolean scheduled = false;
+
+	// ======================================================================
+	// 非同期転送の発行失敗
+	// ======================================================================
+	/**
+	 * 非同期転送の発行を失敗させる場合 true です。
+	 * <p>
+	 */
+	private volatile boolean submitFailure = false;
+
+	// ======================================================================
+	// 受信途中のタイムアウト
+	// ======================================================================
+	/**
+	 * 最大長パケットの受信後に後続のパケットを待機する場合 true です。
+	 * <p>
+	 */
+	private volatile boolean partialTimeout = false;
+
+	// ======================================================================
+	// 不正な要求長
+	// ======================================================================
+	/**
+	 * デバイス要求の結果として返す不正な長さです。0 の場合は正常な長さを返します。
+	 * <p>
+	 */
+	private volatile int invalidLength = 0;
+
+	// ======================================================================
+	// 実行中の転送数
+	// ======================================================================
+	/**
+	 * バルク転送と割り込み転送を実行中のスレッド数です。
+	 * <p>
+	 */
+	private int active = 0;
+
+	// ======================================================================
+	// 最大同時実行数
+	// ======================================================================
+	/**
+	 * バルク転送と割り込み転送を同時に実行したスレッド数の最大値です。
+	 * <p>
+	 */
+	private int maxActive = 0;
+
+	// ======================================================================
+	// 実行中の変化反映数
+	// ======================================================================
+	/**
+	 * 通知された変化を反映中のスレッド数です。
+	 * <p>
+	 */
+	private int updating = 0;
+
+	// ======================================================================
+	// 最大同時反映数
+	// ======================================================================
+	/**
+	 * 通知された変化を同時に反映したスレッド数の最大値です。
+	 * <p>
+	 */
+	private int maxUpdating = 0;
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * コンストラクタは何も行いません。
+	 * <p>
+	 */
+	public MemoryBridge() {
+		connected.put(1, PRODUCT_ID);
+		return;
+	}
+
+	// ======================================================================
+	// デバイスの取り付け
+	// ======================================================================
+	/**
+	 * 指定されたアドレスに指定された製品 ID のデバイスを取り付けます。既にデバイスが存在する
+	 * 場合は置き換えます。
+	 * <p>
+	 * @param address デバイスアドレス
+	 * @param productId 製品 ID
+	 */
+	public void attach(int address, int productId){
+		synchronized(connected){
+			connected.put(address, productId);
+		}
+		hotplug(address, productId);
+		return;
+	}
+
+	// ======================================================================
+	// デバイスの取り外し
+	// ======================================================================
+	/**
+	 * 指定されたアドレスのデバイスを取り外します。
+	 * <p>
+	 * @param address デバイスアドレス
+	 */
+	public void detach(int address){
+		synchronized(connected){
+			connected.remove(address);
+		}
+		hotplug(address, 0);
+		return;
+	}
+
+	// ======================================================================
+	// 通知サポートの設定
+	// ======================================================================
+	/**
+	 * 取り付け/取り外しをコンテキストへ通知するかどうかを設定します。
+	 * <p>
+	 * @param supported 通知する場合 true
+	 */
+	public void setNotifySupported(boolean supported){
+		this.notifySupported = supported;
+		return;
+	}
+
+	// ======================================================================
+	// 差分通知の設定
+	// ======================================================================
+	/**
+	 * 取り付け/取り外しをアドレスごとに通知し、監視中の同期で変化したデバイスのみを反映する
+	 * かどうかを設定します。{@link #create()} の前に設定する必要があります。
+	 * <p>
+	 * @param incremental 差分を通知する場合 true
+	 */
+	public void setIncremental(boolean incremental){
+		this.incremental = incremental;
+		return;
+	}
+
+	// ======================================================================
+	// 検索回数の参照
+	// ======================================================================
+	/**
+	 * デバイスの検索が行われた回数を参照します。
+	 * <p>
+	 * @return 検索回数
+	 */
+	public int getFindCount(){
+		return findCount;
+	}
+
+	// ======================================================================
+	// デバイス解放回数の参照
+	// ======================================================================
+	/**
+	 * デバイスの解放が行われた回数を参照します。
+	 * <p>
+	 * @return 解放回数
+	 */
+	public int getReleaseCount(){
+		return releaseCount;
+	}
+
+	// ======================================================================
+	// 記述子要求回数の参照
+	// ======================================================================
+	/**
+	 * GET_DESCRIPTOR 要求が実行された回数を参照します。
+	 * <p>
+	 * @return 記述子要求回数
+	 */
+	public int getDescriptorCount(){
+		return descriptorCount;
+	}
+
+	// ======================================================================
+	// シリアル番号の接頭辞の設定
+	// ======================================================================
+	/**
+	 * デバイスのシリアル番号の文字列に付加する接頭辞を設定します。デフォルトは "SN" です。
+	 * <p>
+	 * @param prefix シリアル番号の接頭辞
+	 */
+	public void setSerialPrefix(String prefix){
+		this.serialPrefix = prefix;
+		return;
+	}
+
+	// ======================================================================
+	// 転送遅延の設定
+	// ======================================================================
+	/**
+	 * 1 回の転送にかかる時間を設定します。
+	 * <p>
+	 * @param latency 転送遅延 (ミリ秒)
+	 */
+	public void setLatency(long latency){
+		this.latency = latency;
+		return;
+	}
+
+	// ======================================================================
+	// 受信途中のタイムアウトの設定
+	// ======================================================================
+	/**
+	 * 要求長に満たない最大長パケットの受信後、キューが空になった場合に後続のパケットを
+	 * タイムアウトまで待機するかを設定します。待機がタイムアウトした場合は受信済みのバイト数を
+	 * {@link TimeoutException#getTransferred()} に設定した例外が発生します。
+	 * <p>
+	 * @param partial 後続のパケットを待機する場合 true
+	 */
+	public void setPartialTimeout(boolean partial){
+		this.partialTimeout = partial;
+		return;
+	}
+
+	// ======================================================================
+	// 等時間隔エラー間隔の設定
+	// ======================================================================
+	/**
+	 * 等時間隔転送でフレーム番号が指定値の倍数となるフレームをエラーとします。
+	 * <p>
+	 * @param interval エラーとするフレームの間隔 (0 の場合はエラーなし)
+	 */
+	public void setIsocErrorInterval(int interval){
+		this.isocErrorInterval = interval;
+		return;
+	}
+
+	// ======================================================================
+	// 同期転送のスケジュール設定
+	// ======================================================================
+	/**
+	 * 同期転送もスケジューラーを経由して実行するかを設定します。
+	 * <p>
+	 * @param scheduled スケジューラーを経由する場合 true
+	 */
+	public void setScheduled(boolean scheduled){
+		this.scheduled = scheduled;
+		return;
+	}
+
+	// ======================================================================
+	// 非同期転送の発行失敗の設定
+	// ======================================================================
+	/**
+	 * 非同期転送の発行を失敗させるかどうかを設定します。
+	 * <p>
+	 * @param failure 発行を失敗させる場合 true
+	 */
+	public void setSubmitFailure(boolean failure){
+		this.submitFailure = failure;
+		return;
+	}
+
+	// ======================================================================
+	// 不正な要求長の設定
+	// ======================================================================
+	/**
+	 * デバイス要求の結果として不正な長さを返すように設定します。
+	 * <p>
+	 * @param length 返す長さ (0 の場合は正常な長さを返す)
+	 */
+	public void setInvalidLength(int length){
+		this.invalidLength = length;
+		return;
+	}
+
+	// ======================================================================
+	// 最大同時実行数の参照
+	// ======================================================================
+	/**
+	 * バルク転送と割り込み転送を同時に実行したスレッド数の最大値を参照します。
+	 * <p>
+	 * @return 最大同時実行数
+	 */
+	public synchronized int getMaxConcurrency(){
+		return maxActive;
+	}
+
+	// ======================================================================
+	// 最大同時反映数の参照
+	// ======================================================================
+	/**
+	 * 通知された変化を同時に反映したスレッド数の最大値を参照します。
+	 * <p>
+	 * @return 最大同時反映数
+	 */
+	public synchronized int getMaxUpdateConcurrency(){
+		return maxUpdating;
+	}
+
+	// ======================================================================
+	// ダイレクト転送回数の参照
+	// ======================================================================
+	/**
+	 * ダイレクトバッファを使用した転送の呼び出し回数を参照します。
+	 * <p>
+	 * @return ダイレクト転送回数
+	 */
+	public int getDirectCount(){
+		return directCount;
+	}
+
+	// ======================================================================
+	// ライブラリ名の参照
+	// ======================================================================
+	/**
+	 * ライブラリ名を参照します。
+	 * <p>
+	 * @return ライブラリ名
+	 */
+	public String getLibraryName(){
+		return "memory";
+	}
+
+	// ======================================================================
+	// コンテキストの構築
+	// ======================================================================
+	/**
+	 * コンテキストを構築します。
+	 * <p>
+	 * @return コンテキスト
+	 */
+	public USBContextImpl create(){
+		if(incremental){
+			return new MemoryContext();
+		}
+		return new USBContextImpl(this);
+	}
+
+	// ======================================================================
+	// コンテキストの解放
+	// ======================================================================
+	/**
+	 * 何も行いません。
+	 * <p>
+	 * @param session コンテキスト
+	 */
+	public void release(USBContextImpl session){
+		return;
+	}
+
+	// ======================================================================
+	// デバイスの検索
+	// ======================================================================
+	/**
+	 * 接続中のデバイスをルートデバイスとして持つバスを返します。
+	 * <p>
+	 * @param session コンテキスト
+	 * @return バスのリスト
+	 */
+	public List<BusImpl> find(USBContextImpl session){
+		findCount ++;
+		BusImpl bus = new BusImpl("memory");
+		synchronized(connected){
+			if(session instanceof MemoryContext){
+				((MemoryContext)session).clearChanges();
+			}
+			for(Map.Entry<Integer,Integer> e: connected.entrySet()){
+				bus.connect(build(e.getKey(), e.getValue()));
+			}
+		}
+		List<BusImpl> list = new ArrayList<BusImpl>();
+		list.add(bus);
+		return list;
+	}
+
+	/**
+	 * 通知サポートが設定されていれば取り付け/取り外しの通知を開始または終了します。
+	 * <p>
+	 * @param session コンテキスト
+	 * @param enable 通知を開始する場合 true
+	 * @return 通知を行う場合 true
+	 */
+	public boolean watch(USBContextImpl session, boolean enable){
+		if(! notifySupported){
+			return false;
+		}
+		synchronized(watching){
+			if(enable){
+				watching.add(session);
+			} else {
+				watching.remove(session);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 解放回数を数えます。
+	 * <p>
+	 * @param device デバイス
+	 */
+	public void release(DeviceImpl device){
+		releaseCount ++;
+		return;
+	}
+
+	/**
+	 * デバイスハンドルを返します。
+	 * <p>
+	 * @param device デバイス
+	 * @return デバイスハンドル
+	 */
+	public Object open(DeviceImpl device){
+		return this;
+	}
+
+	/**
+	 * 何も行いません。
+	 * <p>
+	 * @param device デバイス
+	 */
+	public void close(DeviceImpl device){
+		return;
+	}
+
+	/**
+	 * ループバックキューをクリアします。
+	 * <p>
+	 * @param device デバイス
+	 */
+	public void reset(DeviceImpl device){
+		synchronized(loopback){
+			loopback.clear();
+		}
+		return;
+	}
+
+	/**
+	 * 何も行いません。
+	 * <p>
+	 * @param device デバイス
+	 * @param ifc インターフェース番号
+	 */
+	public void claim(DeviceImpl device, byte ifc){
+		return;
+	}
+
+	/**
+	 * 何も行いません。
+	 * <p>
+	 * @param device デバイス
+	 * @param ifc インターフェース番号
+	 */
+	public void release(DeviceImpl device, byte ifc){
+		return;
+	}
+
+	/**
+	 * デバイスリクエストとしてコントロール転送を実行します。
+	 * <p>
+	 * @param device デバイス
+	 * @param ifc インターフェース番号
+	 * @param ept エンドポイント番号
+	 * @param request リクエスト
+	 * @param timeout タイムアウト
+	 * @return 転送バイト数
+	 * @throws USBException 未サポートのリクエストの場合
+	 */
+	public int controlTransfer(DeviceImpl device, byte ifc, byte ept, ControlRequest request, int timeout) throws USBException{
+		return deviceRequest(device, request);
+	}
+
+	/**
+	 * 通し番号を返す割り込み転送を実行します。
+	 * <p>
+	 * @param device デバイス
+	 * @param ifc インターフェース番号
+	 * @param ept エンドポイント番号
+	 * @param buffer バッファ
+	 * @param offset オフセット
+	 * @param length 長さ
+	 * @param inout 転送方向
+	 * @param timeout タイムアウト
+	 * @return 転送バイト数
+	 * @throws USBException 転送に失敗した場合
+	 */
+	public int interruptTransfer(DeviceImpl device, byte ifc, byte ept,
+		byte[] buffer, int offset, int length, Direction inout, int timeout) throws USBException{
+		if(scheduled && ! scheduler.isDispatchThread()){
+			return scheduler.transfer(device, ifc, ept, TransferType.INTERRUPT, buffer, offset, length, inout, timeout);
+		}
+		device.getOpenedHandle();
+		enter();
+		try{
+			delay();
+			int seq;
+			synchronized(this){
+				seq = sequence ++;
+			}
+			ByteBuffer b = ByteBuffer.wrap(buffer, offset, length);
+			b.order(USB.BYTE_ORDER);
+			b.putInt(seq);
+			return 4;
+		} finally {
+			leave();
+		}
+	}
+
+	/**
+	 * ループバックキューを使用したバルク転送を実行します。
+	 * <p>
+	 * @param device デバイス
+	 * @param ifc インターフェース番号
+	 * @param ept エンドポイント番号
+	 * @param buffer バッファ
+	 * @param offset オフセット
+	 * @param length 長さ
+	 * @param inout 転送方向
+	 * @param timeout タイムアウト
+	 * @return 転送バイト数
+	 * @throws USBException 転送に失敗した場合
+	 */
+	public int bulkTransfer(DeviceImpl device, byte ifc, byte ept,
+		byte[] buffer, int offset, int length, Direction inout, int timeout) throws USBException{
+		if(scheduled && ! scheduler.isDispatchThread()){
+			return scheduler.transfer(device, ifc, ept, TransferType.BULK, buffer, offset, length, inout, timeout);
+		}
+		device.getOpenedHandle();
+		enter();
+		try{
+			return loopback(buffer, offset, length, inout, timeout);
+		} finally {
+			leave();
+		}
+	}
+
+	/**
+	 * ループバックキューへの書き込みまたは読み込みを行います。
+	 * <p>
+	 * @param buffer バッファ
+	 * @param offset オフセット
+	 * @param length 長さ
+	 * @param inout 転送方向
+	 * @param timeout タイムアウト
+	 * @return 転送バイト数
+	 * @throws USBException 転送に失敗した場合
+	 */
+	private int loopback(byte[] buffer, int offset, int length, Direction inout, int timeout) throws USBException{
+		delay();
+
+		// 出力データをパケットに分割してキューに格納 (長さ 0 の場合は ZLP)
+		if(inout == Direction.OUT){
+			synchronized(loopback){
+				int pos = 0;
+				do{
+					int len = Math.min(MAX_PACKET_SIZE, length - pos);
+					byte[] packet = new byte[len];
+					System.arraycopy(buffer, offset + pos, packet, 0, len);
+					loopback.addLast(packet);
+					pos += len;
+				} while(pos < length);
+				loopback.notifyAll();
+			}
+			return length;
+		}
+
+		// パケットの到着を待機
+		synchronized(loopback){
+			long limit = System.currentTimeMillis() + timeout;
+			while(loopback.isEmpty()){
+				long remain = limit - System.currentTimeMillis();
+				if(timeout >= 0 && remain <= 0){
+					throw new TimeoutException("operation timeout");
+				}
+				try{
+					loopback.wait((timeout < 0)? 0: remain);
+				} catch(InterruptedException ex){
+					throw new USBException(ex);
+				}
+			}
+
+			// 要求長に達するかショートパケットを受信するまで読み込み
+			int pos = 0;
+			while(pos < length){
+				if(loopback.isEmpty()){
+					if(! partialTimeout){
+						break;
+					}
+
+					// 受信途中でタイムアウトした場合は受信済みのバイト数を通知
+					long remain = limit - System.currentTimeMillis();
+					if(timeout >= 0 && remain <= 0){
+						throw new TimeoutException("operation timeout", pos);
+					}
+					try{
+						loopback.wait((timeout < 0)? 0: remain);
+					} catch(InterruptedException ex){
+						throw new USBException(ex);
+					}
+					continue;
+				}
+				byte[] packet = loopback.removeFirst();
+				int len = Math.min(packet.length, length - pos);
+				System.arraycopy(packet, 0, buffer, offset + pos, len);
+				pos += len;
+				if(len < packet.length){
+					byte[] rest = new byte[packet.length - len];
+					System.arraycopy(packet, len, rest, 0, rest.length);
+					loopback.addFirst(rest);
+					break;
+				}
+				if(packet.length < MAX_PACKET_SIZE){
+					break;
+				}
+			}
+			return pos;
+		}
+	}
+
+	/**
+	 * ダイレクトバッファを使用した割り込み転送を実行します。
+	 * <p>
+	 * @param device デバイス
+	 * @param ifc インターフェース番号
+	 * @param ept エンドポイント番号
+	 * @param buffer バッファ
+	 * @param inout 転送方向
+	 * @param timeout タイムアウト
+	 * @return 転送バイト数
+	 * @throws USBException 転送に失敗した場合
+	 */
+	public int interruptTransfer(DeviceImpl device, byte ifc, byte ept,
+		ByteBuffer buffer, Direction inout, int timeout) throws USBException{
+		directCount ++;
+		byte[] array = new byte[buffer.remaining()];
+		buffer.duplicate().get(array);
+		int len = interruptTransfer(device, ifc, ept, array, 0, array.length, inout, timeout);
+		buffer.duplicate().put(array, 0, len);
+		return len;
+	}
+
+	/**
+	 * ダイレクトバッファを使用したバルク転送を実行します。
+	 * <p>
+	 * @param device デバイス
+	 * @param ifc インターフェース番号
+	 * @param ept エンドポイント番号
+	 * @param buffer バッファ
+	 * @param inout 転送方向
+	 * @param timeout タイムアウト
+	 * @return 転送バイト数
+	 * @throws USBException 転送に失敗した場合
+	 */
+	public int bulkTransfer(DeviceImpl device, byte ifc, byte ept,
+		ByteBuffer buffer, Direction inout, int timeout) throws USBException{
+		directCount ++;
+		byte[] array = new byte[buffer.remaining()];
+		buffer.duplicate().get(array);
+		int len = bulkTransfer(device, ifc, ept, array, 0, array.length, inout, timeout);
+		if(inout == Direction.IN){
+			buffer.duplicate().put(array, 0, len);
+		}
+		return len;
+	}
+
+	/**
+	 * 非同期転送をスケジューラーに発行します。
+	 * <p>
+	 * @param device デバイス
+	 * @param ifc インターフェース番号
+	 * @param ept エンドポイント番号
+	 * @param transfer 転送
+	 * @throws USBException 発行の失敗が設定されている場合
+	 */
+	public void submit(DeviceImpl device, byte ifc, byte ept, AsyncTransferImpl transfer) throws USBException{
+		if(submitFailure){
+			throw new USBException("submit failure");
+		}
+		scheduler.submit(device, ifc, ept, transfer);
+		return;
+	}
+
+	/**
+	 * 実行待ちの非同期転送を中断します。
+	 * <p>
+	 * @param device デバイス
+	 * @param ifc インターフェース番号
+	 * @param ept エンドポイント番号
+	 * @param transfer 転送
+	 * @return 中断した場合 true
+	 */
+	public boolean abort(DeviceImpl device, byte ifc, byte ept, AsyncTransferImpl transfer){
+		return scheduler.abort(device, ept, transfer);
+	}
+
+	/**
+	 * 1 フレームを 1 ミリ秒として等時間隔転送を模擬します。各フレームの先頭 4 バイトには
+	 * フレーム番号が格納されます。転送中に割り込まれた場合はスレッドの割り込み状態を保持した
+	 * まま復帰します。
+	 * <p>
+	 * @param device デバイス
+	 * @param ifc インターフェース番号
+	 * @param ept エンドポイント番号
+	 * @param event イベント
+	 * @throws USBException 転送に失敗した場合
+	 */
+	public void isochronousTransfer(DeviceImpl device, byte ifc, byte ept, IsocTransferEvent event) throws USBException{
+		device.getOpenedHandle();
+		byte[][] buffer = event.getBuffer();
+		int[] length = event.getLength();
+		boolean[] error = event.getError();
+		int interval = isocErrorInterval;
+		for(int i=0; i<buffer.length; i++){
+			long frame = event.getStartFrame() + i;
+			if(interval > 0 && frame % interval == 0){
+				length[i] = 0;
+				error[i] = true;
+				continue;
+			}
+			int len = Math.min(buffer[i].length, ISOC_PACKET_SIZE);
+			ByteBuffer b = ByteBuffer.wrap(buffer[i], 0, len);
+			b.order(USB.BYTE_ORDER);
+			if(len >= 4){
+				b.putInt((int)frame);
+			}
+			length[i] = len;
+			error[i] = false;
+		}
+		try{
+			Thread.sleep(buffer.length);
+		} catch(InterruptedException ex){
+			Thread.currentThread().interrupt();
+		}
+		return;
+	}
+
+	/**
+	 * 何も行いません。
+	 * <p>
+	 * @param device デバイス
+	 * @param ifc インターフェース番号
+	 * @param ept エンドポイント番号
+	 */
+	public void clearHalt(DeviceImpl device, byte ifc, byte ept){
+		return;
+	}
+
+	/**
+	 * 標準デバイスリクエストを実行します。
+	 * <p>
+	 * @param device デバイス
+	 * @param request リクエスト
+	 * @return 転送バイト数
+	 * @throws USBException 未サポートのリクエストの場合
+	 */
+	public int deviceRequest(DeviceImpl device, ControlRequest request) throws USBException{
+		if(invalidLength != 0){
+			return invalidLength;
+		}
+		byte[] buffer = request.getRawBuffer();
+		switch(request.getRequest()){
+		case ControlRequest.GET_DESCRIPTOR:
+			descriptorCount ++;
+			byte[] desc;
+			switch((request.getValue() >> 8) & 0xFF){
+			case Descriptor.TYPE_DEVICE:
+				desc = getDeviceDescriptor();
+				break;
+			case Descriptor.TYPE_CONFIGURATION:
+				desc = getConfigurationDescriptor();
+				break;
+			case Descriptor.TYPE_STRING:
+				desc = getStringDescriptor(device, request.getValue() & 0xFF);
+				break;
+			case TYPE_REPORT:
+				if(request.getRecipient() != ControlRequest.RCPT_INTERFACE){
+					throw new USBException("stall: report descriptor to " + request);
+				}
+				desc = REPORT_DESCRIPTOR;
+				break;
+			default:
+				throw new USBException("unsupported descriptor: " + request);
+			}
+			int len = Math.min(desc.length, buffer.length);
+			System.arraycopy(desc, 0, buffer, 0, len);
+			return len;
+		case ControlRequest.GET_CONFIGURATION:
+			buffer[0] = 1;
+			return 1;
+		case ControlRequest.GET_INTERFACE:
+			buffer[0] = 0;
+			return 1;
+		case ControlRequest.SET_CONFIGURATION:
+		case ControlRequest.SET_INTERFACE:
+			return 0;
+		default:
+			throw new USBException("unsupported request: " + request);
+		}
+	}
+
+	// ======================================================================
+	// 転送の開始
+	// ======================================================================
+	/**
+	 * 実行中の転送数を増やし最大同時実行数を更新します。
+	 * <p>
+	 */
+	private synchronized void enter(){
+		active ++;
+		maxActive = Math.max(maxActive, active);
+		return;
+	}
+
+	// ======================================================================
+	// 転送の終了
+	// ======================================================================
+	/**
+	 * 実行中の転送数を減らします。
+	 * <p>
+	 */
+	private synchronized void leave(){
+		active --;
+		return;
+	}
+
+	// ======================================================================
+	// 転送遅延
+	// ======================================================================
+	/**
+	 * 設定された転送遅延だけ待機します。
+	 * <p>
+	 * @throws USBException 割り込みが発生した場合
+	 */
+	private void delay() throws USBException{
+		if(latency > 0){
+			try{
+				Thread.sleep(latency);
+			} catch(InterruptedException ex){
+				throw new USBException(ex);
+			}
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 取り付け/取り外しの通知
+	// ======================================================================
+	/**
+	 * 監視中のコンテキストにデバイス構成の変化を通知します。
+	 * <p>
+	 * @param address 変化したデバイスのアドレス
+	 * @param productId 取り付けられたデバイスの製品 ID (取り外しの場合は 0)
+	 */
+	private void hotplug(int address, int productId){
+		synchronized(watching){
+			for(USBContextImpl session: watching){
+				if(session instanceof MemoryContext){
+					((MemoryContext)session).addChange(address, productId);
+				}
+				session.hotplugDetected();
+			}
+		}
+		return;
+	}
+
+	// ======================================================================
+	// デバイスの構築
+	// ======================================================================
+	/**
+	 * 指定されたアドレスと製品 ID のデバイスを構築します。
+	 * <p>
+	 * @param address デバイスアドレス
+	 * @param productId 製品 ID
+	 * @return デバイス
+	 */
+	private MemoryDevice build(int address, int productId){
+		DeviceDescriptor desc = new DeviceDescriptor(ByteBuffer.wrap(getDeviceDescriptor(productId)));
+		ByteBuffer[] conf = { ByteBuffer.wrap(getConfigurationDescriptor()) };
+		return new MemoryDevice(this, desc, conf, address);
+	}
+
+	// ======================================================================
+	// デバイス記述子
+	// ======================================================================
+	/**
+	 * デバイス記述子のバイナリを構築します。
+	 * <p>
+	 * @return デバイス記述子
+	 */
+	private static byte[] getDeviceDescriptor(){
+		return getDeviceDescriptor(PRODUCT_ID);
+	}
+
+	// ======================================================================
+	// デバイス記述子
+	// ======================================================================
+	/**
+	 * 指定された製品 ID のデバイス記述子のバイナリを構築します。
+	 * <p>
+	 * @param productId 製品 ID
+	 * @return デバイス記述子
+	 */
+	private static byte[] getDeviceDescriptor(int productId){
+		ByteBuffer b = ByteBuffer.allocate(18);
+		b.order(USB.BYTE_ORDER);
+		b.put((byte)18).put(Descriptor.TYPE_DEVICE).putShort((short)0x0200);
+		b.put((byte)0xFF).put((byte)0).put((byte)0).put((byte)MAX_PACKET_SIZE);
+		b.putShort((short)VENDOR_ID).putShort((short)productId).putShort((short)0x0100);
+		b.put((byte)1).put((byte)2).put((byte)3).put((byte)1);
+		return b.array();
+	}
+
+	// ======================================================================
+	// 文字列記述子
+	// ======================================================================
+	/**
+	 * 指定されたインデックスの文字列記述子のバイナリを構築します。インデックス 0 は言語 ID、
+	 * 1 はメーカー、2 は製品、3 はアドレスを含むシリアル番号です。
+	 * <p>
+	 * @param device デバイス
+	 * @param index 文字列記述子のインデックス
+	 * @return 文字列記述子
+	 * @throws USBException 存在しないインデックスの場合
+	 */
+	private byte[] getStringDescriptor(DeviceImpl device, int index) throws USBException{
+		String str;
+		switch(index){
+		case 0:
+			return new byte[]{ 4, Descriptor.TYPE_STRING, 0x09, 0x04 };
+		case 1:
+			str = "koiroha.org";
+			break;
+		case 2:
+			str = "Memory Device";
+			break;
+		case 3:
+			str = serialPrefix + ((MemoryDevice)device).address;
+			break;
+		default:
+			throw new USBException("stall: string descriptor " + index);
+		}
+		ByteBuffer b = ByteBuffer.allocate(2 + str.length() * 2);
+		b.order(USB.BYTE_ORDER);
+		b.put((byte)b.capacity()).put(Descriptor.TYPE_STRING);
+		for(int i=0; i<str.length(); i++){
+			b.putShort((short)str.charAt(i));
+		}
+		return b.array();
+	}
+
+	// ======================================================================
+	// コンフィギュレーション記述子
+	// ======================================================================
+	/**
+	 * コンフィギュレーション以下の記述子のバイナリを構築します。
+	 * <p>
+	 * @return コンフィギュレーション記述子
+	 */
+	private static byte[] getConfigurationDescriptor(){
+		int total = 9 + 9 + 7 * 4;
+		ByteBuffer b = ByteBuffer.allocate(total);
+		b.order(USB.BYTE_ORDER);
+		b.put((byte)9).put(Descriptor.TYPE_CONFIGURATION).putShort((short)total);
+		b.put((byte)1).put((byte)1).put((byte)0).put((byte)0x80).put((byte)50);
+		b.put((byte)9).put((byte)0x04).put((byte)0).put((byte)0).put((byte)4);
+		b.put((byte)0xFF).put((byte)0).put((byte)0).put((byte)0);
+		b.put((byte)7).put((byte)0x05).put((byte)0x02).put((byte)0x02).putShort((short)MAX_PACKET_SIZE).put((byte)0);
+		b.put((byte)7).put((byte)0x05).put((byte)0x81).put((byte)0x02).putShort((short)MAX_PACKET_SIZE).put((byte)0);
+		b.put((byte)7).put((byte)0x05).put((byte)0x83).put((byte)0x03).putShort((short)8).put((byte)10);
+		b.put((byte)7).put((byte)0x05).put((byte)0x84).put((byte)0x01).putShort((short)ISOC_PACKET_SIZE).put((byte)1);
+		return b.array();
+	}
+
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	// MemoryContext: 差分通知コンテキスト
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	/**
+	 * 通知されたアドレスのデバイスのみを同期するコンテキストです。
+	 * <p>
+	 */
+	private class MemoryContext extends USBContextImpl{
+
+		/** 通知されたアドレスと製品 ID (取り外しの場合は 0) です。 */
+		private final LinkedList<int[]> changes = new LinkedList<int[]>();
+
+		/**
+		 * コンテキストを構築します。
+		 * <p>
+		 */
+		public MemoryContext(){
+			super(MemoryBridge.this);
+			return;
+		}
+
+		/**
+		 * @param address デバイスアドレス
+		 * @param productId 製品 ID (取り外しの場合は 0)
+		 */
+		public void addChange(int address, int productId){
+			synchronized(changes){
+				changes.addLast(new int[]{ address, productId });
+			}
+			return;
+		}
+
+		/**
+		 * 通知された変化を破棄します。
+		 * <p>
+		 */
+		public void clearChanges(){
+			synchronized(changes){
+				changes.clear();
+			}
+			return;
+		}
+
+		/**
+		 * @return 常に true
+		 * @throws USBException デバイスの解放に失敗した場合
+		 */
+		@Override
+		protected boolean update() throws USBException{
+			synchronized(MemoryBridge.this){
+				updating ++;
+				maxUpdating = Math.max(maxUpdating, updating);
+			}
+			try{
+				apply();
+			} finally {
+				synchronized(MemoryBridge.this){
+					updating --;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * 通知された変化を 1 つずつ反映します。並行した反映を検出しやすくするため、変化を
+		 * 取り出してから反映するまでにスレッドを切り替えます。
+		 * <p>
+		 * @throws USBException デバイスの解放に失敗した場合
+		 */
+		private void apply() throws USBException{
+			while(true){
+				int[] c = null;
+				synchronized(changes){
+					c = changes.poll();
+				}
+				if(c == null){
+					break;
+				}
+				Thread.yield();
+				if(c[1] != 0){
+					MemoryDevice device = build(c[0], c[1]);
+					getBus("memory").connect(device);
+					attach(device, null);
+				} else {
+					for(Device d: lookup()){
+						if(((MemoryDevice)d).address == c[0]){
+							detach((DeviceImpl)d);
+							break;
+						}
+					}
+				}
+			}
+			return;
+		}
+	}
+
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	// MemoryDevice: メモリデバイス
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	/**
+	 * アドレスを位置とするデバイス実装です。
+	 * <p>
+	 */
+	private static class MemoryDevice extends DeviceImpl{
+
+		/** デバイスアドレスです。 */
+		private final int address;
+
+		/**
+		 * @param bridge ブリッジ
+		 * @param desc デバイス記述子
+		 * @param conf コンフィギュレーション記述子
+		 * @param address デバイスアドレス
+		 */
+		public MemoryDevice(USBBridge bridge, DeviceDescriptor desc, ByteBuffer[] conf, int address){
+			super(bridge, desc, conf);
+			this.address = address;
+			return;
+		}
+
+		/**
+		 * @return デバイスの位置
+		 */
+		@Override
+		protected String getLocation(){
+			return getBus().getName() + "/" + address;
+		}
+	}
+
+}
@@ -0,0 +1,268 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import javax.management.*;
+
+import org.junit.*;
+import org.koiroha.usb.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// TransferMetricsTest: 転送メトリクステスト
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * {@link MemoryBridge} を使用した転送メトリクスのテストケースです。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ */
+public class TransferMetricsTest extends TestObject {
+
+	/** テスト対象のブリッジです。 */
+	private MemoryBridge bridge = null;
+
+	/** テスト対象のコンテキストです。 */
+	private USBContextImpl context = null;
+
+	/** テスト対象のデバイスです。 */
+	private DeviceImpl device = null;
+
+	/** BULK OUT エンドポイントです。 */
+	private EndpointImpl out = null;
+
+	/** BULK IN エンドポイントです。 */
+	private EndpointImpl in = null;
+
+	// ======================================================================
+	// テストの準備
+	// ======================================================================
+	/**
+	 * メモリブリッジのデバイスをオープンしてインターフェースを要求します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Before
+	public void setUp() throws Exception{
+		bridge = new MemoryBridge();
+		context = bridge.create();
+		device = (DeviceImpl)openDevice(context);
+		Map<Integer,Endpoint> endpoints = getEndpoints(device);
+		out = (EndpointImpl)endpoints.get(0x02);
+		in = (EndpointImpl)endpoints.get(0x81);
+		return;
+	}
+
+	// ======================================================================
+	// テストの後処理
+	// ======================================================================
+	/**
+	 * コンテキストを解放します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@After
+	public void tearDown() throws Exception{
+		device.close();
+		context.dispose();
+		return;
+	}
+
+	// ======================================================================
+	// カウンタのテスト
+	// ======================================================================
+	/**
+	 * {@link TransferCounter} のためのテスト・メソッド。記録した転送がスナップショットに
+	 * 反映され、リセットで 0 に戻る事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testCounter() throws Exception{
+		TransferCounter c = new TransferCounter();
+		long now = System.nanoTime();
+		c.record(100, now - 10 * 1000);
+		c.record(200, now - 10 * 1000);
+		c.timeout(now - 1000 * 1000);
+		c.error(now);
+		TransferStatistics s = c.getStatistics();
+		assertEquals(4, s.getTransferCount());
+		assertEquals(300, s.getByteCount());
+		assertEquals(1, s.getTimeoutCount());
+		assertEquals(1, s.getErrorCount());
+		assertTrue(s.getAverageLatency() > 0);
+
+		// 応答時間の区間は 2 のべき乗マイクロ秒
+		assertEquals(0, TransferStatistics.bucket(999));
+		assertEquals(1, TransferStatistics.bucket(1000));
+		assertEquals(4, TransferStatistics.bucket(10 * 1000));
+		assertEquals(TransferStatistics.BUCKETS - 1, TransferStatistics.bucket(Long.MAX_VALUE));
+		assertTrue(s.getLatencyPercentile(0.5) >= 16);
+		assertTrue(s.getLatencyPercentile(1.0) >= 1024);
+		assertEquals(0, TransferStatistics.EMPTY.getLatencyPercentile(0.99));
+
+		// 合算とリセット
+		assertEquals(8, s.add(s).getTransferCount());
+		c.reset();
+		assertEquals(0, c.getTransferCount());
+		assertEquals(4, s.getTransferCount());
+		return;
+	}
+
+	// ======================================================================
+	// 同時計測のテスト
+	// ======================================================================
+	/**
+	 * 複数のスレッドから同時に記録した転送が失われない事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testConcurrent() throws Exception{
+		final TransferCounter c = new TransferCounter();
+		Thread[] threads = new Thread[8];
+		for(int i=0; i<threads.length; i++){
+			threads[i] = new Thread(){
+				@Override
+				public void run(){
+					for(int j=0; j<10000; j++){
+						c.record(1, System.nanoTime());
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for(Thread t: threads){
+			t.join();
+		}
+		assertEquals(80000, c.getTransferCount());
+		assertEquals(80000, c.getByteCount());
+		return;
+	}
+
+	// ======================================================================
+	// エンドポイントのテスト
+	// ======================================================================
+	/**
+	 * {@link EndpointImpl#getMetrics()} のためのテスト・メソッド。同期転送と非同期転送が
+	 * エンドポイントに記録され、デバイスとコンテキストで合算される事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testEndpoint() throws Exception{
+		out.write(new byte[]{ 1, 2, 3 }, 0, 3, 1000);
+		assertEquals(3, in.read(new byte[64], 0, 64, 1000));
+		try{
+			in.read(new byte[64], 0, 64, 10);
+			fail();
+		} catch(TimeoutException ex){/* */}
+		assertEquals(1, out.getMetrics().getTransferCount());
+		assertEquals(3, out.getMetrics().getByteCount());
+		assertEquals(2, in.getMetrics().getTransferCount());
+		assertEquals(3, in.getMetrics().getByteCount());
+		assertEquals(1, in.getMetrics().getTimeoutCount());
+
+		// 非同期転送は終了の通知で記録
+		out.submit(new byte[10], 0, 10, 1000, null).get();
+		long limit = System.currentTimeMillis() + 3000;
+		while(out.getMetrics().getTransferCount() < 2 && System.currentTimeMillis() < limit){
+			Thread.sleep(10);
+		}
+		assertEquals(13, out.getMetrics().getByteCount());
+
+		// デバイスとコンテキストでの合算
+		TransferStatistics s = device.getMetrics().getStatistics();
+		long control = device.getControlMetrics().getTransferCount();
+		assertEquals(4 + control, s.getTransferCount());
+		assertEquals(16, s.getByteCount() - device.getControlMetrics().getByteCount());
+		assertEquals(s.getTransferCount(), context.getMetrics().getTransferCount());
+		context.getMetrics().reset();
+		assertEquals(0, out.getMetrics().getTransferCount());
+		return;
+	}
+
+	// ======================================================================
+	// 不正な長さのテスト
+	// ======================================================================
+	/**
+	 * {@link DeviceImpl#deviceRequest(ControlRequest)} のためのテスト・メソッド。ブリッジが
+	 * 不正な長さを返したデバイス要求が転送量に含まれず、エラーとして記録される事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testInvalidLength() throws Exception{
+		TransferMetrics control = device.getControlMetrics();
+		control.reset();
+		for(int length: new int[]{ -1, 3 }){
+			bridge.setInvalidLength(length);
+			try{
+				device.getActiveConfiguration(true);
+				fail();
+			} catch(USBException ex){/* */}
+		}
+		bridge.setInvalidLength(0);
+		assertEquals(1, device.getActiveConfiguration(true));
+		assertEquals(3, control.getTransferCount());
+		assertEquals(2, control.getErrorCount());
+		assertEquals(1, control.getByteCount());
+		return;
+	}
+
+	// ======================================================================
+	// MBean 登録のテスト
+	// ======================================================================
+	/**
+	 * {@link USBContextImpl#registerMBeans(MBeanServer, String)} のためのテスト・メソッド。
+	 * コンテキスト、デバイス、エンドポイントの MBean が登録され、取り付け/取り外しに追随する
+	 * 事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testMBeans() throws Exception{
+		MBeanServer server = MBeanServerFactory.newMBeanServer();
+		ObjectName all = new ObjectName("org.koiroha.usb:*");
+		context.registerMBeans(server, "test");
+		assertEquals(1 + 1 + 4, server.queryNames(all, null).size());
+		try{
+			context.registerMBeans(server, "test");
+			fail();
+		} catch(USBException ex){/* */}
+
+		// 属性の参照
+		out.write(new byte[]{ 1, 2, 3 }, 0, 3, 1000);
+		Set<ObjectName> names = server.queryNames(new ObjectName("org.koiroha.usb:type=Endpoint,endpoint=0x02,*"), null);
+		assertEquals(1, names.size());
+		assertEquals(3L, server.getAttribute(names.iterator().next(), "ByteCount"));
+		ObjectName ctx = new ObjectName("org.koiroha.usb:type=Context,name=" + ObjectName.quote("test"));
+		assertTrue(((Long)server.getAttribute(ctx, "TransferCount")) >= 1);
+
+		// 取り付けられたデバイスの登録と取り外されたデバイスの登録解除
+		bridge.attach(2, 0x1111);
+		context.sync();
+		assertEquals(1 + 2 * 5, server.queryNames(all, null).size());
+		bridge.detach(2);
+		context.sync();
+		assertEquals(1 + 1 + 4, server.queryNames(all, null).size());
+
+		// 登録解除
+		context.unregisterMBeans();
+		assertEquals(0, server.queryNames(all, null).size());
+		return;
+	}
+
+}
@@ -0,0 +1,361 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+import org.koiroha.usb.*;
+import org.koiroha.usb.event.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// TransferSchedulerTest: 転送スケジューラーテスト
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * {@link MemoryBridge} を使用した {@link TransferScheduler} のテストケースです。全ての
+ * 同期転送をスケジューラー経由で実行します。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ */
+public class TransferSchedulerTest extends TestObject {
+
+	/** テスト対象のブリッジです。 */
+	private MemoryBridge bridge = null;
+
+	/** テスト対象のデバイスです。 */
+	private Device device = null;
+
+	/** BULK OUT エンドポイントです。 */
+	private Endpoint out = null;
+
+	/** BULK IN エンドポイントです。 */
+	private Endpoint in = null;
+
+	/** INTERRUPT IN エンドポイントです。 */
+	private Endpoint intr = null;
+
+	// ======================================================================
+	// テストの準備
+	// ======================================================================
+	/**
+	 * メモリブリッジのデバイスをオープンしてインターフェースを要求します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Before
+	public void setUp() throws Exception{
+		bridge = new MemoryBridge();
+		bridge.setScheduled(true);
+		device = openDevice(bridge.create());
+		Map<Integer,Endpoint> endpoints = getEndpoints(device);
+		out = endpoints.get(0x02);
+		in = endpoints.get(0x81);
+		intr = endpoints.get(0x83);
+		return;
+	}
+
+	// ======================================================================
+	// テストの後処理
+	// ======================================================================
+	/**
+	 * デバイスをクローズします。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@After
+	public void tearDown() throws Exception{
+		device.close();
+		return;
+	}
+
+	// ======================================================================
+	// 直列化のテスト
+	// ======================================================================
+	/**
+	 * {@link TransferScheduler#transfer(DeviceImpl, byte, byte, org.koiroha.usb.desc.TransferType, byte[], int, int, org.koiroha.usb.desc.Direction, int)}
+	 * のためのテスト・メソッド。複数のスレッドから発行した転送がブリッジ上で同時に実行され
+	 * ない事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testSerialized() throws Exception{
+		bridge.setLatency(1);
+		final Set<Integer> seqs = Collections.synchronizedSet(new HashSet<Integer>());
+		final List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+		Thread[] threads = new Thread[4];
+		for(int i=0; i<threads.length; i++){
+			threads[i] = new Thread(){
+				@Override
+				public void run(){
+					try{
+						byte[] buffer = new byte[8];
+						for(int j=0; j<20; j++){
+							assertEquals(4, intr.read(buffer, 0, buffer.length, 1000));
+							seqs.add((buffer[0] & 0xFF) | ((buffer[1] & 0xFF) << 8));
+						}
+					} catch(Exception ex){
+						errors.add(ex);
+					}
+				}
+			};
+			threads[i].start();
+		}
+
+		// 並行してループバックを使用
+		byte[] buffer = new byte[MemoryBridge.MAX_PACKET_SIZE];
+		for(int i=0; i<20; i++){
+			out.write(new byte[]{ (byte)i }, 0, 1, 1000);
+			assertEquals(1, in.read(buffer, 0, buffer.length, 1000));
+			assertEquals((byte)i, buffer[0]);
+		}
+		for(Thread t: threads){
+			t.join(5000);
+		}
+		assertTrue(errors.toString(), errors.isEmpty());
+		assertEquals(80, seqs.size());
+		assertEquals(1, bridge.getMaxConcurrency());
+		return;
+	}
+
+	// ======================================================================
+	// タイムアウト分割のテスト
+	// ======================================================================
+	/**
+	 * データの到着しない入力転送がスライスごとに分割され、他のエンドポイントの転送が実行
+	 * される事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testSlicing() throws Exception{
+		final int[] result = { -1 };
+		Thread reader = new Thread(){
+			@Override
+			public void run(){
+				try{
+					result[0] = in.read(new byte[64], 0, 64, 5000);
+				} catch(USBException ex){
+					ex.printStackTrace();
+				}
+			}
+		};
+		reader.start();
+		Thread.sleep(MemoryBridge.SLICE);
+
+		// 長い読み込みの実行中も割り込み転送は待たされない
+		long t0 = System.currentTimeMillis();
+		for(int i=0; i<5; i++){
+			assertEquals(4, intr.read(new byte[8], 0, 8, 1000));
+		}
+		long t1 = System.currentTimeMillis();
+		assertTrue((t1 - t0) + "ms", t1 - t0 < 5 * MemoryBridge.SLICE * 3);
+		assertTrue(reader.isAlive());
+
+		// データの到着で読み込みが完了
+		out.write(new byte[]{ 1, 2, 3 }, 0, 3, 1000);
+		reader.join(3000);
+		assertFalse(reader.isAlive());
+		assertEquals(3, result[0]);
+
+		// 残り時間を超えた場合はタイムアウト
+		try{
+			in.read(new byte[64], 0, 64, MemoryBridge.SLICE * 2 + 10);
+			fail();
+		} catch(org.koiroha.usb.TimeoutException ex){/* */}
+		return;
+	}
+
+	// ======================================================================
+	// 受信途中のタイムアウトのテスト
+	// ======================================================================
+	/**
+	 * スライスのタイムアウト時に受信済みのデータが失われず、転送がそのバイト数で完了する事を
+	 * 確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testPartialSlice() throws Exception{
+		bridge.setPartialTimeout(true);
+		byte[] data = new byte[MemoryBridge.MAX_PACKET_SIZE];
+		for(int i=0; i<data.length; i++){
+			data[i] = (byte)i;
+		}
+		out.write(data, 0, data.length, 1000);
+		byte[] buffer = new byte[data.length * 4];
+		assertEquals(data.length, in.read(buffer, 0, buffer.length, MemoryBridge.SLICE * 10));
+		for(int i=0; i<data.length; i++){
+			assertEquals((byte)i, buffer[i]);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// タイムアウト計測開始のテスト
+	// ======================================================================
+	/**
+	 * 同一エンドポイントの先行する転送を待機している間は非同期転送のタイムアウトが計測され
+	 * ない事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testDeadline() throws Exception{
+		in.setQueueDepth(4);
+		AsyncTransfer first = in.submit(new byte[64], 0, 64, 5000, null);
+		AsyncTransfer second = in.submit(new byte[64], 0, 64, MemoryBridge.SLICE * 3, null);
+		Thread.sleep(MemoryBridge.SLICE * 4);
+		assertFalse(second.isDone());
+
+		out.write(new byte[]{ 1 }, 0, 1, 1000);
+		out.write(new byte[]{ 2 }, 0, 1, 1000);
+		assertEquals(1, first.get().intValue());
+		assertEquals(1, second.get().intValue());
+		return;
+	}
+
+	// ======================================================================
+	// 公平性のテスト
+	// ======================================================================
+	/**
+	 * {@link TransferScheduler#submit(DeviceImpl, byte, byte, AsyncTransferImpl)} のための
+	 * テスト・メソッド。複数のエンドポイントに発行された転送が交互に実行される事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testFairness() throws Exception{
+		bridge.setLatency(2);
+		out.setQueueDepth(16);
+		intr.setQueueDepth(16);
+		final List<Endpoint> order = Collections.synchronizedList(new ArrayList<Endpoint>());
+		TransferListener l = new TransferListener(){
+			public void transferCompleted(TransferEvent e){
+				order.add(e.getTransfer().getEndpoint());
+			}
+		};
+
+		// 一方のエンドポイントに先に全て発行
+		List<AsyncTransfer> list = new ArrayList<AsyncTransfer>();
+		for(int i=0; i<10; i++){
+			list.add(out.submit(new byte[]{ (byte)i }, 0, 1, 1000, l));
+		}
+		for(int i=0; i<10; i++){
+			list.add(intr.submit(new byte[8], 0, 8, 1000, l));
+		}
+		for(AsyncTransfer t: list){
+			t.get();
+		}
+
+		// リスナへの通知は get() の復帰と前後するため待機
+		long limit = System.currentTimeMillis() + 3000;
+		while(order.size() < 20 && System.currentTimeMillis() < limit){
+			Thread.sleep(10);
+		}
+
+		// 先に発行されたエンドポイントが連続して実行されない
+		int run = 0;
+		int max = 0;
+		synchronized(order){
+			assertEquals(20, order.size());
+			for(int i=1; i<10; i++){
+				run = (order.get(i) == order.get(i - 1))? run + 1: 0;
+				max = Math.max(max, run);
+			}
+		}
+		assertTrue(order.toString(), max <= 2);
+		return;
+	}
+
+	// ======================================================================
+	// 割り込みのテスト
+	// ======================================================================
+	/**
+	 * タイムアウトしない入力転送を待機しているスレッドが割り込みによって復帰する事を確認
+	 * します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testInterrupt() throws Exception{
+		final Exception[] result = new Exception[1];
+		Thread reader = new Thread(){
+			@Override
+			public void run(){
+				try{
+					in.read(new byte[64], 0, 64, 0);
+				} catch(USBException ex){
+					result[0] = ex;
+				}
+			}
+		};
+		reader.start();
+		Thread.sleep(MemoryBridge.SLICE * 2 + 10);
+		reader.interrupt();
+		reader.join(3000);
+		assertFalse(reader.isAlive());
+		assertNotNull(result[0]);
+
+		// 取り消された転送はレーンに残らない
+		out.write(new byte[]{ 7 }, 0, 1, 1000);
+		byte[] buffer = new byte[64];
+		assertEquals(1, in.read(buffer, 0, buffer.length, 1000));
+		assertEquals(7, buffer[0]);
+		return;
+	}
+
+	// ======================================================================
+	// 操作のテスト
+	// ======================================================================
+	/**
+	 * {@link TransferScheduler#execute(DeviceImpl, TransferScheduler.Operation)} のための
+	 * テスト・メソッド。操作がディスパッチスレッドで実行され、結果と例外が呼び出し元に返さ
+	 * れる事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testOperation() throws Exception{
+		final TransferScheduler scheduler = new TransferScheduler(bridge, 1, 0);
+		assertFalse(scheduler.isDispatchThread());
+
+		// ディスパッチスレッドで実行され、操作内からの呼び出しはその場で実行される
+		Boolean nested = scheduler.execute((DeviceImpl)device, new TransferScheduler.Operation<Boolean>(){
+			public Boolean execute() throws USBException{
+				return scheduler.execute(null, new TransferScheduler.Operation<Boolean>(){
+					public Boolean execute(){
+						return scheduler.isDispatchThread();
+					}
+				});
+			}
+		});
+		assertTrue(nested);
+
+		// 操作の例外は呼び出し元に返される
+		try{
+			scheduler.execute(null, new TransferScheduler.Operation<Object>(){
+				public Object execute() throws USBException{
+					throw new USBException("failure");
+				}
+			});
+			fail();
+		} catch(USBException ex){
+			assertEquals("failure", ex.getMessage());
+		}
+		return;
+	}
+
+}
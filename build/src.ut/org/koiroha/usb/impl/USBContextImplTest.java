@@ -0,0 +1,387 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+import org.koiroha.usb.*;
+import org.koiroha.usb.event.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// USBContextImplTest: コンテキストテスト
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * {@link MemoryBridge} を使用したコンテキストの同期化のテストケースです。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ */
+public class USBContextImplTest extends TestObject {
+
+	/** テスト対象のブリッジです。 */
+	private MemoryBridge bridge = null;
+
+	/** テスト対象のコンテキストです。 */
+	private USBContextImpl context = null;
+
+	/** 取り付け/取り外しの記録です。 */
+	private Recorder recorder = null;
+
+	// ======================================================================
+	// テストの準備
+	// ======================================================================
+	/**
+	 * メモリブリッジのコンテキストを構築します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Before
+	public void setUp() throws Exception{
+		bridge = new MemoryBridge();
+		context = bridge.create();
+		recorder = new Recorder();
+		context.addContextListener(recorder);
+		return;
+	}
+
+	// ======================================================================
+	// テストの後処理
+	// ======================================================================
+	/**
+	 * コンテキストを解放します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@After
+	public void tearDown() throws Exception{
+		context.dispose();
+		return;
+	}
+
+	// ======================================================================
+	// 差分同期のテスト
+	// ======================================================================
+	/**
+	 * {@link USBContextImpl#sync()} のためのテスト・メソッド。変化のないデバイスの
+	 * インスタンスが維持され、変化したデバイスのみが通知される事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testIncrementalSync() throws Exception{
+
+		// 初回の同期では全てのデバイスが取り付けとして通知される
+		context.sync();
+		assertEquals(1, recorder.attached.size());
+		Device first = context.lookup().get(0);
+		first.open();
+		recorder.clear();
+
+		// 変化がなければインスタンスもオープン状態も維持され通知もない
+		// 列挙した重複のインスタンスは解放される
+		int released = bridge.getReleaseCount();
+		context.sync();
+		assertEquals(released + 1, bridge.getReleaseCount());
+		assertSame(first, context.lookup().get(0));
+		assertTrue(first.isOpen());
+		assertEquals(0, recorder.attached.size());
+		assertEquals(0, recorder.detached.size());
+
+		// 取り付けたデバイスのみ通知される
+		bridge.attach(2, 0x1111);
+		bridge.attach(3, 0x2222);
+		context.sync();
+		assertEquals(3, context.lookup().size());
+		assertSame(first, context.lookup().get(0));
+		assertTrue(first.isOpen());
+		assertEquals(2, recorder.attached.size());
+		assertEquals(0x1111, recorder.attached.get(0).getDescriptor().getProductId());
+		assertSame(first.getBus(), recorder.attached.get(0).getBus());
+		Device second = recorder.attached.get(0);
+		Device third = recorder.attached.get(1);
+		recorder.clear();
+
+		// 取り外したデバイスは解放されて通知される
+		bridge.detach(2);
+		context.sync();
+		assertEquals(2, context.lookup().size());
+		assertEquals(1, recorder.detached.size());
+		assertSame(second, recorder.detached.get(0));
+		assertEquals(0, recorder.attached.size());
+		assertSame(third, context.lookup().get(1));
+		recorder.clear();
+
+		// 同じ位置で記述子が変化したデバイスは取り外しと取り付けとして通知される
+		bridge.attach(3, 0x3333);
+		context.sync();
+		assertEquals(1, recorder.detached.size());
+		assertSame(third, recorder.detached.get(0));
+		assertEquals(1, recorder.attached.size());
+		assertEquals(0x3333, recorder.attached.get(0).getDescriptor().getProductId());
+		assertTrue(first.isOpen());
+		first.close();
+		return;
+	}
+
+	// ======================================================================
+	// 検索のテスト
+	// ======================================================================
+	/**
+	 * {@link USBContextImpl#lookup(int, int)} のためのテスト・メソッド。フィルタに一致
+	 * するデバイスのみが返される事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testLookup() throws Exception{
+		bridge.attach(2, 0x1111);
+		bridge.attach(3, 0x2222);
+		context.sync();
+		assertEquals(3, context.lookup().size());
+		assertEquals(3, context.lookup(MemoryBridge.VENDOR_ID, -1).size());
+		assertEquals(1, context.lookup(MemoryBridge.VENDOR_ID, 0x2222).size());
+		assertEquals(0, context.lookup(0x9999, -1).size());
+		return;
+	}
+
+	// ======================================================================
+	// 定期同期のテスト
+	// ======================================================================
+	/**
+	 * {@link USBContextImpl#startWatch(long)} のためのテスト・メソッド。通知をサポートし
+	 * ないブリッジで定期的な同期により取り付けが検出される事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testPollingWatch() throws Exception{
+		context.sync();
+		recorder.clear();
+		context.startWatch(20);
+		try{
+			context.startWatch(20);
+			fail();
+		} catch(USBException ex){/* */}
+
+		bridge.attach(5, 0x5555);
+		recorder.await(1);
+		assertEquals(0x5555, recorder.attached.get(0).getDescriptor().getProductId());
+		context.stopWatch();
+
+		// 監視の終了後は同期されない
+		Thread.sleep(50);
+		int count = bridge.getFindCount();
+		Thread.sleep(100);
+		assertEquals(count, bridge.getFindCount());
+		return;
+	}
+
+	// ======================================================================
+	// 通知による同期のテスト
+	// ======================================================================
+	/**
+	 * {@link USBContextImpl#hotplugDetected()} のためのテスト・メソッド。ブリッジの通知に
+	 * よって同期が行われ、通知が無い間は同期されない事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testNotifiedWatch() throws Exception{
+		bridge.setNotifySupported(true);
+		context.sync();
+		recorder.clear();
+		context.startWatch(10);
+		Thread.sleep(100);
+		int count = bridge.getFindCount();
+
+		bridge.attach(7, 0x7777);
+		recorder.await(1);
+		assertEquals(count + 1, bridge.getFindCount());
+		bridge.detach(7);
+		recorder.await(2);
+		assertEquals(1, recorder.detached.size());
+		context.stopWatch();
+		return;
+	}
+
+	// ======================================================================
+	// 差分通知による同期のテスト
+	// ======================================================================
+	/**
+	 * {@link USBContextImpl#update()} のためのテスト・メソッド。監視の開始時に完全な同期を
+	 * 行い、以降はデバイスを列挙せずに通知された変化のみが反映される事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testIncrementalWatch() throws Exception{
+		bridge = new MemoryBridge();
+		bridge.setNotifySupported(true);
+		bridge.setIncremental(true);
+		context.dispose();
+		context = bridge.create();
+		recorder = new Recorder();
+		context.addContextListener(recorder);
+
+		// 監視の開始前に取り付けられたデバイスは最初の完全な同期で反映される
+		context.startWatch(10);
+		recorder.await(1);
+		Device first = recorder.attached.get(0);
+		Thread.sleep(50);
+		int count = bridge.getFindCount();
+		assertEquals(1, count);
+
+		// 取り付けは列挙なしで反映され、既存のデバイスと同じバスに接続される
+		bridge.attach(7, 0x7777);
+		recorder.await(2);
+		Device added = recorder.attached.get(1);
+		assertEquals(0x7777, added.getDescriptor().getProductId());
+		assertSame(first.getBus(), added.getBus());
+		assertEquals(2, context.lookup().size());
+		assertEquals(2, first.getBus().getDevices().size());
+
+		// 取り外したデバイスは解放されてバスから切断される
+		bridge.detach(7);
+		recorder.await(3);
+		assertSame(added, recorder.detached.get(0));
+		assertTrue(((DeviceImpl)added).isReleased());
+		assertEquals(1, context.lookup().size());
+		assertEquals(1, first.getBus().getDevices().size());
+		assertSame(first, context.lookup().get(0));
+		assertEquals(count, bridge.getFindCount());
+		context.stopWatch();
+		return;
+	}
+
+	// ======================================================================
+	// 並行した同期のテスト
+	// ======================================================================
+	/**
+	 * {@link USBContextImpl#sync()} のためのテスト・メソッド。監視スレッドと複数のスレッドが
+	 * 同時に同期を行っても通知された変化が 1 つずつ発生順に反映される事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testConcurrentSync() throws Exception{
+		bridge = new MemoryBridge();
+		bridge.setNotifySupported(true);
+		bridge.setIncremental(true);
+		context.dispose();
+		context = bridge.create();
+		recorder = new Recorder();
+		context.addContextListener(recorder);
+		context.startWatch(10);
+		recorder.await(1);
+
+		// 取り付けと取り外しを繰り返しながら複数のスレッドで同期
+		final USBContextImpl c = context;
+		final List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+		Thread[] threads = new Thread[3];
+		for(int i=0; i<threads.length; i++){
+			threads[i] = new Thread(){
+				@Override
+				public void run(){
+					try{
+						for(int j=0; j<200; j++){
+							c.sync();
+						}
+					} catch(Exception ex){
+						errors.add(ex);
+					}
+					return;
+				}
+			};
+			threads[i].start();
+		}
+		for(int i=0; i<100; i++){
+			bridge.attach(7, 0x7000 + i);
+			bridge.detach(7);
+		}
+		bridge.attach(7, 0x7777);
+		for(Thread t: threads){
+			t.join();
+		}
+		context.sync();
+		assertTrue(errors.isEmpty());
+		assertEquals(1, bridge.getMaxUpdateConcurrency());
+
+		// 最後に取り付けたデバイスのみが残る
+		List<Device> devices = context.lookup();
+		assertEquals(2, devices.size());
+		assertEquals(0x7777, devices.get(1).getDescriptor().getProductId());
+		assertEquals(2, devices.get(0).getBus().getDevices().size());
+		context.stopWatch();
+		return;
+	}
+
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	// Recorder: 通知記録リスナ
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	/**
+	 * 取り付け/取り外しの通知を記録するリスナです。
+	 * <p>
+	 */
+	private static class Recorder implements USBContextListener {
+
+		/** 取り付けられたデバイスです。 */
+		public final List<Device> attached = new ArrayList<Device>();
+
+		/** 取り外されたデバイスです。 */
+		public final List<Device> detached = new ArrayList<Device>();
+
+		/**
+		 * @param e デバイスイベント
+		 */
+		public synchronized void deviceAttached(DeviceEvent e){
+			attached.add(e.getDevice());
+			notifyAll();
+			return;
+		}
+
+		/**
+		 * @param e デバイスイベント
+		 */
+		public synchronized void deviceDetached(DeviceEvent e){
+			assertTrue(((DeviceImpl)e.getDevice()).isReleased());
+			detached.add(e.getDevice());
+			notifyAll();
+			return;
+		}
+
+		/**
+		 * 記録を消去します。
+		 */
+		public synchronized void clear(){
+			attached.clear();
+			detached.clear();
+			return;
+		}
+
+		/**
+		 * @param n 待機する通知数
+		 * @throws InterruptedException 割り込まれた場合
+		 */
+		public synchronized void await(int n) throws InterruptedException{
+			long limit = System.currentTimeMillis() + 3000;
+			while(attached.size() + detached.size() < n && System.currentTimeMillis() < limit){
+				wait(100);
+			}
+			assertTrue(attached.size() + detached.size() >= n);
+			return;
+		}
+	}
+
+}
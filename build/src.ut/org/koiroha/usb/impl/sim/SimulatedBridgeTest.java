@@ -0,0 +1,301 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.impl.sim;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+import org.koiroha.usb.*;
+import org.koiroha.usb.desc.*;
+import org.koiroha.usb.impl.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// SimulatedBridgeTest: 模擬ブリッジテスト
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * {@link SimulatedBridge} と {@link SimulatedDevice} のテストケースです。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ */
+public class SimulatedBridgeTest extends TestObject {
+
+	/** ベンダー ID です。 */
+	private static final int VENDOR_ID = 0x1234;
+
+	/** 製品 ID です。 */
+	private static final int PRODUCT_ID = 0x5678;
+
+	/** テスト対象のブリッジです。 */
+	private SimulatedBridge bridge = null;
+
+	/** テスト対象の模擬デバイスです。 */
+	private SimulatedDevice model = null;
+
+	/** テスト対象のコンテキストです。 */
+	private USBContextImpl context = null;
+
+	/** テスト対象のデバイスです。 */
+	private Device device = null;
+
+	/** アドレスをキーとしたエンドポイントです。 */
+	private Map<Integer,Endpoint> endpoints = null;
+
+	// ======================================================================
+	// テストの準備
+	// ======================================================================
+	/**
+	 * ループバックデバイスを取り付けてオープンし、インターフェースを要求します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Before
+	public void setUp() throws Exception{
+		bridge = new SimulatedBridge();
+		model = SimulatedDevice.createLoopback(VENDOR_ID, PRODUCT_ID);
+		model.setSerialNumber("0001");
+		bridge.attach(model);
+		context = bridge.create();
+		device = openDevice(context);
+		endpoints = getEndpoints(device);
+		return;
+	}
+
+	// ======================================================================
+	// テストの後処理
+	// ======================================================================
+	/**
+	 * コンテキストを解放します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@After
+	public void tearDown() throws Exception{
+		device.close();
+		context.dispose();
+		return;
+	}
+
+	// ======================================================================
+	// 記述子のテスト
+	// ======================================================================
+	/**
+	 * 模擬デバイスの設定が記述子として参照できる事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testDescriptor() throws Exception{
+		DeviceDescriptor desc = device.getDescriptor();
+		assertEquals(VENDOR_ID, desc.getVendorId());
+		assertEquals(PRODUCT_ID, desc.getProductId());
+		assertEquals(SimulatedDevice.MAX_PACKET_SIZE0, desc.getMaxPacketSize());
+		assertEquals(6, endpoints.size());
+		assertEquals(TransferType.BULK, endpoints.get(0x81).getDescriptor().getTransferType());
+		assertEquals(512, endpoints.get(0x81).getDescriptor().getMaxPacketSize());
+		assertEquals(TransferType.ISOCHRONOUS, endpoints.get(0x84).getDescriptor().getTransferType());
+
+		// 文字列記述子
+		assertEquals("koiroha.org", device.getString(desc.getManufacturerSDIX(), 0x0409));
+		assertEquals("0001", device.getString(desc.getSerialNumberSDIX(), 0x0409));
+
+		// 未サポートのリクエストはストール
+		try{
+			device.deviceRequest(new ControlRequest(0x40, 0x77, 0, 0, new byte[0]));
+			fail();
+		} catch(USBException ex){/* */}
+		assertEquals(SimulatedBridge.BUS_NAME, device.getBus().getName());
+		return;
+	}
+
+	// ======================================================================
+	// ループバックのテスト
+	// ======================================================================
+	/**
+	 * OUT エンドポイントに書き込んだデータが接続された IN エンドポイントから読み込める事と、
+	 * 生成エンドポイントが要求されたサイズを返す事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testLoopback() throws Exception{
+		byte[] data = new byte[1000];
+		for(int i=0; i<data.length; i++){
+			data[i] = (byte)i;
+		}
+		endpoints.get(0x01).write(data, 0, data.length, 1000);
+		byte[] buffer = new byte[2048];
+		assertEquals(data.length, endpoints.get(0x81).read(buffer, 0, buffer.length, 1000));
+		for(int i=0; i<data.length; i++){
+			assertEquals(data[i], buffer[i]);
+		}
+
+		// 空のキューはタイムアウト
+		try{
+			endpoints.get(0x81).read(buffer, 0, buffer.length, 10);
+			fail();
+		} catch(TimeoutException ex){/* */}
+
+		// 生成エンドポイント
+		assertEquals(buffer.length, endpoints.get(0x82).read(buffer, 0, buffer.length, 1000));
+		assertEquals(8, endpoints.get(0x83).read(buffer, 0, buffer.length, 1000));
+		assertEquals(buffer.length, model.getEndpoint(0x82).getByteCount());
+		return;
+	}
+
+	// ======================================================================
+	// 帯域と応答時間のテスト
+	// ======================================================================
+	/**
+	 * エンドポイントに設定した帯域と応答時間で転送が行われる事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testPacing() throws Exception{
+		SimulatedEndpoint e = model.getEndpoint(0x82);
+		byte[] buffer = new byte[100 * 1000];
+		e.setBandwidth(1000 * 1000);
+		long t0 = System.nanoTime();
+		endpoints.get(0x82).read(buffer, 0, buffer.length, 1000);
+		assertTrue((System.nanoTime() - t0) >= 90L * 1000 * 1000);
+
+		e.setBandwidth(0);
+		e.setLatency(20 * 1000);
+		t0 = System.nanoTime();
+		endpoints.get(0x82).read(buffer, 0, 1, 1000);
+		assertTrue((System.nanoTime() - t0) >= 19L * 1000 * 1000);
+		return;
+	}
+
+	// ======================================================================
+	// 転送時間のタイムアウトのテスト
+	// ======================================================================
+	/**
+	 * 帯域と応答時間から算出した転送時間がタイムアウトを超える場合にタイムアウト時刻で
+	 * 例外となり、読み込めなかったデータが失われない事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testPacingTimeout() throws Exception{
+		SimulatedEndpoint e = model.getEndpoint(0x82);
+		e.setBandwidth(1000 * 1000);
+		long t0 = System.nanoTime();
+		try{
+			endpoints.get(0x82).read(new byte[100 * 1000], 0, 100 * 1000, 30);
+			fail();
+		} catch(TimeoutException ex){/* */}
+		long t = System.nanoTime() - t0;
+		assertTrue(t >= 25L * 1000 * 1000);
+		assertTrue(t < 90L * 1000 * 1000);
+
+		// タイムアウトした入力転送のデータは次の読み込みで返される
+		byte[] data = { 1, 2, 3 };
+		endpoints.get(0x01).write(data, 0, data.length, 1000);
+		model.getEndpoint(0x81).setLatency(200 * 1000);
+		byte[] buffer = new byte[512];
+		try{
+			endpoints.get(0x81).read(buffer, 0, buffer.length, 20);
+			fail();
+		} catch(TimeoutException ex){/* */}
+		model.getEndpoint(0x81).setLatency(0);
+		assertEquals(data.length, endpoints.get(0x81).read(buffer, 0, buffer.length, 1000));
+		assertEquals(3, buffer[2]);
+		return;
+	}
+
+	// ======================================================================
+	// ストールのテスト
+	// ======================================================================
+	/**
+	 * ストールしたエンドポイントへの転送が失敗し、状態の参照と解除ができる事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testStall() throws Exception{
+		byte[] buffer = new byte[64];
+		model.getEndpoint(0x82).stall();
+		try{
+			endpoints.get(0x82).read(buffer, 0, buffer.length, 1000);
+			fail();
+		} catch(USBException ex){/* */}
+		assertEquals(1, getEndpointStatus(0x82));
+
+		// CLEAR_FEATURE(ENDPOINT_HALT) による解除
+		device.deviceRequest(new ControlRequest(0x02, ControlRequest.CLEAR_FEATURE, 0, 0x82, new byte[0]));
+		assertEquals(0, getEndpointStatus(0x82));
+		assertEquals(buffer.length, endpoints.get(0x82).read(buffer, 0, buffer.length, 1000));
+
+		// SET_FEATURE(ENDPOINT_HALT) による設定とブリッジによる解除
+		device.deviceRequest(new ControlRequest(0x02, ControlRequest.SET_FEATURE, 0, 0x82, new byte[0]));
+		assertTrue(model.getEndpoint(0x82).isStalled());
+		endpoints.get(0x82).clearHalt();
+		assertFalse(model.getEndpoint(0x82).isStalled());
+		return;
+	}
+
+	// ======================================================================
+	// 多数のデバイスのテスト
+	// ======================================================================
+	/**
+	 * 多数のデバイスの取り付け/取り外しがコンテキストの同期で反映される事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testManyDevices() throws Exception{
+		List<SimulatedDevice> devices = new ArrayList<SimulatedDevice>();
+		for(int i=0; i<200; i++){
+			SimulatedDevice d = SimulatedDevice.createLoopback(VENDOR_ID + 1, i % 10);
+			bridge.attach(d);
+			devices.add(d);
+		}
+		context.sync();
+		assertEquals(201, context.lookup().size());
+		assertEquals(20, context.lookup(VENDOR_ID + 1, 3).size());
+
+		// 取り外したデバイスはオープンできない
+		Device d0 = context.lookup(VENDOR_ID + 1, 0).get(0);
+		for(int i=0; i<100; i++){
+			bridge.detach(devices.get(i));
+		}
+		try{
+			d0.open();
+			fail();
+		} catch(USBException ex){/* */}
+		context.sync();
+		assertEquals(101, context.lookup().size());
+		assertEquals(101, bridge.getDevices().size());
+		return;
+	}
+
+	// ======================================================================
+	// エンドポイントステータスの参照
+	// ======================================================================
+	/**
+	 * 指定されたアドレスのエンドポイントに GET_STATUS 要求を実行します。
+	 * <p>
+	 * @param address エンドポイントアドレス
+	 * @return ステータス
+	 * @throws USBException 要求に失敗した場合
+	 */
+	private int getEndpointStatus(int address) throws USBException{
+		byte[] buffer = new byte[2];
+		device.deviceRequest(new ControlRequest(0x82, ControlRequest.GET_STATUS, 0, address, buffer));
+		return buffer[0];
+	}
+
+}
@@ -0,0 +1,216 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.util;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import org.junit.Test;
+import org.koiroha.usb.*;
+import org.koiroha.usb.impl.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// BufferPoolTest: バッファプールテスト
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * {@link BufferPool} とダイレクトバッファ転送のテストケースです。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ */
+public class BufferPoolTest extends TestObject {
+
+	// ======================================================================
+	// 確保のテスト
+	// ======================================================================
+	/**
+	 * {@link BufferPool#allocate(int)} のためのテスト・メソッド。
+	 * <p>
+	 */
+	@Test
+	public void testAllocate(){
+		BufferPool pool = new BufferPool(4);
+		ByteBuffer b = pool.allocate(100);
+		assertTrue(b.isDirect());
+		assertEquals(0, b.position());
+		assertEquals(100, b.limit());
+		assertEquals(128, b.capacity());
+		assertEquals(USB.BYTE_ORDER, b.order());
+		assertEquals(64, pool.allocate(0).capacity());
+		assertEquals(64, pool.allocate(64).capacity());
+		assertEquals(128, pool.allocate(65).capacity());
+		assertEquals(4096, pool.allocate(4096).capacity());
+		try{
+			pool.allocate(-1);
+			fail();
+		} catch(IllegalArgumentException ex){/* */}
+		return;
+	}
+
+	// ======================================================================
+	// 再利用のテスト
+	// ======================================================================
+	/**
+	 * {@link BufferPool#release(ByteBuffer)} のためのテスト・メソッド。
+	 * 返却したバッファが再利用され新規確保が発生しない事を確認します。
+	 * <p>
+	 */
+	@Test
+	public void testReuse(){
+		BufferPool pool = new BufferPool(2);
+		ByteBuffer b1 = pool.allocate(512);
+		ByteBuffer b2 = pool.allocate(300);
+		assertEquals(2, pool.getAllocatedCount());
+		pool.release(b1);
+		pool.release(b2);
+		for(int i=0; i<1000; i++){
+			ByteBuffer b = pool.allocate(257 + (i % 256));
+			assertEquals(512, b.capacity());
+			pool.release(b);
+		}
+		assertEquals(2, pool.getAllocatedCount());
+
+		// 上限を超えた返却は保持しない
+		ByteBuffer[] b = new ByteBuffer[3];
+		for(int i=0; i<b.length; i++){
+			b[i] = pool.allocate(512);
+		}
+		assertEquals(3, pool.getAllocatedCount());
+		for(int i=0; i<b.length; i++){
+			pool.release(b[i]);
+		}
+		pool.release(null);
+		pool.allocate(512);
+		pool.allocate(512);
+		assertEquals(3, pool.getAllocatedCount());
+		pool.allocate(512);
+		assertEquals(4, pool.getAllocatedCount());
+
+		// プール外のバッファと二重返却は拒否
+		ByteBuffer[] foreign = {
+			ByteBuffer.allocateDirect(512), ByteBuffer.allocateDirect(100),
+			ByteBuffer.allocate(512), new BufferPool(2).allocate(512),
+		};
+		for(ByteBuffer f: foreign){
+			try{
+				pool.release(f);
+				fail();
+			} catch(IllegalArgumentException ex){/* */}
+		}
+		ByteBuffer d = pool.allocate(100);
+		pool.release(d);
+		try{
+			pool.release(d);
+			fail();
+		} catch(IllegalArgumentException ex){/* */}
+		assertSame(d, pool.allocate(100));
+		return;
+	}
+
+	// ======================================================================
+	// 多数の貸し出しのテスト
+	// ======================================================================
+	/**
+	 * 多数のバッファを同時に貸し出した場合も返却済みや保持されなかったバッファの返却が拒否
+	 * される事を確認します。
+	 * <p>
+	 */
+	@Test
+	public void testManyLent(){
+		BufferPool pool = new BufferPool(4);
+		ByteBuffer[] b = new ByteBuffer[100];
+		for(int i=0; i<b.length; i++){
+			b[i] = pool.allocate(1000);
+		}
+		assertEquals(b.length, pool.getAllocatedCount());
+		for(int i=0; i<b.length; i++){
+			pool.release(b[i]);
+		}
+		for(int i=0; i<b.length; i++){
+			try{
+				pool.release(b[i]);
+				fail();
+			} catch(IllegalArgumentException ex){/* */}
+		}
+
+		// 保持された 4 つのみが再利用される
+		for(int i=0; i<4; i++){
+			assertSame(b[3 - i], pool.allocate(1000));
+		}
+		assertEquals(b.length, pool.getAllocatedCount());
+		pool.allocate(1000);
+		assertEquals(b.length + 1, pool.getAllocatedCount());
+		return;
+	}
+
+	// ======================================================================
+	// バッファ転送のテスト
+	// ======================================================================
+	/**
+	 * {@link Endpoint#write(ByteBuffer, int)} と {@link Endpoint#read(ByteBuffer, int)}
+	 * のためのテスト・メソッド。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testEndpointTransfer() throws Exception{
+		MemoryBridge bridge = new MemoryBridge();
+		Device device = openDevice(bridge.create());
+		try{
+			Map<Integer,Endpoint> endpoints = getEndpoints(device);
+			Endpoint out = endpoints.get(0x02);
+			Endpoint in = endpoints.get(0x81);
+			BufferPool pool = new BufferPool(4);
+
+			// ダイレクトバッファはそのままブリッジに渡される
+			ByteBuffer b = pool.allocate(10);
+			for(int i=0; i<10; i++){
+				b.put((byte)i);
+			}
+			b.flip();
+			out.write(b, 1000);
+			assertEquals(10, b.position());
+			assertEquals(1, bridge.getDirectCount());
+
+			ByteBuffer r = pool.allocate(64);
+			r.position(3);
+			assertEquals(10, in.read(r, 1000));
+			assertEquals(13, r.position());
+			for(int i=0; i<10; i++){
+				assertEquals((byte)i, r.get(3 + i));
+			}
+			assertEquals(2, bridge.getDirectCount());
+
+			// ヒープバッファは配列を使用して転送される
+			ByteBuffer h = ByteBuffer.wrap(new byte[]{ 0, 1, 2, 3, 4, 5 }, 2, 3);
+			out.write(h, 1000);
+			assertEquals(5, h.position());
+			ByteBuffer hr = ByteBuffer.allocate(16);
+			assertEquals(3, in.read(hr, 1000));
+			assertEquals(2, hr.get(0));
+			assertEquals(4, hr.get(2));
+			assertEquals(2, bridge.getDirectCount());
+
+			// 読み込み専用バッファへは受信できない
+			try{
+				in.read(ByteBuffer.allocate(8).asReadOnlyBuffer(), 1000);
+				fail();
+			} catch(java.nio.ReadOnlyBufferException ex){/* */}
+		} finally {
+			device.close();
+		}
+		return;
+	}
+
+}
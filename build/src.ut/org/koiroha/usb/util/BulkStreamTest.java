@@ -0,0 +1,439 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.util;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+
+import org.junit.*;
+import org.koiroha.usb.*;
+import org.koiroha.usb.impl.*;
+import org.koiroha.usb.impl.sim.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// BulkStreamTest: バルクストリームテスト
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * {@link BulkInputStream} と {@link BulkOutputStream} のテストケースです。模擬デバイスの
+ * ループバックエンドポイント (0x01 → 0x81、最大パケットサイズ 512) を使用します。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ */
+public class BulkStreamTest extends TestObject {
+
+	/** 模擬デバイスです。 */
+	private SimulatedDevice model = null;
+
+	/** テスト対象のコンテキストです。 */
+	private USBContextImpl context = null;
+
+	/** テスト対象のデバイスです。 */
+	private Device device = null;
+
+	/** ループバック BULK OUT エンドポイントです。 */
+	private EndpointImpl out = null;
+
+	/** ループバック BULK IN エンドポイントです。 */
+	private EndpointImpl in = null;
+
+	// ======================================================================
+	// テストの準備
+	// ======================================================================
+	/**
+	 * ループバックデバイスをオープンしてインターフェースを要求します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Before
+	public void setUp() throws Exception{
+		SimulatedBridge bridge = new SimulatedBridge();
+		model = SimulatedDevice.createLoopback(0x1234, 0x5678);
+		bridge.attach(model);
+		context = bridge.create();
+		device = openDevice(context);
+		Map<Integer,Endpoint> endpoints = getEndpoints(device);
+		out = (EndpointImpl)endpoints.get(0x01);
+		in = (EndpointImpl)endpoints.get(0x81);
+		return;
+	}
+
+	// ======================================================================
+	// テストの後処理
+	// ======================================================================
+	/**
+	 * コンテキストを解放します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@After
+	public void tearDown() throws Exception{
+		device.close();
+		context.dispose();
+		return;
+	}
+
+	// ======================================================================
+	// 小さな読み書きのテスト
+	// ======================================================================
+	/**
+	 * 1 バイトずつの書き込みが flush まで 1 回の転送に集約され、1 バイトずつの読み込みが
+	 * 先読みバッファから返される事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testCoalescing() throws Exception{
+		BulkOutputStream os = new BulkOutputStream(out, 1000);
+		assertEquals(1024, os.getBufferSize());
+		for(int i=0; i<1000; i++){
+			os.write(i);
+		}
+		assertEquals(0, out.getMetrics().getTransferCount());
+		os.flush();
+		assertEquals(1, out.getMetrics().getTransferCount());
+
+		BulkInputStream is = new BulkInputStream(in);
+		is.setTimeout(1000);
+		for(int i=0; i<1000; i++){
+			assertEquals(i & 0xFF, is.read());
+		}
+		assertEquals(0, is.available());
+		assertEquals(1, in.getMetrics().getTransferCount());
+
+		// バッファが一杯になった時点で完全なパケットのみを送信
+		for(int i=0; i<1100; i++){
+			os.write(i);
+		}
+		assertEquals(2, out.getMetrics().getTransferCount());
+		assertEquals(1024, in.read(new byte[1024], 0, 1024, 1000));
+		return;
+	}
+
+	// ======================================================================
+	// 大きな読み書きのテスト
+	// ======================================================================
+	/**
+	 * バッファサイズ以上の読み書きがパケット境界までを直接転送し、データが正しく届く事を
+	 * 確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testLargeTransfer() throws Exception{
+		byte[] data = pattern(10000);
+		BulkOutputStream os = new BulkOutputStream(out);
+		os.write(data);
+		assertEquals(1, out.getMetrics().getTransferCount());
+		assertEquals(10000 / 512 * 512, out.getMetrics().getByteCount());
+		os.close();
+		assertEquals(2, out.getMetrics().getTransferCount());
+
+		BulkInputStream is = new BulkInputStream(in);
+		is.setTimeout(1000);
+		byte[] buffer = new byte[20000];
+		int len = 0;
+		while(len < data.length){
+			len += is.read(buffer, len, buffer.length - len);
+		}
+		assertEquals(data.length, len);
+		for(int i=0; i<data.length; i++){
+			assertEquals(data[i], buffer[i]);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// ZLP のテスト
+	// ======================================================================
+	/**
+	 * flush 時の終端がパケット境界に一致する場合のみ ZLP が送信され、入力ストリームは ZLP を
+	 * 読み飛ばす事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testZeroLengthPacket() throws Exception{
+		byte[] buffer = new byte[512];
+		BulkOutputStream os = new BulkOutputStream(out);
+
+		// デフォルトでは ZLP を送信しない
+		os.write(buffer);
+		os.flush();
+		assertEquals(512, in.read(buffer, 0, 512, 1000));
+		try{
+			in.read(buffer, 0, 512, 10);
+			fail();
+		} catch(TimeoutException ex){/* */}
+
+		// パケット境界で終わる flush のみ ZLP を送信
+		os.setZeroLengthPacket(true);
+		os.write(buffer);
+		os.flush();
+		assertEquals(3, out.getMetrics().getTransferCount());
+		os.flush();
+		assertEquals(3, out.getMetrics().getTransferCount());
+		os.write(buffer, 0, 100);
+		os.flush();
+		assertEquals(4, out.getMetrics().getTransferCount());
+		assertEquals(512, in.read(buffer, 0, 512, 1000));
+		assertEquals(0, in.read(buffer, 0, 512, 1000));
+
+		// 入力ストリームは ZLP を読み飛ばす
+		os.write(buffer);
+		os.flush();
+		os.write(new byte[]{ 1, 2, 3 });
+		os.flush();
+		BulkInputStream is = new BulkInputStream(in);
+		is.setTimeout(1000);
+		assertEquals(100, is.read(new byte[100]));
+		assertEquals(512, is.read(buffer));
+		assertEquals(3, is.read(buffer));
+		assertEquals(3, buffer[2]);
+		return;
+	}
+
+	// ======================================================================
+	// 部分的な転送のテスト
+	// ======================================================================
+	/**
+	 * ブリッジが一部のデータのみを転送した場合に残りのデータが続けて送信される事を確認
+	 * します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testPartialTransfer() throws Exception{
+		byte[] data = pattern(1000);
+		model.getEndpoint(0x01).setTransferLimit(100);
+		BulkOutputStream os = new BulkOutputStream(out);
+		os.write(data);
+		os.flush();
+		assertEquals(10, out.getMetrics().getTransferCount());
+
+		byte[] buffer = new byte[1000];
+		int len = 0;
+		while(len < buffer.length){
+			len += in.read(buffer, len, buffer.length - len, 1000);
+		}
+		for(int i=0; i<data.length; i++){
+			assertEquals(data[i], buffer[i]);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 長さ 0 の転送のテスト
+	// ======================================================================
+	/**
+	 * ブリッジが長さ 0 の転送を返した場合にタイムアウトとして扱われず、ZLP の送信と受信が
+	 * 正常に完了する事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testZeroLengthReturn() throws Exception{
+		SimulatedEndpoint sim = model.getEndpoint(0x81);
+		sim.offer(new byte[0]);
+		byte[] buffer = new byte[512];
+		assertEquals(0, in.read(buffer, 0, buffer.length, 1000));
+		out.write(buffer, 0, 0, 1000);
+		assertEquals(0, in.read(buffer, 0, buffer.length, 1000));
+		assertEquals(0, in.getMetrics().getTimeoutCount());
+		assertEquals(0, out.getMetrics().getTimeoutCount());
+
+		// ストリームは長さ 0 の転送を読み飛ばす
+		sim.offer(new byte[0]);
+		sim.offer(new byte[0]);
+		sim.offer(new byte[]{ 1, 2, 3 });
+		BulkInputStream is = new BulkInputStream(in);
+		is.setTimeout(1000);
+		assertEquals(3, is.read(buffer));
+		assertEquals(3, buffer[2]);
+		assertEquals(0, in.getMetrics().getTimeoutCount());
+
+		// 指定した場合は ZLP ごとに 0 を返す
+		is.setZeroLengthPacket(true);
+		sim.offer(new byte[0]);
+		sim.offer(new byte[0]);
+		sim.offer(new byte[]{ 4, 5 });
+		assertEquals(0, is.read(buffer, 0, 10));
+		assertEquals(0, is.getChannel().read(ByteBuffer.allocate(10)));
+		assertEquals(2, is.read(buffer, 0, 10));
+		assertEquals(5, buffer[1]);
+
+		// ZLP の読み飛ばしは読み込みの開始からのタイムアウトで打ち切られる
+		is.setZeroLengthPacket(false);
+		is.setTimeout(100);
+		sim.setLatency(10 * 1000);
+		for(int i=0; i<100; i++){
+			sim.offer(new byte[0]);
+		}
+		long t0 = System.currentTimeMillis();
+		try{
+			is.read(buffer);
+			fail();
+		} catch(TimeoutException ex){/* */}
+		long t1 = System.currentTimeMillis();
+		assertTrue((t1 - t0) + "ms", t1 - t0 < 500);
+		return;
+	}
+
+	// ======================================================================
+	// 部分的なタイムアウトのテスト
+	// ======================================================================
+	/**
+	 * 一部のパケットを送信した後にタイムアウトした場合、送信済みのデータがバッファから取り
+	 * 除かれ、再送で重複して送信されない事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testPartialTimeout() throws Exception{
+		byte[] data = pattern(4096);
+		model.getEndpoint(0x01).setBandwidth(512 * 10);
+		BulkOutputStream os = new BulkOutputStream(out, 8192);
+		os.setTimeout(250);
+		os.write(data);
+		int accepted = 0;
+		try{
+			os.flush();
+			fail();
+		} catch(TimeoutException ex){
+			accepted = ex.getTransferred();
+		}
+		assertTrue(accepted > 0 && accepted < data.length);
+		assertEquals(0, accepted % 512);
+
+		// 再送では残りのデータのみが送信される
+		model.getEndpoint(0x01).setBandwidth(0);
+		os.flush();
+		byte[] buffer = new byte[data.length];
+		int len = 0;
+		while(len < buffer.length){
+			len += in.read(buffer, len, buffer.length - len, 1000);
+		}
+		for(int i=0; i<data.length; i++){
+			assertEquals(data[i], buffer[i]);
+		}
+		try{
+			in.read(buffer, 0, 512, 10);
+			fail();
+		} catch(TimeoutException ex){/* */}
+		return;
+	}
+
+	// ======================================================================
+	// チャネルのテスト
+	// ======================================================================
+	/**
+	 * チャネルがストリームとバッファを共有し、クローズ状態を共有する事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testChannel() throws Exception{
+		BulkOutputStream os = new BulkOutputStream(out);
+		WritableByteChannel wc = os.getChannel();
+		os.write(1);
+		assertEquals(5000, wc.write(ByteBuffer.wrap(pattern(5000))));
+		ByteBuffer direct = ByteBuffer.allocateDirect(8192);
+		direct.put(pattern(8192)).flip();
+		assertEquals(8192, wc.write(direct));
+		assertFalse(direct.hasRemaining());
+		wc.close();
+		assertFalse(os.getChannel().isOpen());
+		try{
+			os.write(0);
+			fail();
+		} catch(IOException ex){/* */}
+
+		BulkInputStream is = new BulkInputStream(in);
+		is.setTimeout(1000);
+		ReadableByteChannel rc = is.getChannel();
+		assertEquals(1, is.read());
+		ByteBuffer b = ByteBuffer.allocate(5000 + 8192);
+		while(b.hasRemaining()){
+			assertTrue(rc.read(b) > 0);
+		}
+		b.flip();
+		byte[] expected = pattern(5000);
+		for(int i=0; i<expected.length; i++){
+			assertEquals(expected[i], b.get());
+		}
+		expected = pattern(8192);
+		for(int i=0; i<expected.length; i++){
+			assertEquals(expected[i], b.get());
+		}
+
+		// タイムアウトとクローズ
+		is.setTimeout(10);
+		try{
+			rc.read(ByteBuffer.allocate(16));
+			fail();
+		} catch(TimeoutException ex){/* */}
+		is.close();
+		try{
+			rc.read(ByteBuffer.allocate(16));
+			fail();
+		} catch(ClosedChannelException ex){/* */}
+		return;
+	}
+
+	// ======================================================================
+	// 不正なエンドポイントのテスト
+	// ======================================================================
+	/**
+	 * BULK 以外や方向の異なるエンドポイントを指定できない事を確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testInvalidEndpoint() throws Exception{
+		try{
+			new BulkInputStream(out);
+			fail();
+		} catch(IllegalArgumentException ex){/* */}
+		try{
+			new BulkOutputStream(in);
+			fail();
+		} catch(IllegalArgumentException ex){/* */}
+		List<Endpoint> list = in.getAltSetting().getEndpoints();
+		try{
+			new BulkInputStream(list.get(list.size() - 1));
+			fail();
+		} catch(IllegalArgumentException ex){/* */}
+		return;
+	}
+
+	// ======================================================================
+	// テストデータの作成
+	// ======================================================================
+	/**
+	 * 位置に依存したテストデータを作成します。
+	 * <p>
+	 * @param length 長さ
+	 * @return テストデータ
+	 */
+	private static byte[] pattern(int length){
+		byte[] data = new byte[length];
+		for(int i=0; i<length; i++){
+			data[i] = (byte)(i * 31 + (i >> 8));
+		}
+		return data;
+	}
+
+}
@@ -0,0 +1,146 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.util;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.net.URL;
+import java.util.logging.*;
+
+import org.junit.*;
+import org.koiroha.usb.TestObject;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// ClassIDTest: クラス ID テスト
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * {@link ClassID} とバイナリ形式のデータベースのテストケースです。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ */
+public class ClassIDTest extends TestObject {
+
+	/** テストに使用するクラスパス上の IDS ファイルです。 */
+	public static final URL IDS = ClassIDTest.class.getResource("/org/koiroha/usb/tools/usb.ids");
+
+	/** IDS ファイルから構築したインスタンスです。 */
+	private static ClassID ids = null;
+
+	// ======================================================================
+	// テストの準備
+	// ======================================================================
+	/**
+	 * IDS ファイルからインスタンスを構築します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@BeforeClass
+	public static void load() throws Exception{
+		Logger.getLogger(ClassID.class.getName()).setLevel(Level.INFO);
+		assertNotNull("usb.ids not found in classpath", IDS);
+		ids = ClassID.getClassIDFromIDS(IDS);
+		return;
+	}
+
+	// ======================================================================
+	// 名称参照のテスト
+	// ======================================================================
+	/**
+	 * {@link ClassID#getVendor(int)} などのためのテスト・メソッド。
+	 * <p>
+	 */
+	@Test
+	public void testLookup(){
+		assertEquals("Logitech, Inc.", ids.getVendor(0x046D));
+		assertEquals("Human Interface Device", ids.getClass(0x03));
+		assertEquals("No Subclass", ids.getSubClass(0x03, 0x00));
+		assertEquals("None", ids.getProtocol(0x03, 0x00, 0x00));
+		assertEquals("Arabic", ids.getLanguage(0x0001));
+		assertEquals("Saudi Arabia", ids.getLanguage(0x0401));
+		assertEquals("", ids.getProtocol(0x03, 0x00, 0xFE));
+		return;
+	}
+
+	// ======================================================================
+	// データベースのテスト
+	// ======================================================================
+	/**
+	 * {@link ClassID#writeDatabase(OutputStream)} と {@link ClassID#getClassIDFromDatabase(File)}
+	 * のためのテスト・メソッド。メモリマップしたデータベースが IDS ファイルと同じ結果を返す事を
+	 * 確認します。
+	 * <p>
+	 * @throws Exception テストに失敗した場合
+	 */
+	@Test
+	public void testDatabase() throws Exception{
+		File file = File.createTempFile("usb4j", ".db");
+		try{
+			OutputStream out = new FileOutputStream(file);
+			ids.writeDatabase(out);
+			out.close();
+			ClassID db = ClassID.getClassIDFromDatabase(file);
+
+			// 全てのベンダーとクラスで一致
+			for(int v=0; v<=0xFFFF; v++){
+				assertEquals(ids.getVendor(v), db.getVendor(v));
+			}
+			assertEquals(ids.getProduct(0x046D, 0xC52B), db.getProduct(0x046D, 0xC52B));
+			for(int c=0; c<=0xFF; c++){
+				assertEquals(ids.getClass(c), db.getClass(c));
+				for(int s=0; s<=0xFF; s++){
+					assertEquals(ids.getSubClass(c, s), db.getSubClass(c, s));
+					assertEquals(ids.getProtocol(c, s, 1), db.getProtocol(c, s, 1));
+				}
+			}
+
+			// 全ての言語で一致
+			assertEquals(ids.getAvailableLangIDs(), db.getAvailableLangIDs());
+			for(short l: ids.getAvailableLangIDs()){
+				assertEquals(ids.getLanguage(l), db.getLanguage(l));
+				assertEquals(ids.getLanguageLocale(l), db.getLanguageLocale(l));
+			}
+
+			// ストリームからの読み込みも同じ結果
+			InputStream in = new FileInputStream(file);
+			ClassID heap = ClassID.getClassIDFromDatabase(in);
+			in.close();
+			assertEquals(ids.getVendor(0x046D), heap.getVendor(0x046D));
+		} finally {
+			file.delete();
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 不正なデータベースのテスト
+	// ======================================================================
+	/**
+	 * {@link ClassID#getClassIDFromDatabase(InputStream)} のためのテスト・メソッド。
+	 * データベースでないバイナリは例外となる事を確認します。
+	 * <p>
+	 */
+	@Test
+	public void testInvalidDatabase(){
+		try{
+			ClassID.getClassIDFromDatabase(new ByteArrayInputStream("<usbclassid/>".getBytes()));
+			fail();
+		} catch(IOException ex){/* */}
+		try{
+			ClassID.getClassIDFromDatabase(new ByteArrayInputStream(new byte[]{ 0x55, 0x43, 0x49, 0x44 }));
+			fail();
+		} catch(IOException ex){/* */}
+		return;
+	}
+
+}
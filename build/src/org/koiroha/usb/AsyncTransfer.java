@@ -0,0 +1,76 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb;
+
+import java.util.concurrent.Future;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// AsyncTransfer: 非同期転送
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * {@link Endpoint#submit(byte[], int, int, int, org.koiroha.usb.event.TransferListener)}
+ * によって発行された非同期転送を表すインターフェースです。
+ * <p>
+ * {@link #get()} は転送の完了を待機して実際に転送されたバイト数を返します。転送が失敗した
+ * 場合は {@link USBException} を原因とする {@link java.util.concurrent.ExecutionException}
+ * が発生します。{@link #cancel(boolean)} を呼び出すと実行待ちまたは実行中の転送を中断します。
+ * ただしブリッジ実装によっては既に開始した転送を中断できない場合があります。
+ * <p>
+ * 転送が完了するまでアプリケーションは {@link #getBuffer()} のバッファを変更してはいけま
+ * せん。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ */
+public interface AsyncTransfer extends Future<Integer> {
+
+	// ======================================================================
+	// エンドポイントの参照
+	// ======================================================================
+	/**
+	 * この転送を発行したエンドポイントを参照します。
+	 * <p>
+	 * @return エンドポイント
+	 */
+	public Endpoint getEndpoint();
+
+	// ======================================================================
+	// バッファの参照
+	// ======================================================================
+	/**
+	 * この転送の入出力に使用するバッファを参照します。
+	 * <p>
+	 * @return バッファ
+	 */
+	public byte[] getBuffer();
+
+	// ======================================================================
+	// オフセットの参照
+	// ======================================================================
+	/**
+	 * バッファ内の入出力開始位置を参照します。
+	 * <p>
+	 * @return オフセット
+	 */
+	public int getOffset();
+
+	// ======================================================================
+	// 長さの参照
+	// ======================================================================
+	/**
+	 * この転送で要求した入出力データの長さを参照します。
+	 * <p>
+	 * @return 要求したデータ長
+	 */
+	public int getLength();
+
+}
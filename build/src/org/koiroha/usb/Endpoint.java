@@ -10,10 +10,11 @@
 */
 package org.koiroha.usb;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 
 import org.koiroha.usb.desc.*;
-import org.koiroha.usb.event.IsocTransferListener;
+import org.koiroha.usb.event.*;
 
 // ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
 // Endpoint: エンドポイント
@@ -144,6 +145,9 @@ public interface Endpoint {
 	 * いくつかのデバイスでは 0 バイトデータの送信が意味を持つことがあるため、サブクラスは
 	 * length が 0 の書き込みを省略しないよう実装する必要があります。
 	 * <p>
+	 * 書き込みの途中でタイムアウトした場合に発生する {@link TimeoutException} は、デバイスが
+	 * 受け付けたバイト数を {@link TimeoutException#getTransferred()} で参照できます。
+	 * <p>
 	 * @param buffer 出力用のデータが格納されているバッファ
 	 * @param offset バッファ内のデータのオフセット
 	 * @param length バッファ内のデータの長さ
@@ -173,6 +177,94 @@ public interface Endpoint {
 	 */
 	public int read(byte[] buffer, int offset, int length, int timeout) throws USBException;
 
+	// ======================================================================
+	// データの出力
+	// ======================================================================
+	/**
+	 * 指定されたバッファの位置からリミットまでのデータを送信します。送信したデータの分だけバッファ
+	 * の位置が進みます。転送タイプや転送方向の制約は {@link #write(byte[], int, int, int)}
+	 * と同じです。
+	 * <p>
+	 * ダイレクトバッファを指定した場合、データはコピーされずにそのままネイティブライブラリへ
+	 * 渡されます。繰り返し転送を行う場合は {@link org.koiroha.usb.util.BufferPool} で確保した
+	 * バッファを再利用する事でヒープの確保とコピーを避ける事が出来ます。
+	 * <p>
+	 * @param buffer 出力用のデータが格納されているバッファ
+	 * @param timeout タイムアウト (ミリ秒)
+	 * @throws USBException データの出力に失敗した場合
+	 */
+	public void write(ByteBuffer buffer, int timeout) throws USBException;
+
+	// ======================================================================
+	// データの入力
+	// ======================================================================
+	/**
+	 * 指定されたバッファの位置からリミットまでの領域にデータを受信します。受信したデータの分だけ
+	 * バッファの位置が進みます。転送タイプや転送方向の制約は {@link #read(byte[], int, int, int)}
+	 * と同じです。
+	 * <p>
+	 * ダイレクトバッファを指定した場合、ネイティブライブラリはバッファへ直接データを格納します。
+	 * <p>
+	 * @param buffer 入力データを格納するバッファ
+	 * @param timeout タイムアウト (ミリ秒)
+	 * @return 実際に読み込んだ長さ
+	 * @throws USBException データの入力に失敗した場合
+	 */
+	public int read(ByteBuffer buffer, int timeout) throws USBException;
+
+	// ======================================================================
+	// 非同期転送の発行
+	// ======================================================================
+	/**
+	 * {@link TransferType#BULK} または {@link TransferType#INTERRUPT} のエンド
+	 * ポイントに対して非同期転送を発行します。転送方向はエンドポイントの方向に従い、
+	 * {@link Direction#IN} であればバッファへの受信、{@link Direction#OUT} であれば
+	 * バッファからの送信となります。
+	 * <p>
+	 * このメソッドは転送の完了を待機せずにすぐに処理を戻します。同一のエンドポイントに対して
+	 * {@link #getQueueDepth() キュー深さ}まで複数の転送を同時に発行する事ができ、それらは
+	 * 発行順に実行および完了通知されます。既にキュー深さまで転送が発行されている場合、この
+	 * メソッドはいずれかの転送が終了するまで待機します。
+	 * <p>
+	 * 発行された転送が同時にデバイスへ発行されるかどうかはブリッジに依存します。現在の libusb
+	 * 0.1 と OpenUSB のブリッジは同一エンドポイントの転送を 1 つずつ同期転送として実行するため、
+	 * キュー深さは待機できる転送の数を制限するのみで、転送の合間にはバスが空きます。
+	 * <p>
+	 * 転送の終了はリスナ、または返値の {@link AsyncTransfer#get()} で知ることが出来ます。
+	 * リスナには null を指定する事ができます。
+	 * <p>
+	 * @param buffer 入出力データのバッファ
+	 * @param offset バッファ内のデータのオフセット
+	 * @param length バッファ内のデータの長さ
+	 * @param timeout タイムアウト (ミリ秒)
+	 * @param l 転送の終了を通知するリスナ
+	 * @return 非同期転送
+	 * @throws USBException 非同期転送の発行に失敗した場合
+	 */
+	public AsyncTransfer submit(byte[] buffer, int offset, int length, int timeout, TransferListener l) throws USBException;
+
+	// ======================================================================
+	// キュー深さの設定
+	// ======================================================================
+	/**
+	 * このエンドポイントで同時に発行可能な非同期転送の数を設定します。デフォルトは 1 です。
+	 * デバイスへ同時に発行される転送の数ではありません ({@link #submit(byte[], int, int, int,
+	 * TransferListener)} を参照)。
+	 * <p>
+	 * @param depth 同時に発行可能な非同期転送の数
+	 */
+	public void setQueueDepth(int depth);
+
+	// ======================================================================
+	// キュー深さの参照
+	// ======================================================================
+	/**
+	 * このエンドポイントで同時に発行可能な非同期転送の数を参照します。
+	 * <p>
+	 * @return 同時に発行可能な非同期転送の数
+	 */
+	public int getQueueDepth();
+
 	// ======================================================================
 	// 等時間隔受信の開始
 	// ======================================================================
@@ -211,12 +303,63 @@ public interface Endpoint {
 	 */
 	public void startIsocRead(IsocTransferListener l, long startFrame, int frames, int bufSize, int priority) throws USBException;
 
+	// ======================================================================
+	// 等時間隔ストリームの開始
+	// ======================================================================
+	/**
+	 * このエンドポイントでの多重バッファ等時間隔受信を開始します。このメソッドは
+	 * {@code startIsocStream(l, startFrame, frames, bufSize, buffers, Thread.NORM_PRIORITY)}
+	 * と等価です。
+	 * <p>
+	 * @param l データ受信を通知するリスナ
+	 * @param startFrame 開始フレーム
+	 * @param frames リスナに通知するフレーム (ミリ秒) 単位
+	 * @param bufSize 1フレーム当たりのバッファサイズ
+	 * @param buffers リングに確保するバッファ数
+	 * @return 開始したストリーム
+	 * @throws USBException 等時間隔受信の開始に失敗した場合
+	 */
+	public IsocStream startIsocStream(IsocTransferListener l, long startFrame, int frames, int bufSize, int buffers) throws USBException;
+
+	// ======================================================================
+	// 等時間隔ストリームの開始
+	// ======================================================================
+	/**
+	 * このエンドポイントでの多重バッファ等時間隔受信を開始します。
+	 * <p>
+	 * {@link #startIsocRead(IsocTransferListener, long, int, int, int)} は 1 つのイベントを
+	 * 使い回して受信とリスナ呼び出しを同じスレッドで交互に行うため、リスナの処理がフレームの
+	 * 間隔を超えるとデータを取りこぼします。このメソッドは {@code buffers} 個のイベントを
+	 * 事前に確保し、受信スレッドと配信スレッドを分離します。リスナは受け取ったイベントを
+	 * 処理した後に {@link IsocTransferEvent#release()} でリングに返却してください。返却
+	 * されないイベントは再利用されません。
+	 * <p>
+	 * 各イベントの開始フレームは {@code startFrame} から {@code frames} ずつ連続して
+	 * 進みます。
+	 * <p>
+	 * エンドポイントのパイプが {@link TransferType#ISOCHRONOUS} の IN でない場合や、既に
+	 * 等時間隔受信が開始されている場合は例外が発生します。ストリームは
+	 * {@link IsocStream#stop()} または {@link #stopIsocRead()} で停止します。
+	 * <p>
+	 * @param l データ受信を通知するリスナ
+	 * @param startFrame 開始フレーム
+	 * @param frames リスナに通知するフレーム (ミリ秒) 単位
+	 * @param bufSize 1フレーム当たりのバッファサイズ
+	 * @param buffers リングに確保するバッファ数
+	 * @param priority 受信スレッドの優先順位
+	 * @return 開始したストリーム
+	 * @throws USBException 等時間隔受信の開始に失敗した場合
+	 */
+	public IsocStream startIsocStream(IsocTransferListener l, long startFrame, int frames, int bufSize, int buffers, int priority) throws USBException;
+
 	// ======================================================================
 	// 等時間隔受信の終了
 	// ======================================================================
 	/**
 	 * このエンドポイントで行っている等時間隔受信を停止します。等時間隔受信が行われていない場合は
 	 * 何も行いません。
+	 * {@link #startIsocStream(IsocTransferListener, long, int, int, int, int)} で開始した
+	 * ストリームも停止します。
 	 * <p>
 	 * @throws USBException 等時間隔受信の停止に失敗した場合
 	 */
@@ -52,8 +52,8 @@ class GatheredUSBSession implements USBContext {
 	// USB デバイス構成の同期化
 	// ======================================================================
 	/**
-	 * このコンテキストの保持する USB デバイスを同期化します。現在のコンテキスト内に存在するデバイス
-	 * インスタンスは全て解放されます。
+	 * このコンテキストの保持する USB デバイスを同期化します。変化のないデバイスのインスタンスは
+	 * そのまま使用されます。
 	 * <p>
 	 * @throws USBException USB デバイスの取得に失敗した場合
 	*/
@@ -132,6 +132,41 @@ class GatheredUSBSession implements USBContext {
 		return Collections.unmodifiableList(devices);
 	}
 
+	// ======================================================================
+	// 取り付け/取り外しの監視開始
+	// ======================================================================
+	/**
+	 * 全てのコンテキストで取り付け/取り外しの監視を開始します。
+	 * <p>
+	 * @param interval 通知をサポートしないライブラリで同期を行う間隔 (ミリ秒)
+	 * @throws USBException 監視の開始に失敗した場合
+	*/
+	public void startWatch(long interval) throws USBException{
+		synchronized(context){
+			for(int i=0; i<context.size(); i++){
+				context.get(i).startWatch(interval);
+			}
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 取り付け/取り外しの監視終了
+	// ======================================================================
+	/**
+	 * 全てのコンテキストで取り付け/取り外しの監視を終了します。
+	 * <p>
+	 * @throws USBException 監視の終了に失敗した場合
+	*/
+	public void stopWatch() throws USBException{
+		synchronized(context){
+			for(int i=0; i<context.size(); i++){
+				context.get(i).stopWatch();
+			}
+		}
+		return;
+	}
+
 	// ======================================================================
 	// コンテキストの解放
 	// ======================================================================
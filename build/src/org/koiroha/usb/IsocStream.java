@@ -0,0 +1,132 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb;
+
+import org.koiroha.usb.event.IsocTransferEvent;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// IsocStream: 等時間隔ストリーム
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * {@link Endpoint#startIsocStream(org.koiroha.usb.event.IsocTransferListener, long, int, int, int, int)}
+ * によって開始された多重バッファの等時間隔受信を表すインターフェースです。
+ * <p>
+ * ストリームは事前に確保した {@link IsocTransferEvent} のリングを持ち、受信スレッドは
+ * リスナが前回のデータを処理している間に次の転送を実行します。リスナに通知されたイベントは
+ * アプリケーションが {@link #release(IsocTransferEvent)} で返却するまでリングに戻らない
+ * ため、リスナはバッファを保持したまま処理を別スレッドへ委譲することが出来ます。
+ * <p>
+ * 空きバッファが無い状態で受信したデータは破棄され、オーバーランとして数えられます。受信
+ * したフレームにデータが無かった場合はアンダーランとして数えられます。データが破棄された
+ * 場合でも開始フレームはバスのフレーム番号に従って連続して進みます。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ */
+public interface IsocStream {
+
+	// ======================================================================
+	// エンドポイントの参照
+	// ======================================================================
+	/**
+	 * このストリームが受信を行うエンドポイントを参照します。
+	 * <p>
+	 * @return エンドポイント
+	 */
+	public Endpoint getEndpoint();
+
+	// ======================================================================
+	// バッファ数の参照
+	// ======================================================================
+	/**
+	 * このストリームのリングが持つバッファ (イベント) の数を参照します。
+	 * <p>
+	 * @return バッファ数
+	 */
+	public int getBufferCount();
+
+	// ======================================================================
+	// 空きバッファ数の参照
+	// ======================================================================
+	/**
+	 * 現在受信に使用可能な空きバッファの数を参照します。
+	 * <p>
+	 * @return 空きバッファ数
+	 */
+	public int getFreeBufferCount();
+
+	// ======================================================================
+	// 次フレームの参照
+	// ======================================================================
+	/**
+	 * 次の転送で受信を開始するフレーム番号を参照します。
+	 * <p>
+	 * @return 次の開始フレーム
+	 */
+	public long getNextFrame();
+
+	// ======================================================================
+	// オーバーラン数の参照
+	// ======================================================================
+	/**
+	 * 空きバッファが無かったために破棄した転送の数を参照します。
+	 * <p>
+	 * @return オーバーラン数
+	 */
+	public long getOverrunCount();
+
+	// ======================================================================
+	// アンダーラン数の参照
+	// ======================================================================
+	/**
+	 * データを受信できなかったフレームの数を参照します。エラーとなったフレームと長さ 0 の
+	 * フレームが該当します。
+	 * <p>
+	 * @return アンダーラン数
+	 */
+	public long getUnderrunCount();
+
+	// ======================================================================
+	// バッファの返却
+	// ======================================================================
+	/**
+	 * リスナに通知されたイベントをリングに返却します。返却後のイベントとそのバッファを
+	 * アプリケーションが参照してはいけません。
+	 * <p>
+	 * @param e 返却するイベント
+	 * @throws IllegalArgumentException このストリームのイベントでない場合
+	 * @throws IllegalStateException 既に返却されているイベントの場合
+	 */
+	public void release(IsocTransferEvent e);
+
+	// ======================================================================
+	// 受信状態の参照
+	// ======================================================================
+	/**
+	 * このストリームが受信を行っているかどうかを参照します。
+	 * <p>
+	 * @return 受信中の場合 true
+	 */
+	public boolean isActive();
+
+	// ======================================================================
+	// ストリームの停止
+	// ======================================================================
+	/**
+	 * このストリームの受信を停止します。配信されていないデータは破棄されます。既に停止して
+	 * いる場合は何も行いません。
+	 * <p>
+	 * @throws USBException 停止に失敗した場合
+	 */
+	public void stop() throws USBException;
+
+}
@@ -31,6 +31,15 @@ public class TimeoutException extends USBException {
 	 */
 	private static final long serialVersionUID = 1L;
 
+	// ======================================================================
+	// 転送済みバイト数
+	// ======================================================================
+	/**
+	 * タイムアウトまでにデバイスが受け付けたバイト数です。
+	 * <p>
+	 */
+	private final int transferred;
+
 	// ======================================================================
 	// コンストラクタ
 	// ======================================================================
@@ -39,7 +48,7 @@ public class TimeoutException extends USBException {
 	 * <p>
 	 */
 	public TimeoutException() {
-		// TODO Auto-generated constructor stub
+		this.transferred = 0;
 	}
 
 	// ======================================================================
@@ -52,7 +61,7 @@ public class TimeoutException extends USBException {
 	 */
 	public TimeoutException(String message) {
 		super(message);
-		// TODO Auto-generated constructor stub
+		this.transferred = 0;
 	}
 
 	// ======================================================================
@@ -65,7 +74,7 @@ public class TimeoutException extends USBException {
 	 */
 	public TimeoutException(Throwable cause) {
 		super(cause);
-		// TODO Auto-generated constructor stub
+		this.transferred = 0;
 	}
 
 	// ======================================================================
@@ -79,7 +88,51 @@ public class TimeoutException extends USBException {
 	 */
 	public TimeoutException(String message, Throwable cause) {
 		super(message, cause);
-		// TODO Auto-generated constructor stub
+		this.transferred = 0;
+	}
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * タイムアウトまでにデバイスが受け付けたバイト数を指定して構築を行います。
+	 * <p>
+	 * @param message 例外メッセージ
+	 * @param transferred タイムアウトまでに転送されたバイト数
+	 */
+	public TimeoutException(String message, int transferred) {
+		super(message);
+		this.transferred = transferred;
+		return;
+	}
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * タイムアウトまでにデバイスが受け付けたバイト数と原因を指定して構築を行います。
+	 * <p>
+	 * @param message 例外メッセージ
+	 * @param transferred タイムアウトまでに転送されたバイト数
+	 * @param cause 原因となった例外
+	 */
+	public TimeoutException(String message, int transferred, Throwable cause) {
+		super(message, cause);
+		this.transferred = transferred;
+		return;
+	}
+
+	// ======================================================================
+	// 転送済みバイト数の参照
+	// ======================================================================
+	/**
+	 * タイムアウトした転送でデバイスが受け付けたバイト数を参照します。ブリッジが部分的な転送
+	 * を報告しない場合は 0 です。
+	 * <p>
+	 * @return タイムアウトまでに転送されたバイト数
+	 */
+	public int getTransferred(){
+		return transferred;
 	}
 
 }
@@ -37,8 +37,10 @@ public interface USBContext {
 	// USB デバイス構成の同期化
 	// ======================================================================
 	/**
-	 * このコンテキストの保持する USB デバイスを実際の状態と同期します。現在のコンテキスト内に存在
-	 * するデバイスインスタンスは全て無効化されます。
+	 * このコンテキストの保持する USB デバイスを実際の状態と同期します。バス上の位置とデバイス
+	 * 記述子が変化していないデバイスは既存のインスタンスがそのまま使用され、オープン中の状態も
+	 * 維持されます。取り外されたデバイスのインスタンスは解放され、リスナには変化のあった
+	 * デバイスの取り付け/取り外しのみが通知されます。
 	 * <p>
 	 * @throws USBException USB デバイスの同期化に失敗した場合
 	*/
@@ -86,6 +88,31 @@ public interface USBContext {
 	*/
 	public List<Device> lookup(DeviceFilter filter) throws USBException;
 
+	// ======================================================================
+	// 取り付け/取り外しの監視開始
+	// ======================================================================
+	/**
+	 * デバイスの取り付け/取り外しを監視するバックグラウンドスレッドを開始します。ライブラリが
+	 * 取り付け/取り外しの通知をサポートしている場合は通知を受けた時に、サポートしていない
+	 * 場合は指定された間隔で {@link #sync()} を実行します。変化はコンテキストリスナに通知
+	 * されます。
+	 * <p>
+	 * @param interval 通知をサポートしないライブラリで同期を行う間隔 (ミリ秒)
+	 * @throws USBException 既に監視を行っている場合や監視の開始に失敗した場合
+	*/
+	public void startWatch(long interval) throws USBException;
+
+	// ======================================================================
+	// 取り付け/取り外しの監視終了
+	// ======================================================================
+	/**
+	 * {@link #startWatch(long)} で開始した監視を終了します。監視を行っていない場合は何も
+	 * 行いません。
+	 * <p>
+	 * @throws USBException 監視の終了に失敗した場合
+	*/
+	public void stopWatch() throws USBException;
+
 	// ======================================================================
 	// コンテキストの解放
 	// ======================================================================
@@ -39,10 +39,19 @@ public class IsocTransferEvent extends EventObject {
 	// 開始フレーム
 	// ======================================================================
 	/**
-	 * 開始フレームです。
+	 * 開始フレームです。ストリームのイベントでは転送ごとに更新されます。
 	 * <p>
 	 */
-	private final long startFrame;
+	private volatile long startFrame;
+
+	// ======================================================================
+	// ストリーム
+	// ======================================================================
+	/**
+	 * このイベントを所有するストリームです。ストリームのイベントでない場合は null です。
+	 * <p>
+	 */
+	private final transient IsocStream stream;
 
 	// ======================================================================
 	// データバッファ
@@ -97,6 +106,27 @@ public class IsocTransferEvent extends EventObject {
 		this.length = new int[buffer.length];
 		this.error = new boolean[buffer.length];
 		this.ex = null;
+		this.stream = null;
+		return;
+	}
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * 指定されたストリームのリングに属するイベントを構築します。
+	 * <p>
+	 * @param stream イベントを所有するストリーム
+	 * @param buffer データ用バッファ
+	 */
+	public IsocTransferEvent(IsocStream stream, byte[][] buffer) {
+		super(stream.getEndpoint());
+		this.buffer = buffer;
+		this.startFrame = 0;
+		this.length = new int[buffer.length];
+		this.error = new boolean[buffer.length];
+		this.ex = null;
+		this.stream = stream;
 		return;
 	}
 
@@ -116,6 +146,7 @@ public class IsocTransferEvent extends EventObject {
 		this.error = null;
 		this.startFrame = 0;
 		this.ex = ex;
+		this.stream = null;
 		return;
 	}
 
@@ -134,6 +165,7 @@ public class IsocTransferEvent extends EventObject {
 		this.error = null;
 		this.startFrame = 0;
 		this.ex = null;
+		this.stream = null;
 		return;
 	}
 
@@ -161,6 +193,47 @@ public class IsocTransferEvent extends EventObject {
 		return startFrame;
 	}
 
+	// ======================================================================
+	// 開始フレームの設定
+	// ======================================================================
+	/**
+	 * 開始フレームを設定します。このメソッドはストリームの実装が転送ごとに呼び出します。
+	 * <p>
+	 * @param startFrame 開始フレーム
+	 */
+	public void setStartFrame(long startFrame){
+		this.startFrame = startFrame;
+		return;
+	}
+
+	// ======================================================================
+	// ストリームの参照
+	// ======================================================================
+	/**
+	 * このイベントを所有するストリームを参照します。
+	 * <p>
+	 * @return ストリーム。ストリームのイベントでない場合は null
+	 */
+	public IsocStream getStream(){
+		return stream;
+	}
+
+	// ======================================================================
+	// バッファの返却
+	// ======================================================================
+	/**
+	 * このイベントをストリームのリングに返却します。このメソッドは
+	 * {@code getStream().release(this)} と等価です。ストリームのイベントでない場合は
+	 * 何も行いません。
+	 * <p>
+	 */
+	public void release(){
+		if(stream != null){
+			stream.release(this);
+		}
+		return;
+	}
+
 	// ======================================================================
 	// フレーム数の参照
 	// ======================================================================
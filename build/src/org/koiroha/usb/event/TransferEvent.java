@@ -0,0 +1,136 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.event;
+
+import java.util.EventObject;
+
+import org.koiroha.usb.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// TransferEvent: 非同期転送イベント
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * 非同期転送が終了した事を表すイベントです。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ */
+public class TransferEvent extends EventObject {
+
+	// ======================================================================
+	// シリアルバージョン
+	// ======================================================================
+	/**
+	 * このクラスのシリアルバージョンです。
+	 * <p>
+	 */
+	private static final long serialVersionUID = 1L;
+
+	// ======================================================================
+	// 転送バイト数
+	// ======================================================================
+	/**
+	 * 実際に転送されたバイト数です。転送が失敗または中断された場合は負の値となります。
+	 * <p>
+	 */
+	private final int length;
+
+	// ======================================================================
+	// 例外
+	// ======================================================================
+	/**
+	 * 発生した例外です。
+	 * <p>
+	 */
+	private final USBException ex;
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * 正常に完了した転送のイベントを構築します。
+	 * <p>
+	 * @param transfer 非同期転送
+	 * @param length 実際に転送されたバイト数
+	 */
+	public TransferEvent(AsyncTransfer transfer, int length) {
+		super(transfer);
+		this.length = length;
+		this.ex = null;
+		return;
+	}
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * 失敗または中断された転送のイベントを構築します。中断の場合 {@code ex} は null です。
+	 * <p>
+	 * @param transfer 非同期転送
+	 * @param ex 発生した例外
+	 */
+	public TransferEvent(AsyncTransfer transfer, USBException ex) {
+		super(transfer);
+		this.length = -1;
+		this.ex = ex;
+		return;
+	}
+
+	// ======================================================================
+	// 非同期転送の参照
+	// ======================================================================
+	/**
+	 * このイベントの発生元となった非同期転送を参照します。
+	 * <p>
+	 * @return 非同期転送
+	 */
+	public AsyncTransfer getTransfer(){
+		return (AsyncTransfer)getSource();
+	}
+
+	// ======================================================================
+	// 転送バイト数の参照
+	// ======================================================================
+	/**
+	 * 実際に転送されたバイト数を参照します。転送が失敗または中断された場合は負の値を返します。
+	 * <p>
+	 * @return 転送バイト数
+	 */
+	public int getLength(){
+		return length;
+	}
+
+	// ======================================================================
+	// 例外の参照
+	// ======================================================================
+	/**
+	 * 転送処理中に発生した例外を参照します。
+	 * <p>
+	 * @return 例外
+	 */
+	public USBException getException(){
+		return ex;
+	}
+
+	// ======================================================================
+	// 中断の判定
+	// ======================================================================
+	/**
+	 * この転送が中断されたかどうかを判定します。
+	 * <p>
+	 * @return 中断された場合 true
+	 */
+	public boolean isCancelled(){
+		return getTransfer().isCancelled();
+	}
+
+}
@@ -0,0 +1,41 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.event;
+
+import java.util.EventListener;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// TransferListener: 非同期転送リスナ
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * 非同期転送の完了通知を受けるためのリスナです。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ */
+public interface TransferListener extends EventListener {
+
+	// ======================================================================
+	// 転送の完了
+	// ======================================================================
+	/**
+	 * 非同期転送が終了した時に呼び出されます。このメソッドは転送が正常に完了した場合だけでなく
+	 * 例外による失敗や中断の場合にも呼び出されます。
+	 * <p>
+	 * このメソッドはブリッジ実装の完了通知スレッドから呼び出されます。リスナ内で時間のかかる
+	 * 処理を行うと同じエンドポイントの後続の完了通知が遅延します。
+	 * <p>
+	 * @param e 転送イベント
+	*/
+	public void transferCompleted(TransferEvent e);
+
+}
@@ -0,0 +1,511 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.impl;
+
+import java.util.concurrent.*;
+import java.util.logging.Level;
+
+import org.koiroha.usb.*;
+import org.koiroha.usb.desc.*;
+import org.koiroha.usb.event.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// AsyncTransferImpl: 非同期転送実装
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * 非同期転送の実装クラスです。エンドポイント実装によって構築され {@link USBBridge#submit(DeviceImpl, byte, byte, AsyncTransferImpl)}
+ * でブリッジに渡されます。ブリッジ実装は転送の終了時に {@link #complete(int)},
+ * {@link #fail(USBException)}, {@link #cancelled()} のいずれかを呼び出す必要があります。
+ * 2 回目以降の終了通知は無視されます。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ */
+public class AsyncTransferImpl implements AsyncTransfer {
+
+	// ======================================================================
+	// ログ出力先
+	// ======================================================================
+	/**
+	 * このクラスのログ出力先です。
+	 * <p>
+	 */
+	private static final java.util.logging.Logger logger = java.util.logging.Logger.getLogger(AsyncTransferImpl.class.getName());
+
+	/** 転送が終了していない事を表す状態です。 */
+	private static final int PENDING = 0;
+
+	/** 転送が正常に完了した事を表す状態です。 */
+	private static final int COMPLETED = 1;
+
+	/** 転送が例外により失敗した事を表す状態です。 */
+	private static final int FAILED = 2;
+
+	/** 転送が中断された事を表す状態です。 */
+	private static final int CANCELLED = 3;
+
+	// ======================================================================
+	// エンドポイント
+	// ======================================================================
+	/**
+	 * この転送を発行したエンドポイントです。
+	 * <p>
+	 */
+	private final EndpointImpl endpoint;
+
+	// ======================================================================
+	// バッファ
+	// ======================================================================
+	/**
+	 * 入出力データのバッファです。
+	 * <p>
+	 */
+	private final byte[] buffer;
+
+	// ======================================================================
+	// オフセット
+	// ======================================================================
+	/**
+	 * バッファ内の入出力開始位置です。
+	 * <p>
+	 */
+	private final int offset;
+
+	// ======================================================================
+	// 長さ
+	// ======================================================================
+	/**
+	 * 入出力データ長です。
+	 * <p>
+	 */
+	private final int length;
+
+	// ======================================================================
+	// タイムアウト
+	// ======================================================================
+	/**
+	 * 入出力タイムアウト (ミリ秒) です。
+	 * <p>
+	 */
+	private final int timeout;
+
+	// ======================================================================
+	// リスナ
+	// ======================================================================
+	/**
+	 * 転送の終了を通知するリスナです。
+	 * <p>
+	 */
+	private final TransferListener listener;
+
+	// ======================================================================
+	// 付加オブジェクト
+	// ======================================================================
+	/**
+	 * ブリッジ実装がこの転送に関連付けるネイティブリクエストなどのオブジェクトです。
+	 * <p>
+	 */
+	private volatile Object attachment = null;
+
+	// ======================================================================
+	// 状態
+	// ======================================================================
+	/**
+	 * この転送の状態です。
+	 * <p>
+	 */
+	private int status = PENDING;
+
+	// ======================================================================
+	// 転送バイト数
+	// ======================================================================
+	/**
+	 * 実際に転送されたバイト数です。
+	 * <p>
+	 */
+	private int transferred = -1;
+
+	// ======================================================================
+	// 例外
+	// ======================================================================
+	/**
+	 * 転送中に発生した例外です。
+	 * <p>
+	 */
+	private USBException ex = null;
+
+	// ======================================================================
+	// 発行時刻
+	// ======================================================================
+	/**
+	 * この転送を構築した時点の {@link System#nanoTime()} です。転送の応答時間の計測に使用
+	 * します。
+	 * <p>
+	 */
+	private final long submitted = System.nanoTime();
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * 転送のパラメータを指定して構築を行います。
+	 * <p>
+	 * @param endpoint エンドポイント実装
+	 * @param buffer 入出力データのバッファ
+	 * @param offset バッファ内の入出力開始位置
+	 * @param length 入出力データ長
+	 * @param timeout 入出力タイムアウト (ミリ秒)
+	 * @param listener 転送の終了を通知するリスナ
+	 */
+	AsyncTransferImpl(EndpointImpl endpoint, byte[] buffer, int offset, int length, int timeout, TransferListener listener) {
+		this.endpoint = endpoint;
+		this.buffer = buffer;
+		this.offset = offset;
+		this.length = length;
+		this.timeout = timeout;
+		this.listener = listener;
+		return;
+	}
+
+	// ======================================================================
+	// エンドポイントの参照
+	// ======================================================================
+	/**
+	 * この転送を発行したエンドポイントを参照します。
+	 * <p>
+	 * @return エンドポイント
+	 */
+	public Endpoint getEndpoint(){
+		return endpoint;
+	}
+
+	// ======================================================================
+	// バッファの参照
+	// ======================================================================
+	/**
+	 * この転送の入出力に使用するバッファを参照します。
+	 * <p>
+	 * @return バッファ
+	 */
+	public byte[] getBuffer(){
+		return buffer;
+	}
+
+	// ======================================================================
+	// オフセットの参照
+	// ======================================================================
+	/**
+	 * バッファ内の入出力開始位置を参照します。
+	 * <p>
+	 * @return オフセット
+	 */
+	public int getOffset(){
+		return offset;
+	}
+
+	// ======================================================================
+	// 長さの参照
+	// ======================================================================
+	/**
+	 * この転送で要求した入出力データの長さを参照します。
+	 * <p>
+	 * @return 要求したデータ長
+	 */
+	public int getLength(){
+		return length;
+	}
+
+	// ======================================================================
+	// タイムアウトの参照
+	// ======================================================================
+	/**
+	 * 入出力タイムアウト (ミリ秒) を参照します。
+	 * <p>
+	 * @return タイムアウト
+	 */
+	public int getTimeout(){
+		return timeout;
+	}
+
+	// ======================================================================
+	// 転送タイプの参照
+	// ======================================================================
+	/**
+	 * この転送を行うエンドポイントの転送タイプを参照します。
+	 * <p>
+	 * @return 転送タイプ
+	 */
+	public TransferType getTransferType(){
+		return endpoint.getDescriptor().getTransferType();
+	}
+
+	// ======================================================================
+	// 転送方向の参照
+	// ======================================================================
+	/**
+	 * この転送を行うエンドポイントの転送方向を参照します。
+	 * <p>
+	 * @return 転送方向
+	 */
+	public Direction getDirection(){
+		return endpoint.getDescriptor().getDirection();
+	}
+
+	// ======================================================================
+	// 付加オブジェクトの参照
+	// ======================================================================
+	/**
+	 * ブリッジ実装がこの転送に関連付けたオブジェクトを参照します。
+	 * <p>
+	 * @return 付加オブジェクト
+	 */
+	public Object getAttachment(){
+		return attachment;
+	}
+
+	// ======================================================================
+	// 付加オブジェクトの設定
+	// ======================================================================
+	/**
+	 * ブリッジ実装がこの転送にネイティブリクエストなどのオブジェクトを関連付けます。
+	 * <p>
+	 * @param attachment 付加オブジェクト
+	 */
+	public void setAttachment(Object attachment){
+		this.attachment = attachment;
+		return;
+	}
+
+	// ======================================================================
+	// 転送の中断
+	// ======================================================================
+	/**
+	 * この転送を中断します。ブリッジ実装が転送を中断できなかった場合は false を返します。
+	 * <p>
+	 * @param mayInterruptIfRunning 未使用
+	 * @return 転送を中断した場合 true
+	 */
+	public boolean cancel(boolean mayInterruptIfRunning){
+		synchronized(this){
+			if(status != PENDING){
+				return false;
+			}
+		}
+
+		// ブリッジに中断を要求
+		try{
+			if(! endpoint.abort(this)){
+				return false;
+			}
+		} catch(USBException ex){
+			logger.log(Level.FINE, "fail to abort transfer", ex);
+			return false;
+		}
+
+		// ※ブリッジからの中断通知が先に行われている場合がある
+		finish(CANCELLED, -1, null);
+		synchronized(this){
+			return (status == CANCELLED);
+		}
+	}
+
+	// ======================================================================
+	// 中断の判定
+	// ======================================================================
+	/**
+	 * この転送が中断されたかどうかを判定します。
+	 * <p>
+	 * @return 中断された場合 true
+	 */
+	public synchronized boolean isCancelled(){
+		return (status == CANCELLED);
+	}
+
+	// ======================================================================
+	// 終了の判定
+	// ======================================================================
+	/**
+	 * この転送が終了しているかどうかを判定します。
+	 * <p>
+	 * @return 終了している場合 true
+	 */
+	public synchronized boolean isDone(){
+		return (status != PENDING);
+	}
+
+	// ======================================================================
+	// 転送結果の参照
+	// ======================================================================
+	/**
+	 * 転送の終了を待機して実際に転送されたバイト数を返します。
+	 * <p>
+	 * @return 転送バイト数
+	 * @throws InterruptedException 待機中に割り込みが発生した場合
+	 * @throws ExecutionException 転送に失敗した場合
+	 */
+	public synchronized Integer get() throws InterruptedException, ExecutionException{
+		while(status == PENDING){
+			wait();
+		}
+		return result();
+	}
+
+	// ======================================================================
+	// 転送結果の参照
+	// ======================================================================
+	/**
+	 * 指定された時間まで転送の終了を待機して実際に転送されたバイト数を返します。
+	 * <p>
+	 * @param time 待機時間
+	 * @param unit 待機時間の単位
+	 * @return 転送バイト数
+	 * @throws InterruptedException 待機中に割り込みが発生した場合
+	 * @throws ExecutionException 転送に失敗した場合
+	 * @throws java.util.concurrent.TimeoutException 指定時間内に転送が終了しなかった場合
+	 */
+	public synchronized Integer get(long time, TimeUnit unit)
+		throws InterruptedException, ExecutionException, java.util.concurrent.TimeoutException
+	{
+		long limit = System.currentTimeMillis() + unit.toMillis(time);
+		while(status == PENDING){
+			long remain = limit - System.currentTimeMillis();
+			if(remain <= 0){
+				throw new java.util.concurrent.TimeoutException();
+			}
+			wait(remain);
+		}
+		return result();
+	}
+
+	// ======================================================================
+	// 転送の完了
+	// ======================================================================
+	/**
+	 * ブリッジ実装から転送の正常な完了を通知します。
+	 * <p>
+	 * @param length 実際に転送されたバイト数
+	 * @return この呼び出しで転送が終了状態に遷移した場合 true
+	 */
+	public boolean complete(int length){
+		return finish(COMPLETED, length, null);
+	}
+
+	// ======================================================================
+	// 転送の失敗
+	// ======================================================================
+	/**
+	 * ブリッジ実装から転送の失敗を通知します。
+	 * <p>
+	 * @param ex 発生した例外
+	 * @return この呼び出しで転送が終了状態に遷移した場合 true
+	 */
+	public boolean fail(USBException ex){
+		return finish(FAILED, -1, ex);
+	}
+
+	// ======================================================================
+	// 転送の中断
+	// ======================================================================
+	/**
+	 * ブリッジ実装から転送が中断された事を通知します。
+	 * <p>
+	 * @return この呼び出しで転送が終了状態に遷移した場合 true
+	 */
+	public boolean cancelled(){
+		return finish(CANCELLED, -1, null);
+	}
+
+	// ======================================================================
+	// インスタンスの文字列化
+	// ======================================================================
+	/**
+	 * このインスタンスを文字列化します。
+	 * <p>
+	 * @return インスタンスの文字列
+	 */
+	@Override
+	public String toString(){
+		return String.format("%s[%d,%d]@0x%02X", getTransferType(), offset, length, endpoint.getDescriptor().getEndpointAddress());
+	}
+
+	// ======================================================================
+	// 転送の終了
+	// ======================================================================
+	/**
+	 * この転送を終了状態に遷移させリスナに通知します。既に終了している場合は何も行いません。
+	 * <p>
+	 * @param status 終了状態
+	 * @param length 転送バイト数
+	 * @param ex 発生した例外
+	 * @return この呼び出しで終了状態に遷移した場合 true
+	 */
+	private boolean finish(int status, int length, USBException ex){
+		synchronized(this){
+			if(this.status != PENDING){
+				return false;
+			}
+			this.status = status;
+			this.transferred = length;
+			this.ex = ex;
+			this.attachment = null;
+			notifyAll();
+		}
+
+		// エンドポイントのキューを解放
+		endpoint.transferFinished(this, length, ex);
+
+		// リスナへ通知
+		if(listener != null){
+			TransferEvent e = (status == COMPLETED)?
+				new TransferEvent(this, length): new TransferEvent(this, ex);
+			try{
+				listener.transferCompleted(e);
+			} catch(RuntimeException exx){
+				logger.log(Level.SEVERE, "uncaught exception in transfer listener", exx);
+			}
+		}
+		return true;
+	}
+
+	// ======================================================================
+	// 発行時刻の参照
+	// ======================================================================
+	/**
+	 * この転送を構築した時点の {@link System#nanoTime()} を参照します。
+	 * <p>
+	 * @return 発行時刻 (ナノ秒)
+	 */
+	long getSubmitted(){
+		return submitted;
+	}
+
+	// ======================================================================
+	// 転送結果の参照
+	// ======================================================================
+	/**
+	 * 終了した転送の結果を返します。
+	 * <p>
+	 * @return 転送バイト数
+	 * @throws ExecutionException 転送に失敗した場合
+	 */
+	private Integer result() throws ExecutionException{
+		switch(status){
+		case CANCELLED:
+			throw new CancellationException();
+		case FAILED:
+			throw new ExecutionException(ex);
+		default:
+			return transferred;
+		}
+	}
+
+}
@@ -119,6 +119,18 @@ public class BusImpl implements Bus {
 		return rootHub.get(0);
 	}
 
+	// ======================================================================
+	// ルートデバイスの参照
+	// ======================================================================
+	/**
+	 * このバスに直接接続されている全てのデバイスを参照します。
+	 * <p>
+	 * @return ルートデバイスの一覧
+	*/
+	List<DeviceImpl> getRootDevices(){
+		return Collections.unmodifiableList(rootHub);
+	}
+
 	// ======================================================================
 	// デバイスの接続
 	// ======================================================================
@@ -133,4 +145,17 @@ public class BusImpl implements Bus {
 		return;
 	}
 
+	// ======================================================================
+	// デバイスの切断
+	// ======================================================================
+	/**
+	 * このバスから指定されたルートハブデバイスを切断します。
+	 * <p>
+	 * @param device 切断するデバイス
+	*/
+	void disconnect(DeviceImpl device){
+		rootHub.remove(device);
+		return;
+	}
+
 }
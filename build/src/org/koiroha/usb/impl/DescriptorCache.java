@@ -0,0 +1,429 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.impl;
+
+import java.io.*;
+import java.util.*;
+
+import org.koiroha.usb.desc.DeviceDescriptor;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// DescriptorCache: 記述子キャッシュ
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * デバイスから取得した記述子のバイナリを保持するキャッシュです。
+ * <p>
+ * 文字列記述子やコンフィギュレーション記述子、クラス固有の記述子はデバイスが接続されている
+ * 間変化しませんが、取得のたびにコントロール転送が必要であり、デバイスによっては応答が遅い
+ * かストールします。このクラスはベンダー ID、製品 ID、デバイスリリース番号と、シリアル番号
+ * を持つデバイスではシリアル番号の文字列、持たないデバイスではバス上の位置でデバイスを
+ * 識別し、記述子のタイプ、インデックス、言語 ID
+ * (インターフェース宛ての場合はインターフェース番号) ごとに取得したバイナリを保持します。
+ * 要求した長さでバッファが満たされた記述子は先頭部分として保持され、それ以下の長さの要求
+ * にのみ使用されます。
+ * <p>
+ * キャッシュの内容は {@link #save(File)} でファイルに保存し、次回の起動時に
+ * {@link #load(File)} で読み込むことが出来ます。読み込んだ内容はデバイス記述子が一致
+ * する場合にのみ使用されます。デバイスのリセットや取り外しが行われた場合、そのデバイスの
+ * 内容は {@link #invalidate(Key)} によって破棄されます。
+ * <p>
+ * このクラスはスレッドセーフです。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ */
+public class DescriptorCache {
+
+	// ======================================================================
+	// ログ出力先
+	// ======================================================================
+	/**
+	 * このクラスのログ出力先です。
+	 * <p>
+	 */
+	private static final java.util.logging.Logger logger = java.util.logging.Logger.getLogger(DescriptorCache.class.getName());
+
+	// ======================================================================
+	// キャッシュ内容
+	// ======================================================================
+	/**
+	 * デバイスの識別子をキーとしたキャッシュの内容です。
+	 * <p>
+	 */
+	private final Map<Key,Entry> entries = new HashMap<Key,Entry>();
+
+	// ======================================================================
+	// ヒット数
+	// ======================================================================
+	/**
+	 * キャッシュから記述子を返した回数です。
+	 * <p>
+	 */
+	private long hit = 0;
+
+	// ======================================================================
+	// ミス数
+	// ======================================================================
+	/**
+	 * キャッシュに記述子が存在しなかった回数です。
+	 * <p>
+	 */
+	private long miss = 0;
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * 空のキャッシュを構築します。
+	 * <p>
+	 */
+	public DescriptorCache() {
+		return;
+	}
+
+	// ======================================================================
+	// 記述子の参照
+	// ======================================================================
+	/**
+	 * 指定されたデバイスの記述子バイナリをキャッシュから参照します。キャッシュに存在しない場合、
+	 * キャッシュ時とデバイス記述子が異なる場合、先頭部分のみを保持していて要求された長さに
+	 * 満たない場合は null を返します。
+	 * <p>
+	 * @param key デバイスの識別子
+	 * @param desc デバイス記述子
+	 * @param type 記述子のタイプ
+	 * @param index 記述子のインデックス
+	 * @param langid 言語 ID
+	 * @param length 要求する長さ
+	 * @return 記述子のバイナリ
+	 */
+	public synchronized byte[] get(Key key, DeviceDescriptor desc, byte type, byte index, short langid, int length){
+		Entry entry = entries.get(key);
+		if(entry != null && ! entry.device.equals(desc)){
+			logger.fine("device descriptor changed, cache discarded: " + key);
+			entries.remove(key);
+			entry = null;
+		}
+		Integer i = toIndex(type, index, langid);
+		byte[] binary = (entry == null)? null: entry.binary.get(i);
+		if(binary != null && binary.length < length && entry.partial.contains(i)){
+			binary = null;
+		}
+		if(binary == null){
+			miss ++;
+			return null;
+		}
+		hit ++;
+		return binary;
+	}
+
+	// ======================================================================
+	// 記述子の格納
+	// ======================================================================
+	/**
+	 * 指定されたデバイスから取得した記述子バイナリをキャッシュに格納します。記述子の先頭部分
+	 * は、既に同じ記述子の全体かより長い先頭部分を保持している場合は格納されません。
+	 * <p>
+	 * @param key デバイスの識別子
+	 * @param desc デバイス記述子
+	 * @param type 記述子のタイプ
+	 * @param index 記述子のインデックス
+	 * @param langid 言語 ID
+	 * @param binary 記述子のバイナリ
+	 * @param complete バイナリが記述子全体の場合 true、先頭部分の場合 false
+	 */
+	public synchronized void put(Key key, DeviceDescriptor desc, byte type, byte index, short langid, byte[] binary, boolean complete){
+		Entry entry = entries.get(key);
+		if(entry == null || ! entry.device.equals(desc)){
+			entry = new Entry(desc);
+			entries.put(key, entry);
+		}
+		Integer i = toIndex(type, index, langid);
+		if(complete){
+			entry.partial.remove(i);
+		} else {
+			byte[] current = entry.binary.get(i);
+			if(current != null && (! entry.partial.contains(i) || current.length >= binary.length)){
+				return;
+			}
+			entry.partial.add(i);
+		}
+		entry.binary.put(i, binary);
+		return;
+	}
+
+	// ======================================================================
+	// キャッシュの破棄
+	// ======================================================================
+	/**
+	 * 指定されたデバイスのキャッシュを破棄します。
+	 * <p>
+	 * @param key デバイスの識別子
+	 */
+	public synchronized void invalidate(Key key){
+		if(entries.remove(key) != null){
+			logger.finest("invalidate(" + key + ")");
+		}
+		return;
+	}
+
+	// ======================================================================
+	// キャッシュの消去
+	// ======================================================================
+	/**
+	 * 全てのキャッシュを破棄します。
+	 * <p>
+	 */
+	public synchronized void clear(){
+		entries.clear();
+		return;
+	}
+
+	// ======================================================================
+	// ヒット数の参照
+	// ======================================================================
+	/**
+	 * キャッシュから記述子を返した回数を参照します。
+	 * <p>
+	 * @return ヒット数
+	 */
+	public synchronized long getHitCount(){
+		return hit;
+	}
+
+	// ======================================================================
+	// ミス数の参照
+	// ======================================================================
+	/**
+	 * キャッシュに記述子が存在しなかった回数を参照します。
+	 * <p>
+	 * @return ミス数
+	 */
+	public synchronized long getMissCount(){
+		return miss;
+	}
+
+	// ======================================================================
+	// キャッシュの保存
+	// ======================================================================
+	/**
+	 * このキャッシュの内容を指定されたファイルに保存します。
+	 * <p>
+	 * @param file 保存先のファイル
+	 * @throws IOException 保存に失敗した場合
+	 */
+	public void save(File file) throws IOException{
+		Map<Key,Entry> snapshot = new HashMap<Key,Entry>();
+		synchronized(this){
+			for(Map.Entry<Key,Entry> e: entries.entrySet()){
+				snapshot.put(e.getKey(), e.getValue().copy());
+			}
+		}
+		ObjectOutputStream out = new ObjectOutputStream(
+			new BufferedOutputStream(new FileOutputStream(file)));
+		try{
+			out.writeObject(snapshot);
+		} finally {
+			out.close();
+		}
+		return;
+	}
+
+	// ======================================================================
+	// キャッシュの読み込み
+	// ======================================================================
+	/**
+	 * 指定されたファイルに保存されている内容をこのキャッシュに追加します。既にキャッシュされて
+	 * いるデバイスの内容は置き換えられます。
+	 * <p>
+	 * @param file 保存されたファイル
+	 * @throws IOException 読み込みに失敗した場合
+	 */
+	@SuppressWarnings("unchecked")
+	public void load(File file) throws IOException{
+		Map<Key,Entry> snapshot;
+		ObjectInputStream in = new ObjectInputStream(
+			new BufferedInputStream(new FileInputStream(file)));
+		try{
+			snapshot = (Map<Key,Entry>)in.readObject();
+		} catch(ClassNotFoundException ex){
+			throw new IOException("invalid descriptor cache: " + file + "; " + ex);
+		} catch(ClassCastException ex){
+			throw new IOException("invalid descriptor cache: " + file + "; " + ex);
+		} finally {
+			in.close();
+		}
+		synchronized(this){
+			entries.putAll(snapshot);
+		}
+		logger.fine(snapshot.size() + " devices loaded from " + file);
+		return;
+	}
+
+	// ======================================================================
+	// インデックスの算出
+	// ======================================================================
+	/**
+	 * 記述子のタイプ、インデックス、言語 ID からデバイス内での記述子のインデックスを算出
+	 * します。
+	 * <p>
+	 * @param type 記述子のタイプ
+	 * @param index 記述子のインデックス
+	 * @param langid 言語 ID
+	 * @return キャッシュ内のインデックス
+	 */
+	private static Integer toIndex(byte type, byte index, short langid){
+		return ((type & 0xFF) << 24) | ((index & 0xFF) << 16) | (langid & 0xFFFF);
+	}
+
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	// Key: デバイス識別子
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	/**
+	 * キャッシュ内でデバイスを識別するためのキーです。シリアル番号を持たないデバイスは同一の
+	 * 製品で内容を共有し、シリアル番号を持つデバイスはバス上の位置で区別されます。
+	 * <p>
+	 */
+	public static final class Key implements Serializable {
+
+		/** シリアルバージョンです。 */
+		private static final long serialVersionUID = 3L;
+
+		/** ベンダー ID です。 */
+		private final int vendorId;
+
+		/** 製品 ID です。 */
+		private final int productId;
+
+		/** デバイスリリース番号です。 */
+		private final int release;
+
+		/** シリアル番号の文字列です。シリアル番号を持たない場合は null です。 */
+		private final String serial;
+
+		/** バス上の位置です。シリアル番号を持つ場合は null です。 */
+		private final String location;
+
+		// ==================================================================
+		// コンストラクタ
+		// ==================================================================
+		/**
+		 * 指定されたデバイス記述子とシリアル番号、またはバス上の位置からキーを構築します。
+		 * シリアル番号を指定した場合、同じ個体は接続先が変わっても同じキーとなり、同じ製品の
+		 * 別の個体とは異なるキーとなります。
+		 * <p>
+		 * @param desc デバイス記述子
+		 * @param serial シリアル番号の文字列 (シリアル番号を持たない場合は null)
+		 * @param location バス上の位置 (シリアル番号を指定した場合は使用しません)
+		 */
+		public Key(DeviceDescriptor desc, String serial, String location){
+			this.vendorId = desc.getVendorId();
+			this.productId = desc.getProductId();
+			this.release = desc.getDeviceRelease();
+			this.serial = serial;
+			this.location = (serial == null)? location: null;
+			return;
+		}
+
+		// ==================================================================
+		// ハッシュ値の参照
+		// ==================================================================
+		/**
+		 * このキーのハッシュ値を参照します。
+		 * <p>
+		 * @return ハッシュ値
+		 */
+		@Override
+		public int hashCode(){
+			int hash = (vendorId << 16) ^ productId ^ (release << 8);
+			if(serial != null){
+				hash ^= serial.hashCode();
+			}
+			return (location == null)? hash: hash ^ location.hashCode();
+		}
+
+		// ==================================================================
+		// 等価判定
+		// ==================================================================
+		/**
+		 * 指定されたオブジェクトとこのキーが等しいかどうかを判定します。
+		 * <p>
+		 * @param o 比較するオブジェクト
+		 * @return 等しい場合 true
+		 */
+		@Override
+		public boolean equals(Object o){
+			if(! (o instanceof Key)){
+				return false;
+			}
+			Key k = (Key)o;
+			return vendorId == k.vendorId && productId == k.productId && release == k.release
+				&& (serial == null? k.serial == null: serial.equals(k.serial))
+				&& (location == null? k.location == null: location.equals(k.location));
+		}
+
+		// ==================================================================
+		// インスタンスの文字列化
+		// ==================================================================
+		/**
+		 * このキーを文字列化します。
+		 * <p>
+		 * @return 文字列
+		 */
+		@Override
+		public String toString(){
+			return String.format("%04X:%04X:%04X:%s", vendorId, productId, release, (serial == null)? location: serial);
+		}
+	}
+
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	// Entry: デバイスごとのキャッシュ
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	/**
+	 * 1 つのデバイスから取得した記述子のバイナリです。キャッシュ時のデバイス記述子を保持し、
+	 * 参照時のデバイスと一致するかを確認するために使用します。
+	 * <p>
+	 */
+	private static final class Entry implements Serializable {
+
+		/** シリアルバージョンです。 */
+		private static final long serialVersionUID = 2L;
+
+		/** キャッシュ時のデバイス記述子です。 */
+		public final DeviceDescriptor device;
+
+		/** インデックスをキーとした記述子のバイナリです。 */
+		public final Map<Integer,byte[]> binary = new HashMap<Integer,byte[]>();
+
+		/** 先頭部分のみを保持している記述子のインデックスです。 */
+		public final Set<Integer> partial = new HashSet<Integer>();
+
+		/**
+		 * @param device キャッシュ時のデバイス記述子
+		 */
+		public Entry(DeviceDescriptor device){
+			this.device = device;
+			return;
+		}
+
+		/**
+		 * @return このエントリの複製
+		 */
+		public Entry copy(){
+			Entry e = new Entry(device);
+			e.binary.putAll(binary);
+			e.partial.addAll(partial);
+			return e;
+		}
+	}
+
+}
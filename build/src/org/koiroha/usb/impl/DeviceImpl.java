@@ -40,6 +40,15 @@ public class DeviceImpl extends DeviceNode<DeviceNode<?,?,?>,ConfigurationImpl,D
 	 */
 	private static final java.util.logging.Logger logger = java.util.logging.Logger.getLogger(DeviceImpl.class.getName());
 
+	// ======================================================================
+	// 記述子の最大長
+	// ======================================================================
+	/**
+	 * 長さ {@code bLength} を持つ記述子の最大長です。
+	 * <p>
+	 */
+	private static final int MAX_DESCRIPTOR_LENGTH = 0xFF;
+
 	// ======================================================================
 	// バス
 	// ======================================================================
@@ -104,6 +113,80 @@ public class DeviceImpl extends DeviceNode<DeviceNode<?,?,?>,ConfigurationImpl,D
 	 */
 	private final List<DeviceListener> listener = new ArrayList<DeviceListener>();
 
+	// ======================================================================
+	// コンフィギュレーションバイナリ
+	// ======================================================================
+	/**
+	 * まだ解析していないコンフィギュレーション以下の記述子のバイナリです。コンフィギュレーション
+	 * が初めて参照された時に解析され null となります。
+	 * <p>
+	 */
+	private ByteBuffer[] rawConfiguration = null;
+
+	// ======================================================================
+	// 記述子キャッシュ
+	// ======================================================================
+	/**
+	 * このデバイスが使用する記述子キャッシュです。キャッシュを使用しない場合は null です。
+	 * <p>
+	 */
+	private volatile DescriptorCache cache = null;
+
+	// ======================================================================
+	// 記述子キャッシュのキー
+	// ======================================================================
+	/**
+	 * 記述子キャッシュ内でこのデバイスを識別するキーです。最初にキャッシュを経由する記述子を
+	 * 取得した時に決定され、キャッシュの破棄後は次に記述子を取得した時に決定し直されます。
+	 * <p>
+	 */
+	private volatile DescriptorCache.Key cacheKey = null;
+
+	// ======================================================================
+	// キャッシュ不可
+	// ======================================================================
+	/**
+	 * シリアル番号を読み込めなかったためにこのデバイスの記述子をキャッシュしない場合 true
+	 * です。
+	 * <p>
+	 */
+	private volatile boolean uncacheable = false;
+
+	// ======================================================================
+	// デバイス要求メトリクス
+	// ======================================================================
+	/**
+	 * このデバイスに対するデバイス要求 (エンドポイント 0 のコントロール転送) を計測する
+	 * カウンタです。
+	 * <p>
+	 */
+	private final TransferCounter control = new TransferCounter();
+
+	// ======================================================================
+	// 転送メトリクス
+	// ======================================================================
+	/**
+	 * デバイス要求と全てのエンドポイントの計測値を合算する転送メトリクスです。
+	 * <p>
+	 */
+	private final TransferMetrics metrics = new TransferMetrics(){
+		@Override
+		public TransferStatistics getStatistics(){
+			TransferStatistics stat = control.getStatistics();
+			for(EndpointImpl e: getEndpoints()){
+				stat = stat.add(e.getMetrics().getStatistics());
+			}
+			return stat;
+		}
+		public void reset(){
+			control.reset();
+			for(EndpointImpl e: getEndpoints()){
+				e.getMetrics().reset();
+			}
+			return;
+		}
+	};
+
 	// ======================================================================
 	// コンストラクタ
 	// ======================================================================
@@ -113,6 +196,10 @@ public class DeviceImpl extends DeviceNode<DeviceNode<?,?,?>,ConfigurationImpl,D
 	 * と同じ長さです。コンフィギュレーションの取得に失敗している場合、その要素に null が含まれ
 	 * ていてもかまいません。
 	 * <p>
+	 * コンフィギュレーション以下の記述子は最初に参照された時に解析されます。{@link
+	 * USBContextImpl#sync()} で既存のインスタンスと一致したデバイスは解析されずに破棄され
+	 * ます。
+	 * <p>
 	 * @param driver USB ドライバ
 	 * @param desc デバイス記述子
 	 * @param conf コンフィギュレーション以下の記述子のバイナリデータ
@@ -120,16 +207,7 @@ public class DeviceImpl extends DeviceNode<DeviceNode<?,?,?>,ConfigurationImpl,D
 	protected DeviceImpl(USBBridge driver, DeviceDescriptor desc, ByteBuffer[] conf) {
 		super(driver, desc);
 		assert(desc.getNumConfigurations() == conf.length);
-
-		// コンフィギュレーション実装を構築
-		for(int i=0; i<conf.length; i++){
-			if(conf[i] != null){
-				ConfigurationImpl confImpl = new ConfigurationImpl(this, conf[i]);
-				addChildNode(confImpl);
-			} else {
-				logger.fine("raw configuration binary not found");
-			}
-		}
+		this.rawConfiguration = conf;
 		return;
 	}
 
@@ -185,6 +263,30 @@ public class DeviceImpl extends DeviceNode<DeviceNode<?,?,?>,ConfigurationImpl,D
 		return;
 	}
 
+	// ======================================================================
+	// 位置の参照
+	// ======================================================================
+	/**
+	 * バス上でのこのデバイスの位置を参照します。{@link USBContextImpl#sync()} は位置と
+	 * デバイス記述子が一致するデバイスを同一のデバイスとみなし、既存のインスタンスを継続して
+	 * 使用します。
+	 * <p>
+	 * デフォルトの実装はバス名とルートハブからの接続順序で位置を表します。接続順序は他の
+	 * デバイスの取り外しによって変化するため、ライブラリがデバイスのアドレスや ID を提供する
+	 * 場合はサブクラスでオーバーライドしてください。
+	 * <p>
+	 * @return デバイスの位置
+	 */
+	protected String getLocation(){
+		if(parent != null){
+			return parent.getLocation() + "." + parent.children.indexOf(this);
+		}
+		if(bus == null){
+			return "/" + Integer.toHexString(System.identityHashCode(this));
+		}
+		return bus.getName() + "/" + bus.getRootDevices().indexOf(this);
+	}
+
 	// ======================================================================
 	// 親デバイスの参照
 	// ======================================================================
@@ -321,6 +423,7 @@ public class DeviceImpl extends DeviceNode<DeviceNode<?,?,?>,ConfigurationImpl,D
 
 		// デバイスのリセットを実行
 		bridge.reset(this);
+		invalidateDescriptorCache();
 
 		// デバイスの解放
 		this.release();
@@ -608,27 +711,130 @@ public class DeviceImpl extends DeviceNode<DeviceNode<?,?,?>,ConfigurationImpl,D
 	 * フェース0、エンドポイント0 のコントロール転送に対して指定された要求を行うための簡易メソッ
 	 * ドです。
 	 * <p>
+	 * 記述子キャッシュが設定されている場合、デバイス記述子以外の標準の GET_DESCRIPTOR 要求
+	 * (デバイス宛て、またはインターフェース宛てのクラス固有記述子) はキャッシュを経由し、
+	 * キャッシュから返された場合はデバイスへの要求を行いません。
+	 * <p>
 	 * @param request デバイスリクエスト
 	 * @return 実際の入出力サイズ
 	 * @throws USBException 言語 ID の取得に失敗した場合
 	 */
 	public int deviceRequest(ControlRequest request) throws USBException{
 		ensureDeviceOpened();
+		DescriptorCache c = cache;
+		if(c == null || ! isCacheable(request)){
+			return execute(request);
+		}
+		DescriptorCache.Key key = getCacheKey();
+		if(key == null){
+			return execute(request);
+		}
+
+		// キャッシュされていればバッファに複写
+		byte type = (byte)(request.getValue() >> 8);
+		byte index = (byte)request.getValue();
+		short langid = (short)request.getIndex();
+		byte[] buffer = request.getRawBuffer();
+		byte[] binary = c.get(key, getDescriptor(), type, index, langid, buffer.length);
+		if(binary != null){
+			int len = Math.min(binary.length, buffer.length);
+			System.arraycopy(binary, 0, buffer, 0, len);
+			return len;
+		}
+
+		// デバイスから取得した内容をキャッシュ (バッファに収まっていれば記述子全体)
+		int len = execute(request);
+		c.put(key, getDescriptor(), type, index, langid, copy(buffer, len), len < buffer.length);
+		return len;
+	}
+
+	// ======================================================================
+	// デバイス要求の実行
+	// ======================================================================
+	/**
+	 * キャッシュを経由せずにデバイスに対して要求を実行し、メトリクスを記録します。
+	 * <p>
+	 * @param request デバイスリクエスト
+	 * @return 実際の入出力サイズ
+	 * @throws USBException 要求に失敗した場合
+	 */
+	private int execute(ControlRequest request) throws USBException{
 
 		// デバイスリクエストの実行
-		int len = bridge.deviceRequest(this, request);
+		long start = System.nanoTime();
+		int len;
+		try{
+			len = bridge.deviceRequest(this, request);
+		} catch(TimeoutException ex){
+			control.timeout(start);
+			throw ex;
+		} catch(USBException ex){
+			control.error(start);
+			throw ex;
+		}
 
 		// 実行結果の確認
 		if(len < 0){
+			control.error(start);
 			throw new USBException("usb bridge returns negative length: " + len);
 		}
 		if(len > request.getRawBuffer().length){
+			control.error(start);
 			throw new USBException("usb bridge returns too large length: " + len + "/" + request.getRawBuffer().length);
 		}
 
+		control.record(len, start);
 		return len;
 	}
 
+	// ======================================================================
+	// 転送メトリクスの参照
+	// ======================================================================
+	/**
+	 * このデバイスの転送メトリクスを参照します。値はデバイス要求と全てのコンフィギュレーション
+	 * のエンドポイントの計測値を合算したものです。
+	 * <p>
+	 * @return 転送メトリクス
+	 */
+	public TransferMetrics getMetrics(){
+		return metrics;
+	}
+
+	// ======================================================================
+	// デバイス要求メトリクスの参照
+	// ======================================================================
+	/**
+	 * このデバイスに対するデバイス要求のみの転送メトリクスを参照します。
+	 * <p>
+	 * @return デバイス要求の転送メトリクス
+	 */
+	public TransferMetrics getControlMetrics(){
+		return control;
+	}
+
+	// ======================================================================
+	// エンドポイントの列挙
+	// ======================================================================
+	/**
+	 * このデバイスの全てのコンフィギュレーション、インターフェース、代替設定に含まれるエンド
+	 * ポイント実装を列挙します。
+	 * <p>
+	 * @return エンドポイント実装のリスト
+	 */
+	List<EndpointImpl> getEndpoints(){
+		List<EndpointImpl> list = new ArrayList<EndpointImpl>();
+		for(Configuration c: getConfigurations()){
+			for(Interface i: c.getInterfaces()){
+				for(AltSetting a: i.getAltSettings()){
+					for(Endpoint e: a.getEndpoints()){
+						list.add((EndpointImpl)e);
+					}
+				}
+			}
+		}
+		return list;
+	}
+
 	// ======================================================================
 	// デバイスリスナの追加
 	// ======================================================================
@@ -681,6 +887,31 @@ public class DeviceImpl extends DeviceNode<DeviceNode<?,?,?>,ConfigurationImpl,D
 		return new ConfigurationImpl(this, rawBinary);
 	}
 
+	// ======================================================================
+	// 子ノードの参照
+	// ======================================================================
+	/**
+	 * このデバイスのコンフィギュレーション実装を参照します。初めて参照された時にコンストラクタ
+	 * で指定されたバイナリからコンフィギュレーション実装を構築します。
+	 * <p>
+	 * @return コンフィギュレーション実装のリスト
+	 */
+	@Override
+	protected synchronized List<ConfigurationImpl> getChildNode(){
+		if(rawConfiguration != null){
+			ByteBuffer[] conf = rawConfiguration;
+			rawConfiguration = null;
+			for(int i=0; i<conf.length; i++){
+				if(conf[i] != null){
+					addChildNode(getConfigurationImpl(conf[i]));
+				} else {
+					logger.fine("raw configuration binary not found");
+				}
+			}
+		}
+		return super.getChildNode();
+	}
+
 	// ======================================================================
 	// デバイスの解放確認
 	// ======================================================================
@@ -729,11 +960,79 @@ public class DeviceImpl extends DeviceNode<DeviceNode<?,?,?>,ConfigurationImpl,D
 		return;
 	}
 
+	// ======================================================================
+	// 子デバイスの切断
+	// ======================================================================
+	/**
+	 * このデバイスに接続されている全ての子デバイスを切り離します。このメソッドはコンテキスト
+	 * がトポロジーを再構築する時に呼び出されます。
+	 * <p>
+	 */
+	void disconnectAll(){
+		this.children = null;
+		return;
+	}
+
+	// ======================================================================
+	// 子デバイスの切断
+	// ======================================================================
+	/**
+	 * 指定された子デバイスをこのデバイスから切り離します。このメソッドはコンテキストが個別の
+	 * 取り付け/取り外しを反映する時に呼び出されます。
+	 * <p>
+	 * @param device 切り離す子デバイス
+	 */
+	void disconnect(DeviceImpl device){
+		if(children != null){
+			children.remove(device);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 記述子キャッシュの設定
+	// ======================================================================
+	/**
+	 * このデバイスが使用する記述子キャッシュを設定します。このメソッドはコンテキストがデバイス
+	 * を取り付けた時に呼び出されます。キャッシュのキーは最初に記述子を取得する時に決定します。
+	 * <p>
+	 * @param cache 記述子キャッシュ (使用しない場合は null)
+	 */
+	void setDescriptorCache(DescriptorCache cache){
+		this.cacheKey = null;
+		this.uncacheable = false;
+		this.cache = cache;
+		return;
+	}
+
+	// ======================================================================
+	// 記述子キャッシュの破棄
+	// ======================================================================
+	/**
+	 * 記述子キャッシュからこのデバイスの内容を破棄します。このメソッドはデバイスのリセットや
+	 * 取り外しの時に呼び出されます。
+	 * <p>
+	 */
+	void invalidateDescriptorCache(){
+		DescriptorCache c = cache;
+		if(c == null){
+			return;
+		}
+		DescriptorCache.Key key = cacheKey;
+		if(key != null){
+			c.invalidate(key);
+		}
+		cacheKey = null;
+		uncacheable = false;
+		return;
+	}
+
 	// ======================================================================
 	// デバイス要求の実行
 	// ======================================================================
 	/**
-	 * デバイスリクエストを実行して文字列記述子を取得します。
+	 * デバイスリクエストを実行して文字列記述子を取得します。文字列記述子の長さ {@code bLength}
+	 * は 1 バイトで表されるため、最大長のバッファで 1 回の要求を行います。
 	 * <p>
 	 * @param index 文字列記述子のインデックス
 	 * @param langid 言語ID
@@ -741,35 +1040,27 @@ public class DeviceImpl extends DeviceNode<DeviceNode<?,?,?>,ConfigurationImpl,D
 	 * @throws USBException 文字列記述子の取得に失敗した場合
 	 */
 	protected ByteBuffer getStringDescriptor(int index, int langid) throws USBException{
-		byte[] buffer = new byte[64];
-		while(true){
-
-			// 記述子の取得
-			int len = getRawDescriptor(
-				Descriptor.TYPE_STRING, toUINT8("index", index), toUINT16("langid", langid), buffer);
-
-			// バッファサイズより小さい読み込みが行われたらバイナリを返す
-			if(len < buffer.length){
-				return ByteBuffer.wrap(buffer, 0, len);
-			}
-
-			// 倍のサイズのバッファを用意して再実行
-			buffer = new byte[buffer.length * 2];
-		}
+		byte[] buffer = new byte[MAX_DESCRIPTOR_LENGTH];
+		int len = getRawDescriptor(
+			Descriptor.TYPE_STRING, toUINT8("index", index), toUINT16("langid", langid), buffer);
+		return ByteBuffer.wrap(buffer, 0, len);
 	}
 
 	// ======================================================================
 	// 記述子バイナリの取得
 	// ======================================================================
 	/**
-	 * 指定された記述子のバイナリを取得します。
+	 * デバイスに GET_DESCRIPTOR 要求を行い記述子のバイナリを取得します。記述子キャッシュが
+	 * 設定されていればデバイス記述子以外の記述子は {@link #deviceRequest(ControlRequest)}
+	 * によってキャッシュから返され、キャッシュに存在しない場合のみデバイスへの要求が行われ
+	 * ます。
 	 * <p>
 	 * @param type 記述子のタイプ ({code Descriptor.TYPE_XXX})
 	 * @param index 文字列記述子のインデックス
 	 * @param langid 言語ID
 	 * @param buffer データを格納するバッファ
 	 * @return バッファに読み込まれた長さ
-	 * @throws USBException 文字列記述子の取得に失敗した場合
+	 * @throws USBException 記述子の取得に失敗した場合
 	 */
 	protected int getRawDescriptor(byte type, byte index, short langid, byte[] buffer) throws USBException{
 		if(buffer.length < 2){
@@ -793,4 +1084,129 @@ public class DeviceImpl extends DeviceNode<DeviceNode<?,?,?>,ConfigurationImpl,D
 		return length;
 	}
 
+	// ======================================================================
+	// キャッシュ対象の判定
+	// ======================================================================
+	/**
+	 * 指定された要求が記述子キャッシュを経由する記述子の取得かどうかを判定します。デバイス宛て
+	 * のデバイス記述子以外の記述子と、インターフェース宛てのクラス固有記述子が対象です。
+	 * <p>
+	 * @param request デバイスリクエスト
+	 * @return キャッシュを経由する場合 true
+	 */
+	private static boolean isCacheable(ControlRequest request){
+		if(request.getDirection() != DIR.IN || request.getType() != TYPE.STANDARD
+		|| request.getRequest() != ControlRequest.GET_DESCRIPTOR){
+			return false;
+		}
+		int type = (request.getValue() >> 8) & 0xFF;
+		switch(request.getRecipient()){
+		case ControlRequest.RCPT_DEVICE:
+			return type != Descriptor.TYPE_DEVICE;
+		case ControlRequest.RCPT_INTERFACE:
+			return (type & 0x60) == 0x20;
+		default:
+			return false;
+		}
+	}
+
+	// ======================================================================
+	// 記述子キャッシュのキーの参照
+	// ======================================================================
+	/**
+	 * 記述子キャッシュ内でこのデバイスを識別するキーを参照します。キーが決定していない場合は
+	 * {@link #newCacheKey()} で決定します。シリアル番号を読み込めなかったデバイスは null を
+	 * 返し、記述子はキャッシュされません。
+	 * <p>
+	 * @return キャッシュのキー
+	 */
+	private DescriptorCache.Key getCacheKey(){
+		DescriptorCache.Key key = cacheKey;
+		if(key == null && ! uncacheable){
+			try{
+				key = newCacheKey();
+				cacheKey = key;
+			} catch(USBException ex){
+				logger.log(Level.FINE, "fail to read serial number, descriptors not cached: " + this, ex);
+				uncacheable = true;
+			}
+		}
+		return key;
+	}
+
+	// ======================================================================
+	// 記述子キャッシュのキーの構築
+	// ======================================================================
+	/**
+	 * このデバイスの記述子キャッシュのキーを構築します。シリアル番号 {@code iSerialNumber}
+	 * を持つデバイスは個体ごとに文字列記述子が異なるため、シリアル番号の文字列をキャッシュを
+	 * 経由しない要求で 1 度だけ読み込んで識別します。これにより保存したキャッシュを読み込んだ
+	 * 場合や同じ位置に同じ製品の別の個体を接続した場合も他の個体の記述子は返されません。
+	 * シリアル番号を持たないデバイスはバス上の位置で識別します。
+	 * <p>
+	 * @return キャッシュのキー
+	 * @throws USBException シリアル番号の読み込みに失敗した場合
+	 */
+	private DescriptorCache.Key newCacheKey() throws USBException{
+		DeviceDescriptor desc = getDescriptor();
+		int index = desc.getSerialNumberSDIX() & 0xFF;
+		if(index == 0){
+			return new DescriptorCache.Key(desc, null, getLocation());
+		}
+
+		// 最初の言語 ID でシリアル番号を読み込み
+		byte[] buffer = new byte[MAX_DESCRIPTOR_LENGTH];
+		String serial = null;
+		try{
+			int len = execute(newStringRequest(0, 0, buffer));
+			int langid = 0;
+			if(len >= 4){
+				langid = new LangIDDescriptor(ByteBuffer.wrap(buffer, 0, len)).getLangID()[0] & 0xFFFF;
+			}
+			len = execute(newStringRequest(index, langid, buffer));
+			if(len < 2 || buffer[1] != Descriptor.TYPE_STRING){
+				throw new USBException("invalid serial number descriptor: " + len + " bytes");
+			}
+			serial = new StringDescriptor(ByteBuffer.wrap(buffer, 0, len)).getString();
+		} catch(IllegalArgumentException ex){
+			throw new USBException("invalid serial number descriptor", ex);
+		} catch(IllegalStateException ex){
+			throw new USBException("invalid serial number descriptor", ex);
+		}
+		return new DescriptorCache.Key(desc, serial, null);
+	}
+
+	// ======================================================================
+	// 文字列記述子要求の構築
+	// ======================================================================
+	/**
+	 * 文字列記述子を取得する GET_DESCRIPTOR 要求を構築します。
+	 * <p>
+	 * @param index 文字列記述子のインデックス
+	 * @param langid 言語ID
+	 * @param buffer データを格納するバッファ
+	 * @return デバイスリクエスト
+	 */
+	private static ControlRequest newStringRequest(int index, int langid, byte[] buffer){
+		return new ControlRequest(
+			DIR.IN, TYPE.STANDARD, ControlRequest.RCPT_DEVICE, ControlRequest.GET_DESCRIPTOR,
+			((Descriptor.TYPE_STRING & 0xFF) << 8) | (index & 0xFF), langid & 0xFFFF, buffer);
+	}
+
+	// ======================================================================
+	// バイナリの複製
+	// ======================================================================
+	/**
+	 * 指定されたバッファの先頭から指定された長さを複製します。
+	 * <p>
+	 * @param buffer バッファ
+	 * @param length 複製する長さ
+	 * @return 複製したバイナリ
+	 */
+	private static byte[] copy(byte[] buffer, int length){
+		byte[] binary = new byte[length];
+		System.arraycopy(buffer, 0, binary, 0, length);
+		return binary;
+	}
+
 }
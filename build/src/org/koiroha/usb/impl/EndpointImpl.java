@@ -10,7 +10,7 @@
 */
 package org.koiroha.usb.impl;
 
-import java.nio.ByteBuffer;
+import java.nio.*;
 
 import org.koiroha.usb.*;
 import org.koiroha.usb.ControlRequest.*;
@@ -38,6 +38,15 @@ public class EndpointImpl extends DeviceNode<AltSettingImpl, DeviceNode<?,?,?>,
 	 */
 	private IsocEventDispatcher dispatcher = null;
 
+	// ======================================================================
+	// 等時間隔ストリーム
+	// ======================================================================
+	/**
+	 * 多重バッファで等時間隔受信を行っているストリームです。
+	 * <p>
+	 */
+	private IsocStreamImpl stream = null;
+
 	// ======================================================================
 	// インターフェース番号
 	// ======================================================================
@@ -83,6 +92,42 @@ public class EndpointImpl extends DeviceNode<AltSettingImpl, DeviceNode<?,?,?>,
 	 */
 	private final TransferType type;
 
+	// ======================================================================
+	// キュー深さ
+	// ======================================================================
+	/**
+	 * このエンドポイントで同時に発行可能な非同期転送の数です。
+	 * <p>
+	 */
+	private int queueDepth = 1;
+
+	// ======================================================================
+	// 発行中転送数
+	// ======================================================================
+	/**
+	 * このエンドポイントで発行され終了していない非同期転送の数です。
+	 * <p>
+	 */
+	private int inflight = 0;
+
+	// ======================================================================
+	// 非同期転送ロック
+	// ======================================================================
+	/**
+	 * キュー深さと発行中転送数を保護するためのロックです。
+	 * <p>
+	 */
+	private final Object queueLock = new Object();
+
+	// ======================================================================
+	// 転送メトリクス
+	// ======================================================================
+	/**
+	 * このエンドポイントの転送を計測するカウンタです。
+	 * <p>
+	 */
+	private final TransferCounter metrics = new TransferCounter();
+
 	// ======================================================================
 	// コンストラクタ
 	// ======================================================================
@@ -141,21 +186,19 @@ public class EndpointImpl extends DeviceNode<AltSettingImpl, DeviceNode<?,?,?>,
 	 */
 	public int read(byte[] buffer, int offset, int length, int timeout) throws USBException {
 		ensureAltSetting(alt);
-		switch(type){
-		case BULK:
-			return bridge.bulkTransfer(device, intf, edpt, buffer, offset, length, dir, timeout);
-		case INTERRUPT:
-			return bridge.interruptTransfer(device, intf, edpt, buffer, offset, length, dir, timeout);
-		default:
+		if(type != TransferType.BULK && type != TransferType.INTERRUPT){
 			throw new USBException("read unsupported endpoint: " + type);
 		}
+		return transfer(buffer, offset, length, timeout);
 	}
 
 	// ======================================================================
 	// データの書き込み
 	// ======================================================================
 	/**
-	 * 指定されたバッファのデータを書き込みます。
+	 * 指定されたバッファのデータを書き込みます。ブリッジが一部のデータのみを転送した場合は
+	 * 残りのデータを続けて転送します。途中でタイムアウトした場合、送出される
+	 * {@link TimeoutException#getTransferred()} はこの呼び出しで送信したバイト数となります。
 	 * <p>
 	 * @param buffer バッファ
 	 * @param offset オフセット
@@ -166,26 +209,167 @@ public class EndpointImpl extends DeviceNode<AltSettingImpl, DeviceNode<?,?,?>,
 	public void write(byte[] buffer, int offset, int length, int timeout) throws USBException {
 		ensureAltSetting(alt);
 
-		// ※ length が 0 指定でも必ず 1 度は出力を行う
-		switch(type){
-		case BULK:
-			do{
-				int len = bridge.bulkTransfer(device, intf, edpt, buffer, offset, length, dir, timeout);
-				length -= len;
-			} while(length > 0);
-			break;
-		case INTERRUPT:
-			do{
-				int len = bridge.interruptTransfer(device, intf, edpt, buffer, offset, length, dir, timeout);
-				length -= len;
-			} while(length > 0);
-			break;
-		default:
+		if(type != TransferType.BULK && type != TransferType.INTERRUPT){
 			throw new USBException("write unsupported endpoint: " + type);
 		}
+		if(offset < 0 || length < 0 || offset + length > buffer.length){
+			throw new IndexOutOfBoundsException("buffer=" + buffer.length + ",offset=" + offset + ",length=" + length);
+		}
+
+		// ※ length が 0 指定でも必ず 1 度は出力を行う
+		int written = 0;
+		do{
+			int len;
+			try{
+				len = transfer(buffer, offset, length, timeout);
+			} catch(TimeoutException ex){
+				throw progress(ex, written);
+			}
+			ensureProgress(len, length);
+			offset += len;
+			length -= len;
+			written += len;
+		} while(length > 0);
+		return;
+	}
+
+	// ======================================================================
+	// データの読み込み
+	// ======================================================================
+	/**
+	 * 指定されたバッファの位置からリミットまでの領域へデータを読み込みます。
+	 * <p>
+	 * @param buffer バッファ
+	 * @param timeout タイムアウト (ミリ秒)
+	 * @return 実際に読み込んだ長さ
+	 * @throws USBException 読み込みに失敗した場合
+	 */
+	public int read(ByteBuffer buffer, int timeout) throws USBException {
+		ensureAltSetting(alt);
+		if(buffer.isReadOnly()){
+			throw new ReadOnlyBufferException();
+		}
+		int len = transfer(buffer, timeout);
+		buffer.position(buffer.position() + len);
+		return len;
+	}
+
+	// ======================================================================
+	// データの書き込み
+	// ======================================================================
+	/**
+	 * 指定されたバッファの位置からリミットまでのデータを書き込みます。途中でタイムアウトした
+	 * 場合もバッファの位置は送信したデータの分だけ進みます。
+	 * <p>
+	 * @param buffer バッファ
+	 * @param timeout タイムアウト (ミリ秒)
+	 * @throws USBException 書き込みに失敗した場合
+	 */
+	public void write(ByteBuffer buffer, int timeout) throws USBException {
+		ensureAltSetting(alt);
+
+		// ※残りが 0 でも必ず 1 度は出力を行う
+		int written = 0;
+		do{
+			int len;
+			try{
+				len = transfer(buffer, timeout);
+			} catch(TimeoutException ex){
+				buffer.position(buffer.position() + Math.min(ex.getTransferred(), buffer.remaining()));
+				throw progress(ex, written);
+			}
+			ensureProgress(len, buffer.remaining());
+			buffer.position(buffer.position() + len);
+			written += len;
+		} while(buffer.hasRemaining());
 		return;
 	}
 
+	// ======================================================================
+	// 非同期転送の発行
+	// ======================================================================
+	/**
+	 * このエンドポイントに対して非同期転送を発行します。既にキュー深さまで転送が発行されている
+	 * 場合はいずれかの転送が終了するまで待機します。ブリッジへの発行に失敗した転送は発生した
+	 * 例外で失敗状態となり、リスナに通知された後に例外が送出されます。
+	 * <p>
+	 * @param buffer バッファ
+	 * @param offset オフセット
+	 * @param length 長さ
+	 * @param timeout タイムアウト (ミリ秒)
+	 * @param l 転送の終了を通知するリスナ
+	 * @return 非同期転送
+	 * @throws USBException 非同期転送の発行に失敗した場合
+	 */
+	public AsyncTransfer submit(byte[] buffer, int offset, int length, int timeout, TransferListener l) throws USBException{
+		ensureAltSetting(alt);
+		if(type != TransferType.BULK && type != TransferType.INTERRUPT){
+			throw new USBException("asynchronous transfer unsupported endpoint: " + type);
+		}
+		if(offset < 0 || length < 0 || offset + length > buffer.length){
+			throw new IndexOutOfBoundsException("buffer=" + buffer.length + ",offset=" + offset + ",length=" + length);
+		}
+
+		// キューに空きができるまで待機
+		synchronized(queueLock){
+			while(inflight >= queueDepth){
+				try{
+					queueLock.wait();
+				} catch(InterruptedException ex){
+					Thread.currentThread().interrupt();
+					throw new USBException("interrupted while waiting for transfer queue", ex);
+				}
+			}
+			inflight ++;
+		}
+
+		// ブリッジに転送を発行
+		AsyncTransferImpl transfer = new AsyncTransferImpl(this, buffer, offset, length, timeout, l);
+		try{
+			bridge.submit(device, intf, edpt, transfer);
+		} catch(USBException ex){
+			transfer.fail(ex);
+			throw ex;
+		} catch(RuntimeException ex){
+			transfer.fail(new USBException("fail to submit transfer", ex));
+			throw ex;
+		}
+		return transfer;
+	}
+
+	// ======================================================================
+	// キュー深さの設定
+	// ======================================================================
+	/**
+	 * このエンドポイントで同時に発行可能な非同期転送の数を設定します。
+	 * <p>
+	 * @param depth 同時に発行可能な非同期転送の数
+	 */
+	public void setQueueDepth(int depth){
+		if(depth <= 0){
+			throw new IllegalArgumentException("depth<=0; " + depth);
+		}
+		synchronized(queueLock){
+			this.queueDepth = depth;
+			queueLock.notifyAll();
+		}
+		return;
+	}
+
+	// ======================================================================
+	// キュー深さの参照
+	// ======================================================================
+	/**
+	 * このエンドポイントで同時に発行可能な非同期転送の数を参照します。
+	 * <p>
+	 * @return 同時に発行可能な非同期転送の数
+	 */
+	public int getQueueDepth(){
+		synchronized(queueLock){
+			return queueDepth;
+		}
+	}
+
 	// ======================================================================
 	// 等時間隔受信の開始
 	// ======================================================================
@@ -219,29 +403,13 @@ public class EndpointImpl extends DeviceNode<AltSettingImpl, DeviceNode<?,?,?>,
 	 * @throws USBException 等時間隔受信の開始に失敗した場合
 	 */
 	public void startIsocRead(IsocTransferListener l, long startFrame, int frames, int bufSize, int priority) throws USBException{
-		ensureAltSetting(alt);
-		EndpointDescriptor desc = getDescriptor();
-
-		// Isochronous 転送でなければ例外
-		if(! TransferType.ISOCHRONOUS.equals(desc.getTransferType())){
-			throw new USBException("invalid transfer type: " + desc.getTransferType());
-		}
-
-		// IN でなければ例外
-		if(! desc.equals(Direction.IN)){
-			throw new USBException("invalid direction: " + desc.getDirection());
-		}
-
-		// フレーム数が負なら例外
-		if(frames <= 0){
-			throw new IllegalArgumentException("frames<=0; " + frames);
-		}
+		verifyIsocRead(frames);
 
 		// ディスパッチャースレッドの開始
 		byte[][] buffer = new byte[frames][bufSize];
 		IsocTransferEvent e = new IsocTransferEvent(this, startFrame, buffer);
 		synchronized(this){
-			if(dispatcher != null){
+			if(dispatcher != null || stream != null){
 				throw new USBException("isochronous reading already active");
 			}
 			dispatcher = new IsocEventDispatcher(this, l, e);
@@ -252,6 +420,60 @@ public class EndpointImpl extends DeviceNode<AltSettingImpl, DeviceNode<?,?,?>,
 		return;
 	}
 
+	// ======================================================================
+	// 等時間隔ストリームの開始
+	// ======================================================================
+	/**
+	 * デフォルトのスレッド優先度を使用してこのエンドポイントでの多重バッファ等時間隔受信を
+	 * 開始します。
+	 * <p>
+	 * @param l データ受信を通知するリスナ
+	 * @param startFrame 開始フレーム
+	 * @param frames リスナに通知するフレーム (ミリ秒) 単位
+	 * @param bufSize 1フレーム当たりのバッファサイズ
+	 * @param buffers リングに確保するバッファ数
+	 * @return 開始したストリーム
+	 * @throws USBException 等時間隔受信の開始に失敗した場合
+	 */
+	public IsocStream startIsocStream(IsocTransferListener l, long startFrame, int frames, int bufSize, int buffers) throws USBException{
+		return startIsocStream(l, startFrame, frames, bufSize, buffers, Thread.NORM_PRIORITY);
+	}
+
+	// ======================================================================
+	// 等時間隔ストリームの開始
+	// ======================================================================
+	/**
+	 * このエンドポイントでの多重バッファ等時間隔受信を開始します。
+	 * <p>
+	 * @param l データ受信を通知するリスナ
+	 * @param startFrame 開始フレーム
+	 * @param frames リスナに通知するフレーム (ミリ秒) 単位
+	 * @param bufSize 1フレーム当たりのバッファサイズ
+	 * @param buffers リングに確保するバッファ数
+	 * @param priority 受信スレッドの優先順位
+	 * @return 開始したストリーム
+	 * @throws USBException 等時間隔受信の開始に失敗した場合
+	 */
+	public IsocStream startIsocStream(IsocTransferListener l, long startFrame, int frames, int bufSize, int buffers, int priority) throws USBException{
+		verifyIsocRead(frames);
+
+		// バッファ数が負なら例外
+		if(buffers <= 0){
+			throw new IllegalArgumentException("buffers<=0; " + buffers);
+		}
+
+		// ストリームの開始
+		IsocStreamImpl s = new IsocStreamImpl(this, l, startFrame, frames, bufSize, buffers);
+		synchronized(this){
+			if(dispatcher != null || stream != null){
+				throw new USBException("isochronous reading already active");
+			}
+			stream = s;
+		}
+		s.start(priority);
+		return s;
+	}
+
 	// ======================================================================
 	// 等時間隔受信の終了
 	// ======================================================================
@@ -266,6 +488,10 @@ public class EndpointImpl extends DeviceNode<AltSettingImpl, DeviceNode<?,?,?>,
 				dispatcher.stopDispatch();
 				dispatcher = null;
 			}
+			if(stream != null){
+				stream.stop();
+				stream = null;
+			}
 		}
 		return;
 	}
@@ -395,7 +621,7 @@ public class EndpointImpl extends DeviceNode<AltSettingImpl, DeviceNode<?,?,?>,
 
 		// このスレッドに割り込みが行われるまで読み込みと通知を実行
 		while(! Thread.interrupted()){
-			bridge.isochronousTransfer(device, intf, edpt, event);
+			isochronousTransfer(event);
 			listener.receive(event);
 		}
 		return;
@@ -415,4 +641,278 @@ public class EndpointImpl extends DeviceNode<AltSettingImpl, DeviceNode<?,?,?>,
 		return;
 	}
 
+	// ======================================================================
+	// ストリーム終了コールバック
+	// ======================================================================
+	/**
+	 * ストリームの配信スレッドからの終了のコールバックです。
+	 * <p>
+	 * @param s 終了したストリーム
+	*/
+	void streamFinished(IsocStreamImpl s){
+		synchronized(this){
+			if(this.stream == s){
+				this.stream = null;
+			}
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 等時間隔転送の実行
+	// ======================================================================
+	/**
+	 * 指定されたイベントのバッファへ 1 回の等時間隔転送を実行します。このメソッドはストリーム
+	 * の受信スレッドから呼び出されます。
+	 * <p>
+	 * @param event 使用するイベントオブジェクト
+	 * @throws USBException 転送に失敗した場合
+	*/
+	void isochronousTransfer(IsocTransferEvent event) throws USBException{
+		long start = System.nanoTime();
+		try{
+			bridge.isochronousTransfer(device, intf, edpt, event);
+		} catch(TimeoutException ex){
+			metrics.timeout(start);
+			throw ex;
+		} catch(USBException ex){
+			metrics.error(start);
+			throw ex;
+		}
+
+		// 受信したフレームの合計を記録
+		int total = 0;
+		int[] length = event.getLength();
+		for(int i=0; i<length.length; i++){
+			total += length[i];
+		}
+		metrics.record(total, start);
+		return;
+	}
+
+	// ======================================================================
+	// 等時間隔受信の検証
+	// ======================================================================
+	/**
+	 * このエンドポイントで等時間隔受信が可能かどうかを検証します。
+	 * <p>
+	 * @param frames リスナに通知するフレーム数
+	 * @throws USBException 等時間隔受信が出来ない場合
+	*/
+	private void verifyIsocRead(int frames) throws USBException{
+		ensureAltSetting(alt);
+		EndpointDescriptor desc = getDescriptor();
+
+		// Isochronous 転送でなければ例外
+		if(! TransferType.ISOCHRONOUS.equals(desc.getTransferType())){
+			throw new USBException("invalid transfer type: " + desc.getTransferType());
+		}
+
+		// IN でなければ例外
+		if(! Direction.IN.equals(desc.getDirection())){
+			throw new USBException("invalid direction: " + desc.getDirection());
+		}
+
+		// フレーム数が負なら例外
+		if(frames <= 0){
+			throw new IllegalArgumentException("frames<=0; " + frames);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 書き込みの進捗確認
+	// ======================================================================
+	/**
+	 * 書き込みの 1 回の転送で転送されたバイト数を検証します。ブリッジが残りのデータを持つ
+	 * 転送を 1 バイトも進めずに終了した場合は再試行しても進まないため例外とします。
+	 * <p>
+	 * @param len 転送されたバイト数
+	 * @param remaining 転送前の残りバイト数
+	 * @throws USBException 転送が進まなかった場合
+	*/
+	private void ensureProgress(int len, int remaining) throws USBException{
+		if(len < 0 || len > remaining || (len == 0 && remaining > 0)){
+			throw new USBException(String.format(
+				"bridge returns invalid transfer length %d for %d bytes: %s", len, remaining, this));
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 書き込み済みバイト数の付加
+	// ======================================================================
+	/**
+	 * 書き込みの途中でタイムアウトした場合に、それまでに送信したバイト数を加えた例外を
+	 * 作成します。最初の転送でタイムアウトした場合は指定された例外をそのまま返します。
+	 * <p>
+	 * @param ex タイムアウトした転送の例外
+	 * @param written それまでの転送で送信したバイト数
+	 * @return 送出する例外
+	*/
+	private static TimeoutException progress(TimeoutException ex, int written){
+		if(written == 0){
+			return ex;
+		}
+		return new TimeoutException(ex.getMessage(), written + ex.getTransferred(), ex);
+	}
+
+	// ======================================================================
+	// バッファ転送の実行
+	// ======================================================================
+	/**
+	 * 指定されたバッファの位置からリミットまでの領域で転送を実行します。ダイレクトバッファは
+	 * そのままブリッジへ渡し、それ以外のバッファは配列を使用して転送します。このメソッドは
+	 * バッファの位置を変更しません。
+	 * <p>
+	 * @param buffer バッファ
+	 * @param timeout タイムアウト (ミリ秒)
+	 * @return 実際に転送された長さ
+	 * @throws USBException 転送に失敗した場合
+	*/
+	private int transfer(ByteBuffer buffer, int timeout) throws USBException{
+		long start = System.nanoTime();
+		try{
+			int len = invoke(buffer, timeout);
+			metrics.record(len, start);
+			return len;
+		} catch(TimeoutException ex){
+			metrics.timeout(start);
+			throw ex;
+		} catch(USBException ex){
+			metrics.error(start);
+			throw ex;
+		}
+	}
+
+	// ======================================================================
+	// 配列転送の実行
+	// ======================================================================
+	/**
+	 * 指定された配列の領域でバルクまたは割り込み転送を 1 回実行し、その結果を転送メトリクスに
+	 * 記録します。
+	 * <p>
+	 * @param buffer バッファ
+	 * @param offset オフセット
+	 * @param length 長さ
+	 * @param timeout タイムアウト (ミリ秒)
+	 * @return 実際に転送された長さ
+	 * @throws USBException 転送に失敗した場合
+	*/
+	private int transfer(byte[] buffer, int offset, int length, int timeout) throws USBException{
+		long start = System.nanoTime();
+		try{
+			int len = (type == TransferType.BULK)?
+				bridge.bulkTransfer(device, intf, edpt, buffer, offset, length, dir, timeout):
+				bridge.interruptTransfer(device, intf, edpt, buffer, offset, length, dir, timeout);
+			metrics.record(len, start);
+			return len;
+		} catch(TimeoutException ex){
+			metrics.timeout(start);
+			throw ex;
+		} catch(USBException ex){
+			metrics.error(start);
+			throw ex;
+		}
+	}
+
+	// ======================================================================
+	// バッファ転送の呼び出し
+	// ======================================================================
+	/**
+	 * 指定されたバッファの位置からリミットまでの領域でブリッジの転送を呼び出します。
+	 * <p>
+	 * @param buffer バッファ
+	 * @param timeout タイムアウト (ミリ秒)
+	 * @return 実際に転送された長さ
+	 * @throws USBException 転送に失敗した場合
+	*/
+	private int invoke(ByteBuffer buffer, int timeout) throws USBException{
+
+		// ダイレクトバッファはコピーせずにブリッジへ渡す
+		if(buffer.isDirect()){
+			switch(type){
+			case BULK:
+				return bridge.bulkTransfer(device, intf, edpt, buffer, dir, timeout);
+			case INTERRUPT:
+				return bridge.interruptTransfer(device, intf, edpt, buffer, dir, timeout);
+			default:
+				throw new USBException("transfer unsupported endpoint: " + type);
+			}
+		}
+
+		// 配列を持つバッファはその配列を使用
+		byte[] array = null;
+		int offset = 0;
+		if(buffer.hasArray()){
+			array = buffer.array();
+			offset = buffer.arrayOffset() + buffer.position();
+		} else {
+			array = new byte[buffer.remaining()];
+			buffer.duplicate().get(array);
+		}
+		switch(type){
+		case BULK:
+			return bridge.bulkTransfer(device, intf, edpt, array, offset, buffer.remaining(), dir, timeout);
+		case INTERRUPT:
+			return bridge.interruptTransfer(device, intf, edpt, array, offset, buffer.remaining(), dir, timeout);
+		default:
+			throw new USBException("transfer unsupported endpoint: " + type);
+		}
+	}
+
+	// ======================================================================
+	// 非同期転送の中断
+	// ======================================================================
+	/**
+	 * 指定された非同期転送の中断をブリッジに要求します。
+	 * <p>
+	 * @param transfer 中断する転送
+	 * @return 中断できた場合 true
+	 * @throws USBException 中断に失敗した場合
+	*/
+	boolean abort(AsyncTransferImpl transfer) throws USBException{
+		return bridge.abort(device, intf, edpt, transfer);
+	}
+
+	// ======================================================================
+	// 非同期転送の終了
+	// ======================================================================
+	/**
+	 * 非同期転送の終了時に呼び出されキューの空きを 1 つ解放します。完了または失敗した転送は
+	 * 発行からの応答時間と共に転送メトリクスに記録します。中断された転送は記録しません。
+	 * <p>
+	 * @param transfer 終了した転送
+	 * @param length 転送バイト数 (完了以外は負の値)
+	 * @param ex 失敗した場合の例外
+	*/
+	void transferFinished(AsyncTransferImpl transfer, int length, USBException ex){
+		synchronized(queueLock){
+			inflight --;
+			queueLock.notifyAll();
+		}
+
+		// 転送結果の記録
+		if(ex instanceof TimeoutException){
+			metrics.timeout(transfer.getSubmitted());
+		} else if(ex != null){
+			metrics.error(transfer.getSubmitted());
+		} else if(length >= 0){
+			metrics.record(length, transfer.getSubmitted());
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 転送メトリクスの参照
+	// ======================================================================
+	/**
+	 * このエンドポイントで実行された同期、非同期、等時間隔転送の転送メトリクスを参照します。
+	 * <p>
+	 * @return 転送メトリクス
+	*/
+	public TransferMetrics getMetrics(){
+		return metrics;
+	}
+
 }
@@ -0,0 +1,556 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.impl;
+
+import java.util.*;
+import java.util.logging.Level;
+
+import org.koiroha.usb.*;
+import org.koiroha.usb.event.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// IsocStreamImpl: 等時間隔ストリーム実装
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * 事前に確保したイベントのリングを使用して等時間隔受信を行うストリームの実装です。
+ * <p>
+ * 受信スレッドは空きバッファを取り出して転送を実行し、配信待ちキューに追加します。配信
+ * スレッドは配信待ちキューからイベントを取り出してリスナに通知します。リスナの処理中も受信
+ * スレッドは次の転送を続けるため、リスナの処理時間がフレームの間隔を超えてもバッファが
+ * 残っている限りデータは失われません。
+ * <p>
+ * 空きバッファが無い場合は配信待ちの最も古いイベントを破棄して再利用します。配信待ちの
+ * イベントも無い (全てのバッファをアプリケーションが保持している) 場合は予備のイベントに
+ * 受信して破棄します。いずれもオーバーランとして数えられます。
+ * <p>
+ * リスナに配信されたイベントは返却されるまでアプリケーションが所有します。所有していない
+ * イベント (返却済み、配信待ち、受信中のイベント) を返却しようとすると例外が発生します。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ */
+class IsocStreamImpl implements IsocStream {
+
+	// ======================================================================
+	// ログ出力先
+	// ======================================================================
+	/**
+	 * このクラスのログ出力先です。
+	 * <p>
+	 */
+	private static final java.util.logging.Logger logger = java.util.logging.Logger.getLogger(IsocStreamImpl.class.getName());
+
+	// ======================================================================
+	// エンドポイント
+	// ======================================================================
+	/**
+	 * 受信を行うエンドポイントです。
+	 * <p>
+	 */
+	private final EndpointImpl endpoint;
+
+	// ======================================================================
+	// 等時間隔リスナ
+	// ======================================================================
+	/**
+	 * データ受信時にコールバックを行うリスナです。
+	 * <p>
+	 */
+	private final IsocTransferListener listener;
+
+	// ======================================================================
+	// フレーム数
+	// ======================================================================
+	/**
+	 * 1 回の転送で受信するフレーム数です。
+	 * <p>
+	 */
+	private final int frames;
+
+	// ======================================================================
+	// バッファ数
+	// ======================================================================
+	/**
+	 * リングが持つイベントの数です。
+	 * <p>
+	 */
+	private final int buffers;
+
+	// ======================================================================
+	// 空きバッファ
+	// ======================================================================
+	/**
+	 * 受信に使用可能なイベントです。
+	 * <p>
+	 */
+	private final LinkedList<IsocTransferEvent> free = new LinkedList<IsocTransferEvent>();
+
+	// ======================================================================
+	// 配信待ちキュー
+	// ======================================================================
+	/**
+	 * 受信済みでリスナへの配信を待っているイベントです。
+	 * <p>
+	 */
+	private final LinkedList<IsocTransferEvent> ready = new LinkedList<IsocTransferEvent>();
+
+	// ======================================================================
+	// 配信済みイベント
+	// ======================================================================
+	/**
+	 * リスナに配信され、アプリケーションから返却されていないイベントです。
+	 * <p>
+	 */
+	private final Set<IsocTransferEvent> owned = new HashSet<IsocTransferEvent>();
+
+	// ======================================================================
+	// 予備イベント
+	// ======================================================================
+	/**
+	 * 全てのバッファが使用中の場合に受信したデータを破棄するためのイベントです。
+	 * <p>
+	 */
+	private final IsocTransferEvent spare;
+
+	// ======================================================================
+	// 受信スレッド
+	// ======================================================================
+	/**
+	 * 転送を実行するスレッドです。
+	 * <p>
+	 */
+	private final Receiver receiver;
+
+	// ======================================================================
+	// 配信スレッド
+	// ======================================================================
+	/**
+	 * リスナへの通知を行うスレッドです。
+	 * <p>
+	 */
+	private final Dispatcher dispatcher;
+
+	// ======================================================================
+	// 次フレーム
+	// ======================================================================
+	/**
+	 * 次の転送の開始フレームです。
+	 * <p>
+	 */
+	private volatile long nextFrame;
+
+	// ======================================================================
+	// オーバーラン数
+	// ======================================================================
+	/**
+	 * 空きバッファが無かったために破棄した転送の数です。
+	 * <p>
+	 */
+	private long overrun = 0;
+
+	// ======================================================================
+	// アンダーラン数
+	// ======================================================================
+	/**
+	 * データを受信できなかったフレームの数です。
+	 * <p>
+	 */
+	private long underrun = 0;
+
+	// ======================================================================
+	// 受信中フラグ
+	// ======================================================================
+	/**
+	 * 受信スレッドが転送を続けている場合 true です。
+	 * <p>
+	 */
+	private boolean receiving = true;
+
+	// ======================================================================
+	// 停止フラグ
+	// ======================================================================
+	/**
+	 * {@link #stop()} が呼び出された場合 true です。
+	 * <p>
+	 */
+	private boolean stopped = false;
+
+	// ======================================================================
+	// 例外
+	// ======================================================================
+	/**
+	 * 受信中に発生した例外です。
+	 * <p>
+	 */
+	private USBException ex = null;
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * 指定されたバッファ数のリングを確保して構築を行います。
+	 * <p>
+	 * @param endpoint 受信を行うエンドポイント
+	 * @param listener 受信時にコールバックを行うリスナ
+	 * @param startFrame 開始フレーム
+	 * @param frames 1 回の転送で受信するフレーム数
+	 * @param bufSize 1 フレーム当たりのバッファサイズ
+	 * @param buffers リングのバッファ数
+	 */
+	public IsocStreamImpl(EndpointImpl endpoint, IsocTransferListener listener, long startFrame, int frames, int bufSize, int buffers) {
+		this.endpoint = endpoint;
+		this.listener = listener;
+		this.frames = frames;
+		this.buffers = buffers;
+		this.nextFrame = startFrame;
+		for(int i=0; i<buffers; i++){
+			free.add(new IsocTransferEvent(this, new byte[frames][bufSize]));
+		}
+		this.spare = new IsocTransferEvent(this, new byte[frames][bufSize]);
+		this.receiver = new Receiver();
+		this.dispatcher = new Dispatcher();
+		return;
+	}
+
+	// ======================================================================
+	// ストリームの開始
+	// ======================================================================
+	/**
+	 * 受信スレッドと配信スレッドを開始します。
+	 * <p>
+	 * @param priority 受信スレッドの優先順位
+	 */
+	void start(int priority){
+		receiver.setPriority(priority);
+		dispatcher.start();
+		receiver.start();
+		return;
+	}
+
+	// ======================================================================
+	// エンドポイントの参照
+	// ======================================================================
+	/**
+	 * このストリームが受信を行うエンドポイントを参照します。
+	 * <p>
+	 * @return エンドポイント
+	 */
+	public Endpoint getEndpoint(){
+		return endpoint;
+	}
+
+	// ======================================================================
+	// バッファ数の参照
+	// ======================================================================
+	/**
+	 * このストリームのリングが持つバッファの数を参照します。
+	 * <p>
+	 * @return バッファ数
+	 */
+	public int getBufferCount(){
+		return buffers;
+	}
+
+	// ======================================================================
+	// 空きバッファ数の参照
+	// ======================================================================
+	/**
+	 * 現在受信に使用可能な空きバッファの数を参照します。
+	 * <p>
+	 * @return 空きバッファ数
+	 */
+	public synchronized int getFreeBufferCount(){
+		return free.size();
+	}
+
+	// ======================================================================
+	// 次フレームの参照
+	// ======================================================================
+	/**
+	 * 次の転送で受信を開始するフレーム番号を参照します。
+	 * <p>
+	 * @return 次の開始フレーム
+	 */
+	public long getNextFrame(){
+		return nextFrame;
+	}
+
+	// ======================================================================
+	// オーバーラン数の参照
+	// ======================================================================
+	/**
+	 * 空きバッファが無かったために破棄した転送の数を参照します。
+	 * <p>
+	 * @return オーバーラン数
+	 */
+	public synchronized long getOverrunCount(){
+		return overrun;
+	}
+
+	// ======================================================================
+	// アンダーラン数の参照
+	// ======================================================================
+	/**
+	 * データを受信できなかったフレームの数を参照します。
+	 * <p>
+	 * @return アンダーラン数
+	 */
+	public synchronized long getUnderrunCount(){
+		return underrun;
+	}
+
+	// ======================================================================
+	// バッファの返却
+	// ======================================================================
+	/**
+	 * リスナに通知されたイベントをリングに返却します。
+	 * <p>
+	 * @param e 返却するイベント
+	 * @throws IllegalArgumentException このストリームのイベントでない場合
+	 * @throws IllegalStateException イベントをアプリケーションが所有していない場合
+	 */
+	public synchronized void release(IsocTransferEvent e){
+		if(e.getStream() != this || e == spare){
+			throw new IllegalArgumentException("event not belong to this stream");
+		}
+		if(! owned.remove(e)){
+			throw new IllegalStateException("event not owned by application or already released");
+		}
+		free.addLast(e);
+		return;
+	}
+
+	// ======================================================================
+	// 受信状態の参照
+	// ======================================================================
+	/**
+	 * このストリームが受信を行っているかどうかを参照します。
+	 * <p>
+	 * @return 受信中の場合 true
+	 */
+	public synchronized boolean isActive(){
+		return receiving && ! stopped;
+	}
+
+	// ======================================================================
+	// ストリームの停止
+	// ======================================================================
+	/**
+	 * このストリームの受信を停止します。配信されていないデータは破棄されます。
+	 * <p>
+	 */
+	public void stop(){
+		synchronized(this){
+			if(stopped){
+				return;
+			}
+			stopped = true;
+			notifyAll();
+		}
+		receiver.interrupt();
+		return;
+	}
+
+	// ======================================================================
+	// 受信の実行
+	// ======================================================================
+	/**
+	 * 停止されるまで空きバッファへの受信を繰り返します。
+	 * <p>
+	 * @throws USBException 受信に失敗した場合
+	 */
+	private void receive() throws USBException{
+		while(! Thread.interrupted()){
+
+			// 受信に使用するバッファを決定
+			IsocTransferEvent e = null;
+			synchronized(this){
+				if(stopped){
+					break;
+				}
+				e = free.poll();
+				if(e == null){
+					e = ready.poll();
+					if(e == null){
+						e = spare;
+					}
+					overrun ++;
+				}
+			}
+
+			// 転送の実行と開始フレームの更新
+			e.setStartFrame(nextFrame);
+			endpoint.isochronousTransfer(e);
+			nextFrame += frames;
+
+			// データの無いフレームを集計して配信待ちに追加
+			int[] length = e.getLength();
+			boolean[] error = e.getError();
+			int empty = 0;
+			for(int i=0; i<length.length; i++){
+				if(error[i] || length[i] == 0){
+					empty ++;
+				}
+			}
+			synchronized(this){
+				underrun += empty;
+				if(e != spare){
+					ready.addLast(e);
+					notifyAll();
+				}
+			}
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 配信の実行
+	// ======================================================================
+	/**
+	 * 受信が終了するまで配信待ちのイベントをリスナに通知します。受信が例外で終了した場合は
+	 * 配信待ちのイベントを全て通知した後に中断を通知します。
+	 * <p>
+	 * @throws InterruptedException 待機中に割り込まれた場合
+	 */
+	private void dispatch() throws InterruptedException{
+		while(true){
+			IsocTransferEvent e = null;
+			synchronized(this){
+				while(ready.isEmpty() && receiving && ! stopped){
+					wait();
+				}
+				if(stopped || ready.isEmpty()){
+					break;
+				}
+				e = ready.removeFirst();
+				owned.add(e);
+			}
+			try{
+				listener.receive(e);
+			} catch(RuntimeException ex){
+				logger.log(Level.SEVERE, "uncaught exception in isochronous listener", ex);
+			}
+		}
+		return;
+	}
+
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	// Receiver: 受信スレッド
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	/**
+	 * 等時間隔転送を繰り返し実行するスレッドです。
+	 * <p>
+	 */
+	private class Receiver extends Thread {
+
+		// ==================================================================
+		// コンストラクタ
+		// ==================================================================
+		/**
+		 * デーモンスレッドとして構築します。
+		 * <p>
+		 */
+		public Receiver(){
+			super("IsocReceiver[" + endpoint + "]");
+			setDaemon(true);
+			return;
+		}
+
+		// ==================================================================
+		// スレッドの実行
+		// ==================================================================
+		/**
+		 * 受信を実行し終了を配信スレッドに通知します。
+		 * <p>
+		 */
+		@Override
+		public void run(){
+			try{
+				receive();
+			} catch(USBException e){
+				synchronized(IsocStreamImpl.this){
+					ex = e;
+				}
+			} finally {
+				synchronized(IsocStreamImpl.this){
+					receiving = false;
+					IsocStreamImpl.this.notifyAll();
+				}
+			}
+			return;
+		}
+	}
+
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	// Dispatcher: 配信スレッド
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	/**
+	 * 受信したイベントをリスナに通知するスレッドです。
+	 * <p>
+	 */
+	private class Dispatcher extends Thread {
+
+		// ==================================================================
+		// コンストラクタ
+		// ==================================================================
+		/**
+		 * デーモンスレッドとして構築します。
+		 * <p>
+		 */
+		public Dispatcher(){
+			super("IsocDispatcher[" + endpoint + "]");
+			setDaemon(true);
+			return;
+		}
+
+		// ==================================================================
+		// スレッドの実行
+		// ==================================================================
+		/**
+		 * 配信を実行し終了をリスナに通知します。
+		 * <p>
+		 */
+		@Override
+		public void run(){
+			try{
+				dispatch();
+			} catch(InterruptedException e){
+				logger.fine("isochronous dispatcher interrupted");
+			} finally {
+
+				// 受信スレッドの終了を待機して未配信のバッファをリングに戻す (停止による例外は
+				// 通知しない)
+				USBException cause = null;
+				synchronized(IsocStreamImpl.this){
+					while(receiving){
+						try{
+							IsocStreamImpl.this.wait();
+						} catch(InterruptedException e){
+							logger.fine("interrupted while waiting receiver");
+							break;
+						}
+					}
+					free.addAll(ready);
+					ready.clear();
+					cause = (stopped)? null: ex;
+				}
+				if(cause != null){
+					listener.transferAborted(new IsocTransferEvent(endpoint, cause));
+				}
+				endpoint.streamFinished(IsocStreamImpl.this);
+				listener.transferStopped(new IsocTransferEvent(endpoint));
+			}
+			return;
+		}
+	}
+
+}
@@ -0,0 +1,288 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.impl;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// TransferCounter: 転送カウンタ
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * 1 つのエンドポイントまたはデバイス要求の転送を計測するカウンタです。
+ * <p>
+ * 計測値はスレッド ID で選択したストライプに加算されます。ストライプは CPU 数 (最大 8) の
+ * 数だけ用意され、それぞれキャッシュラインを共有しないように配置されるため、複数のスレッドから
+ * 同時に転送を行っても計測による競合はほとんど発生しません。参照時には全てのストライプを
+ * 合算したスナップショットを作成します。
+ * <p>
+ * カウンタはデバイスの再同期ごとに全てのエンドポイントに対して構築されるため、ストライプは
+ * 最初の転送を記録する時点で確保されます。転送を行わないカウンタはストライプを持ちません。
+ * <p>
+ * 計測中の {@link #reset()} は進行中の転送の計測値を失う場合があります。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ */
+public class TransferCounter extends TransferMetrics {
+
+	// ======================================================================
+	// ストライプ数
+	// ======================================================================
+	/**
+	 * 計測値を分散させるストライプ数です。CPU 数以上の 2 のべき乗 (最大 8) です。
+	 * <p>
+	 */
+	private static final int STRIPES;
+
+	// ======================================================================
+	// 転送数のオフセット
+	// ======================================================================
+	/**
+	 * ストライプ内の転送数の位置です。
+	 * <p>
+	 */
+	private static final int COUNT = 0;
+
+	// ======================================================================
+	// 転送バイト数のオフセット
+	// ======================================================================
+	/**
+	 * ストライプ内の転送バイト数の位置です。
+	 * <p>
+	 */
+	private static final int BYTES = 1;
+
+	// ======================================================================
+	// タイムアウト数のオフセット
+	// ======================================================================
+	/**
+	 * ストライプ内のタイムアウト数の位置です。
+	 * <p>
+	 */
+	private static final int TIMEOUTS = 2;
+
+	// ======================================================================
+	// エラー数のオフセット
+	// ======================================================================
+	/**
+	 * ストライプ内のエラー数の位置です。
+	 * <p>
+	 */
+	private static final int ERRORS = 3;
+
+	// ======================================================================
+	// 合計応答時間のオフセット
+	// ======================================================================
+	/**
+	 * ストライプ内の合計応答時間の位置です。
+	 * <p>
+	 */
+	private static final int NANOS = 4;
+
+	// ======================================================================
+	// ヒストグラムのオフセット
+	// ======================================================================
+	/**
+	 * ストライプ内のヒストグラムの開始位置です。
+	 * <p>
+	 */
+	private static final int HISTOGRAM = 5;
+
+	// ======================================================================
+	// ストライプ長
+	// ======================================================================
+	/**
+	 * 1 つのストライプが使用する要素数です。隣接するストライプが同じキャッシュラインに乗らない
+	 * ように 8 要素 (64 バイト) 単位に切り上げています。
+	 * <p>
+	 */
+	private static final int STRIDE = (HISTOGRAM + TransferStatistics.BUCKETS + 7) & ~7;
+
+	// ======================================================================
+	// スタティックイニシャライザ
+	// ======================================================================
+	/**
+	 * CPU 数からストライプ数を決定します。
+	 * <p>
+	 */
+	static {
+		int n = Runtime.getRuntime().availableProcessors();
+		int stripes = 1;
+		while(stripes < n && stripes < 8){
+			stripes <<= 1;
+		}
+		STRIPES = stripes;
+	}
+
+	// ======================================================================
+	// 計測値
+	// ======================================================================
+	/**
+	 * 全てのストライプの計測値です。最初の記録までは null です。
+	 * <p>
+	 */
+	private volatile AtomicLongArray cells = null;
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * 計測値が 0 のカウンタを構築します。
+	 * <p>
+	 */
+	public TransferCounter() {
+		return;
+	}
+
+	// ======================================================================
+	// 転送の記録
+	// ======================================================================
+	/**
+	 * 正常に終了した転送を記録します。
+	 * <p>
+	 * @param length 転送バイト数
+	 * @param start 転送を開始した {@link System#nanoTime()}
+	 */
+	public void record(int length, long start){
+		long nanos = System.nanoTime() - start;
+		AtomicLongArray cells = cells();
+		int base = stripe();
+		cells.incrementAndGet(base + COUNT);
+		cells.addAndGet(base + BYTES, Math.max(0, length));
+		cells.addAndGet(base + NANOS, nanos);
+		cells.incrementAndGet(base + HISTOGRAM + TransferStatistics.bucket(nanos));
+		return;
+	}
+
+	// ======================================================================
+	// タイムアウトの記録
+	// ======================================================================
+	/**
+	 * タイムアウトした転送を記録します。
+	 * <p>
+	 * @param start 転送を開始した {@link System#nanoTime()}
+	 */
+	public void timeout(long start){
+		fail(start, TIMEOUTS);
+		return;
+	}
+
+	// ======================================================================
+	// エラーの記録
+	// ======================================================================
+	/**
+	 * タイムアウト以外の例外で失敗した転送を記録します。
+	 * <p>
+	 * @param start 転送を開始した {@link System#nanoTime()}
+	 */
+	public void error(long start){
+		fail(start, ERRORS);
+		return;
+	}
+
+	// ======================================================================
+	// スナップショットの参照
+	// ======================================================================
+	/**
+	 * 全てのストライプを合算したスナップショットを参照します。
+	 * <p>
+	 * @return スナップショット
+	 */
+	@Override
+	public TransferStatistics getStatistics(){
+		long[] sum = new long[HISTOGRAM];
+		long[] histogram = new long[TransferStatistics.BUCKETS];
+		AtomicLongArray cells = this.cells;
+		for(int s=0; cells != null && s<STRIPES; s++){
+			int base = s * STRIDE;
+			for(int i=0; i<HISTOGRAM; i++){
+				sum[i] += cells.get(base + i);
+			}
+			for(int i=0; i<histogram.length; i++){
+				histogram[i] += cells.get(base + HISTOGRAM + i);
+			}
+		}
+		return new TransferStatistics(sum[COUNT], sum[BYTES], sum[TIMEOUTS], sum[ERRORS], sum[NANOS],
+			histogram, System.currentTimeMillis());
+	}
+
+	// ======================================================================
+	// メトリクスのリセット
+	// ======================================================================
+	/**
+	 * 全ての計測値を 0 に戻します。
+	 * <p>
+	 */
+	public void reset(){
+		AtomicLongArray cells = this.cells;
+		for(int i=0; cells != null && i<cells.length(); i++){
+			cells.set(i, 0);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 失敗の記録
+	// ======================================================================
+	/**
+	 * 失敗した転送を指定された種類で記録します。
+	 * <p>
+	 * @param start 転送を開始した {@link System#nanoTime()}
+	 * @param kind 失敗の種類のオフセット
+	 */
+	private void fail(long start, int kind){
+		long nanos = System.nanoTime() - start;
+		AtomicLongArray cells = cells();
+		int base = stripe();
+		cells.incrementAndGet(base + COUNT);
+		cells.incrementAndGet(base + kind);
+		cells.addAndGet(base + NANOS, nanos);
+		cells.incrementAndGet(base + HISTOGRAM + TransferStatistics.bucket(nanos));
+		return;
+	}
+
+	// ======================================================================
+	// 計測値の参照
+	// ======================================================================
+	/**
+	 * 全てのストライプの計測値を参照します。最初の呼び出しでストライプを確保します。
+	 * <p>
+	 * @return 計測値
+	 */
+	private AtomicLongArray cells(){
+		AtomicLongArray cells = this.cells;
+		if(cells == null){
+			synchronized(this){
+				cells = this.cells;
+				if(cells == null){
+					cells = new AtomicLongArray(STRIPES * STRIDE);
+					this.cells = cells;
+				}
+			}
+		}
+		return cells;
+	}
+
+	// ======================================================================
+	// ストライプの選択
+	// ======================================================================
+	/**
+	 * 現在のスレッドが使用するストライプの開始位置を算出します。
+	 * <p>
+	 * @return ストライプの開始位置
+	 */
+	private static int stripe(){
+		long id = Thread.currentThread().getId();
+		return (int)((id ^ (id >>> 16)) & (STRIPES - 1)) * STRIDE;
+	}
+
+}
@@ -0,0 +1,157 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.impl;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// TransferMetrics: 転送メトリクス
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * 転送メトリクスの参照方法を定義する抽象クラスです。エンドポイントやデバイス要求の計測は
+ * {@link TransferCounter} が行い、デバイスやコンテキストのメトリクスは配下の計測値を参照時に
+ * 合算します。MBean の属性は全て {@link #getStatistics()} のスナップショットから算出されます。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ */
+public abstract class TransferMetrics implements TransferMetricsMBean {
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * コンストラクタは何も行いません。
+	 * <p>
+	 */
+	protected TransferMetrics() {
+		return;
+	}
+
+	// ======================================================================
+	// スナップショットの参照
+	// ======================================================================
+	/**
+	 * 現在の集計値のスナップショットを参照します。
+	 * <p>
+	 * @return スナップショット
+	 */
+	public abstract TransferStatistics getStatistics();
+
+	// ======================================================================
+	// 転送数の参照
+	// ======================================================================
+	/**
+	 * タイムアウトとエラーを含む転送数を参照します。
+	 * <p>
+	 * @return 転送数
+	 */
+	public long getTransferCount(){
+		return getStatistics().getTransferCount();
+	}
+
+	// ======================================================================
+	// 転送バイト数の参照
+	// ======================================================================
+	/**
+	 * 転送されたバイト数の合計を参照します。
+	 * <p>
+	 * @return 転送バイト数
+	 */
+	public long getByteCount(){
+		return getStatistics().getByteCount();
+	}
+
+	// ======================================================================
+	// タイムアウト数の参照
+	// ======================================================================
+	/**
+	 * タイムアウトした転送数を参照します。
+	 * <p>
+	 * @return タイムアウト数
+	 */
+	public long getTimeoutCount(){
+		return getStatistics().getTimeoutCount();
+	}
+
+	// ======================================================================
+	// エラー数の参照
+	// ======================================================================
+	/**
+	 * タイムアウト以外の例外で失敗した転送数を参照します。
+	 * <p>
+	 * @return エラー数
+	 */
+	public long getErrorCount(){
+		return getStatistics().getErrorCount();
+	}
+
+	// ======================================================================
+	// 平均応答時間の参照
+	// ======================================================================
+	/**
+	 * 転送の平均応答時間を参照します。
+	 * <p>
+	 * @return 平均応答時間 (マイクロ秒)
+	 */
+	public double getAverageLatency(){
+		return getStatistics().getAverageLatency();
+	}
+
+	// ======================================================================
+	// 応答時間の中央値の参照
+	// ======================================================================
+	/**
+	 * 50% の転送が完了した応答時間の上限を参照します。
+	 * <p>
+	 * @return 応答時間の上限 (マイクロ秒)
+	 */
+	public long getLatency50(){
+		return getStatistics().getLatencyPercentile(0.5);
+	}
+
+	// ======================================================================
+	// 応答時間の 99 パーセンタイルの参照
+	// ======================================================================
+	/**
+	 * 99% の転送が完了した応答時間の上限を参照します。
+	 * <p>
+	 * @return 応答時間の上限 (マイクロ秒)
+	 */
+	public long getLatency99(){
+		return getStatistics().getLatencyPercentile(0.99);
+	}
+
+	// ======================================================================
+	// ヒストグラムの参照
+	// ======================================================================
+	/**
+	 * 応答時間のヒストグラムを参照します。
+	 * <p>
+	 * @return ヒストグラム
+	 */
+	public long[] getLatencyHistogram(){
+		return getStatistics().getLatencyHistogram();
+	}
+
+	// ======================================================================
+	// インスタンスの文字列化
+	// ======================================================================
+	/**
+	 * 現在の集計値を文字列化します。
+	 * <p>
+	 * @return インスタンスの文字列
+	 */
+	@Override
+	public String toString(){
+		return getStatistics().toString();
+	}
+
+}
@@ -0,0 +1,117 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.impl;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// TransferMetricsMBean: 転送メトリクス MBean
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * コンテキスト、デバイス、エンドポイントの転送メトリクスを JMX で公開するためのインター
+ * フェースです。応答時間はマイクロ秒単位です。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ * @see USBContextImpl#registerMBeans(javax.management.MBeanServer, String)
+ */
+public interface TransferMetricsMBean {
+
+	// ======================================================================
+	// 転送数の参照
+	// ======================================================================
+	/**
+	 * タイムアウトとエラーを含む転送数を参照します。
+	 * <p>
+	 * @return 転送数
+	 */
+	public long getTransferCount();
+
+	// ======================================================================
+	// 転送バイト数の参照
+	// ======================================================================
+	/**
+	 * 転送されたバイト数の合計を参照します。
+	 * <p>
+	 * @return 転送バイト数
+	 */
+	public long getByteCount();
+
+	// ======================================================================
+	// タイムアウト数の参照
+	// ======================================================================
+	/**
+	 * タイムアウトした転送数を参照します。
+	 * <p>
+	 * @return タイムアウト数
+	 */
+	public long getTimeoutCount();
+
+	// ======================================================================
+	// エラー数の参照
+	// ======================================================================
+	/**
+	 * タイムアウト以外の例外で失敗した転送数を参照します。
+	 * <p>
+	 * @return エラー数
+	 */
+	public long getErrorCount();
+
+	// ======================================================================
+	// 平均応答時間の参照
+	// ======================================================================
+	/**
+	 * 転送の平均応答時間を参照します。
+	 * <p>
+	 * @return 平均応答時間 (マイクロ秒)
+	 */
+	public double getAverageLatency();
+
+	// ======================================================================
+	// 応答時間の中央値の参照
+	// ======================================================================
+	/**
+	 * 50% の転送が完了した応答時間の上限を参照します。
+	 * <p>
+	 * @return 応答時間の上限 (マイクロ秒)
+	 */
+	public long getLatency50();
+
+	// ======================================================================
+	// 応答時間の 99 パーセンタイルの参照
+	// ======================================================================
+	/**
+	 * 99% の転送が完了した応答時間の上限を参照します。
+	 * <p>
+	 * @return 応答時間の上限 (マイクロ秒)
+	 */
+	public long getLatency99();
+
+	// ======================================================================
+	// ヒストグラムの参照
+	// ======================================================================
+	/**
+	 * 応答時間のヒストグラムを参照します。
+	 * <p>
+	 * @return ヒストグラム
+	 * @see TransferStatistics
+	 */
+	public long[] getLatencyHistogram();
+
+	// ======================================================================
+	// メトリクスのリセット
+	// ======================================================================
+	/**
+	 * 全ての集計値を 0 に戻します。
+	 * <p>
+	 */
+	public void reset();
+
+}
@@ -0,0 +1,926 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.impl;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.logging.Level;
+
+import org.koiroha.usb.*;
+import org.koiroha.usb.TimeoutException;
+import org.koiroha.usb.desc.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// TransferScheduler: 転送スケジューラー
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * ブリッジへの転送を任意のスレッドから受け付け、ディスパッチスレッドで実行するクラスです。
+ * libusb 0.1 のように複数スレッドからの同時呼び出しをサポートしないネイティブライブラリの
+ * ために、ネイティブ呼び出しを行うスレッドをこのクラスが所有します。
+ * <p>
+ * 発行された転送はエンドポイントごとのレーンに発行順に格納されます。ディスパッチスレッドは
+ * 実行待ちの転送を持つデバイスを順に巡回し、デバイス内ではエンドポイントを順に巡回して
+ * 1 つずつ転送を実行します。このため 1 つのデバイスやエンドポイントに転送が集中しても他の
+ * エンドポイントの転送は待たされず、同一エンドポイントの転送は発行順に実行されます。
+ * <p>
+ * タイムアウトの長い入力転送はスライス時間ごとに分割して実行されます。スライス時間内に
+ * データが到着しなかった場合、転送はレーンの先頭に残ったまま他のエンドポイントに実行を
+ * 譲ります。出力転送とコントロール転送は途中で打ち切るとデータの一部が送信された状態と
+ * なるため分割されません。ディスパッチスレッド数が 1 の場合、分割された入力転送の合間に
+ * 他の転送が実行されるため、長い読み込みが全体を停止させる事はありません。
+ * <p>
+ * スライスがタイムアウトした時点で一部のデータを受信していた場合 (ブリッジが
+ * {@link TimeoutException#getTransferred()} で受信バイト数を通知した場合)、同じ位置から
+ * 次のスライスを実行するとそのデータが失われるため、転送はショートパケットを受信した場合と
+ * 同様にそのバイト数で完了します。受信バイト数を通知できないブリッジではスライスの
+ * タイムアウト時に受信途中だったデータが失われる可能性があります。タイムアウトは転送が最初に
+ * ディスパッチされた時点から計測されるため、キューでの待機時間は含まれません。
+ * <p>
+ * 同期転送を発行したスレッドは転送の完了までモニタ上で待機します。非同期転送は
+ * {@link AsyncTransferImpl} がそのまま Future として使用されます。ディスパッチスレッドは
+ * 必要に応じて起動され、一定時間転送が発行されなかった場合は終了します。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ */
+public class TransferScheduler {
+
+	// ======================================================================
+	// ログ出力先
+	// ======================================================================
+	/**
+	 * このクラスのログ出力先です。
+	 * <p>
+	 */
+	private static final java.util.logging.Logger logger = java.util.logging.Logger.getLogger(TransferScheduler.class.getName());
+
+	// ======================================================================
+	// アイドル時間
+	// ======================================================================
+	/**
+	 * 転送が発行されなくなってからディスパッチスレッドが終了するまでの時間 (ミリ秒) です。
+	 * <p>
+	 */
+	private static final long IDLE_TIMEOUT = 5 * 1000;
+
+	// ======================================================================
+	// ブリッジ
+	// ======================================================================
+	/**
+	 * 転送を実行するブリッジです。
+	 * <p>
+	 */
+	private final USBBridge bridge;
+
+	// ======================================================================
+	// ディスパッチスレッド数
+	// ======================================================================
+	/**
+	 * 同時に転送を実行するディスパッチスレッドの最大数です。
+	 * <p>
+	 */
+	private final int concurrency;
+
+	// ======================================================================
+	// スライス時間
+	// ======================================================================
+	/**
+	 * 入力転送を分割して実行する時間 (ミリ秒) です。0 の場合は分割しません。
+	 * <p>
+	 */
+	private final int slice;
+
+	// ======================================================================
+	// デバイスキュー
+	// ======================================================================
+	/**
+	 * 実行待ちの転送を持つデバイスごとのキューです。
+	 * <p>
+	 */
+	private final Map<DeviceImpl,DeviceQueue> devices = new HashMap<DeviceImpl,DeviceQueue>();
+
+	// ======================================================================
+	// 実行順序
+	// ======================================================================
+	/**
+	 * 実行可能なレーンを持つデバイスキューの巡回順序です。
+	 * <p>
+	 */
+	private final LinkedList<DeviceQueue> ring = new LinkedList<DeviceQueue>();
+
+	// ======================================================================
+	// スレッド数
+	// ======================================================================
+	/**
+	 * 起動しているディスパッチスレッドの数です。
+	 * <p>
+	 */
+	private int threads = 0;
+
+	// ======================================================================
+	// 待機スレッド数
+	// ======================================================================
+	/**
+	 * 転送の発行を待機しているディスパッチスレッドの数です。
+	 * <p>
+	 */
+	private int idle = 0;
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * 転送を実行するブリッジとディスパッチスレッド数、入力転送のスライス時間を指定して構築を
+	 * 行います。ネイティブライブラリが同時呼び出しをサポートしない場合はスレッド数に 1 を指定
+	 * してください。
+	 * <p>
+	 * @param bridge ブリッジ
+	 * @param concurrency ディスパッチスレッドの最大数
+	 * @param slice 入力転送のスライス時間 (ミリ秒、0 の場合は分割しない)
+	 * @throws IllegalArgumentException スレッド数が 1 未満かスライス時間が負の場合
+	 */
+	public TransferScheduler(USBBridge bridge, int concurrency, int slice) {
+		if(concurrency < 1 || slice < 0){
+			throw new IllegalArgumentException("concurrency=" + concurrency + ", slice=" + slice);
+		}
+		this.bridge = bridge;
+		this.concurrency = concurrency;
+		this.slice = slice;
+		return;
+	}
+
+	// ======================================================================
+	// ディスパッチスレッドの判定
+	// ======================================================================
+	/**
+	 * 現在のスレッドがこのスケジューラーのディスパッチスレッドかどうかを判定します。ブリッジは
+	 * ディスパッチスレッドからの呼び出しの場合にのみネイティブライブラリを呼び出し、それ以外の
+	 * 場合はこのスケジューラーに転送を発行します。
+	 * <p>
+	 * @return ディスパッチスレッドの場合 true
+	 */
+	public boolean isDispatchThread(){
+		Thread thread = Thread.currentThread();
+		return (thread instanceof Dispatcher && ((Dispatcher)thread).getScheduler() == this);
+	}
+
+	// ======================================================================
+	// 同期転送の実行
+	// ======================================================================
+	/**
+	 * 指定されたバッファを使用したバルク転送または割り込み転送を発行し、完了を待機します。
+	 * <p>
+	 * @param device デバイス実装
+	 * @param ifc インターフェース番号
+	 * @param ept エンドポイントインデックス
+	 * @param type 転送タイプ
+	 * @param buffer データのバッファ
+	 * @param offset バッファの入出力開始位置
+	 * @param length 入出力データ長
+	 * @param inout 入力/出力識別用
+	 * @param timeout 入出力タイムアウト (ミリ秒)
+	 * @return 実際に転送されたバイト数
+	 * @throws USBException 転送に失敗した場合
+	 */
+	public int transfer(final DeviceImpl device, final byte ifc, final byte ept, final TransferType type,
+		final byte[] buffer, final int offset, final int length, Direction inout, int timeout) throws USBException{
+		return await(new Request(device, ept, inout, timeout, null){
+			@Override
+			protected int execute(int t) throws USBException{
+				return invoke(device, ifc, ept, type, buffer, offset, length, direction, t);
+			}
+		});
+	}
+
+	// ======================================================================
+	// 同期転送の実行
+	// ======================================================================
+	/**
+	 * 指定されたダイレクトバッファを使用したバルク転送または割り込み転送を発行し、完了を
+	 * 待機します。
+	 * <p>
+	 * @param device デバイス実装
+	 * @param ifc インターフェース番号
+	 * @param ept エンドポイントインデックス
+	 * @param type 転送タイプ
+	 * @param buffer 入出力に使用するダイレクトバッファ
+	 * @param inout 入力/出力識別用
+	 * @param timeout 入出力タイムアウト (ミリ秒)
+	 * @return 実際に転送されたバイト数
+	 * @throws USBException 転送に失敗した場合
+	 */
+	public int transfer(final DeviceImpl device, final byte ifc, final byte ept, final TransferType type,
+		final ByteBuffer buffer, Direction inout, int timeout) throws USBException{
+		return await(new Request(device, ept, inout, timeout, null){
+			@Override
+			protected int execute(int t) throws USBException{
+				switch(type){
+				case BULK:
+					return bridge.bulkTransfer(device, ifc, ept, buffer, direction, t);
+				case INTERRUPT:
+					return bridge.interruptTransfer(device, ifc, ept, buffer, direction, t);
+				default:
+					throw new USBException("unsupported transfer type: " + type);
+				}
+			}
+		});
+	}
+
+	// ======================================================================
+	// コントロール転送の実行
+	// ======================================================================
+	/**
+	 * 指定されたコントロール転送を発行し、完了を待機します。コントロール転送は分割されません。
+	 * <p>
+	 * @param device デバイス実装
+	 * @param ifc インターフェース番号
+	 * @param ept エンドポイントインデックス
+	 * @param request リクエスト
+	 * @param timeout 入出力タイムアウト (ミリ秒)
+	 * @return 実際に転送されたバイト数
+	 * @throws USBException コントロール転送に失敗した場合
+	 */
+	public int controlTransfer(final DeviceImpl device, final byte ifc, final byte ept,
+		final ControlRequest request, int timeout) throws USBException{
+		return await(new Request(device, ept, null, timeout, null){
+			@Override
+			protected int execute(int t) throws USBException{
+				return bridge.controlTransfer(device, ifc, ept, request, t);
+			}
+		});
+	}
+
+	// ======================================================================
+	// 操作の実行
+	// ======================================================================
+	/**
+	 * デバイスの検索やオープン、インターフェースの要求など転送以外のブリッジの操作をディス
+	 * パッチスレッドで実行し、完了を待機します。操作はデバイスのエンドポイント 0 のレーンで
+	 * 実行されるため、同じデバイスのコントロール転送とは発行順に実行されます。
+	 * <p>
+	 * @param device 対象のデバイス実装 (特定のデバイスを対象としない場合は null)
+	 * @param operation 操作
+	 * @return 操作の結果
+	 * @throws USBException 操作に失敗した場合
+	 */
+	public <T> T execute(DeviceImpl device, final Operation<T> operation) throws USBException{
+		final List<T> value = new ArrayList<T>(1);
+		await(new Request(device, (byte)0, null, 0, null){
+			@Override
+			protected int execute(int t) throws USBException{
+				value.add(operation.execute());
+				return 0;
+			}
+		});
+		return value.get(0);
+	}
+
+	// ======================================================================
+	// 非同期転送の発行
+	// ======================================================================
+	/**
+	 * 指定された非同期転送を発行します。転送の完了は {@link AsyncTransferImpl} に通知されます。
+	 * <p>
+	 * @param device デバイス実装
+	 * @param ifc インターフェース番号
+	 * @param ept エンドポイントインデックス
+	 * @param transfer 発行する転送
+	 */
+	public void submit(final DeviceImpl device, final byte ifc, final byte ept, final AsyncTransferImpl transfer){
+		enqueue(new Request(device, ept, transfer.getDirection(), transfer.getTimeout(), transfer){
+			@Override
+			protected int execute(int t) throws USBException{
+				return invoke(device, ifc, ept, transfer.getTransferType(), transfer.getBuffer(),
+					transfer.getOffset(), transfer.getLength(), direction, t);
+			}
+		});
+		return;
+	}
+
+	// ======================================================================
+	// 非同期転送の中断
+	// ======================================================================
+	/**
+	 * 指定された非同期転送を中断します。実行中の転送は中断できませんが、スライス時間ごとに
+	 * 分割された入力転送は次のスライスを実行するまでの間であれば中断できます。
+	 * <p>
+	 * @param device デバイス実装
+	 * @param ept エンドポイントインデックス
+	 * @param transfer 中断する転送
+	 * @return 転送を中断した場合 true
+	 */
+	public synchronized boolean abort(DeviceImpl device, byte ept, AsyncTransferImpl transfer){
+		DeviceQueue dq = devices.get(device);
+		Lane lane = (dq == null)? null: dq.lanes.get(ept);
+		if(lane == null){
+			return false;
+		}
+		for(Request r: lane.queue){
+			if(r.transfer == transfer){
+				return remove(lane, r);
+			}
+		}
+		return false;
+	}
+
+	// ======================================================================
+	// ブリッジの転送実行
+	// ======================================================================
+	/**
+	 * ブリッジのバルク転送または割り込み転送を実行します。
+	 * <p>
+	 * @param device デバイス実装
+	 * @param ifc インターフェース番号
+	 * @param ept エンドポイントインデックス
+	 * @param type 転送タイプ
+	 * @param buffer データのバッファ
+	 * @param offset バッファの入出力開始位置
+	 * @param length 入出力データ長
+	 * @param inout 入力/出力識別用
+	 * @param timeout 入出力タイムアウト (ミリ秒)
+	 * @return 実際に転送されたバイト数
+	 * @throws USBException 転送に失敗した場合
+	 */
+	private int invoke(DeviceImpl device, byte ifc, byte ept, TransferType type,
+		byte[] buffer, int offset, int length, Direction inout, int timeout) throws USBException{
+		switch(type){
+		case BULK:
+			return bridge.bulkTransfer(device, ifc, ept, buffer, offset, length, inout, timeout);
+		case INTERRUPT:
+			return bridge.interruptTransfer(device, ifc, ept, buffer, offset, length, inout, timeout);
+		default:
+			throw new USBException("unsupported transfer type: " + type);
+		}
+	}
+
+	// ======================================================================
+	// 転送完了の待機
+	// ======================================================================
+	/**
+	 * 指定された要求を発行して完了を待機します。ディスパッチスレッドから呼び出された場合は
+	 * その場で実行します。待機中に割り込まれた場合、実行前であれば要求を取り消して例外を
+	 * 発生します。実行中の場合はバッファが使用されているため現在のスライスの終了を待機し、
+	 * 割り込み状態を保持したまま復帰します。
+	 * <p>
+	 * @param r 要求
+	 * @return 実際に転送されたバイト数
+	 * @throws USBException 転送に失敗した場合
+	 */
+	private int await(Request r) throws USBException{
+		if(isDispatchThread()){
+			return r.execute(r.timeout);
+		}
+		enqueue(r);
+		boolean interrupted = false;
+		try{
+			synchronized(r){
+				while(! r.done){
+					try{
+						r.wait();
+					} catch(InterruptedException ex){
+						if(cancel(r)){
+							throw new USBException("transfer interrupted", ex);
+						}
+						r.abandoned = true;
+						interrupted = true;
+					}
+				}
+			}
+		} finally {
+			if(interrupted){
+				Thread.currentThread().interrupt();
+			}
+		}
+		if(r.error != null){
+			throw r.error;
+		}
+		return r.result;
+	}
+
+	// ======================================================================
+	// 要求の取り消し
+	// ======================================================================
+	/**
+	 * 実行前の要求をレーンから取り除きます。
+	 * <p>
+	 * @param r 要求
+	 * @return 取り除いた場合 true
+	 */
+	private synchronized boolean cancel(Request r){
+		DeviceQueue dq = devices.get(r.device);
+		Lane lane = (dq == null)? null: dq.lanes.get(r.endpoint);
+		return (lane != null && remove(lane, r));
+	}
+
+	// ======================================================================
+	// 要求の発行
+	// ======================================================================
+	/**
+	 * 指定された要求をエンドポイントのレーンに追加します。
+	 * <p>
+	 * @param r 要求
+	 */
+	private synchronized void enqueue(Request r){
+		DeviceQueue dq = devices.get(r.device);
+		if(dq == null){
+			dq = new DeviceQueue(r.device);
+			devices.put(r.device, dq);
+		}
+		Lane lane = dq.lanes.get(r.endpoint);
+		if(lane == null){
+			lane = new Lane(dq, r.endpoint);
+			dq.lanes.put(r.endpoint, lane);
+		}
+		lane.queue.addLast(r);
+		schedule(lane);
+		return;
+	}
+
+	// ======================================================================
+	// レーンからの削除
+	// ======================================================================
+	/**
+	 * 実行中でない要求をレーンから削除します。呼び出し元はこのインスタンスの同期を取得して
+	 * いる必要があります。
+	 * <p>
+	 * @param lane レーン
+	 * @param r 要求
+	 * @return 削除した場合 true
+	 */
+	private boolean remove(Lane lane, Request r){
+		if(lane.running && lane.queue.getFirst() == r){
+			return false;
+		}
+		if(! lane.queue.remove(r)){
+			return false;
+		}
+		if(lane.queue.isEmpty() && lane.scheduled){
+			DeviceQueue dq = lane.owner;
+			dq.ready.remove(lane);
+			lane.scheduled = false;
+			if(dq.ready.isEmpty() && dq.scheduled){
+				ring.remove(dq);
+				dq.scheduled = false;
+			}
+		}
+		cleanup(lane);
+		return true;
+	}
+
+	// ======================================================================
+	// レーンのスケジュール
+	// ======================================================================
+	/**
+	 * 実行待ちの要求を持つレーンを巡回順序に追加し、ディスパッチスレッドを起こします。呼び出し
+	 * 元はこのインスタンスの同期を取得している必要があります。
+	 * <p>
+	 * @param lane レーン
+	 */
+	private void schedule(Lane lane){
+		if(lane.running || lane.scheduled || lane.queue.isEmpty()){
+			return;
+		}
+		DeviceQueue dq = lane.owner;
+		lane.scheduled = true;
+		dq.ready.addLast(lane);
+		if(! dq.scheduled){
+			dq.scheduled = true;
+			ring.addLast(dq);
+		}
+		wakeup();
+		return;
+	}
+
+	// ======================================================================
+	// ディスパッチスレッドの起床
+	// ======================================================================
+	/**
+	 * 待機中のディスパッチスレッドを起こします。待機中のスレッドが存在せず最大数に達して
+	 * いない場合は新しいスレッドを起動します。呼び出し元はこのインスタンスの同期を取得して
+	 * いる必要があります。
+	 * <p>
+	 */
+	private void wakeup(){
+		if(idle > 0){
+			notify();
+		} else if(threads < concurrency){
+			threads ++;
+			new Dispatcher().start();
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 次のレーンの取得
+	// ======================================================================
+	/**
+	 * 次に実行するレーンを巡回順序から取り出します。実行可能なレーンが存在しない場合は発行を
+	 * 待機し、一定時間経過しても発行されなかった場合は null を返します。
+	 * <p>
+	 * @return 次のレーン
+	 */
+	private synchronized Lane next(){
+		long limit = System.currentTimeMillis() + IDLE_TIMEOUT;
+		while(ring.isEmpty()){
+			long remain = limit - System.currentTimeMillis();
+			if(remain <= 0){
+				threads --;
+				return null;
+			}
+			idle ++;
+			try{
+				wait(remain);
+			} catch(InterruptedException ex){
+				// 終了判定へ
+			} finally {
+				idle --;
+			}
+		}
+
+		// デバイスを巡回しデバイス内のエンドポイントを巡回
+		DeviceQueue dq = ring.removeFirst();
+		Lane lane = dq.ready.removeFirst();
+		lane.scheduled = false;
+		lane.running = true;
+		if(dq.ready.isEmpty()){
+			dq.scheduled = false;
+		} else {
+			ring.addLast(dq);
+		}
+
+		// 残りのレーンを他のスレッドに割り当て
+		if(! ring.isEmpty()){
+			wakeup();
+		}
+		return lane;
+	}
+
+	// ======================================================================
+	// レーンの解放
+	// ======================================================================
+	/**
+	 * 実行を終えたレーンを解放します。完了した要求を先頭から削除し、実行待ちの要求が残って
+	 * いる場合は巡回順序の末尾に戻します。
+	 * <p>
+	 * @param lane レーン
+	 * @param done 先頭の要求が完了した場合 true
+	 */
+	private synchronized void release(Lane lane, boolean done){
+		if(done){
+			lane.queue.removeFirst();
+		}
+		lane.running = false;
+		schedule(lane);
+		cleanup(lane);
+		return;
+	}
+
+	// ======================================================================
+	// レーンの破棄
+	// ======================================================================
+	/**
+	 * 空になったレーンとデバイスキューを破棄します。呼び出し元はこのインスタンスの同期を
+	 * 取得している必要があります。
+	 * <p>
+	 * @param lane レーン
+	 */
+	private void cleanup(Lane lane){
+		if(lane.running || ! lane.queue.isEmpty()){
+			return;
+		}
+		DeviceQueue dq = lane.owner;
+		dq.lanes.remove(lane.endpoint);
+		if(dq.lanes.isEmpty()){
+			devices.remove(dq.device);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 要求の実行
+	// ======================================================================
+	/**
+	 * 指定されたレーンの先頭の要求を 1 スライス分実行します。
+	 * <p>
+	 * @param lane レーン
+	 */
+	private void dispatch(Lane lane){
+		Request r;
+		synchronized(this){
+			r = lane.queue.getFirst();
+		}
+
+		int len = -1;
+		USBException error = null;
+		boolean done = true;
+		try{
+			len = r.execute(r.next(slice));
+		} catch(TimeoutException ex){
+			if(r.abandoned){
+				error = new USBException("transfer interrupted", ex);
+			} else if(r.isRemaining()){
+				// スライス内で受信済みのデータは次のスライスで失われるためショートパケットと同様に返す
+				if(ex.getTransferred() > 0){
+					len = ex.getTransferred();
+				} else {
+					done = false;
+				}
+			} else {
+				error = ex;
+			}
+		} catch(USBException ex){
+			error = ex;
+		} catch(RuntimeException ex){
+			logger.log(Level.SEVERE, "unexpected exception in transfer scheduler", ex);
+			error = new USBException(ex);
+		}
+
+		// 同一エンドポイントの次の転送より先に完了を通知
+		if(done){
+			r.finish(len, error);
+		}
+		release(lane, done);
+		return;
+	}
+
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	// Operation: 操作
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	/**
+	 * {@link TransferScheduler#execute(DeviceImpl, Operation)} によってディスパッチスレッドで
+	 * 実行されるブリッジの操作です。
+	 * <p>
+	 */
+	public interface Operation<T> {
+
+		/**
+		 * ネイティブライブラリを呼び出して操作を実行します。
+		 * <p>
+		 * @return 操作の結果
+		 * @throws USBException 操作に失敗した場合
+		 */
+		public T execute() throws USBException;
+	}
+
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	// Request: 転送要求
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	/**
+	 * ディスパッチスレッドで実行する 1 つの転送です。同期転送の場合は完了を待機するための
+	 * モニタとして使用されます。
+	 * <p>
+	 */
+	private abstract class Request {
+
+		/** デバイス実装です。 */
+		public final DeviceImpl device;
+
+		/** エンドポイントインデックスです。 */
+		public final byte endpoint;
+
+		/** 転送方向です。コントロール転送の場合は null です。 */
+		public final Direction direction;
+
+		/** 入出力タイムアウト (ミリ秒) です。 */
+		public final int timeout;
+
+		/**
+		 * タイムアウトする時刻です。タイムアウトしない場合は {@link Long#MAX_VALUE}、まだ
+		 * ディスパッチされていない場合は 0 です。ディスパッチスレッドからのみ参照されます。
+		 */
+		private long deadline = 0;
+
+		/** 非同期転送の場合の転送です。同期転送の場合は null です。 */
+		public final AsyncTransferImpl transfer;
+
+		/** 待機中のスレッドが割り込まれ、次のスライスを実行しない場合 true です。 */
+		public volatile boolean abandoned = false;
+
+		/** 同期転送が完了している場合 true です。 */
+		public boolean done = false;
+
+		/** 同期転送で転送されたバイト数です。 */
+		public int result = -1;
+
+		/** 同期転送が失敗した場合の例外です。 */
+		public USBException error = null;
+
+		// ==================================================================
+		// コンストラクタ
+		// ==================================================================
+		/**
+		 * 転送の内容を指定して構築を行います。タイムアウトはキューで待機している間は計測されず、
+		 * 最初にディスパッチされた時点から計測されます。
+		 * <p>
+		 * @param device デバイス実装
+		 * @param endpoint エンドポイントインデックス
+		 * @param direction 転送方向
+		 * @param timeout 入出力タイムアウト (ミリ秒、0 以下の場合はタイムアウトしない)
+		 * @param transfer 非同期転送の場合の転送
+		 */
+		protected Request(DeviceImpl device, byte endpoint, Direction direction, int timeout, AsyncTransferImpl transfer){
+			this.device = device;
+			this.endpoint = endpoint;
+			this.direction = direction;
+			this.timeout = timeout;
+			this.transfer = transfer;
+			return;
+		}
+
+		// ==================================================================
+		// 転送の実行
+		// ==================================================================
+		/**
+		 * 指定されたタイムアウトでブリッジの転送を実行します。
+		 * <p>
+		 * @param t 入出力タイムアウト (ミリ秒)
+		 * @return 実際に転送されたバイト数
+		 * @throws USBException 転送に失敗した場合
+		 */
+		protected abstract int execute(int t) throws USBException;
+
+		// ==================================================================
+		// 次のタイムアウトの算出
+		// ==================================================================
+		/**
+		 * 次の実行で使用するタイムアウトを算出します。入力転送以外やスライス時間が 0 の場合は
+		 * 残り時間をそのまま使用します。
+		 * <p>
+		 * @param slice スライス時間 (ミリ秒)
+		 * @return 次の実行のタイムアウト (ミリ秒)
+		 * @throws TimeoutException 実行前にタイムアウトしている場合
+		 */
+		public int next(int slice) throws TimeoutException{
+			if(deadline == 0){
+				deadline = (timeout <= 0)? Long.MAX_VALUE: System.currentTimeMillis() + timeout;
+			}
+			if(deadline == Long.MAX_VALUE){
+				return (direction == Direction.IN && slice > 0)? slice: timeout;
+			}
+			long remain = deadline - System.currentTimeMillis();
+			if(remain <= 0){
+				throw new TimeoutException("operation timeout");
+			}
+			if(direction == Direction.IN && slice > 0){
+				return (int)Math.min(slice, remain);
+			}
+			return (int)remain;
+		}
+
+		// ==================================================================
+		// 残り時間の判定
+		// ==================================================================
+		/**
+		 * スライス時間内にタイムアウトした入力転送の実行を継続できるかを判定します。
+		 * <p>
+		 * @return 残り時間がある場合 true
+		 */
+		public boolean isRemaining(){
+			return (direction == Direction.IN && slice > 0 && deadline > System.currentTimeMillis());
+		}
+
+		// ==================================================================
+		// 完了の通知
+		// ==================================================================
+		/**
+		 * 転送の完了を通知します。
+		 * <p>
+		 * @param len 転送されたバイト数
+		 * @param ex 失敗した場合の例外
+		 */
+		public void finish(int len, USBException ex){
+			if(transfer != null){
+				if(ex == null){
+					transfer.complete(len);
+				} else {
+					transfer.fail(ex);
+				}
+				return;
+			}
+			synchronized(this){
+				result = len;
+				error = ex;
+				done = true;
+				notify();
+			}
+			return;
+		}
+	}
+
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	// DeviceQueue: デバイスキュー
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	/**
+	 * 1 つのデバイスのエンドポイントごとのレーンです。
+	 * <p>
+	 */
+	private static class DeviceQueue {
+
+		/** デバイス実装です。 */
+		public final DeviceImpl device;
+
+		/** エンドポイントインデックスをキーとしたレーンです。 */
+		public final Map<Byte,Lane> lanes = new HashMap<Byte,Lane>();
+
+		/** 実行可能なレーンの巡回順序です。 */
+		public final LinkedList<Lane> ready = new LinkedList<Lane>();
+
+		/** 巡回順序に含まれている場合 true です。 */
+		public boolean scheduled = false;
+
+		/**
+		 * @param device デバイス実装
+		 */
+		public DeviceQueue(DeviceImpl device){
+			this.device = device;
+			return;
+		}
+	}
+
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	// Lane: レーン
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	/**
+	 * 1 つのエンドポイントに発行された転送を発行順に保持するキューです。先頭の要求が実行中
+	 * または分割実行中の要求です。
+	 * <p>
+	 */
+	private static class Lane {
+
+		/** このレーンを保持するデバイスキューです。 */
+		public final DeviceQueue owner;
+
+		/** エンドポイントインデックスです。 */
+		public final byte endpoint;
+
+		/** 実行待ちの要求です。 */
+		public final LinkedList<Request> queue = new LinkedList<Request>();
+
+		/** デバイスキューの巡回順序に含まれている場合 true です。 */
+		public boolean scheduled = false;
+
+		/** ディスパッチスレッドが先頭の要求を実行中の場合 true です。 */
+		public boolean running = false;
+
+		/**
+		 * @param owner デバイスキュー
+		 * @param endpoint エンドポイントインデックス
+		 */
+		public Lane(DeviceQueue owner, byte endpoint){
+			this.owner = owner;
+			this.endpoint = endpoint;
+			return;
+		}
+	}
+
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	// Dispatcher: ディスパッチスレッド
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	/**
+	 * 巡回順序に従ってレーンの要求を実行するスレッドです。
+	 * <p>
+	 */
+	private class Dispatcher extends Thread {
+
+		/**
+		 * デーモンスレッドとして構築します。
+		 */
+		public Dispatcher(){
+			super("TransferScheduler[" + bridge.getClass().getSimpleName() + "]");
+			setDaemon(true);
+			return;
+		}
+
+		/**
+		 * @return このスレッドを所有するスケジューラー
+		 */
+		public TransferScheduler getScheduler(){
+			return TransferScheduler.this;
+		}
+
+		/**
+		 * 実行可能なレーンがなくなるまで要求を実行します。
+		 */
+		@Override
+		public void run(){
+			while(true){
+				Lane lane = next();
+				if(lane == null){
+					break;
+				}
+				dispatch(lane);
+			}
+			return;
+		}
+	}
+
+}
@@ -0,0 +1,320 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.impl;
+
+import java.io.Serializable;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// TransferStatistics: 転送統計
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * ある時点での転送数、転送バイト数、タイムアウト数、エラー数と応答時間のヒストグラムを保持
+ * する不変のスナップショットです。
+ * <p>
+ * 応答時間のヒストグラムはマイクロ秒単位の 2 のべき乗で区切られています。インデックス 0 は
+ * 1 マイクロ秒未満、インデックス i (i &gt;= 1) は 2<sup>i-1</sup> 以上 2<sup>i</sup> 未満の
+ * 転送数です。最後のインデックスはそれ以上の全ての転送を含みます。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ */
+public final class TransferStatistics implements Serializable {
+
+	// ======================================================================
+	// シリアルバージョン
+	// ======================================================================
+	/**
+	 * このクラスのシリアルバージョンです。
+	 * <p>
+	 */
+	private static final long serialVersionUID = 1L;
+
+	// ======================================================================
+	// ヒストグラムの区間数
+	// ======================================================================
+	/**
+	 * 応答時間のヒストグラムの区間数 {@value} です。最後の区間は約 36 分以上の転送を含みます。
+	 * <p>
+	 */
+	public static final int BUCKETS = 32;
+
+	// ======================================================================
+	// 空の統計
+	// ======================================================================
+	/**
+	 * 転送が行われていない状態の統計です。
+	 * <p>
+	 */
+	public static final TransferStatistics EMPTY = new TransferStatistics(0, 0, 0, 0, 0, new long[BUCKETS], 0);
+
+	// ======================================================================
+	// 転送数
+	// ======================================================================
+	/**
+	 * タイムアウトとエラーを含む転送数です。
+	 * <p>
+	 */
+	private final long count;
+
+	// ======================================================================
+	// 転送バイト数
+	// ======================================================================
+	/**
+	 * 転送されたバイト数の合計です。
+	 * <p>
+	 */
+	private final long bytes;
+
+	// ======================================================================
+	// タイムアウト数
+	// ======================================================================
+	/**
+	 * タイムアウトした転送数です。
+	 * <p>
+	 */
+	private final long timeouts;
+
+	// ======================================================================
+	// エラー数
+	// ======================================================================
+	/**
+	 * タイムアウト以外の例外で失敗した転送数です。
+	 * <p>
+	 */
+	private final long errors;
+
+	// ======================================================================
+	// 合計応答時間
+	// ======================================================================
+	/**
+	 * 全ての転送の応答時間の合計 (ナノ秒) です。
+	 * <p>
+	 */
+	private final long nanos;
+
+	// ======================================================================
+	// ヒストグラム
+	// ======================================================================
+	/**
+	 * 応答時間のヒストグラムです。
+	 * <p>
+	 */
+	private final long[] histogram;
+
+	// ======================================================================
+	// 取得時刻
+	// ======================================================================
+	/**
+	 * このスナップショットを取得した時刻 (ミリ秒) です。
+	 * <p>
+	 */
+	private final long timestamp;
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * 集計値を指定して構築を行います。ヒストグラムの配列はそのまま保持されるため呼び出し側で
+	 * 変更しないでください。
+	 * <p>
+	 * @param count 転送数
+	 * @param bytes 転送バイト数
+	 * @param timeouts タイムアウト数
+	 * @param errors エラー数
+	 * @param nanos 合計応答時間 (ナノ秒)
+	 * @param histogram 応答時間のヒストグラム
+	 * @param timestamp 取得時刻 (ミリ秒)
+	 */
+	TransferStatistics(long count, long bytes, long timeouts, long errors, long nanos, long[] histogram, long timestamp) {
+		this.count = count;
+		this.bytes = bytes;
+		this.timeouts = timeouts;
+		this.errors = errors;
+		this.nanos = nanos;
+		this.histogram = histogram;
+		this.timestamp = timestamp;
+		return;
+	}
+
+	// ======================================================================
+	// 転送数の参照
+	// ======================================================================
+	/**
+	 * タイムアウトとエラーを含む転送数を参照します。
+	 * <p>
+	 * @return 転送数
+	 */
+	public long getTransferCount(){
+		return count;
+	}
+
+	// ======================================================================
+	// 転送バイト数の参照
+	// ======================================================================
+	/**
+	 * 転送されたバイト数の合計を参照します。
+	 * <p>
+	 * @return 転送バイト数
+	 */
+	public long getByteCount(){
+		return bytes;
+	}
+
+	// ======================================================================
+	// タイムアウト数の参照
+	// ======================================================================
+	/**
+	 * タイムアウトした転送数を参照します。
+	 * <p>
+	 * @return タイムアウト数
+	 */
+	public long getTimeoutCount(){
+		return timeouts;
+	}
+
+	// ======================================================================
+	// エラー数の参照
+	// ======================================================================
+	/**
+	 * タイムアウト以外の例外で失敗した転送数を参照します。
+	 * <p>
+	 * @return エラー数
+	 */
+	public long getErrorCount(){
+		return errors;
+	}
+
+	// ======================================================================
+	// 平均応答時間の参照
+	// ======================================================================
+	/**
+	 * 転送の平均応答時間をマイクロ秒単位で参照します。
+	 * <p>
+	 * @return 平均応答時間 (マイクロ秒)
+	 */
+	public double getAverageLatency(){
+		return (count == 0)? 0.0: nanos / 1000.0 / count;
+	}
+
+	// ======================================================================
+	// 応答時間のパーセンタイルの参照
+	// ======================================================================
+	/**
+	 * 指定された割合の転送が完了した応答時間の上限をマイクロ秒単位で参照します。値はヒスト
+	 * グラムの区間の上限であるため、実際の値の 2 倍以内の近似値です。
+	 * <p>
+	 * @param p 割合 (0.0 〜 1.0)
+	 * @return 応答時間の上限 (マイクロ秒)
+	 */
+	public long getLatencyPercentile(double p){
+		long threshold = (long)Math.ceil(count * Math.max(0.0, Math.min(1.0, p)));
+		long sum = 0;
+		for(int i=0; i<histogram.length; i++){
+			sum += histogram[i];
+			if(sum > 0 && sum >= threshold){
+				return 1L << i;
+			}
+		}
+		return 0;
+	}
+
+	// ======================================================================
+	// ヒストグラムの参照
+	// ======================================================================
+	/**
+	 * 応答時間のヒストグラムを参照します。
+	 * <p>
+	 * @return ヒストグラムの複製
+	 */
+	public long[] getLatencyHistogram(){
+		return histogram.clone();
+	}
+
+	// ======================================================================
+	// 取得時刻の参照
+	// ======================================================================
+	/**
+	 * このスナップショットを取得した時刻を参照します。
+	 * <p>
+	 * @return 取得時刻 (ミリ秒)
+	 */
+	public long getTimestamp(){
+		return timestamp;
+	}
+
+	// ======================================================================
+	// スループットの算出
+	// ======================================================================
+	/**
+	 * 指定された以前のスナップショットからこのスナップショットまでの毎秒の転送バイト数を算出
+	 * します。
+	 * <p>
+	 * @param previous 以前のスナップショット
+	 * @return スループット (バイト/秒)
+	 */
+	public double getThroughput(TransferStatistics previous){
+		long millis = timestamp - previous.timestamp;
+		return (millis <= 0)? 0.0: (bytes - previous.bytes) * 1000.0 / millis;
+	}
+
+	// ======================================================================
+	// 統計の合算
+	// ======================================================================
+	/**
+	 * このスナップショットと指定されたスナップショットを合算した統計を返します。取得時刻は
+	 * 新しい方を使用します。
+	 * <p>
+	 * @param other 合算するスナップショット
+	 * @return 合算した統計
+	 */
+	public TransferStatistics add(TransferStatistics other){
+		long[] h = new long[BUCKETS];
+		for(int i=0; i<BUCKETS; i++){
+			h[i] = histogram[i] + other.histogram[i];
+		}
+		return new TransferStatistics(count + other.count, bytes + other.bytes,
+			timeouts + other.timeouts, errors + other.errors, nanos + other.nanos, h,
+			Math.max(timestamp, other.timestamp));
+	}
+
+	// ======================================================================
+	// 区間の算出
+	// ======================================================================
+	/**
+	 * 指定された応答時間が含まれるヒストグラムの区間を算出します。
+	 * <p>
+	 * @param nanos 応答時間 (ナノ秒)
+	 * @return ヒストグラムのインデックス
+	 */
+	static int bucket(long nanos){
+		long micros = nanos / 1000;
+		if(micros <= 0){
+			return 0;
+		}
+		return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+	}
+
+	// ======================================================================
+	// インスタンスの文字列化
+	// ======================================================================
+	/**
+	 * この統計を文字列化します。
+	 * <p>
+	 * @return インスタンスの文字列
+	 */
+	@Override
+	public String toString(){
+		return String.format("transfers=%d, bytes=%d, timeouts=%d, errors=%d, avg=%.1fus, p99<%dus",
+			count, bytes, timeouts, errors, getAverageLatency(), getLatencyPercentile(0.99));
+	}
+
+}
@@ -10,6 +10,7 @@
 */
 package org.koiroha.usb.impl;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 
 import org.koiroha.usb.*;
@@ -87,6 +88,22 @@ public interface USBBridge {
 	*/
 	public List<BusImpl> find(USBContextImpl session) throws USBException;
 
+	// ======================================================================
+	// 取り付け/取り外しの監視
+	// ======================================================================
+	/**
+	 * 指定されたコンテキストに対するデバイスの取り付け/取り外しの通知を開始または終了します。
+	 * ブリッジはデバイス構成の変化を検出した時に {@link USBContextImpl#hotplugDetected()}
+	 * を呼び出します。ライブラリが通知をサポートしていない場合は何も行わずに false を返し、
+	 * コンテキストは定期的な同期で変化を検出します。
+	 * <p>
+	 * @param session コンテキスト
+	 * @param enable 通知を開始する場合 true、終了する場合 false
+	 * @return ブリッジが通知を行う場合 true
+	 * @throws USBException 通知の設定に失敗した場合
+	*/
+	public boolean watch(USBContextImpl session, boolean enable) throws USBException;
+
 	// ======================================================================
 	// デバイスの解放
 	// ======================================================================
@@ -238,6 +255,78 @@ public interface USBBridge {
 	public int bulkTransfer(DeviceImpl device, byte ifc, byte ept,
 		byte[] buffer, int offset, int length, Direction inout, int timeout) throws USBException;
 
+	// ======================================================================
+	// 割り込み転送の実行
+	// ======================================================================
+	/**
+	 * ダイレクトバッファを使用して割り込み転送を実行します。バッファの位置からリミットまでの
+	 * 領域が入出力に使用されます。実装はバッファの位置やリミットを変更してはいけません。
+	 * <p>
+	 * @param device デバイス実装
+	 * @param ifc インターフェース番号 {@code bInterfaceNumber}
+	 * @param ept エンドポイントインデックス
+	 * @param buffer 入出力に使用するダイレクトバッファ
+	 * @param inout 入力/出力識別用
+	 * @param timeout 入出力タイムアウト (ミリ秒)
+	 * @return 実際に転送されたバイト数
+	 * @throws USBException 割り込み転送に失敗した場合
+	*/
+	public int interruptTransfer(DeviceImpl device, byte ifc, byte ept,
+		ByteBuffer buffer, Direction inout, int timeout) throws USBException;
+
+	// ======================================================================
+	// バルク転送の実行
+	// ======================================================================
+	/**
+	 * ダイレクトバッファを使用してバルク転送を実行します。バッファの位置からリミットまでの
+	 * 領域が入出力に使用されます。実装はバッファの位置やリミットを変更してはいけません。
+	 * <p>
+	 * @param device デバイス実装
+	 * @param ifc インターフェース番号 {@code bInterfaceNumber}
+	 * @param ept エンドポイントインデックス
+	 * @param buffer 入出力に使用するダイレクトバッファ
+	 * @param inout 入力/出力識別用
+	 * @param timeout 入出力タイムアウト (ミリ秒)
+	 * @return 実際に転送されたバイト数
+	 * @throws USBException バルク転送に失敗した場合
+	*/
+	public int bulkTransfer(DeviceImpl device, byte ifc, byte ept,
+		ByteBuffer buffer, Direction inout, int timeout) throws USBException;
+
+	// ======================================================================
+	// 非同期転送の発行
+	// ======================================================================
+	/**
+	 * バルクまたは割り込み転送を非同期に発行します。このメソッドは転送の完了を待機せずに処理を
+	 * 戻します。実装は転送の終了時に {@link AsyncTransferImpl#complete(int)},
+	 * {@link AsyncTransferImpl#fail(USBException)}, {@link AsyncTransferImpl#cancelled()}
+	 * のいずれかを必ず呼び出す必要があります。同一エンドポイントに発行された転送は発行順に
+	 * 実行し完了通知しなければなりません。複数の転送を同時にデバイスへ発行するかどうかは
+	 * 実装に依存します。
+	 * <p>
+	 * @param device デバイス実装
+	 * @param ifc インターフェース番号 {@code bInterfaceNumber}
+	 * @param ept エンドポイントインデックス
+	 * @param transfer 発行する転送
+	 * @throws USBException 転送の発行に失敗した場合
+	*/
+	public void submit(DeviceImpl device, byte ifc, byte ept, AsyncTransferImpl transfer) throws USBException;
+
+	// ======================================================================
+	// 非同期転送の中断
+	// ======================================================================
+	/**
+	 * 発行済みの非同期転送を中断します。実装が転送を中断できない場合は false を返します。
+	 * <p>
+	 * @param device デバイス実装
+	 * @param ifc インターフェース番号 {@code bInterfaceNumber}
+	 * @param ept エンドポイントインデックス
+	 * @param transfer 中断する転送
+	 * @return 転送を中断した場合 true
+	 * @throws USBException 転送の中断に失敗した場合
+	*/
+	public boolean abort(DeviceImpl device, byte ifc, byte ept, AsyncTransferImpl transfer) throws USBException;
+
 	// ======================================================================
 	// 等時間隔転送の実行
 	// ======================================================================
@@ -13,6 +13,8 @@ package org.koiroha.usb.impl;
 import java.util.*;
 import java.util.logging.Level;
 
+import javax.management.*;
+
 import org.koiroha.usb.*;
 import org.koiroha.usb.desc.DeviceDescriptor;
 import org.koiroha.usb.event.*;
@@ -87,6 +89,87 @@ public class USBContextImpl implements USBContext {
 	private final List<USBContextListener> listener
 		= Collections.synchronizedList(new ArrayList<USBContextListener>());
 
+	// ======================================================================
+	// 解放リスナ
+	// ======================================================================
+	/**
+	 * 解放されたデバイスをデバイス一覧から削除するためのリスナです。
+	 * <p>
+	 */
+	private final ReleaseListener releaseListener = new ReleaseListener();
+
+	// ======================================================================
+	// 監視スレッド
+	// ======================================================================
+	/**
+	 * デバイスの取り付け/取り外しを監視するスレッドです。
+	 * <p>
+	 */
+	private volatile Watcher watcher = null;
+
+	// ======================================================================
+	// 同期ロック
+	// ======================================================================
+	/**
+	 * {@link #sync()} を直列化するためのロックです。監視スレッドとアプリケーションのスレッドが
+	 * 同時に同期を行うと、通知された変化が発生順と異なる順序で反映されるため、完全な同期と
+	 * 変化の反映は全てこのロックを取得して行います。
+	 * <p>
+	 */
+	private final Object syncLock = new Object();
+
+	// ======================================================================
+	// 差分追跡
+	// ======================================================================
+	/**
+	 * 通知による監視の開始後に完全な同期を行い、以降の変化を {@link #update()} で反映できる
+	 * 状態の場合 true です。
+	 * <p>
+	 */
+	private volatile boolean tracking = false;
+
+	// ======================================================================
+	// 記述子キャッシュ
+	// ======================================================================
+	/**
+	 * このコンテキストのデバイスが使用する記述子キャッシュです。
+	 * <p>
+	 */
+	private final DescriptorCache cache = new DescriptorCache();
+
+	// ======================================================================
+	// 転送メトリクス
+	// ======================================================================
+	/**
+	 * このコンテキストに存在する全てのデバイスの計測値を合算する転送メトリクスです。
+	 * <p>
+	 */
+	private final TransferMetrics metrics = new TransferMetrics(){
+		@Override
+		public TransferStatistics getStatistics(){
+			TransferStatistics stat = TransferStatistics.EMPTY;
+			for(DeviceImpl d: getDevices()){
+				stat = stat.add(d.getMetrics().getStatistics());
+			}
+			return stat;
+		}
+		public void reset(){
+			for(DeviceImpl d: getDevices()){
+				d.getMetrics().reset();
+			}
+			return;
+		}
+	};
+
+	// ======================================================================
+	// MBean 登録
+	// ======================================================================
+	/**
+	 * 転送メトリクスの MBean を登録している場合にその登録を管理するインスタンスです。
+	 * <p>
+	 */
+	private MetricsExporter exporter = null;
+
 	// ======================================================================
 	// コンストラクタ
 	// ======================================================================
@@ -126,27 +209,253 @@ public class USBContextImpl implements USBContext {
 	/**
 	 * このコンテキストの保持する USB デバイスを同期化します。
 	 * <p>
+	 * ブリッジから取得した新しい構成と現在のデバイスを {@link DeviceImpl#getLocation() 位置}
+	 * とデバイス記述子で比較し、一致するデバイスは既存のインスタンスでトポロジーを再構築します。
+	 * 一致しなかった既存のデバイスは解放して取り外しを、新しいデバイスは取り付けをリスナに
+	 * 通知します。取り外されたデバイスの記述子キャッシュは破棄されるため、再度取り付けられた
+	 * デバイスは記述子をデバイスから取得し直します。
+	 * <p>
+	 * ブリッジの通知による監視中で、サブクラスが {@link #update()} で変化を反映できる場合は
+	 * デバイスを列挙せずに通知された変化のみを反映します。
+	 * <p>
+	 * 同期は監視スレッドを含む全ての呼び出し元で直列化されます。
+	 * <p>
 	 * @throws USBException USB デバイスの取得に失敗した場合
 	*/
 	public void sync() throws USBException{
+		synchronized(syncLock){
+			if(tracking && update()){
+				return;
+			}
+			resync();
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 通知された変化の反映
+	// ======================================================================
+	/**
+	 * ブリッジから通知された取り付け/取り外しを {@link #attach(DeviceImpl, DeviceImpl)} と
+	 * {@link #detach(DeviceImpl)} を使用して反映します。このメソッドはブリッジの通知による
+	 * 監視中に完全な同期を行った後の {@link #sync()} から呼び出されます。
+	 * <p>
+	 * 変化を個別に通知できるブリッジのコンテキストはこのメソッドをオーバーライドし、前回の
+	 * 呼び出し以降に通知された変化を反映してください。変化を反映できなかった場合に false を
+	 * 返すと完全な同期が行われます。デフォルトの実装は常に false を返します。
+	 * <p>
+	 * このメソッドは同期のロックを取得した状態で呼び出されるため、通知された変化を取り出す
+	 * 処理が他のスレッドの同期と並行して実行される事はありません。
+	 * <p>
+	 * @return 変化を反映した場合 true
+	 * @throws USBException 変化の反映に失敗した場合
+	*/
+	protected boolean update() throws USBException{
+		return false;
+	}
+
+	// ======================================================================
+	// デバイスの取り付け
+	// ======================================================================
+	/**
+	 * {@link #update()} から新しく取り付けられたデバイスをこのコンテキストに追加し、取り付けを
+	 * リスナに通知します。ルートハブの場合は呼び出し側で {@link #getBus(String)} のバスに
+	 * 接続しておく必要があります。
+	 * <p>
+	 * 同じ位置に同じデバイス記述子のデバイスが既に存在する場合、指定されたデバイスは解放され
+	 * 既存のデバイスが維持されます。記述子が異なる場合は既存のデバイスを取り外します。
+	 * <p>
+	 * @param device 取り付けられたデバイス
+	 * @param parent 接続先のデバイス (ルートハブの場合は null)
+	 * @return 取り付けを反映した場合 true、接続先がこのコンテキストに存在しない場合 false
+	 * @throws USBException デバイスの解放に失敗した場合
+	*/
+	protected boolean attach(DeviceImpl device, DeviceImpl parent) throws USBException{
+		DeviceImpl old = null;
 		synchronized(devices){
+			if(parent != null){
+				if(parent.isReleased() || ! devices.contains(parent)){
+					device.release();
+					return false;
+				}
+				parent.connect(device);
+			}
+
+			// 同じ位置のデバイスを検索
+			String location = device.getLocation();
+			for(DeviceImpl d: devices){
+				if(d.getLocation().equals(location)){
+					old = d;
+					break;
+				}
+			}
+			if(old != null && old.getDescriptor().equals(device.getDescriptor())){
+				disconnect(device);
+				device.release();
+				return true;
+			}
+		}
 
-			// 解放されていない全てのデバイスを解放
-			dispose();
+		// 同じ位置の異なるデバイスを取り外して追加
+		if(old != null){
+			detach(old);
+		}
+		synchronized(devices){
+			devices.add(device);
+			device.setDescriptorCache(cache);
+			device.addDeviceListener(releaseListener);
+		}
+		fireDeviceAttached(new DeviceEvent(device));
+		return true;
+	}
 
-			// デバイスの一覧を取得
-			ReleaseListener l = new ReleaseListener();
+	// ======================================================================
+	// バスの参照
+	// ======================================================================
+	/**
+	 * {@link #update()} で取り付けられたルートハブを接続するバスを参照します。指定された名前の
+	 * バスに接続されたデバイスが存在する場合はそのバスを、存在しない場合は新しいバスを返します。
+	 * <p>
+	 * @param name バス名
+	 * @return バス
+	*/
+	protected BusImpl getBus(String name){
+		synchronized(devices){
+			for(DeviceImpl d: devices){
+				Bus bus = d.getBus();
+				if(bus instanceof BusImpl && bus.getName().equals(name)){
+					return (BusImpl)bus;
+				}
+			}
+		}
+		return new BusImpl(name);
+	}
+
+	// ======================================================================
+	// デバイスの取り外し
+	// ======================================================================
+	/**
+	 * {@link #update()} から取り外されたデバイスとその子デバイスを解放し、取り外しをリスナに
+	 * 通知します。このコンテキストに存在しないデバイスの場合は何も行いません。
+	 * <p>
+	 * @param device 取り外されたデバイス
+	*/
+	protected void detach(DeviceImpl device){
+		List<DeviceImpl> removed = new ArrayList<DeviceImpl>();
+		synchronized(devices){
+			if(! devices.contains(device)){
+				return;
+			}
+			collect(device, removed);
+			disconnect(device);
+		}
+		for(DeviceImpl d: removed){
+			d.invalidateDescriptorCache();
+			try{
+				d.release();
+			} catch(USBException ex){
+				logger.log(Level.WARNING, "fail to release detached device: " + d, ex);
+			}
+		}
+		for(DeviceImpl d: removed){
+			fireDeviceDetached(new DeviceEvent(d));
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 完全な同期
+	// ======================================================================
+	/**
+	 * ブリッジから全てのデバイスを取得して同期します。通知による監視中であれば以降の同期は
+	 * 通知された変化のみの反映となります。
+	 * <p>
+	 * @throws USBException USB デバイスの取得に失敗した場合
+	*/
+	private void resync() throws USBException{
+		Watcher w = watcher;
+		Resync r = new Resync();
+		synchronized(devices){
+
+			// 現在のデバイスを位置で索引
+			for(DeviceImpl d: devices){
+				r.current.put(d.getLocation(), d);
+			}
+
+			// 新しい構成を取得してトポロジーの再構築前に位置を算出
 			List<BusImpl> buses = bridge.find(this);
 			for(Bus bus: buses){
-				for(Device device: bus.getDevices()){
-					devices.add((DeviceImpl)device);
-					device.addDeviceListener(l);
+				for(Device d: bus.getDevices()){
+					r.location.put((DeviceImpl)d, ((DeviceImpl)d).getLocation());
+				}
+			}
+
+			// 既存のインスタンスを使用してトポロジーを再構築
+			for(BusImpl bus: buses){
+				BusImpl b = new BusImpl(bus.getName());
+				for(DeviceImpl root: bus.getRootDevices()){
+					b.connect(r.merge(root));
+				}
+			}
+
+			// 既存のインスタンスに置き換えた新しい構成のデバイスを解放
+			for(DeviceImpl d: r.discarded){
+				try{
+					d.release();
+				} catch(USBException ex){
+					logger.log(Level.WARNING, "fail to release duplicate device: " + d, ex);
+				}
+			}
+
+			// 一致しなかった既存のデバイスを解放
+			r.detached.addAll(r.current.values());
+			for(DeviceImpl d: r.detached){
+				d.invalidateDescriptorCache();
+				try{
+					d.release();
+				} catch(USBException ex){
+					logger.log(Level.WARNING, "fail to release detached device: " + d, ex);
 				}
 			}
+
+			// デバイス一覧の置き換え
+			devices.clear();
+			devices.addAll(r.merged);
+			for(DeviceImpl d: r.attached){
+				d.setDescriptorCache(cache);
+				d.addDeviceListener(releaseListener);
+			}
+			tracking = (w != null && w.notified && w == watcher);
+		}
+
+		// 変化のあったデバイスのみ通知
+		if(logger.isLoggable(Level.FINE)){
+			logger.fine(String.format("sync(): %d attached, %d detached, %d unchanged",
+				r.attached.size(), r.detached.size(), r.merged.size() - r.attached.size()));
+		}
+		for(DeviceImpl d: r.detached){
+			fireDeviceDetached(new DeviceEvent(d));
+		}
+		for(DeviceImpl d: r.attached){
+			fireDeviceAttached(new DeviceEvent(d));
 		}
 		return;
 	}
 
+	// ======================================================================
+	// 記述子キャッシュの参照
+	// ======================================================================
+	/**
+	 * このコンテキストのデバイスが文字列記述子などの取得に使用する記述子キャッシュを参照します。
+	 * 前回の実行で {@link DescriptorCache#save(java.io.File) 保存} した内容を
+	 * {@link #sync()} の前に読み込むことで、起動時のデバイスへの問い合わせを省略できます。
+	 * <p>
+	 * @return 記述子キャッシュ
+	 */
+	public DescriptorCache getDescriptorCache(){
+		return cache;
+	}
+
 	// ======================================================================
 	// デバイスの検索
 	// ======================================================================
@@ -198,7 +507,7 @@ public class USBContextImpl implements USBContext {
 			}
 		}
 
-		return Collections.unmodifiableList(new ArrayList<Device>(devices));
+		return Collections.unmodifiableList(dev);
 	}
 
 	// ======================================================================
@@ -210,7 +519,151 @@ public class USBContextImpl implements USBContext {
 	 * @throws USBException デバイスの解放に失敗した場合
 	*/
 	public void dispose() throws USBException {
+		stopWatch();
 		clearDevices(false);
+		unregisterMBeans();
+		return;
+	}
+
+	// ======================================================================
+	// 転送メトリクスの参照
+	// ======================================================================
+	/**
+	 * このコンテキストの転送メトリクスを参照します。値は現在コンテキストに存在する全ての
+	 * デバイスの計測値を合算したもので、取り外されたデバイスの計測値は含まれません。
+	 * <p>
+	 * @return 転送メトリクス
+	*/
+	public TransferMetrics getMetrics(){
+		return metrics;
+	}
+
+	// ======================================================================
+	// MBean の登録
+	// ======================================================================
+	/**
+	 * このコンテキストと配下のデバイス、エンドポイントの転送メトリクスを指定された MBean
+	 * サーバに登録します。MBean は {@code org.koiroha.usb:type=Context,name=<name>} と、その
+	 * 名前を {@code context} キーに持つ {@code type=Device} および {@code type=Endpoint} の
+	 * オブジェクト名で登録されます。登録後に取り付けられたデバイスは自動的に登録され、解放
+	 * されたデバイスは登録が解除されます。
+	 * <p>
+	 * @param server MBean サーバ
+	 * @param name コンテキストの名前
+	 * @throws USBException 既に登録されている場合や登録に失敗した場合
+	*/
+	public void registerMBeans(MBeanServer server, String name) throws USBException{
+		MetricsExporter e = null;
+		synchronized(this){
+			if(exporter != null){
+				throw new USBException("mbeans already registered");
+			}
+			e = new MetricsExporter(server, name);
+			exporter = e;
+		}
+		try{
+			e.register(null, "type=Context,name=" + ObjectName.quote(name), metrics);
+			addContextListener(e);
+			for(DeviceImpl d: getDevices()){
+				e.register(d);
+			}
+		} catch(USBException ex){
+			unregisterMBeans();
+			throw ex;
+		}
+		return;
+	}
+
+	// ======================================================================
+	// MBean の登録解除
+	// ======================================================================
+	/**
+	 * {@link #registerMBeans(MBeanServer, String)} で登録した全ての MBean の登録を解除します。
+	 * 登録されていない場合は何も行いません。
+	 * <p>
+	*/
+	public void unregisterMBeans(){
+		MetricsExporter e = null;
+		synchronized(this){
+			e = exporter;
+			exporter = null;
+		}
+		if(e != null){
+			removeContextListener(e);
+			e.unregisterAll();
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 取り付け/取り外しの監視開始
+	// ======================================================================
+	/**
+	 * デバイスの取り付け/取り外しを監視するスレッドを開始します。ブリッジが通知をサポート
+	 * する場合は {@link #hotplugDetected()} の呼び出しを受けた時のみ、サポートしない場合は
+	 * 指定された間隔で同期を行います。
+	 * <p>
+	 * @param interval 通知をサポートしないブリッジで同期を行う間隔 (ミリ秒)
+	 * @throws USBException 既に監視を行っている場合
+	*/
+	public synchronized void startWatch(long interval) throws USBException{
+		if(interval <= 0){
+			throw new IllegalArgumentException("interval<=0; " + interval);
+		}
+		if(watcher != null){
+			throw new USBException("hotplug watching already active");
+		}
+		boolean notified = bridge.watch(this, true);
+		logger.fine("start watching: " + ((notified)? "library notification": ("polling " + interval + "ms")));
+		tracking = false;
+		watcher = new Watcher(interval, notified);
+		watcher.start();
+
+		// 通知の開始前の変化を反映するため最初に完全な同期を行う
+		if(notified){
+			watcher.wakeup();
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 取り付け/取り外しの監視終了
+	// ======================================================================
+	/**
+	 * 取り付け/取り外しの監視を終了します。
+	 * <p>
+	 * @throws USBException 監視の終了に失敗した場合
+	*/
+	public void stopWatch() throws USBException{
+		Watcher w = null;
+		synchronized(this){
+			w = watcher;
+			watcher = null;
+			tracking = false;
+		}
+		if(w != null){
+			w.interrupt();
+			if(w.notified){
+				bridge.watch(this, false);
+			}
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 取り付け/取り外しの通知
+	// ======================================================================
+	/**
+	 * ブリッジがデバイスの取り付け/取り外しを検出した時に呼び出します。監視スレッドが同期を
+	 * 実行します。このメソッドはライブラリのコールバックスレッドから呼び出されることを想定して
+	 * おり、同期の完了を待たずに復帰します。
+	 * <p>
+	*/
+	public void hotplugDetected(){
+		Watcher w = watcher;
+		if(w != null){
+			w.wakeup();
+		}
 		return;
 	}
 
@@ -277,6 +730,55 @@ public class USBContextImpl implements USBContext {
 		return;
 	}
 
+	// ======================================================================
+	// デバイス一覧の複製
+	// ======================================================================
+	/**
+	 * このコンテキストに存在するデバイスの一覧を複製します。
+	 * <p>
+	 * @return デバイスのリスト
+	*/
+	private List<DeviceImpl> getDevices(){
+		synchronized(devices){
+			return new ArrayList<DeviceImpl>(devices);
+		}
+	}
+
+	// ======================================================================
+	// デバイスの切断
+	// ======================================================================
+	/**
+	 * 指定されたデバイスを接続先のデバイスまたはバスから切断します。
+	 * <p>
+	 * @param device デバイス
+	*/
+	private static void disconnect(DeviceImpl device){
+		DeviceImpl parent = (DeviceImpl)device.getParentDevice();
+		if(parent != null){
+			parent.disconnect(device);
+		} else if(device.getBus() instanceof BusImpl){
+			((BusImpl)device.getBus()).disconnect(device);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 子孫デバイスの収集
+	// ======================================================================
+	/**
+	 * 指定されたデバイスとその子孫のデバイスをリストに追加します。
+	 * <p>
+	 * @param device デバイス
+	 * @param list デバイスを追加するリスト
+	*/
+	private static void collect(DeviceImpl device, List<DeviceImpl> list){
+		list.add(device);
+		for(Device child: device.getChildDevices()){
+			collect((DeviceImpl)child, list);
+		}
+		return;
+	}
+
 	// ======================================================================
 	// デバイスの解放
 	// ======================================================================
@@ -400,10 +902,151 @@ public class USBContextImpl implements USBContext {
 	}
 
 	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
-	// VendorFilter: ベンダーIDフィルタ
+	// Resync: 同期処理
 	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
 	/**
-	 * ベンダー ID / 製品 ID によるデバイスフィルタです。
+	 * 1 回の同期で新しい構成と既存のデバイスを突き合わせるための作業領域です。
+	 * <p>
+	 */
+	private static class Resync{
+
+		/** 位置をキーとした既存のデバイスです。一致したデバイスは削除されます。 */
+		public final Map<String,DeviceImpl> current = new HashMap<String,DeviceImpl>();
+
+		/** 新しい構成のデバイスとその位置です。 */
+		public final Map<DeviceImpl,String> location = new IdentityHashMap<DeviceImpl,String>();
+
+		/** 再構築したトポロジーのデバイスです。 */
+		public final List<DeviceImpl> merged = new ArrayList<DeviceImpl>();
+
+		/** 新しく取り付けられたデバイスです。 */
+		public final List<DeviceImpl> attached = new ArrayList<DeviceImpl>();
+
+		/** 取り外されたデバイスです。 */
+		public final List<DeviceImpl> detached = new ArrayList<DeviceImpl>();
+
+		/** 既存のインスタンスに置き換えられた新しい構成のデバイスです。 */
+		public final List<DeviceImpl> discarded = new ArrayList<DeviceImpl>();
+
+		// ==================================================================
+		// デバイスの突き合わせ
+		// ==================================================================
+		/**
+		 * 新しい構成のデバイスに対応する既存のデバイスを決定し、その子デバイスを再帰的に
+		 * 接続します。位置とデバイス記述子が一致する既存のデバイスがあればそのインスタンスを、
+		 * なければ新しい構成のインスタンスを返します。
+		 * <p>
+		 * @param scanned 新しい構成のデバイス
+		 * @return トポロジーに使用するデバイス
+		*/
+		public DeviceImpl merge(DeviceImpl scanned){
+			DeviceImpl device = scanned;
+			DeviceImpl old = current.remove(location.get(scanned));
+			if(old != null && ! old.isReleased() && old.getDescriptor().equals(scanned.getDescriptor())){
+				device = old;
+				discarded.add(scanned);
+			} else {
+				if(old != null){
+					detached.add(old);
+				}
+				attached.add(scanned);
+			}
+			merged.add(device);
+
+			// 子デバイスを接続
+			List<Device> children = new ArrayList<Device>(scanned.getChildDevices());
+			device.disconnectAll();
+			for(Device child: children){
+				device.connect(merge((DeviceImpl)child));
+			}
+			return device;
+		}
+	}
+
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	// Watcher: 取り付け/取り外し監視
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	/**
+	 * デバイスの取り付け/取り外しを監視して同期を行うスレッドです。ブリッジからの通知が無い
+	 * 場合は一定間隔で同期を行います。同期中に受けた複数の通知は 1 回の同期にまとめられます。
+	 * <p>
+	 */
+	private class Watcher extends Thread{
+
+		/** 通知がない場合に同期を行う間隔 (ミリ秒) です。 */
+		private final long interval;
+
+		/** ブリッジが通知を行う場合 true です。 */
+		public final boolean notified;
+
+		/** 同期が要求されている場合 true です。 */
+		private boolean requested = false;
+
+		// ==================================================================
+		// コンストラクタ
+		// ==================================================================
+		/**
+		 * デーモンスレッドとして構築します。
+		 * <p>
+		 * @param interval 同期間隔 (ミリ秒)
+		 * @param notified ブリッジが通知を行う場合 true
+		*/
+		public Watcher(long interval, boolean notified){
+			super("USBContextWatcher");
+			this.interval = interval;
+			this.notified = notified;
+			setDaemon(true);
+			return;
+		}
+
+		// ==================================================================
+		// 同期の要求
+		// ==================================================================
+		/**
+		 * 監視スレッドに同期を要求します。
+		 * <p>
+		*/
+		public synchronized void wakeup(){
+			requested = true;
+			notifyAll();
+			return;
+		}
+
+		// ==================================================================
+		// スレッドの実行
+		// ==================================================================
+		/**
+		 * 割り込まれるまで同期の要求または一定間隔ごとに同期を実行します。
+		 * <p>
+		*/
+		@Override
+		public void run(){
+			try{
+				while(! isInterrupted()){
+					synchronized(this){
+						if(! requested){
+							wait((notified)? 0: interval);
+						}
+						requested = false;
+					}
+					try{
+						sync();
+					} catch(USBException ex){
+						logger.log(Level.WARNING, "fail to sync devices", ex);
+					}
+				}
+			} catch(InterruptedException ex){
+				logger.finest("watcher stopped");
+			}
+			return;
+		}
+	}
+
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	// ReleaseListener: 解放リスナ
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	/**
+	 * 解放されたデバイスをコンテキストのデバイス一覧から削除するリスナです。
 	 * <p>
 	 */
 	private class ReleaseListener implements DeviceListener{
@@ -446,6 +1089,181 @@ public class USBContextImpl implements USBContext {
 			synchronized(devices){
 				devices.remove(device);
 			}
+
+			// MBean の登録を解除
+			MetricsExporter ex = null;
+			synchronized(USBContextImpl.this){
+				ex = exporter;
+			}
+			if(ex != null){
+				ex.unregister((DeviceImpl)device);
+			}
+			return;
+		}
+
+	}
+
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	// MetricsExporter: メトリクス公開
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	/**
+	 * 転送メトリクスの MBean をサーバに登録し、デバイスごとに登録したオブジェクト名を管理
+	 * します。取り付けられたデバイスの通知を受けて自動的に登録を行います。
+	 * <p>
+	 */
+	private class MetricsExporter implements USBContextListener{
+
+		/** 登録先の MBean サーバです。 */
+		private final MBeanServer server;
+
+		/** オブジェクト名に使用するコンテキストの名前です。 */
+		private final String name;
+
+		/** デバイスごとに登録したオブジェクト名です。コンテキストの MBean のキーは null です。 */
+		private final Map<DeviceImpl,List<ObjectName>> names = new HashMap<DeviceImpl,List<ObjectName>>();
+
+		// ==================================================================
+		// コンストラクタ
+		// ==================================================================
+		/**
+		 * 登録先のサーバとコンテキストの名前を指定して構築を行います。
+		 * <p>
+		 * @param server MBean サーバ
+		 * @param name コンテキストの名前
+		*/
+		public MetricsExporter(MBeanServer server, String name){
+			this.server = server;
+			this.name = name;
+			return;
+		}
+
+		// ==================================================================
+		// デバイスの取り付け
+		// ==================================================================
+		/**
+		 * 取り付けられたデバイスの MBean を登録します。
+		 * <p>
+		 * @param e デバイスイベント
+		*/
+		public void deviceAttached(DeviceEvent e){
+			try{
+				register((DeviceImpl)e.getDevice());
+			} catch(USBException ex){
+				logger.log(Level.WARNING, "fail to register mbean: " + e.getDevice(), ex);
+			}
+			return;
+		}
+
+		// ==================================================================
+		// デバイスの取り外し
+		// ==================================================================
+		/**
+		 * 取り外されたデバイスの MBean の登録を解除します。通常は解放時に解除済みです。
+		 * <p>
+		 * @param e デバイスイベント
+		*/
+		public void deviceDetached(DeviceEvent e){
+			unregister((DeviceImpl)e.getDevice());
+			return;
+		}
+
+		// ==================================================================
+		// デバイスの登録
+		// ==================================================================
+		/**
+		 * 指定されたデバイスとその全てのエンドポイントの MBean を登録します。取り付けの通知と
+		 * 既存デバイスの登録が同時に行われても同じ名前を 2 重に登録しないよう、登録の完了まで
+		 * このインスタンスの同期を保持します。
+		 * <p>
+		 * @param device デバイス
+		 * @throws USBException 登録に失敗した場合
+		*/
+		public synchronized void register(DeviceImpl device) throws USBException{
+			if(names.containsKey(device)){
+				return;
+			}
+			names.put(device, new ArrayList<ObjectName>());
+			String prefix = "context=" + ObjectName.quote(name) + ",location=" + ObjectName.quote(device.getLocation());
+			register(device, "type=Device," + prefix, device.getMetrics());
+			for(EndpointImpl e: device.getEndpoints()){
+				AltSetting alt = e.getAltSetting();
+				String key = String.format(
+					"type=Endpoint,%s,configuration=%d,interface=%d,alt=%d,endpoint=0x%02X", prefix,
+					alt.getInterface().getConfiguration().getDescriptor().getConfigurationValue(),
+					alt.getDescriptor().getInterfaceNumber(), alt.getDescriptor().getAlternateSetting(),
+					e.getDescriptor().getEndpointAddress());
+				register(device, key, e.getMetrics());
+			}
+			return;
+		}
+
+		// ==================================================================
+		// MBean の登録
+		// ==================================================================
+		/**
+		 * 指定されたメトリクスを MBean として登録します。
+		 * <p>
+		 * @param device 登録を管理するデバイス (コンテキストの場合 null)
+		 * @param key オブジェクト名のキープロパティ
+		 * @param m 転送メトリクス
+		 * @throws USBException 登録に失敗した場合
+		*/
+		public synchronized void register(DeviceImpl device, String key, TransferMetrics m) throws USBException{
+			try{
+				ObjectName on = new ObjectName("org.koiroha.usb:" + key);
+				server.registerMBean(new StandardMBean(m, TransferMetricsMBean.class), on);
+				List<ObjectName> list = names.get(device);
+				if(list == null){
+					list = new ArrayList<ObjectName>();
+					names.put(device, list);
+				}
+				list.add(on);
+			} catch(JMException ex){
+				throw new USBException("fail to register mbean: " + key, ex);
+			}
+			return;
+		}
+
+		// ==================================================================
+		// デバイスの登録解除
+		// ==================================================================
+		/**
+		 * 指定されたデバイスに対して登録した全ての MBean の登録を解除します。
+		 * <p>
+		 * @param device デバイス
+		*/
+		public void unregister(DeviceImpl device){
+			List<ObjectName> list = null;
+			synchronized(this){
+				list = names.remove(device);
+			}
+			if(list != null){
+				for(ObjectName on: list){
+					try{
+						server.unregisterMBean(on);
+					} catch(JMException ex){
+						logger.log(Level.FINE, "fail to unregister mbean: " + on, ex);
+					}
+				}
+			}
+			return;
+		}
+
+		// ==================================================================
+		// 全ての登録解除
+		// ==================================================================
+		/**
+		 * このインスタンスが登録した全ての MBean の登録を解除します。
+		 * <p>
+		*/
+		public void unregisterAll(){
+			List<DeviceImpl> list = null;
+			synchronized(this){
+				list = new ArrayList<DeviceImpl>(names.keySet());
+			}
+			for(DeviceImpl device: list){
+				unregister(device);
+			}
 			return;
 		}
 
@@ -10,8 +10,10 @@
 */
 package org.koiroha.usb.impl.libusb;
 
+import java.nio.ByteBuffer;
 import java.util.logging.Level;
 
+import org.koiroha.usb.TimeoutException;
 import org.koiroha.usb.USBException;
 import org.koiroha.usb.desc.*;
 import org.koiroha.usb.impl.USBLibrary;
@@ -58,6 +60,33 @@ public final class LibUSB0 extends USBLibrary{
 	 */
 	public static final String LIBRARY_NAME = "lu04j";
 
+	// ======================================================================
+	// Timeout Error Code
+	// ======================================================================
+	/**
+	 * The error code {@value} returned on timeout by libusb 0.1 on Linux
+	 * ({@code -ETIMEDOUT}).
+	 */
+	public static final int ETIMEDOUT = -110;
+
+	// ======================================================================
+	// Timeout Error Code
+	// ======================================================================
+	/**
+	 * The error code {@value} returned on timeout by libusb 0.1 on BSD and
+	 * Mac OS X ({@code -ETIMEDOUT}).
+	 */
+	public static final int ETIMEDOUT_BSD = -60;
+
+	// ======================================================================
+	// Timeout Error Code
+	// ======================================================================
+	/**
+	 * The error code {@value} returned on timeout by libusb-win32
+	 * ({@code -ETIMEDOUT} of MSVC runtime).
+	 */
+	public static final int ETIMEDOUT_WIN32 = -116;
+
 	// ======================================================================
 	// Static Initializer
 	// ======================================================================
@@ -103,12 +132,17 @@ public final class LibUSB0 extends USBLibrary{
 	// Check Error
 	// ======================================================================
 	/**
-	 * Arise exception if specified return code was negative.
+	 * Arise exception if specified return code was negative. Timeout is
+	 * notified as {@link TimeoutException} so that the transfer scheduler
+	 * can continue sliced reads.
 	 * <p>
 	 * @param ret return code
 	 * @throws USBException in case error occured
 	 */
 	static void checkError(int ret) throws USBException{
+		if(ret == ETIMEDOUT || ret == ETIMEDOUT_BSD || ret == ETIMEDOUT_WIN32){
+			throw new TimeoutException(String.format("[%d] %s", ret, LibUSB0.strerror()));
+		}
 		if(ret < 0){
 			throw new USBException(String.format("[%d] %s", ret, LibUSB0.strerror()));
 		}
@@ -371,6 +405,74 @@ public final class LibUSB0 extends USBLibrary{
 	*/
 	public static native int interrupt_read(long handle, int ep, byte[] buf, int offset, int length, int timeout);
 
+	// ======================================================================
+	// バルク出力
+	// ======================================================================
+	/**
+	 * バルクパイプに対して指定されたダイレクトバッファの内容を出力します。ダイレクトバッファのアドレスをそのまま
+	 * libusb に渡すためヒープ配列の固定やコピーが発生しません。
+	 * <p>
+	 * @param handle デバイスハンドル
+	 * @param ep エンドポイント番号
+	 * @param buf 出力データを格納したダイレクトバッファ
+	 * @param offset バッファ先頭からのオフセット
+	 * @param length 長さ
+	 * @param timeout タイムアウト (ミリ秒)
+	 * @return 実際に書き込んだバイト数。失敗した場合は負の値。
+	*/
+	public static native int bulk_write_direct(long handle, int ep, ByteBuffer buf, int offset, int length, int timeout);
+
+	// ======================================================================
+	// バルク入力
+	// ======================================================================
+	/**
+	 * バルクパイプから指定されたダイレクトバッファへ入力を行います。ダイレクトバッファのアドレスをそのまま
+	 * libusb に渡すためヒープ配列の固定やコピーが発生しません。
+	 * <p>
+	 * @param handle デバイスハンドル
+	 * @param ep エンドポイント番号
+	 * @param buf 入力データを格納するダイレクトバッファ
+	 * @param offset バッファ先頭からのオフセット
+	 * @param length 長さ
+	 * @param timeout タイムアウト (ミリ秒)
+	 * @return 実際に読み込んだバイト数。失敗した場合は負の値。
+	*/
+	public static native int bulk_read_direct(long handle, int ep, ByteBuffer buf, int offset, int length, int timeout);
+
+	// ======================================================================
+	// 割り込み出力
+	// ======================================================================
+	/**
+	 * 割り込みパイプに対して指定されたダイレクトバッファの内容を出力します。ダイレクトバッファのアドレスをそのまま
+	 * libusb に渡すためヒープ配列の固定やコピーが発生しません。
+	 * <p>
+	 * @param handle デバイスハンドル
+	 * @param ep エンドポイント番号
+	 * @param buf 出力データを格納したダイレクトバッファ
+	 * @param offset バッファ先頭からのオフセット
+	 * @param length 長さ
+	 * @param timeout タイムアウト (ミリ秒)
+	 * @return 実際に書き込んだバイト数。失敗した場合は負の値。
+	*/
+	public static native int interrupt_write_direct(long handle, int ep, ByteBuffer buf, int offset, int length, int timeout);
+
+	// ======================================================================
+	// 割り込み入力
+	// ======================================================================
+	/**
+	 * 割り込みパイプから指定されたダイレクトバッファへ入力を行います。ダイレクトバッファのアドレスをそのまま
+	 * libusb に渡すためヒープ配列の固定やコピーが発生しません。
+	 * <p>
+	 * @param handle デバイスハンドル
+	 * @param ep エンドポイント番号
+	 * @param buf 入力データを格納するダイレクトバッファ
+	 * @param offset バッファ先頭からのオフセット
+	 * @param length 長さ
+	 * @param timeout タイムアウト (ミリ秒)
+	 * @return 実際に読み込んだバイト数。失敗した場合は負の値。
+	*/
+	public static native int interrupt_read_direct(long handle, int ep, ByteBuffer buf, int offset, int length, int timeout);
+
 	// ======================================================================
 	// コントロールメッセージ
 	// ======================================================================
@@ -58,6 +58,30 @@ public class LibUSB0Bridge implements USBBridge{
 	 */
 	private static final Object SIGNAL = new Object();
 
+	// ======================================================================
+	// スライス時間
+	// ======================================================================
+	/**
+	 * 入力転送を分割して実行する時間 (ミリ秒) です。
+	 * <p>
+	 * libusb 0.1 はタイムアウト時に受信済みのバイト数を返さないため、複数パケットにわたる
+	 * 読み込みでスライスがタイムアウトした場合、そのスライス内に受信したパケットは失われます。
+	 * 最大パケットサイズ以下の読み込みは最初のパケットの受信で完了するためこの影響を受けません。
+	 * <p>
+	 */
+	private static final int SLICE = 100;
+
+	// ======================================================================
+	// 転送スケジューラー
+	// ======================================================================
+	/**
+	 * libusb 0.1 は複数スレッドからの同時呼び出しと非同期転送をサポートしていないため、全ての
+	 * 転送と、デバイスの検索、オープン、クローズ、リセット、インターフェースの要求/解放、
+	 * エンドポイントのリセットを 1 つのディスパッチスレッドで実行します。
+	 * <p>
+	 */
+	private final TransferScheduler scheduler = new TransferScheduler(this, 1, SLICE);
+
 	// ======================================================================
 	// コンストラクタ
 	// ======================================================================
@@ -127,7 +151,14 @@ public class LibUSB0Bridge implements USBBridge{
 	 * @return バス実装の一覧
 	 * @throws USBException USB デバイスの取得に失敗した場合
 	*/
-	public List<BusImpl> find(USBContextImpl session) throws USBException{
+	public List<BusImpl> find(final USBContextImpl session) throws USBException{
+		if(! scheduler.isDispatchThread()){
+			return scheduler.execute(null, new TransferScheduler.Operation<List<BusImpl>>(){
+				public List<BusImpl> execute() throws USBException{
+					return find(session);
+				}
+			});
+		}
 		logger.finest("find()");
 
 		List<BusImpl> list = new ArrayList<BusImpl>();
@@ -184,6 +215,21 @@ public class LibUSB0Bridge implements USBBridge{
 		return list;
 	}
 
+	// ======================================================================
+	// 取り付け/取り外しの監視
+	// ======================================================================
+	/**
+	 * libusb 0.1 はデバイスの取り付け/取り外しを通知する機能を持たないため何も行わずに
+	 * false を返します。
+	 * <p>
+	 * @param session コンテキスト
+	 * @param enable 通知を開始する場合 true
+	 * @return 常に false
+	*/
+	public boolean watch(USBContextImpl session, boolean enable){
+		return false;
+	}
+
 	// ======================================================================
 	// コンテキストの解放の解放
 	// ======================================================================
@@ -213,7 +259,14 @@ public class LibUSB0Bridge implements USBBridge{
 	 * @return デバイスハンドル
 	 * @throws USBException デバイスのオープンに失敗した場合
 	*/
-	public Object open(DeviceImpl device) throws USBException{
+	public Object open(final DeviceImpl device) throws USBException{
+		if(! scheduler.isDispatchThread()){
+			return scheduler.execute(device, new TransferScheduler.Operation<Object>(){
+				public Object execute() throws USBException{
+					return open(device);
+				}
+			});
+		}
 		long handle = LibUSB0.open(((LUDevice)device).dev);
 		LibUSB0.trace("open(dev):=0x%X", handle);
 		if(handle == 0){
@@ -231,7 +284,16 @@ public class LibUSB0Bridge implements USBBridge{
 	 * @param device クローズするデバイス実装
 	 * @throws USBException デバイスのクローズに失敗した場合
 	*/
-	public void close(DeviceImpl device) throws USBException{
+	public void close(final DeviceImpl device) throws USBException{
+		if(! scheduler.isDispatchThread()){
+			scheduler.execute(device, new TransferScheduler.Operation<Object>(){
+				public Object execute() throws USBException{
+					close(device);
+					return null;
+				}
+			});
+			return;
+		}
 		long handle = (Long)device.getOpenedHandle();
 		LibUSB0.trace("close(0x%X)", handle);
 		int ret = LibUSB0.close(handle);
@@ -248,7 +310,16 @@ public class LibUSB0Bridge implements USBBridge{
 	 * @param device リセットするデバイス実装
 	 * @throws USBException デバイスのリセットに失敗した場合
 	*/
-	public void reset(DeviceImpl device) throws USBException{
+	public void reset(final DeviceImpl device) throws USBException{
+		if(! scheduler.isDispatchThread()){
+			scheduler.execute(device, new TransferScheduler.Operation<Object>(){
+				public Object execute() throws USBException{
+					reset(device);
+					return null;
+				}
+			});
+			return;
+		}
 		long handle = (Long)device.getOpenedHandle();
 		int ret = LibUSB0.reset(handle);
 		LibUSB0.checkError(ret);
@@ -279,7 +350,16 @@ public class LibUSB0Bridge implements USBBridge{
 	 * @param ifc インターフェース番号 {@code bInterfaceNumber}
 	 * @throws USBException インターフェースの要求に失敗した場合
 	*/
-	public void claim(DeviceImpl device, byte ifc) throws USBException{
+	public void claim(final DeviceImpl device, final byte ifc) throws USBException{
+		if(! scheduler.isDispatchThread()){
+			scheduler.execute(device, new TransferScheduler.Operation<Object>(){
+				public Object execute() throws USBException{
+					claim(device, ifc);
+					return null;
+				}
+			});
+			return;
+		}
 		long handle = (Long)device.getOpenedHandle();
 		int ret = LibUSB0.claim_interface(handle, ifc);
 		LibUSB0.checkError(ret);
@@ -296,7 +376,16 @@ public class LibUSB0Bridge implements USBBridge{
 	 * @param ifc インターフェース番号 {@code bInterfaceNumber}
 	 * @throws USBException インターフェースの解放に失敗した場合
 	*/
-	public void release(DeviceImpl device, byte ifc) throws USBException{
+	public void release(final DeviceImpl device, final byte ifc) throws USBException{
+		if(! scheduler.isDispatchThread()){
+			scheduler.execute(device, new TransferScheduler.Operation<Object>(){
+				public Object execute() throws USBException{
+					release(device, ifc);
+					return null;
+				}
+			});
+			return;
+		}
 		long handle = (Long)device.getOpenedHandle();
 		int ret = LibUSB0.release_interface(handle, ifc);
 		LibUSB0.checkError(ret);
@@ -318,6 +407,9 @@ public class LibUSB0Bridge implements USBBridge{
 	 * @throws USBException コントロール転送に失敗した場合
 	*/
 	public int controlTransfer(DeviceImpl device, byte ifc, byte ept, ControlRequest request, int timeout) throws USBException{
+		if(! scheduler.isDispatchThread()){
+			return scheduler.controlTransfer(device, ifc, ept, request, timeout);
+		}
 		long handle = (Long)device.getOpenedHandle();
 		timeout = (timeout < 0)? (int)0xFFFFFFFFL: timeout;
 		int ret = LibUSB0.control_msg(
@@ -347,6 +439,9 @@ public class LibUSB0Bridge implements USBBridge{
 	*/
 	public int interruptTransfer(DeviceImpl device, byte ifc, byte ept,
 		byte[] buffer, int offset, int length, Direction inout, int timeout) throws USBException{
+		if(! scheduler.isDispatchThread()){
+			return scheduler.transfer(device, ifc, ept, TransferType.INTERRUPT, buffer, offset, length, inout, timeout);
+		}
 		long handle = (Long)device.getOpenedHandle();
 		timeout = (timeout < 0)? (int)0xFFFFFFFFL: timeout;
 		int ret = 0;
@@ -356,11 +451,6 @@ public class LibUSB0Bridge implements USBBridge{
 			ret = LibUSB0.interrupt_write(handle, ept & 0xFF, buffer, offset, length, timeout);
 		}
 		LibUSB0.checkError(ret);
-
-		// タイムアウトの場合は長さ 0 でリターンする
-		if(ret == 0){
-			throw new TimeoutException("operation timeout");
-		}
 		return ret;
 	}
 
@@ -383,6 +473,9 @@ public class LibUSB0Bridge implements USBBridge{
 	*/
 	public int bulkTransfer(DeviceImpl device, byte ifc, byte ept,
 		byte[] buffer, int offset, int length, Direction inout, int timeout) throws USBException{
+		if(! scheduler.isDispatchThread()){
+			return scheduler.transfer(device, ifc, ept, TransferType.BULK, buffer, offset, length, inout, timeout);
+		}
 		long handle = (Long)device.getOpenedHandle();
 		timeout = (timeout < 0)? (int)0xFFFFFFFFL: timeout;
 		int ret = 0;
@@ -392,11 +485,6 @@ public class LibUSB0Bridge implements USBBridge{
 			ret = LibUSB0.bulk_write(handle, ept & 0xFF, buffer, offset, length, timeout);
 		}
 		LibUSB0.checkError(ret);
-
-		// タイムアウトの場合は長さ 0 でリターンする
-		if(ret == 0){
-			throw new TimeoutException("operation timeout");
-		}
 		return ret;
 	}
 
@@ -416,6 +504,106 @@ public class LibUSB0Bridge implements USBBridge{
 		throw new NotImplementedException("isochronous transfer not supported in libusb 0.1");
 	}
 
+	// ======================================================================
+	// 割り込み転送の実行
+	// ======================================================================
+	/**
+	 * ダイレクトバッファを使用して割り込み転送を実行します。
+	 * <p>
+	 * @param device デバイス実装
+	 * @param ifc インターフェース番号 {@code bInterfaceNumber}
+	 * @param ept エンドポイントインデックス
+	 * @param buffer 入出力に使用するダイレクトバッファ
+	 * @param inout 入力/出力識別用
+	 * @param timeout 入出力タイムアウト (ミリ秒)
+	 * @return 実際に転送されたバイト数
+	 * @throws USBException 割り込み転送に失敗した場合
+	*/
+	public int interruptTransfer(DeviceImpl device, byte ifc, byte ept,
+		ByteBuffer buffer, Direction inout, int timeout) throws USBException{
+		if(! scheduler.isDispatchThread()){
+			return scheduler.transfer(device, ifc, ept, TransferType.INTERRUPT, buffer, inout, timeout);
+		}
+		long handle = (Long)device.getOpenedHandle();
+		timeout = (timeout < 0)? (int)0xFFFFFFFFL: timeout;
+		int ret = 0;
+		if(inout == Direction.IN){
+			ret = LibUSB0.interrupt_read_direct(handle, ept & 0xFF, buffer, buffer.position(), buffer.remaining(), timeout);
+		} else {
+			ret = LibUSB0.interrupt_write_direct(handle, ept & 0xFF, buffer, buffer.position(), buffer.remaining(), timeout);
+		}
+		LibUSB0.checkError(ret);
+		return ret;
+	}
+
+	// ======================================================================
+	// バルク転送の実行
+	// ======================================================================
+	/**
+	 * ダイレクトバッファを使用してバルク転送を実行します。
+	 * <p>
+	 * @param device デバイス実装
+	 * @param ifc インターフェース番号 {@code bInterfaceNumber}
+	 * @param ept エンドポイントインデックス
+	 * @param buffer 入出力に使用するダイレクトバッファ
+	 * @param inout 入力/出力識別用
+	 * @param timeout 入出力タイムアウト (ミリ秒)
+	 * @return 実際に転送されたバイト数
+	 * @throws USBException バルク転送に失敗した場合
+	*/
+	public int bulkTransfer(DeviceImpl device, byte ifc, byte ept,
+		ByteBuffer buffer, Direction inout, int timeout) throws USBException{
+		if(! scheduler.isDispatchThread()){
+			return scheduler.transfer(device, ifc, ept, TransferType.BULK, buffer, inout, timeout);
+		}
+		long handle = (Long)device.getOpenedHandle();
+		timeout = (timeout < 0)? (int)0xFFFFFFFFL: timeout;
+		int ret = 0;
+		if(inout == Direction.IN){
+			ret = LibUSB0.bulk_read_direct(handle, ept & 0xFF, buffer, buffer.position(), buffer.remaining(), timeout);
+		} else {
+			ret = LibUSB0.bulk_write_direct(handle, ept & 0xFF, buffer, buffer.position(), buffer.remaining(), timeout);
+		}
+		LibUSB0.checkError(ret);
+		return ret;
+	}
+
+	// ======================================================================
+	// 非同期転送の発行
+	// ======================================================================
+	/**
+	 * 非同期転送を発行します。libusb 0.1 は非同期転送をサポートしていないため、転送は
+	 * スケジューラーのディスパッチスレッドで同期転送として実行されます。同一エンドポイントの
+	 * 転送は 1 つずつ実行されるため、キュー深さを大きくしても転送の合間にバスが空きます。
+	 * <p>
+	 * @param device デバイス実装
+	 * @param ifc インターフェース番号 {@code bInterfaceNumber}
+	 * @param ept エンドポイントインデックス
+	 * @param transfer 発行する転送
+	 * @throws USBException 転送の発行に失敗した場合
+	*/
+	public void submit(DeviceImpl device, byte ifc, byte ept, AsyncTransferImpl transfer) throws USBException{
+		scheduler.submit(device, ifc, ept, transfer);
+		return;
+	}
+
+	// ======================================================================
+	// 非同期転送の中断
+	// ======================================================================
+	/**
+	 * 非同期転送を中断します。既にディスパッチスレッドで実行が開始されている転送は中断できません。
+	 * <p>
+	 * @param device デバイス実装
+	 * @param ifc インターフェース番号 {@code bInterfaceNumber}
+	 * @param ept エンドポイントインデックス
+	 * @param transfer 中断する転送
+	 * @return 転送を中断した場合 true
+	 * @throws USBException 転送の中断に失敗した場合
+	*/
+	public boolean abort(DeviceImpl device, byte ifc, byte ept, AsyncTransferImpl transfer) throws USBException{
+		return scheduler.abort(device, ept, transfer);
+	}
+
 	// ======================================================================
 	// エンドポイントのリセット
 	// ======================================================================
@@ -427,7 +615,16 @@ public class LibUSB0Bridge implements USBBridge{
 	 * @param ept エンドポイント番号
 	 * @throws USBException エンドポイントのリセットに失敗した場合
 	*/
-	public void clearHalt(DeviceImpl device, byte ifc, byte ept) throws USBException{
+	public void clearHalt(final DeviceImpl device, final byte ifc, final byte ept) throws USBException{
+		if(! scheduler.isDispatchThread()){
+			scheduler.execute(device, new TransferScheduler.Operation<Object>(){
+				public Object execute() throws USBException{
+					clearHalt(device, ifc, ept);
+					return null;
+				}
+			});
+			return;
+		}
 		long dev = (Long)device.getOpenedHandle();
 		int ret = LibUSB0.clear_halt(dev, ept & 0xFF);
 		LibUSB0.checkError(ret);
@@ -634,6 +831,19 @@ public class LibUSB0Bridge implements USBBridge{
 			this.dev = dev;
 			return;
 		}
+
+		// ==================================================================
+		// 位置の参照
+		// ==================================================================
+		/**
+		 * バスのディレクトリ名とデバイスのファイル名からこのデバイスの位置を参照します。
+		 * <p>
+		 * @return デバイスの位置
+		 */
+		@Override
+		protected String getLocation(){
+			return getBus().getName() + "/" + dev.filename;
+		}
 	}
 
 }
@@ -1550,6 +1550,97 @@ public final class OpenUSB extends USBLibrary{
 		return;
 	}
 
+	// ======================================================================
+	// 割り込み転送の実行
+	// ======================================================================
+	/**
+	 * ダイレクトバッファを使用して指定されたエンドポイントに対して割り込み転送を実行します。
+	 * バッファのアドレスはそのまま OpenUSB に渡されるため、ペイロード配列の確保やコピーは
+	 * 発生しません。
+	 * <p>
+	 * @param dev デバイスハンドル
+	 * @param ifc インターフェース番号
+	 * @param ept エンドポイント番号
+	 * @param buf 入出力に使用するダイレクトバッファ
+	 * @param offset バッファ先頭からのオフセット
+	 * @param length 入出力データ長
+	 * @param timeout タイムアウト (ミリ秒)
+	 * @param result 転送結果の格納先
+	 * @throws USBException 割り込み転送に失敗した場合
+	 */
+	public static void intr_xfer_direct(dev_handle_t dev, byte ifc, byte ept, ByteBuffer buf, int offset, int length, int timeout, request_result_t result) throws USBException{
+		dev.verifyAvailable();
+		verifyDirect(buf, offset, length);
+		int ret = _xfer_direct(TRANSFER_TYPE_INTERRUPT, dev.getReference(), ifc, ept, buf, offset, length, timeout, result);
+		checkException(ret);
+		return;
+	}
+
+	// ======================================================================
+	// バルク転送の実行
+	// ======================================================================
+	/**
+	 * ダイレクトバッファを使用して指定されたエンドポイントに対してバルク転送を実行します。
+	 * バッファのアドレスはそのまま OpenUSB に渡されるため、ペイロード配列の確保やコピーは
+	 * 発生しません。
+	 * <p>
+	 * @param dev デバイスハンドル
+	 * @param ifc インターフェース番号
+	 * @param ept エンドポイント番号
+	 * @param buf 入出力に使用するダイレクトバッファ
+	 * @param offset バッファ先頭からのオフセット
+	 * @param length 入出力データ長
+	 * @param timeout タイムアウト (ミリ秒)
+	 * @param result 転送結果の格納先
+	 * @throws USBException バルク転送に失敗した場合
+	 */
+	public static void bulk_xfer_direct(dev_handle_t dev, byte ifc, byte ept, ByteBuffer buf, int offset, int length, int timeout, request_result_t result) throws USBException{
+		dev.verifyAvailable();
+		verifyDirect(buf, offset, length);
+		int ret = _xfer_direct(TRANSFER_TYPE_BULK, dev.getReference(), ifc, ept, buf, offset, length, timeout, result);
+		checkException(ret);
+		return;
+	}
+
+	// ======================================================================
+	// ダイレクトバッファの確認
+	// ======================================================================
+	/**
+	 * 指定されたバッファがダイレクトバッファであり範囲が有効である事を確認します。
+	 * <p>
+	 * @param buf バッファ
+	 * @param offset オフセット
+	 * @param length 長さ
+	 */
+	private static void verifyDirect(ByteBuffer buf, int offset, int length){
+		if(! buf.isDirect()){
+			throw new IllegalArgumentException("not direct buffer");
+		}
+		if(offset < 0 || length < 0 || offset + length > buf.capacity()){
+			throw new IndexOutOfBoundsException("capacity=" + buf.capacity() + ",offset=" + offset + ",length=" + length);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// ダイレクトバッファ転送の実行
+	// ======================================================================
+	/**
+	 * ダイレクトバッファを使用した割り込みまたはバルク転送を同期実行します。
+	 * <p>
+	 * @param type 転送タイプ
+	 * @param dev デバイスハンドル
+	 * @param ifc インターフェース番号
+	 * @param ept エンドポイント番号
+	 * @param buf ダイレクトバッファ
+	 * @param offset オフセット
+	 * @param length 長さ
+	 * @param timeout タイムアウト (ミリ秒)
+	 * @param result 転送結果の格納先
+	 * @return 成功した場合 {@link #RET_SUCCESS}
+	 */
+	private static native int _xfer_direct(int type, long dev, byte ifc, byte ept, ByteBuffer buf, int offset, int length, int timeout, request_result_t result);
+
 	// ======================================================================
 	// 転送の実行
 	// ======================================================================
@@ -18,6 +18,7 @@ import org.koiroha.usb.desc.*;
 import org.koiroha.usb.event.IsocTransferEvent;
 import org.koiroha.usb.impl.*;
 import org.koiroha.usb.impl.openusb.OpenUSB.*;
+import org.koiroha.usb.util.BufferPool;
 
 // ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
 // OpenUSBBridge: OpenUSB ブリッジ
@@ -40,6 +41,17 @@ public class OpenUSBBridge implements USBBridge {
 	 */
 	private static final java.util.logging.Logger logger = java.util.logging.Logger.getLogger(OpenUSBBridge.class.getName());
 
+	// ======================================================================
+	// 転送スケジューラー
+	// ======================================================================
+	/**
+	 * 非同期転送を実行するスケジューラーです。OpenUSB は複数スレッドからの同時呼び出しを
+	 * サポートするため、複数のディスパッチスレッドで異なるエンドポイントの転送を並行して
+	 * 実行します。同一エンドポイントの転送は並行して実行されません。
+	 * <p>
+	 */
+	private final TransferScheduler scheduler = new TransferScheduler(this, 4, 0);
+
 	// ======================================================================
 	// スタティックイニシャライザ
 	// ======================================================================
@@ -131,6 +143,9 @@ public class OpenUSBBridge implements USBBridge {
 				OpenUSB.free_devid_list(((OUContext)session).devids);
 			}
 
+			// 列挙結果に含まれる通知済みの変化を破棄
+			((OUContext)session).clearEvents();
+
 			// デバイス一覧を取得
 			devid_array_ref devids = OpenUSB.get_devids_by_vendor(handle, -1, -1);
 			((OUContext)session).devids = devids;
@@ -139,22 +154,14 @@ public class OpenUSBBridge implements USBBridge {
 			for(int i=0; i<devids.value.length; i++){
 				long devid = devids.value[i];
 
-				// デバイスデータを取得
-				dev_data_ref ref = OpenUSB.get_device_data(handle, devid, 0);
-				dev_data_t data = ref.value;
-				OpenUSB.free_device_data(ref);
-
 				// デバイスを構築
-				DeviceDescriptor desc = data.dev_desc;
-				ByteBuffer[] confBinary = new ByteBuffer[desc.getNumConfigurations()];
-				confBinary[0] = ByteBuffer.wrap(data.raw_cfg_desc);
-				OUDevice device = new OUDevice(this, desc, confBinary, (OUContext)session, devid, data);
+				OUDevice device = build((OUContext)session, devid);
 				map.put(devid, device);
 
 				// バスを構築
-				long busid = data.busid;
+				long busid = device.data.busid;
 				if(! busMap.containsKey(busid)){
-					BusImpl b = new BusImpl(data.bus_path);
+					BusImpl b = new BusImpl(device.data.bus_path);
 					bus.add(b);
 					busMap.put(busid, b);
 				}
@@ -181,6 +188,49 @@ public class OpenUSBBridge implements USBBridge {
 		return bus;
 	}
 
+	// ======================================================================
+	// デバイスの構築
+	// ======================================================================
+	/**
+	 * 指定されたデバイス ID のデバイスデータを取得してデバイスを構築します。
+	 * <p>
+	 * @param session コンテキスト
+	 * @param devid デバイス ID
+	 * @return デバイス
+	 * @throws USBException デバイスデータの取得に失敗した場合
+	*/
+	private OUDevice build(OUContext session, long devid) throws USBException{
+		dev_data_ref ref = OpenUSB.get_device_data(session.handle, devid, 0);
+		dev_data_t data = ref.value;
+		OpenUSB.free_device_data(ref);
+		DeviceDescriptor desc = data.dev_desc;
+		ByteBuffer[] confBinary = new ByteBuffer[desc.getNumConfigurations()];
+		confBinary[0] = ByteBuffer.wrap(data.raw_cfg_desc);
+		return new OUDevice(this, desc, confBinary, session, devid, data);
+	}
+
+	// ======================================================================
+	// 取り付け/取り外しの監視
+	// ======================================================================
+	/**
+	 * {@link OpenUSB#set_event_callback(handle_t, int, event_callback_t, Object)} を使用
+	 * してデバイスの取り付け/取り外しのコールバックを設定または解除します。コールバックで
+	 * 通知されたデバイス ID はコンテキストに記録され、次の同期では変化したデバイスのみが
+	 * 反映されます。
+	 * <p>
+	 * @param session コンテキスト
+	 * @param enable 通知を開始する場合 true、終了する場合 false
+	 * @return 常に true
+	 * @throws USBException コールバックの設定に失敗した場合
+	*/
+	public boolean watch(USBContextImpl session, boolean enable) throws USBException{
+		handle_t handle = ((OUContext)session).handle;
+		event_callback_t callback = (enable)? HOTPLUG_CALLBACK: null;
+		OpenUSB.set_event_callback(handle, OpenUSB.EVENT_ATTACH, callback, session);
+		OpenUSB.set_event_callback(handle, OpenUSB.EVENT_REMOVE, callback, session);
+		return true;
+	}
+
 	// ======================================================================
 	// デバイスのオープン
 	// ======================================================================
@@ -317,24 +367,50 @@ public class OpenUSBBridge implements USBBridge {
 	*/
 	public int interruptTransfer(DeviceImpl device, byte ifc, byte ept,
 		byte[] buffer, int offset, int length, Direction inout, int timeout) throws USBException{
-		dev_handle_t handle = (dev_handle_t)device.getOpenedHandle();
+		ByteBuffer payload = BufferPool.getDefault().allocate(length);
+		try{
 
-		// 出力データのコピー
-		byte[] payload = new byte[length];
-		if(inout == Direction.OUT){
-			System.arraycopy(buffer, offset, payload, 0, length);
-		}
+			// 出力データのコピー
+			if(inout == Direction.OUT){
+				payload.put(buffer, offset, length);
+				payload.flip();
+			}
 
-		// 割り込み転送の実行
-		timeout = (timeout < 0)? (int)0xFFFFFFFFL: timeout;
-		intr_request_t intr = new intr_request_t(payload, timeout, 0, (short)0);
-		OpenUSB.intr_xfer(handle, ifc, ept, new intr_request_t[]{intr});
+			// 割り込み転送の実行
+			int len = interruptTransfer(device, ifc, ept, payload, inout, timeout);
 
-		// 入力データのコピー
-		if(inout == Direction.IN){
-			System.arraycopy(payload, 0, buffer, offset, intr.result.transferred_bytes);
+			// 入力データのコピー
+			if(inout == Direction.IN){
+				payload.get(buffer, offset, len);
+			}
+			return len;
+		} finally {
+			BufferPool.getDefault().release(payload);
 		}
-		return intr.result.transferred_bytes;
+	}
+
+	// ======================================================================
+	// 割り込み転送の実行
+	// ======================================================================
+	/**
+	 * ダイレクトバッファを使用して割り込み転送を実行します。
+	 * <p>
+	 * @param device デバイス実装
+	 * @param ifc インターフェース番号 {@code bInterfaceNumber}
+	 * @param ept エンドポイントインデックス
+	 * @param buffer 入出力に使用するダイレクトバッファ
+	 * @param inout 入力/出力識別用
+	 * @param timeout 入出力タイムアウト (ミリ秒)
+	 * @return 実際に転送されたバイト数
+	 * @throws USBException 割り込み転送に失敗した場合
+	*/
+	public int interruptTransfer(DeviceImpl device, byte ifc, byte ept,
+		ByteBuffer buffer, Direction inout, int timeout) throws USBException{
+		dev_handle_t handle = (dev_handle_t)device.getOpenedHandle();
+		timeout = (timeout < 0)? (int)0xFFFFFFFFL: timeout;
+		request_result_t result = new request_result_t();
+		OpenUSB.intr_xfer_direct(handle, ifc, ept, buffer, buffer.position(), buffer.remaining(), timeout, result);
+		return result.transferred_bytes;
 	}
 
 	// ======================================================================
@@ -356,24 +432,50 @@ public class OpenUSBBridge implements USBBridge {
 	*/
 	public int bulkTransfer(DeviceImpl device, byte ifc, byte ept,
 		byte[] buffer, int offset, int length, Direction inout, int timeout) throws USBException{
-		dev_handle_t handle = (dev_handle_t)device.getOpenedHandle();
+		ByteBuffer payload = BufferPool.getDefault().allocate(length);
+		try{
 
-		// 出力データのコピー
-		byte[] payload = new byte[length];
-		if(inout == Direction.OUT){
-			System.arraycopy(buffer, offset, payload, 0, length);
-		}
+			// 出力データのコピー
+			if(inout == Direction.OUT){
+				payload.put(buffer, offset, length);
+				payload.flip();
+			}
 
-		// バルク転送の実行
-		timeout = (timeout < 0)? (int)0xFFFFFFFFL: timeout;
-		bulk_request_t bulk = new bulk_request_t(payload, timeout, 0);
-		OpenUSB.bulk_xfer(handle, ifc, ept, new bulk_request_t[]{bulk});
+			// バルク転送の実行
+			int len = bulkTransfer(device, ifc, ept, payload, inout, timeout);
 
-		// 入力データのコピー
-		if(inout == Direction.IN){
-			System.arraycopy(payload, 0, buffer, offset, bulk.result.transferred_bytes);
+			// 入力データのコピー
+			if(inout == Direction.IN){
+				payload.get(buffer, offset, len);
+			}
+			return len;
+		} finally {
+			BufferPool.getDefault().release(payload);
 		}
-		return bulk.result.transferred_bytes;
+	}
+
+	// ======================================================================
+	// バルク転送の実行
+	// ======================================================================
+	/**
+	 * ダイレクトバッファを使用してバルク転送を実行します。
+	 * <p>
+	 * @param device デバイス実装
+	 * @param ifc インターフェース番号 {@code bInterfaceNumber}
+	 * @param ept エンドポイントインデックス
+	 * @param buffer 入出力に使用するダイレクトバッファ
+	 * @param inout 入力/出力識別用
+	 * @param timeout 入出力タイムアウト (ミリ秒)
+	 * @return 実際に転送されたバイト数
+	 * @throws USBException バルク転送に失敗した場合
+	*/
+	public int bulkTransfer(DeviceImpl device, byte ifc, byte ept,
+		ByteBuffer buffer, Direction inout, int timeout) throws USBException{
+		dev_handle_t handle = (dev_handle_t)device.getOpenedHandle();
+		timeout = (timeout < 0)? (int)0xFFFFFFFFL: timeout;
+		request_result_t result = new request_result_t();
+		OpenUSB.bulk_xfer_direct(handle, ifc, ept, buffer, buffer.position(), buffer.remaining(), timeout, result);
+		return result.transferred_bytes;
 	}
 
 	// ======================================================================
@@ -410,6 +512,48 @@ public class OpenUSBBridge implements USBBridge {
 		return;
 	}
 
+	// ======================================================================
+	// 非同期転送の発行
+	// ======================================================================
+	/**
+	 * 非同期転送を発行します。JNI 層の {@code xfer_aio()} はバルク転送と割り込み転送の
+	 * リクエストを構築しないため、転送はスケジューラーのディスパッチスレッドで同期転送として
+	 * 実行されます。
+	 * <p>
+	 * この実装はパイプライン転送を行いません。同一エンドポイントの転送は 1 つずつネイティブの
+	 * 同期呼び出しで実行され、前の転送が完了するまで次の転送はデバイスに発行されません。
+	 * {@link org.koiroha.usb.Endpoint#getQueueDepth() キュー深さ} は Java 側で待機できる転送の
+	 * 数を制限するだけであり、転送の合間にはバスが空きます。並行して実行されるのは異なる
+	 * エンドポイントの転送のみです。
+	 * <p>
+	 * @param device デバイス実装
+	 * @param ifc インターフェース番号 {@code bInterfaceNumber}
+	 * @param ept エンドポイントインデックス
+	 * @param transfer 発行する転送
+	 * @throws USBException 転送の発行に失敗した場合
+	*/
+	public void submit(DeviceImpl device, byte ifc, byte ept, AsyncTransferImpl transfer) throws USBException{
+		scheduler.submit(device, ifc, ept, transfer);
+		return;
+	}
+
+	// ======================================================================
+	// 非同期転送の中断
+	// ======================================================================
+	/**
+	 * 非同期転送を中断します。既にディスパッチスレッドで実行が開始されている転送は中断できません。
+	 * <p>
+	 * @param device デバイス実装
+	 * @param ifc インターフェース番号 {@code bInterfaceNumber}
+	 * @param ept エンドポイントインデックス
+	 * @param transfer 中断する転送
+	 * @return 転送を中断した場合 true
+	 * @throws USBException 転送の中断に失敗した場合
+	*/
+	public boolean abort(DeviceImpl device, byte ifc, byte ept, AsyncTransferImpl transfer) throws USBException{
+		return scheduler.abort(device, ept, transfer);
+	}
+
 	// ======================================================================
 	// エンドポイントのリセット
 	// ======================================================================
@@ -455,6 +599,25 @@ public class OpenUSBBridge implements USBBridge {
 		return controlTransfer(device, (byte)0, (byte)0, request, 1000);
 	}
 
+	// ======================================================================
+	// 取り付け/取り外しコールバック
+	// ======================================================================
+	/**
+	 * デバイスの取り付け/取り外しをコールバック引数のコンテキストに記録して通知するコール
+	 * バックです。ライブラリのコールバックスレッドではデバイスデータを取得せず、デバイスの
+	 * 構築は同期を行うスレッドで行います。
+	 * <p>
+	 */
+	private static final event_callback_t HOTPLUG_CALLBACK = new event_callback_t(){
+		public void callback(long handle, long devid, int event, Object arg){
+			OpenUSB.trace("hotplug event %d: devid=%X", event, devid);
+			OUContext session = (OUContext)arg;
+			session.addEvent(event, devid);
+			session.hotplugDetected();
+			return;
+		}
+	};
+
 	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
 	// OUContext: コンテキスト
 	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
@@ -482,6 +645,15 @@ public class OpenUSBBridge implements USBBridge {
 		 */
 		private devid_array_ref devids = null;
 
+		// ==================================================================
+		// 通知された変化
+		// ==================================================================
+		/**
+		 * コールバックで通知されたイベント種別とデバイス ID です。
+		 * <p>
+		 */
+		private final LinkedList<long[]> events = new LinkedList<long[]>();
+
 		// ==================================================================
 		// コンストラクタ
 		// ==================================================================
@@ -508,6 +680,100 @@ public class OpenUSBBridge implements USBBridge {
 			return handle;
 		}
 
+		// ==================================================================
+		// 変化の記録
+		// ==================================================================
+		/**
+		 * コールバックで通知された取り付け/取り外しを記録します。
+		 * <p>
+		 * @param event イベント種別
+		 * @param devid デバイス ID
+		 */
+		public void addEvent(int event, long devid){
+			synchronized(events){
+				events.addLast(new long[]{ event, devid });
+			}
+			return;
+		}
+
+		// ==================================================================
+		// 変化の破棄
+		// ==================================================================
+		/**
+		 * 記録している変化を全て破棄します。
+		 * <p>
+		 */
+		public void clearEvents(){
+			synchronized(events){
+				events.clear();
+			}
+			return;
+		}
+
+		// ==================================================================
+		// 通知された変化の反映
+		// ==================================================================
+		/**
+		 * 記録している取り付け/取り外しのデバイスのみを構築または解放します。接続先のハブが
+		 * 見つからない場合は完全な同期を要求します。
+		 * <p>
+		 * @return 変化を反映した場合 true
+		 * @throws USBException デバイスデータの取得に失敗した場合
+		 */
+		@Override
+		protected boolean update() throws USBException{
+			while(true){
+				long[] e = null;
+				synchronized(events){
+					e = events.poll();
+				}
+				if(e == null){
+					break;
+				}
+				long devid = e[1];
+				if(e[0] == OpenUSB.EVENT_ATTACH){
+					OUDevice device = build(this, devid);
+					OUDevice parent = null;
+					if(device.data.pdevid != 0){
+						parent = findDevice(device.data.pdevid);
+						if(parent == null){
+							return false;
+						}
+					} else {
+						getBus(device.data.bus_path).connect(device);
+					}
+					if(! attach(device, parent)){
+						return false;
+					}
+				} else if(e[0] == OpenUSB.EVENT_REMOVE){
+					OUDevice device = findDevice(devid);
+					if(device != null){
+						detach(device);
+					}
+				}
+			}
+			return true;
+		}
+
+		// ==================================================================
+		// デバイスの検索
+		// ==================================================================
+		/**
+		 * 指定されたデバイス ID のデバイスをこのコンテキストから検索します。
+		 * <p>
+		 * @param devid デバイス ID
+		 * @return デバイス (存在しない場合は null)
+		 * @throws USBException デバイスの検索に失敗した場合
+		 */
+		private OUDevice findDevice(long devid) throws USBException{
+			for(Device d: lookup()){
+				if(((OUDevice)d).devid == devid){
+					return (OUDevice)d;
+				}
+			}
+			return null;
+		}
+
 	}
 
 	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
@@ -548,6 +814,19 @@ public class OpenUSBBridge implements USBBridge {
 			return;
 		}
 
+		// ==================================================================
+		// 位置の参照
+		// ==================================================================
+		/**
+		 * バスのパスとデバイス ID からこのデバイスの位置を参照します。
+		 * <p>
+		 * @return デバイスの位置
+		 */
+		@Override
+		protected String getLocation(){
+			return data.bus_path + "/" + Long.toHexString(devid);
+		}
+
 	}
 
 }
@@ -0,0 +1,770 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.impl.sim;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.koiroha.usb.*;
+import org.koiroha.usb.desc.*;
+import org.koiroha.usb.event.IsocTransferEvent;
+import org.koiroha.usb.impl.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// SimulatedBridge: 模擬ブリッジ
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * ネイティブライブラリや実デバイスを使用せずに {@link SimulatedDevice} を操作する Pure Java
+ * のブリッジ実装です。取り付けられたデバイスは 1 つのバス {@code "sim"} に接続され、取り付け
+ * 順にアドレスが割り当てられます。
+ * <p>
+ * バルク転送と割り込み転送は呼び出しスレッドで {@link SimulatedEndpoint} に設定された応答時間と
+ * 帯域で実行されます。非同期転送は {@link TransferScheduler} を使用して実行されます。デバイスの
+ * 取り付け/取り外しは監視中のコンテキストへ即座に通知され、監視中の同期では変化したデバイス
+ * のみが反映されます。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ * @see SimulatedService
+ */
+public class SimulatedBridge implements USBBridge {
+
+	// ======================================================================
+	// バス名
+	// ======================================================================
+	/**
+	 * 模擬デバイスを接続するバスの名前 {@value} です。
+	 * <p>
+	 */
+	public static final String BUS_NAME = "sim";
+
+	// ======================================================================
+	// タイムスライス
+	// ======================================================================
+	/**
+	 * 非同期転送のタイムスライス (ミリ秒) です。
+	 * <p>
+	 */
+	private static final int SLICE = 50;
+
+	// ======================================================================
+	// デフォルトブリッジ
+	// ======================================================================
+	/**
+	 * {@link SimulatedService} のデフォルトコンストラクタが使用するブリッジです。
+	 * <p>
+	 */
+	private static final SimulatedBridge DEFAULT = new SimulatedBridge();
+
+	// ======================================================================
+	// 取り付けられたデバイス
+	// ======================================================================
+	/**
+	 * アドレスをキーとした取り付け済みのデバイスです。
+	 * <p>
+	 */
+	private final Map<Integer,SimulatedDevice> attached = new TreeMap<Integer,SimulatedDevice>();
+
+	// ======================================================================
+	// 次のアドレス
+	// ======================================================================
+	/**
+	 * 次に取り付けられるデバイスに割り当てるアドレスです。
+	 * <p>
+	 */
+	private int nextAddress = 1;
+
+	// ======================================================================
+	// 監視中のコンテキスト
+	// ======================================================================
+	/**
+	 * 取り付け/取り外しを通知するコンテキストです。
+	 * <p>
+	 */
+	private final List<USBContextImpl> watching = new ArrayList<USBContextImpl>();
+
+	// ======================================================================
+	// スケジューラー
+	// ======================================================================
+	/**
+	 * 非同期転送を実行するスケジューラーです。
+	 * <p>
+	 */
+	private final TransferScheduler scheduler = new TransferScheduler(this, 1, SLICE);
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * デバイスが取り付けられていないブリッジを構築します。
+	 * <p>
+	 */
+	public SimulatedBridge() {
+		return;
+	}
+
+	// ======================================================================
+	// デフォルトブリッジの参照
+	// ======================================================================
+	/**
+	 * {@link SimulatedService} のデフォルトコンストラクタが使用する共有のブリッジを参照します。
+	 * <p>
+	 * @return デフォルトブリッジ
+	 */
+	public static SimulatedBridge getDefault(){
+		return DEFAULT;
+	}
+
+	// ======================================================================
+	// デバイスの取り付け
+	// ======================================================================
+	/**
+	 * 指定されたデバイスを取り付けます。
+	 * <p>
+	 * @param device 取り付けるデバイス
+	 * @return 割り当てたアドレス
+	 * @throws IllegalStateException デバイスが既に取り付けられている場合
+	 */
+	public int attach(SimulatedDevice device){
+		int address;
+		synchronized(attached){
+			if(attached.containsValue(device)){
+				throw new IllegalStateException("device already attached");
+			}
+			address = nextAddress ++;
+			attached.put(address, device);
+		}
+		hotplug(address, device);
+		return address;
+	}
+
+	// ======================================================================
+	// デバイスの取り外し
+	// ======================================================================
+	/**
+	 * 指定されたデバイスを取り外します。取り付けられていない場合は何も行いません。
+	 * <p>
+	 * @param device 取り外すデバイス
+	 */
+	public void detach(SimulatedDevice device){
+		int address = 0;
+		synchronized(attached){
+			Iterator<Map.Entry<Integer,SimulatedDevice>> it = attached.entrySet().iterator();
+			while(it.hasNext()){
+				Map.Entry<Integer,SimulatedDevice> e = it.next();
+				if(e.getValue() == device){
+					address = e.getKey();
+					it.remove();
+				}
+			}
+		}
+		if(address != 0){
+			hotplug(address, null);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// デバイスの参照
+	// ======================================================================
+	/**
+	 * 取り付けられているデバイスを取り付け順に参照します。
+	 * <p>
+	 * @return デバイスのリスト
+	 */
+	public List<SimulatedDevice> getDevices(){
+		synchronized(attached){
+			return new ArrayList<SimulatedDevice>(attached.values());
+		}
+	}
+
+	// ======================================================================
+	// ライブラリ名の参照
+	// ======================================================================
+	/**
+	 * ライブラリ名を参照します。
+	 * <p>
+	 * @return ライブラリ名
+	 */
+	public String getLibraryName(){
+		return "simulator";
+	}
+
+	// ======================================================================
+	// コンテキストの構築
+	// ======================================================================
+	/**
+	 * コンテキストを構築します。
+	 * <p>
+	 * @return コンテキスト
+	 */
+	public USBContextImpl create(){
+		return new SimContext();
+	}
+
+	// ======================================================================
+	// コンテキストの解放
+	// ======================================================================
+	/**
+	 * 取り付け/取り外しの通知対象からコンテキストを除外します。
+	 * <p>
+	 * @param session コンテキスト
+	 */
+	public void release(USBContextImpl session){
+		watch(session, false);
+		return;
+	}
+
+	// ======================================================================
+	// デバイスの検索
+	// ======================================================================
+	/**
+	 * 取り付けられているデバイスの記述子を構築し、それらを接続したバスを返します。
+	 * <p>
+	 * @param session コンテキスト
+	 * @return バスのリスト
+	 */
+	public List<BusImpl> find(USBContextImpl session){
+		BusImpl bus = new BusImpl(BUS_NAME);
+		synchronized(attached){
+
+			// 列挙結果に含まれる通知済みの変化を破棄
+			if(session instanceof SimContext){
+				((SimContext)session).clearChanges();
+			}
+			for(Map.Entry<Integer,SimulatedDevice> e: attached.entrySet()){
+				bus.connect(build(e.getValue(), e.getKey()));
+			}
+		}
+		List<BusImpl> list = new ArrayList<BusImpl>();
+		list.add(bus);
+		return list;
+	}
+
+	// ======================================================================
+	// デバイスの構築
+	// ======================================================================
+	/**
+	 * 指定された模擬デバイスの記述子を構築してデバイス実装を構築します。
+	 * <p>
+	 * @param model 模擬デバイス
+	 * @param address デバイスアドレス
+	 * @return デバイス実装
+	 */
+	private AttachedDevice build(SimulatedDevice model, int address){
+		DeviceDescriptor desc = new DeviceDescriptor(ByteBuffer.wrap(model.getDeviceDescriptor()));
+		ByteBuffer[] conf = { ByteBuffer.wrap(model.getConfigurationDescriptor()) };
+		return new AttachedDevice(this, desc, conf, model, address);
+	}
+
+	// ======================================================================
+	// 取り付け/取り外し通知の設定
+	// ======================================================================
+	/**
+	 * 取り付け/取り外しの通知を開始または終了します。
+	 * <p>
+	 * @param session コンテキスト
+	 * @param enable 通知を開始する場合 true
+	 * @return 常に true
+	 */
+	public boolean watch(USBContextImpl session, boolean enable){
+		synchronized(watching){
+			if(enable){
+				if(! watching.contains(session)){
+					watching.add(session);
+				}
+			} else {
+				watching.remove(session);
+			}
+		}
+		return true;
+	}
+
+	// ======================================================================
+	// デバイスの解放
+	// ======================================================================
+	/**
+	 * 何も行いません。
+	 * <p>
+	 * @param device デバイス
+	 */
+	public void release(DeviceImpl device){
+		return;
+	}
+
+	// ======================================================================
+	// デバイスのオープン
+	// ======================================================================
+	/**
+	 * デバイスが取り付けられていればモデルをデバイスハンドルとして返します。
+	 * <p>
+	 * @param device デバイス
+	 * @return デバイスハンドル
+	 * @throws USBException デバイスが取り外されている場合
+	 */
+	public Object open(DeviceImpl device) throws USBException{
+		return getModel(device);
+	}
+
+	// ======================================================================
+	// デバイスのクローズ
+	// ======================================================================
+	/**
+	 * 何も行いません。
+	 * <p>
+	 * @param device デバイス
+	 */
+	public void close(DeviceImpl device){
+		return;
+	}
+
+	// ======================================================================
+	// デバイスのリセット
+	// ======================================================================
+	/**
+	 * デバイスの全てのエンドポイントを初期状態に戻します。
+	 * <p>
+	 * @param device デバイス
+	 * @throws USBException デバイスが取り外されている場合
+	 */
+	public void reset(DeviceImpl device) throws USBException{
+		getModel(device).reset();
+		return;
+	}
+
+	// ======================================================================
+	// インターフェースの要求
+	// ======================================================================
+	/**
+	 * 何も行いません。
+	 * <p>
+	 * @param device デバイス
+	 * @param ifc インターフェース番号
+	 */
+	public void claim(DeviceImpl device, byte ifc){
+		return;
+	}
+
+	// ======================================================================
+	// インターフェースの解放
+	// ======================================================================
+	/**
+	 * 何も行いません。
+	 * <p>
+	 * @param device デバイス
+	 * @param ifc インターフェース番号
+	 */
+	public void release(DeviceImpl device, byte ifc){
+		return;
+	}
+
+	// ======================================================================
+	// コントロール転送
+	// ======================================================================
+	/**
+	 * デバイスリクエストとしてコントロール転送を実行します。
+	 * <p>
+	 * @param device デバイス
+	 * @param ifc インターフェース番号
+	 * @param ept エンドポイント番号
+	 * @param request リクエスト
+	 * @param timeout タイムアウト
+	 * @return 転送バイト数
+	 * @throws USBException 未サポートのリクエストの場合
+	 */
+	public int controlTransfer(DeviceImpl device, byte ifc, byte ept, ControlRequest request, int timeout) throws USBException{
+		return deviceRequest(device, request);
+	}
+
+	// ======================================================================
+	// 割り込み転送
+	// ======================================================================
+	/**
+	 * 割り込み転送を実行します。
+	 * <p>
+	 * @param device デバイス
+	 * @param ifc インターフェース番号
+	 * @param ept エンドポイント番号
+	 * @param buffer バッファ
+	 * @param offset バッファ内の開始位置
+	 * @param length 転送サイズ
+	 * @param inout 転送方向
+	 * @param timeout タイムアウト
+	 * @return 転送バイト数
+	 * @throws USBException 転送に失敗した場合
+	 */
+	public int interruptTransfer(DeviceImpl device, byte ifc, byte ept,
+		byte[] buffer, int offset, int length, Direction inout, int timeout) throws USBException{
+		return getEndpoint(device, ept, inout).transfer(buffer, offset, length, timeout);
+	}
+
+	// ======================================================================
+	// バルク転送
+	// ======================================================================
+	/**
+	 * バルク転送を実行します。
+	 * <p>
+	 * @param device デバイス
+	 * @param ifc インターフェース番号
+	 * @param ept エンドポイント番号
+	 * @param buffer バッファ
+	 * @param offset バッファ内の開始位置
+	 * @param length 転送サイズ
+	 * @param inout 転送方向
+	 * @param timeout タイムアウト
+	 * @return 転送バイト数
+	 * @throws USBException 転送に失敗した場合
+	 */
+	public int bulkTransfer(DeviceImpl device, byte ifc, byte ept,
+		byte[] buffer, int offset, int length, Direction inout, int timeout) throws USBException{
+		return getEndpoint(device, ept, inout).transfer(buffer, offset, length, timeout);
+	}
+
+	// ======================================================================
+	// 割り込み転送
+	// ======================================================================
+	/**
+	 * 配列を経由して割り込み転送を実行します。
+	 * <p>
+	 * @param device デバイス
+	 * @param ifc インターフェース番号
+	 * @param ept エンドポイント番号
+	 * @param buffer バッファ
+	 * @param inout 転送方向
+	 * @param timeout タイムアウト
+	 * @return 転送バイト数
+	 * @throws USBException 転送に失敗した場合
+	 */
+	public int interruptTransfer(DeviceImpl device, byte ifc, byte ept,
+		ByteBuffer buffer, Direction inout, int timeout) throws USBException{
+		return transfer(getEndpoint(device, ept, inout), buffer, timeout);
+	}
+
+	// ======================================================================
+	// バルク転送
+	// ======================================================================
+	/**
+	 * 配列を経由してバルク転送を実行します。
+	 * <p>
+	 * @param device デバイス
+	 * @param ifc インターフェース番号
+	 * @param ept エンドポイント番号
+	 * @param buffer バッファ
+	 * @param inout 転送方向
+	 * @param timeout タイムアウト
+	 * @return 転送バイト数
+	 * @throws USBException 転送に失敗した場合
+	 */
+	public int bulkTransfer(DeviceImpl device, byte ifc, byte ept,
+		ByteBuffer buffer, Direction inout, int timeout) throws USBException{
+		return transfer(getEndpoint(device, ept, inout), buffer, timeout);
+	}
+
+	// ======================================================================
+	// 非同期転送の発行
+	// ======================================================================
+	/**
+	 * 非同期転送をスケジューラーに発行します。
+	 * <p>
+	 * @param device デバイス
+	 * @param ifc インターフェース番号
+	 * @param ept エンドポイント番号
+	 * @param transfer 転送
+	 */
+	public void submit(DeviceImpl device, byte ifc, byte ept, AsyncTransferImpl transfer){
+		scheduler.submit(device, ifc, ept, transfer);
+		return;
+	}
+
+	// ======================================================================
+	// 非同期転送の中断
+	// ======================================================================
+	/**
+	 * 実行待ちの非同期転送を中断します。
+	 * <p>
+	 * @param device デバイス
+	 * @param ifc インターフェース番号
+	 * @param ept エンドポイント番号
+	 * @param transfer 転送
+	 * @return 中断した場合 true
+	 */
+	public boolean abort(DeviceImpl device, byte ifc, byte ept, AsyncTransferImpl transfer){
+		return scheduler.abort(device, ept, transfer);
+	}
+
+	// ======================================================================
+	// 等時間隔転送
+	// ======================================================================
+	/**
+	 * 等時間隔転送を実行します。
+	 * <p>
+	 * @param device デバイス
+	 * @param ifc インターフェース番号
+	 * @param ept エンドポイント番号
+	 * @param event イベント
+	 * @throws USBException 転送に失敗した場合
+	 */
+	public void isochronousTransfer(DeviceImpl device, byte ifc, byte ept, IsocTransferEvent event) throws USBException{
+		SimulatedDevice model = getModel(device);
+		SimulatedEndpoint e = model.getEndpoint((ept & 0x0F) | 0x80);
+		if(e == null || e.getTransferType() != TransferType.ISOCHRONOUS){
+			e = getEndpoint(device, ept, Direction.OUT);
+		}
+		e.isochronousTransfer(event);
+		return;
+	}
+
+	// ======================================================================
+	// ストールの解除
+	// ======================================================================
+	/**
+	 * 指定された番号を持つエンドポイントのストールを解除します。
+	 * <p>
+	 * @param device デバイス
+	 * @param ifc インターフェース番号
+	 * @param ept エンドポイント番号
+	 * @throws USBException デバイスが取り外されている場合
+	 */
+	public void clearHalt(DeviceImpl device, byte ifc, byte ept) throws USBException{
+		SimulatedDevice model = getModel(device);
+		for(int address: new int[]{ ept & 0x0F, (ept & 0x0F) | 0x80 }){
+			SimulatedEndpoint e = model.getEndpoint(address);
+			if(e != null){
+				e.clearHalt();
+			}
+		}
+		return;
+	}
+
+	// ======================================================================
+	// デバイスリクエスト
+	// ======================================================================
+	/**
+	 * 標準デバイスリクエストを実行します。
+	 * <p>
+	 * @param device デバイス
+	 * @param request リクエスト
+	 * @return 転送バイト数
+	 * @throws USBException 未サポートのリクエストの場合
+	 */
+	public int deviceRequest(DeviceImpl device, ControlRequest request) throws USBException{
+		return getModel(device).deviceRequest(request);
+	}
+
+	// ======================================================================
+	// モデルの参照
+	// ======================================================================
+	/**
+	 * 指定されたデバイスに対応する模擬デバイスを参照します。
+	 * <p>
+	 * @param device デバイス
+	 * @return 模擬デバイス
+	 * @throws USBException デバイスが取り外されている場合
+	 */
+	private SimulatedDevice getModel(DeviceImpl device) throws USBException{
+		AttachedDevice d = (AttachedDevice)device;
+		synchronized(attached){
+			if(attached.get(d.address) != d.model){
+				throw new USBException("device detached: " + device);
+			}
+		}
+		return d.model;
+	}
+
+	// ======================================================================
+	// エンドポイントの参照
+	// ======================================================================
+	/**
+	 * 指定されたエンドポイント番号と転送方向を持つエンドポイントを参照します。
+	 * <p>
+	 * @param device デバイス
+	 * @param ept エンドポイント番号
+	 * @param inout 転送方向
+	 * @return エンドポイント
+	 * @throws USBException エンドポイントが存在しない場合
+	 */
+	private SimulatedEndpoint getEndpoint(DeviceImpl device, byte ept, Direction inout) throws USBException{
+		int address = (ept & 0x0F) | (inout == Direction.IN? 0x80: 0x00);
+		SimulatedEndpoint e = getModel(device).getEndpoint(address);
+		if(e == null){
+			throw new USBException(String.format("endpoint 0x%02X not found", address));
+		}
+		return e;
+	}
+
+	// ======================================================================
+	// バッファを使用した転送
+	// ======================================================================
+	/**
+	 * 配列を経由して指定されたバッファの残りを転送します。バッファの位置は変更しません。
+	 * <p>
+	 * @param e エンドポイント
+	 * @param buffer バッファ
+	 * @param timeout タイムアウト
+	 * @return 転送バイト数
+	 * @throws USBException 転送に失敗した場合
+	 */
+	private static int transfer(SimulatedEndpoint e, ByteBuffer buffer, int timeout) throws USBException{
+		byte[] array = new byte[buffer.remaining()];
+		if(e.getDirection() == Direction.OUT){
+			buffer.duplicate().get(array);
+		}
+		int len = e.transfer(array, 0, array.length, timeout);
+		if(e.getDirection() == Direction.IN){
+			buffer.duplicate().put(array, 0, len);
+		}
+		return len;
+	}
+
+	// ======================================================================
+	// 取り付け/取り外しの通知
+	// ======================================================================
+	/**
+	 * 監視中のコンテキストに取り付け/取り外しを記録して通知します。
+	 * <p>
+	 * @param address 変化したデバイスのアドレス
+	 * @param model 取り付けられた模擬デバイス (取り外しの場合は null)
+	 */
+	private void hotplug(int address, SimulatedDevice model){
+		List<USBContextImpl> list;
+		synchronized(watching){
+			list = new ArrayList<USBContextImpl>(watching);
+		}
+		for(USBContextImpl session: list){
+			if(session instanceof SimContext){
+				((SimContext)session).addChange(address, model);
+			}
+			session.hotplugDetected();
+		}
+		return;
+	}
+
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	// SimContext: 模擬コンテキスト
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	/**
+	 * 通知した取り付け/取り外しを記録し、監視中の同期で変化したデバイスのみを反映する
+	 * コンテキストです。
+	 * <p>
+	 */
+	private class SimContext extends USBContextImpl{
+
+		/** 通知したアドレスと取り付けられた模擬デバイス (取り外しの場合は null) です。 */
+		private final LinkedList<Object[]> changes = new LinkedList<Object[]>();
+
+		/**
+		 * コンテキストを構築します。
+		 * <p>
+		 */
+		public SimContext(){
+			super(SimulatedBridge.this);
+			return;
+		}
+
+		/**
+		 * 取り付け/取り外しを記録します。
+		 * <p>
+		 * @param address デバイスアドレス
+		 * @param model 取り付けられた模擬デバイス (取り外しの場合は null)
+		 */
+		public void addChange(int address, SimulatedDevice model){
+			synchronized(changes){
+				changes.addLast(new Object[]{ address, model });
+			}
+			return;
+		}
+
+		/**
+		 * 記録している変化を全て破棄します。
+		 * <p>
+		 */
+		public void clearChanges(){
+			synchronized(changes){
+				changes.clear();
+			}
+			return;
+		}
+
+		/**
+		 * 記録している取り付け/取り外しのデバイスのみを構築または解放します。
+		 * <p>
+		 * @return 常に true
+		 * @throws USBException デバイスの解放に失敗した場合
+		 */
+		@Override
+		protected boolean update() throws USBException{
+			while(true){
+				Object[] c = null;
+				synchronized(changes){
+					c = changes.poll();
+				}
+				if(c == null){
+					break;
+				}
+				int address = (Integer)c[0];
+				SimulatedDevice model = (SimulatedDevice)c[1];
+				if(model != null){
+					AttachedDevice device = build(model, address);
+					getBus(BUS_NAME).connect(device);
+					attach(device, null);
+				} else {
+					for(Device d: lookup()){
+						if(((AttachedDevice)d).address == address){
+							detach((DeviceImpl)d);
+							break;
+						}
+					}
+				}
+			}
+			return true;
+		}
+	}
+
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	// AttachedDevice: 模擬デバイス実装
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	/**
+	 * 模擬デバイスとアドレスを保持するデバイス実装です。
+	 * <p>
+	 */
+	private static class AttachedDevice extends DeviceImpl{
+
+		/** 模擬デバイスです。 */
+		private final SimulatedDevice model;
+
+		/** デバイスアドレスです。 */
+		private final int address;
+
+		/**
+		 * @param bridge ブリッジ
+		 * @param desc デバイス記述子
+		 * @param conf コンフィギュレーション記述子
+		 * @param model 模擬デバイス
+		 * @param address デバイスアドレス
+		 */
+		public AttachedDevice(USBBridge bridge, DeviceDescriptor desc, ByteBuffer[] conf, SimulatedDevice model, int address){
+			super(bridge, desc, conf);
+			this.model = model;
+			this.address = address;
+			return;
+		}
+
+		/**
+		 * @return デバイスの位置
+		 */
+		@Override
+		protected String getLocation(){
+			return getBus().getName() + "/" + address;
+		}
+	}
+
+}
@@ -0,0 +1,552 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.impl.sim;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+
+import org.koiroha.usb.*;
+import org.koiroha.usb.desc.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// SimulatedDevice: 模擬デバイス
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * {@link SimulatedBridge} に取り付ける USB デバイスのモデルです。デバイス記述子の内容、
+ * 文字列記述子、1 つのコンフィギュレーションに含まれるインターフェースとエンドポイントを
+ * 設定できます。記述子のバイナリは設定内容から構築され、標準デバイスリクエストに応答します。
+ * <p>
+ * {@code GET_STATUS} でエンドポイントのストール状態を参照でき、{@code SET_FEATURE
+ * (ENDPOINT_HALT)} と {@code CLEAR_FEATURE (ENDPOINT_HALT)} でストールを設定/解除できます。未サポートのリクエストはストールとして例外に
+ * なります。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ * @see SimulatedBridge#attach(SimulatedDevice)
+ */
+public class SimulatedDevice {
+
+	// ======================================================================
+	// 最大パケットサイズ
+	// ======================================================================
+	/**
+	 * エンドポイント 0 の最大パケットサイズ {@value} です。
+	 * <p>
+	 */
+	public static final int MAX_PACKET_SIZE0 = 64;
+
+	// ======================================================================
+	// ベンダー ID
+	// ======================================================================
+	/**
+	 * このデバイスのベンダー ID です。
+	 * <p>
+	 */
+	private final int vendorId;
+
+	// ======================================================================
+	// 製品 ID
+	// ======================================================================
+	/**
+	 * このデバイスの製品 ID です。
+	 * <p>
+	 */
+	private final int productId;
+
+	// ======================================================================
+	// デバイスリリース番号
+	// ======================================================================
+	/**
+	 * このデバイスのリリース番号 (BCD) です。
+	 * <p>
+	 */
+	private int release = 0x0100;
+
+	// ======================================================================
+	// デバイスクラス
+	// ======================================================================
+	/**
+	 * デバイスクラス、サブクラス、プロトコルです。
+	 * <p>
+	 */
+	private final int[] deviceClass = { 0, 0, 0 };
+
+	// ======================================================================
+	// 文字列
+	// ======================================================================
+	/**
+	 * メーカー、製品、シリアル番号の文字列です。インデックス 1 から 3 の文字列記述子として
+	 * 返されます。
+	 * <p>
+	 */
+	private final String[] strings = new String[3];
+
+	// ======================================================================
+	// インターフェース
+	// ======================================================================
+	/**
+	 * インターフェースのクラス、サブクラス、プロトコルです。リストのインデックスがインター
+	 * フェース番号です。
+	 * <p>
+	 */
+	private final List<int[]> interfaces = new ArrayList<int[]>();
+
+	// ======================================================================
+	// エンドポイント
+	// ======================================================================
+	/**
+	 * インターフェース番号ごとのエンドポイントです。
+	 * <p>
+	 */
+	private final List<List<SimulatedEndpoint>> endpoints = new ArrayList<List<SimulatedEndpoint>>();
+
+	// ======================================================================
+	// コントロール転送の応答時間
+	// ======================================================================
+	/**
+	 * デバイスリクエストの応答時間 (マイクロ秒) です。
+	 * <p>
+	 */
+	private volatile long controlLatency = 0;
+
+	// ======================================================================
+	// 現在のコンフィギュレーション
+	// ======================================================================
+	/**
+	 * {@code SET_CONFIGURATION} で設定されたコンフィギュレーション値です。
+	 * <p>
+	 */
+	private volatile int configuration = 1;
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * ベンダー ID と製品 ID を指定して構築を行います。インターフェースを持たないデバイスと
+	 * なります。
+	 * <p>
+	 * @param vendorId ベンダー ID
+	 * @param productId 製品 ID
+	 */
+	public SimulatedDevice(int vendorId, int productId) {
+		this.vendorId = vendorId & 0xFFFF;
+		this.productId = productId & 0xFFFF;
+		return;
+	}
+
+	// ======================================================================
+	// ループバックデバイスの構築
+	// ======================================================================
+	/**
+	 * ベンダー固有クラスのインターフェースを 1 つ持つループバックデバイスを構築します。
+	 * インターフェースは以下のエンドポイントを持ちます。
+	 * <p>
+	 * <table border="1">
+	 * <tr><th>アドレス</th><th>タイプ</th><th>内容</th></tr>
+	 * <tr><td>0x01</td><td>BULK OUT (512)</td><td>0x81 へのループバック</td></tr>
+	 * <tr><td>0x81</td><td>BULK IN (512)</td><td>0x01 に書き込まれたデータ</td></tr>
+	 * <tr><td>0x02</td><td>BULK OUT (512)</td><td>データを破棄</td></tr>
+	 * <tr><td>0x82</td><td>BULK IN (512)</td><td>データを生成</td></tr>
+	 * <tr><td>0x83</td><td>INTERRUPT IN (8)</td><td>データを生成</td></tr>
+	 * <tr><td>0x84</td><td>ISOCHRONOUS IN (192)</td><td>データを生成</td></tr>
+	 * </table>
+	 * <p>
+	 * @param vendorId ベンダー ID
+	 * @param productId 製品 ID
+	 * @return ループバックデバイス
+	 */
+	public static SimulatedDevice createLoopback(int vendorId, int productId){
+		SimulatedDevice device = new SimulatedDevice(vendorId, productId);
+		device.setManufacturer("koiroha.org");
+		device.setProduct("Simulated Loopback Device");
+		int intf = device.addInterface(0xFF, 0x00, 0x00);
+		SimulatedEndpoint out = device.addEndpoint(intf, 0x01, TransferType.BULK, 512, 0);
+		SimulatedEndpoint in = device.addEndpoint(intf, 0x81, TransferType.BULK, 512, 0);
+		out.connect(in);
+		device.addEndpoint(intf, 0x02, TransferType.BULK, 512, 0);
+		device.addEndpoint(intf, 0x82, TransferType.BULK, 512, 0);
+		device.addEndpoint(intf, 0x83, TransferType.INTERRUPT, 8, 10);
+		device.addEndpoint(intf, 0x84, TransferType.ISOCHRONOUS, 192, 1);
+		return device;
+	}
+
+	// ======================================================================
+	// ベンダー ID の参照
+	// ======================================================================
+	/**
+	 * このデバイスのベンダー ID を参照します。
+	 * <p>
+	 * @return ベンダー ID
+	 */
+	public int getVendorId(){
+		return vendorId;
+	}
+
+	// ======================================================================
+	// 製品 ID の参照
+	// ======================================================================
+	/**
+	 * このデバイスの製品 ID を参照します。
+	 * <p>
+	 * @return 製品 ID
+	 */
+	public int getProductId(){
+		return productId;
+	}
+
+	// ======================================================================
+	// デバイスクラスの設定
+	// ======================================================================
+	/**
+	 * デバイス記述子のクラス、サブクラス、プロトコルを設定します。
+	 * <p>
+	 * @param cls クラス
+	 * @param subClass サブクラス
+	 * @param protocol プロトコル
+	 */
+	public synchronized void setDeviceClass(int cls, int subClass, int protocol){
+		deviceClass[0] = cls;
+		deviceClass[1] = subClass;
+		deviceClass[2] = protocol;
+		return;
+	}
+
+	// ======================================================================
+	// デバイスリリース番号の設定
+	// ======================================================================
+	/**
+	 * デバイス記述子のリリース番号を設定します。
+	 * <p>
+	 * @param bcd リリース番号 (BCD)
+	 */
+	public synchronized void setDeviceRelease(int bcd){
+		this.release = bcd;
+		return;
+	}
+
+	// ======================================================================
+	// メーカー名の設定
+	// ======================================================================
+	/**
+	 * メーカー名の文字列を設定します。null を指定すると文字列記述子を持ちません。
+	 * <p>
+	 * @param str メーカー名
+	 */
+	public synchronized void setManufacturer(String str){
+		strings[0] = str;
+		return;
+	}
+
+	// ======================================================================
+	// 製品名の設定
+	// ======================================================================
+	/**
+	 * 製品名の文字列を設定します。null を指定すると文字列記述子を持ちません。
+	 * <p>
+	 * @param str 製品名
+	 */
+	public synchronized void setProduct(String str){
+		strings[1] = str;
+		return;
+	}
+
+	// ======================================================================
+	// シリアル番号の設定
+	// ======================================================================
+	/**
+	 * シリアル番号の文字列を設定します。null を指定すると文字列記述子を持ちません。
+	 * <p>
+	 * @param str シリアル番号
+	 */
+	public synchronized void setSerialNumber(String str){
+		strings[2] = str;
+		return;
+	}
+
+	// ======================================================================
+	// コントロール転送の応答時間の設定
+	// ======================================================================
+	/**
+	 * デバイスリクエストの応答時間を設定します。
+	 * <p>
+	 * @param micros 応答時間 (マイクロ秒)
+	 */
+	public void setControlLatency(long micros){
+		if(micros < 0){
+			throw new IllegalArgumentException("latency<0; " + micros);
+		}
+		this.controlLatency = micros;
+		return;
+	}
+
+	// ======================================================================
+	// インターフェースの追加
+	// ======================================================================
+	/**
+	 * 指定されたクラスのインターフェースを追加します。
+	 * <p>
+	 * @param cls インターフェースクラス
+	 * @param subClass サブクラス
+	 * @param protocol プロトコル
+	 * @return 追加したインターフェースの番号
+	 */
+	public synchronized int addInterface(int cls, int subClass, int protocol){
+		interfaces.add(new int[]{ cls, subClass, protocol });
+		endpoints.add(new ArrayList<SimulatedEndpoint>());
+		return interfaces.size() - 1;
+	}
+
+	// ======================================================================
+	// エンドポイントの追加
+	// ======================================================================
+	/**
+	 * 指定されたインターフェースにエンドポイントを追加します。
+	 * <p>
+	 * @param intf インターフェース番号
+	 * @param address エンドポイントアドレス
+	 * @param type 転送タイプ
+	 * @param maxPacketSize 最大パケットサイズ
+	 * @param interval ポーリング間隔 {@code bInterval}
+	 * @return 追加したエンドポイント
+	 * @throws IllegalArgumentException 同じアドレスのエンドポイントが存在する場合
+	 */
+	public synchronized SimulatedEndpoint addEndpoint(int intf, int address, TransferType type, int maxPacketSize, int interval){
+		if(getEndpoint(address) != null){
+			throw new IllegalArgumentException(String.format("endpoint 0x%02X already exists", address));
+		}
+		SimulatedEndpoint e = new SimulatedEndpoint(address, type, maxPacketSize, interval);
+		endpoints.get(intf).add(e);
+		return e;
+	}
+
+	// ======================================================================
+	// エンドポイントの参照
+	// ======================================================================
+	/**
+	 * 指定されたアドレスのエンドポイントを参照します。
+	 * <p>
+	 * @param address エンドポイントアドレス
+	 * @return エンドポイント (存在しない場合は null)
+	 */
+	public synchronized SimulatedEndpoint getEndpoint(int address){
+		for(List<SimulatedEndpoint> list: endpoints){
+			for(SimulatedEndpoint e: list){
+				if(e.getAddress() == (address & 0x8F)){
+					return e;
+				}
+			}
+		}
+		return null;
+	}
+
+	// ======================================================================
+	// デバイス記述子の構築
+	// ======================================================================
+	/**
+	 * 現在の設定からデバイス記述子のバイナリを構築します。
+	 * <p>
+	 * @return デバイス記述子
+	 */
+	synchronized byte[] getDeviceDescriptor(){
+		ByteBuffer b = ByteBuffer.allocate(18);
+		b.order(USB.BYTE_ORDER);
+		b.put((byte)18).put(Descriptor.TYPE_DEVICE).putShort((short)0x0200);
+		b.put((byte)deviceClass[0]).put((byte)deviceClass[1]).put((byte)deviceClass[2]).put((byte)MAX_PACKET_SIZE0);
+		b.putShort((short)vendorId).putShort((short)productId).putShort((short)release);
+		for(int i=0; i<strings.length; i++){
+			b.put((byte)((strings[i] != null)? i + 1: 0));
+		}
+		b.put((byte)1);
+		return b.array();
+	}
+
+	// ======================================================================
+	// コンフィギュレーション記述子の構築
+	// ======================================================================
+	/**
+	 * 現在の設定からコンフィギュレーション記述子とそれに続くインターフェース記述子、
+	 * エンドポイント記述子のバイナリを構築します。
+	 * <p>
+	 * @return コンフィギュレーション記述子
+	 */
+	synchronized byte[] getConfigurationDescriptor(){
+		int total = 9;
+		for(List<SimulatedEndpoint> list: endpoints){
+			total += 9 + 7 * list.size();
+		}
+		ByteBuffer b = ByteBuffer.allocate(total);
+		b.order(USB.BYTE_ORDER);
+		b.put((byte)9).put(Descriptor.TYPE_CONFIGURATION).putShort((short)total);
+		b.put((byte)interfaces.size()).put((byte)1).put((byte)0).put((byte)0x80).put((byte)50);
+		for(int i=0; i<interfaces.size(); i++){
+			int[] c = interfaces.get(i);
+			List<SimulatedEndpoint> list = endpoints.get(i);
+			b.put((byte)9).put(Descriptor.TYPE_INTERFACE).put((byte)i).put((byte)0).put((byte)list.size());
+			b.put((byte)c[0]).put((byte)c[1]).put((byte)c[2]).put((byte)0);
+			for(SimulatedEndpoint e: list){
+				b.put((byte)7).put(Descriptor.TYPE_ENDPOINT).put((byte)e.getAddress());
+				b.put((byte)e.getTransferType().getType()).putShort((short)e.getMaxPacketSize());
+				b.put((byte)Math.max(0, e.getInterval()));
+			}
+		}
+		return b.array();
+	}
+
+	// ======================================================================
+	// デバイスリクエストの実行
+	// ======================================================================
+	/**
+	 * 標準デバイスリクエストに応答します。
+	 * <p>
+	 * @param request リクエスト
+	 * @return 転送バイト数
+	 * @throws USBException 未サポートのリクエストの場合
+	 */
+	int deviceRequest(ControlRequest request) throws USBException{
+		long latency = controlLatency;
+		if(latency > 0){
+			long deadline = System.nanoTime() + latency * 1000;
+			while(System.nanoTime() < deadline){
+				LockSupport.parkNanos(deadline - System.nanoTime());
+				if(Thread.interrupted()){
+					Thread.currentThread().interrupt();
+					throw new USBException("control transfer interrupted");
+				}
+			}
+		}
+
+		byte[] buffer = request.getRawBuffer();
+		byte[] data = null;
+		switch(request.getRequest()){
+		case ControlRequest.GET_DESCRIPTOR:
+			switch((request.getValue() >> 8) & 0xFF){
+			case Descriptor.TYPE_DEVICE:
+				data = getDeviceDescriptor();
+				break;
+			case Descriptor.TYPE_CONFIGURATION:
+				data = getConfigurationDescriptor();
+				break;
+			case Descriptor.TYPE_STRING:
+				data = getStringDescriptor(request.getValue() & 0xFF);
+				break;
+			default:
+				throw new USBException("stall: unsupported descriptor: " + request);
+			}
+			break;
+		case ControlRequest.GET_STATUS:
+			data = new byte[]{ 0, 0 };
+			if(request.getRecipient() == ControlRequest.RCPT_DEVICE){
+				data[0] = 0x01;
+			} else if(request.getRecipient() == ControlRequest.RCPT_ENDPOINT){
+				data[0] = (byte)(getEndpointOf(request).isStalled()? 0x01: 0x00);
+			}
+			break;
+		case ControlRequest.CLEAR_FEATURE:
+			if(request.getRecipient() == ControlRequest.RCPT_ENDPOINT && request.getValue() == 0){
+				getEndpointOf(request).clearHalt();
+			}
+			return 0;
+		case ControlRequest.SET_FEATURE:
+			if(request.getRecipient() == ControlRequest.RCPT_ENDPOINT && request.getValue() == 0){
+				getEndpointOf(request).stall();
+			}
+			return 0;
+		case ControlRequest.GET_CONFIGURATION:
+			data = new byte[]{ (byte)configuration };
+			break;
+		case ControlRequest.SET_CONFIGURATION:
+			configuration = request.getValue() & 0xFF;
+			return 0;
+		case ControlRequest.GET_INTERFACE:
+			data = new byte[]{ 0 };
+			break;
+		case ControlRequest.SET_INTERFACE:
+			return 0;
+		default:
+			throw new USBException("stall: unsupported request: " + request);
+		}
+		int len = Math.min(data.length, buffer.length);
+		System.arraycopy(data, 0, buffer, 0, len);
+		return len;
+	}
+
+	// ======================================================================
+	// リセット
+	// ======================================================================
+	/**
+	 * 全てのエンドポイントの状態を初期化します。
+	 * <p>
+	 */
+	synchronized void reset(){
+		for(List<SimulatedEndpoint> list: endpoints){
+			for(SimulatedEndpoint e: list){
+				e.reset();
+			}
+		}
+		configuration = 1;
+		return;
+	}
+
+	// ======================================================================
+	// 文字列記述子の構築
+	// ======================================================================
+	/**
+	 * 指定されたインデックスの文字列記述子のバイナリを構築します。インデックス 0 は言語 ID
+	 * (英語) です。
+	 * <p>
+	 * @param index 文字列記述子のインデックス
+	 * @return 文字列記述子
+	 * @throws USBException 存在しないインデックスの場合
+	 */
+	private synchronized byte[] getStringDescriptor(int index) throws USBException{
+		if(index == 0){
+			return new byte[]{ 4, Descriptor.TYPE_STRING, 0x09, 0x04 };
+		}
+		if(index > strings.length || strings[index - 1] == null){
+			throw new USBException("stall: string descriptor " + index);
+		}
+		String str = strings[index - 1];
+		ByteBuffer b = ByteBuffer.allocate(2 + str.length() * 2);
+		b.order(USB.BYTE_ORDER);
+		b.put((byte)b.capacity()).put(Descriptor.TYPE_STRING);
+		for(int i=0; i<str.length(); i++){
+			b.putShort((short)str.charAt(i));
+		}
+		return b.array();
+	}
+
+	// ======================================================================
+	// 要求先エンドポイントの参照
+	// ======================================================================
+	/**
+	 * エンドポイント宛てのリクエストの {@code wIndex} が示すエンドポイントを参照します。
+	 * {@code wIndex} に方向ビットが含まれず該当するアドレスが存在しない場合は同じエンドポイント
+	 * 番号を持つエンドポイントを返します。
+	 * <p>
+	 * @param request リクエスト
+	 * @return エンドポイント
+	 * @throws USBException エンドポイントが存在しない場合
+	 */
+	private SimulatedEndpoint getEndpointOf(ControlRequest request) throws USBException{
+		int index = request.getIndex() & 0x8F;
+		SimulatedEndpoint e = getEndpoint(index);
+		if(e == null && (index & 0x80) == 0){
+			e = getEndpoint(index | 0x80);
+		}
+		if(e == null){
+			throw new USBException("stall: endpoint not found: " + request);
+		}
+		return e;
+	}
+
+}
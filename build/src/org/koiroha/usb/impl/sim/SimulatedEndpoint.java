@@ -0,0 +1,692 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.impl.sim;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.concurrent.locks.LockSupport;
+
+import org.koiroha.usb.*;
+import org.koiroha.usb.desc.*;
+import org.koiroha.usb.event.IsocTransferEvent;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// SimulatedEndpoint: 模擬エンドポイント
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * {@link SimulatedDevice} のエンドポイントの振る舞いを模擬するクラスです。
+ * <p>
+ * 各転送は設定された応答時間と帯域幅から算出した時間だけ待機してから完了します。同じ
+ * エンドポイントへの転送は実際のパイプと同様に 1 つずつ実行されます。帯域幅が設定された
+ * OUT 転送がタイムアウトした場合は、期限までに送信できたパケットのみが受信され、その長さが
+ * {@link TimeoutException#getTransferred()} で通知されます。
+ * <p>
+ * OUT エンドポイントは受信したデータを破棄しますが、{@link #connect(SimulatedEndpoint)} で
+ * IN エンドポイントを接続するとそのエンドポイントから読み出せるようになります。IN
+ * エンドポイントはデータが接続または {@link #offer(byte[])} されていない場合、要求された長さ
+ * (割り込み転送は 1 パケット) のデータを常に生成します。データが供給されるエンドポイントは
+ * データが到着するまで待機し、要求長に達するかショートパケットを受信した時点で完了します。
+ * <p>
+ * {@link #stall()} を呼び出したエンドポイントは {@link #clearHalt()} が呼び出されるまで
+ * 全ての転送が失敗します。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ */
+public class SimulatedEndpoint {
+
+	// ======================================================================
+	// エンドポイントアドレス
+	// ======================================================================
+	/**
+	 * このエンドポイントのアドレス {@code bEndpointAddress} です。
+	 * <p>
+	 */
+	private final int address;
+
+	// ======================================================================
+	// 転送タイプ
+	// ======================================================================
+	/**
+	 * このエンドポイントの転送タイプです。
+	 * <p>
+	 */
+	private final TransferType type;
+
+	// ======================================================================
+	// 最大パケットサイズ
+	// ======================================================================
+	/**
+	 * このエンドポイントの最大パケットサイズです。
+	 * <p>
+	 */
+	private final int maxPacketSize;
+
+	// ======================================================================
+	// ポーリング間隔
+	// ======================================================================
+	/**
+	 * このエンドポイントのポーリング間隔 {@code bInterval} です。
+	 * <p>
+	 */
+	private final int interval;
+
+	// ======================================================================
+	// 応答時間
+	// ======================================================================
+	/**
+	 * 1 回の転送に必要な固定の応答時間 (マイクロ秒) です。
+	 * <p>
+	 */
+	private volatile long latency = 0;
+
+	// ======================================================================
+	// 帯域幅
+	// ======================================================================
+	/**
+	 * このエンドポイントの帯域幅 (バイト/秒) です。0 の場合は無制限です。
+	 * <p>
+	 */
+	private volatile long bandwidth = 0;
+
+	// ======================================================================
+	// 転送サイズの上限
+	// ======================================================================
+	/**
+	 * 1 回の転送で完了するバイト数の上限です。0 の場合は無制限です。
+	 * <p>
+	 */
+	private volatile int transferLimit = 0;
+
+	// ======================================================================
+	// ストール状態
+	// ======================================================================
+	/**
+	 * このエンドポイントがストールしているかどうかです。
+	 * <p>
+	 */
+	private volatile boolean stalled = false;
+
+	// ======================================================================
+	// 受信キュー
+	// ======================================================================
+	/**
+	 * IN エンドポイントに供給されたパケットのキューです。データを生成する場合は null です。
+	 * <p>
+	 */
+	private LinkedList<byte[]> queue = null;
+
+	// ======================================================================
+	// 接続先
+	// ======================================================================
+	/**
+	 * OUT エンドポイントが受信したデータを渡す IN エンドポイントです。
+	 * <p>
+	 */
+	private volatile SimulatedEndpoint peer = null;
+
+	// ======================================================================
+	// 転送バイト数
+	// ======================================================================
+	/**
+	 * このエンドポイントで転送されたバイト数の合計です。
+	 * <p>
+	 */
+	private long bytes = 0;
+
+	// ======================================================================
+	// 生成データの通し番号
+	// ======================================================================
+	/**
+	 * 生成するデータの先頭に格納する通し番号です。
+	 * <p>
+	 */
+	private int sequence = 0;
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * エンドポイントの属性を指定して構築を行います。
+	 * <p>
+	 * @param address エンドポイントアドレス
+	 * @param type 転送タイプ
+	 * @param maxPacketSize 最大パケットサイズ
+	 * @param interval ポーリング間隔
+	 */
+	SimulatedEndpoint(int address, TransferType type, int maxPacketSize, int interval) {
+		if(type == TransferType.CONTROL){
+			throw new IllegalArgumentException("control endpoint cannot be added");
+		}
+		if(maxPacketSize <= 0 || maxPacketSize > 0x7FF){
+			throw new IllegalArgumentException("invalid max packet size: " + maxPacketSize);
+		}
+		this.address = address & 0x8F;
+		this.type = type;
+		this.maxPacketSize = maxPacketSize;
+		this.interval = interval;
+		return;
+	}
+
+	// ======================================================================
+	// エンドポイントアドレスの参照
+	// ======================================================================
+	/**
+	 * このエンドポイントのアドレスを参照します。
+	 * <p>
+	 * @return エンドポイントアドレス
+	 */
+	public int getAddress(){
+		return address;
+	}
+
+	// ======================================================================
+	// 転送方向の参照
+	// ======================================================================
+	/**
+	 * このエンドポイントの転送方向を参照します。
+	 * <p>
+	 * @return 転送方向
+	 */
+	public Direction getDirection(){
+		return ((address & 0x80) != 0)? Direction.IN: Direction.OUT;
+	}
+
+	// ======================================================================
+	// 転送タイプの参照
+	// ======================================================================
+	/**
+	 * このエンドポイントの転送タイプを参照します。
+	 * <p>
+	 * @return 転送タイプ
+	 */
+	public TransferType getTransferType(){
+		return type;
+	}
+
+	// ======================================================================
+	// 最大パケットサイズの参照
+	// ======================================================================
+	/**
+	 * このエンドポイントの最大パケットサイズを参照します。
+	 * <p>
+	 * @return 最大パケットサイズ
+	 */
+	public int getMaxPacketSize(){
+		return maxPacketSize;
+	}
+
+	// ======================================================================
+	// ポーリング間隔の参照
+	// ======================================================================
+	/**
+	 * このエンドポイントのポーリング間隔 {@code bInterval} を参照します。
+	 * <p>
+	 * @return ポーリング間隔
+	 */
+	public int getInterval(){
+		return interval;
+	}
+
+	// ======================================================================
+	// 応答時間の設定
+	// ======================================================================
+	/**
+	 * 1 回の転送に必要な固定の応答時間を設定します。
+	 * <p>
+	 * @param micros 応答時間 (マイクロ秒)
+	 */
+	public void setLatency(long micros){
+		if(micros < 0){
+			throw new IllegalArgumentException("latency<0; " + micros);
+		}
+		this.latency = micros;
+		return;
+	}
+
+	// ======================================================================
+	// 帯域幅の設定
+	// ======================================================================
+	/**
+	 * このエンドポイントの帯域幅を設定します。転送には応答時間に加えてデータ長を帯域幅で
+	 * 割った時間が必要になります。
+	 * <p>
+	 * @param bytesPerSecond 帯域幅 (バイト/秒、0 の場合は無制限)
+	 */
+	public void setBandwidth(long bytesPerSecond){
+		if(bytesPerSecond < 0){
+			throw new IllegalArgumentException("bandwidth<0; " + bytesPerSecond);
+		}
+		this.bandwidth = bytesPerSecond;
+		return;
+	}
+
+	// ======================================================================
+	// 転送サイズの上限の設定
+	// ======================================================================
+	/**
+	 * 1 回の転送で完了するバイト数の上限を設定します。上限を超える転送要求は上限までの
+	 * バイト数で完了し、呼び出し側には部分的な転送として返されます。
+	 * <p>
+	 * @param limit 転送サイズの上限 (0 の場合は無制限)
+	 */
+	public void setTransferLimit(int limit){
+		if(limit < 0){
+			throw new IllegalArgumentException("limit<0; " + limit);
+		}
+		this.transferLimit = limit;
+		return;
+	}
+
+	// ======================================================================
+	// 接続
+	// ======================================================================
+	/**
+	 * この OUT エンドポイントが受信したデータを指定された IN エンドポイントから読み出せる
+	 * ようにします。
+	 * <p>
+	 * @param in IN エンドポイント
+	 */
+	public void connect(SimulatedEndpoint in){
+		if(getDirection() != Direction.OUT || in.getDirection() != Direction.IN){
+			throw new IllegalArgumentException("connect OUT endpoint to IN endpoint");
+		}
+		in.enableQueue();
+		this.peer = in;
+		return;
+	}
+
+	// ======================================================================
+	// データの供給
+	// ======================================================================
+	/**
+	 * この IN エンドポイントから読み出されるデータを供給します。データは最大パケットサイズ
+	 * ごとのパケットに分割され、長さ 0 の場合は ZLP となります。
+	 * <p>
+	 * @param data 供給するデータ
+	 */
+	public void offer(byte[] data){
+		if(getDirection() != Direction.IN){
+			throw new IllegalStateException("offer to OUT endpoint");
+		}
+		synchronized(this){
+			enableQueue();
+			int pos = 0;
+			do{
+				int len = Math.min(maxPacketSize, data.length - pos);
+				byte[] packet = new byte[len];
+				System.arraycopy(data, pos, packet, 0, len);
+				queue.addLast(packet);
+				pos += len;
+			} while(pos < data.length);
+			notifyAll();
+		}
+		return;
+	}
+
+	// ======================================================================
+	// ストール
+	// ======================================================================
+	/**
+	 * このエンドポイントをストールさせます。{@link #clearHalt()} が呼び出されるまで全ての
+	 * 転送が失敗します。
+	 * <p>
+	 */
+	public void stall(){
+		synchronized(this){
+			stalled = true;
+			notifyAll();
+		}
+		return;
+	}
+
+	// ======================================================================
+	// ストールの判定
+	// ======================================================================
+	/**
+	 * このエンドポイントがストールしているかどうかを判定します。
+	 * <p>
+	 * @return ストールしている場合 true
+	 */
+	public boolean isStalled(){
+		return stalled;
+	}
+
+	// ======================================================================
+	// ストールの解除
+	// ======================================================================
+	/**
+	 * このエンドポイントのストールを解除します。
+	 * <p>
+	 */
+	public void clearHalt(){
+		stalled = false;
+		return;
+	}
+
+	// ======================================================================
+	// 転送バイト数の参照
+	// ======================================================================
+	/**
+	 * このエンドポイントで転送されたバイト数の合計を参照します。
+	 * <p>
+	 * @return 転送バイト数
+	 */
+	public synchronized long getByteCount(){
+		return bytes;
+	}
+
+	// ======================================================================
+	// リセット
+	// ======================================================================
+	/**
+	 * 供給されたデータとストール状態を破棄します。
+	 * <p>
+	 */
+	synchronized void reset(){
+		if(queue != null){
+			queue.clear();
+		}
+		stalled = false;
+		return;
+	}
+
+	// ======================================================================
+	// 転送の実行
+	// ======================================================================
+	/**
+	 * このエンドポイントでバルクまたは割り込み転送を実行します。
+	 * <p>
+	 * @param buffer バッファ
+	 * @param offset オフセット
+	 * @param length 長さ
+	 * @param timeout タイムアウト (ミリ秒、0 以下の場合は無制限)
+	 * @return 転送バイト数
+	 * @throws USBException 転送に失敗した場合
+	 */
+	synchronized int transfer(byte[] buffer, int offset, int length, int timeout) throws USBException{
+		ensureNotStalled();
+		long deadline = (timeout <= 0)? Long.MAX_VALUE: System.currentTimeMillis() + timeout;
+		int len = 0;
+		int limit = transferLimit;
+		if(limit > 0){
+			length = Math.min(length, limit);
+		}
+
+		// OUT 転送は受信して接続先へ渡す (タイムアウトした場合は期限までのパケットのみ)
+		if(getDirection() == Direction.OUT){
+			int accepted = capacity(length, deadline);
+			try{
+				delay(length, deadline);
+			} catch(TimeoutException ex){
+				if(accepted > 0){
+					deliver(buffer, offset, accepted);
+					bytes += accepted;
+				}
+				throw new TimeoutException(ex.getMessage(), accepted);
+			}
+			deliver(buffer, offset, length);
+			len = length;
+		}
+
+		// 供給されたデータを待機して読み込み
+		else if(queue != null){
+			while(queue.isEmpty()){
+				long remain = deadline - System.currentTimeMillis();
+				if(remain <= 0){
+					throw new TimeoutException("operation timeout");
+				}
+				try{
+					wait(Math.min(remain, Integer.MAX_VALUE));
+				} catch(InterruptedException ex){
+					Thread.currentThread().interrupt();
+					throw new USBException("transfer interrupted", ex);
+				}
+				ensureNotStalled();
+			}
+			LinkedList<byte[]> taken = new LinkedList<byte[]>();
+			boolean split = false;
+			while(len < length && ! queue.isEmpty()){
+				byte[] packet = queue.removeFirst();
+				taken.addFirst(packet);
+				int n = Math.min(packet.length, length - len);
+				System.arraycopy(packet, 0, buffer, offset + len, n);
+				len += n;
+				if(n < packet.length){
+					byte[] rest = new byte[packet.length - n];
+					System.arraycopy(packet, n, rest, 0, rest.length);
+					queue.addFirst(rest);
+					split = true;
+					break;
+				}
+				if(packet.length < maxPacketSize){
+					break;
+				}
+			}
+
+			// タイムアウトした場合は読み込んだデータをキューに戻す
+			try{
+				delay(len, deadline);
+			} catch(TimeoutException ex){
+				if(split){
+					queue.removeFirst();
+				}
+				for(byte[] packet: taken){
+					queue.addFirst(packet);
+				}
+				throw ex;
+			}
+		}
+
+		// データを生成
+		else {
+			len = (type == TransferType.INTERRUPT)? Math.min(length, maxPacketSize): length;
+			delay(len, deadline);
+			generate(buffer, offset, len);
+		}
+
+		bytes += len;
+		return len;
+	}
+
+	// ======================================================================
+	// 等時間隔転送の実行
+	// ======================================================================
+	/**
+	 * このエンドポイントで等時間隔転送を実行します。各フレームには最大パケットサイズまでの
+	 * データが格納され、{@code bInterval} に従った 1 ミリ秒単位のフレーム時間だけ待機します。
+	 * 転送中に割り込まれた場合はスレッドの割り込み状態を保持したまま復帰します。
+	 * <p>
+	 * @param event イベント
+	 * @throws USBException 転送に失敗した場合
+	 */
+	void isochronousTransfer(IsocTransferEvent event) throws USBException{
+		int total = 0;
+		synchronized(this){
+			ensureNotStalled();
+			byte[][] buffer = event.getBuffer();
+			int[] length = event.getLength();
+			boolean[] error = event.getError();
+			for(int i=0; i<buffer.length; i++){
+				length[i] = Math.min(buffer[i].length, maxPacketSize);
+				error[i] = false;
+				generate(buffer[i], 0, length[i]);
+				total += length[i];
+			}
+			bytes += total;
+		}
+
+		// フレーム時間の経過を待機
+		long frames = (long)event.getBuffer().length << Math.max(0, Math.min(15, interval - 1));
+		long deadline = System.nanoTime() + frames * 1000 * 1000;
+		while(! Thread.currentThread().isInterrupted() && System.nanoTime() < deadline){
+			LockSupport.parkNanos(deadline - System.nanoTime());
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 受信キューの有効化
+	// ======================================================================
+	/**
+	 * 受信キューを使用するように設定します。
+	 * <p>
+	 */
+	private synchronized void enableQueue(){
+		if(queue == null){
+			queue = new LinkedList<byte[]>();
+		}
+		return;
+	}
+
+	// ======================================================================
+	// ストールの確認
+	// ======================================================================
+	/**
+	 * このエンドポイントがストールしている場合に例外を発生します。
+	 * <p>
+	 * @throws USBException ストールしている場合
+	 */
+	private void ensureNotStalled() throws USBException{
+		if(stalled){
+			throw new USBException(String.format("endpoint 0x%02X stalled", address));
+		}
+		return;
+	}
+
+	// ======================================================================
+	// データの生成
+	// ======================================================================
+	/**
+	 * 指定された領域に通し番号とパターンデータを格納します。
+	 * <p>
+	 * @param buffer バッファ
+	 * @param offset オフセット
+	 * @param length 長さ
+	 */
+	private void generate(byte[] buffer, int offset, int length){
+		ByteBuffer b = ByteBuffer.wrap(buffer, offset, length);
+		b.order(USB.BYTE_ORDER);
+		if(length >= 4){
+			b.putInt(sequence);
+		}
+		while(b.hasRemaining()){
+			b.put((byte)b.position());
+		}
+		sequence ++;
+		return;
+	}
+
+	// ======================================================================
+	// 転送時間の待機
+	// ======================================================================
+	/**
+	 * 応答時間と帯域幅から算出した指定長の転送に必要な時間だけ待機します。必要な時間が
+	 * 転送のタイムアウト時刻を超える場合はタイムアウト時刻まで待機して例外を発生します。
+	 * <p>
+	 * @param length 転送バイト数
+	 * @param limit 転送のタイムアウト時刻 (タイムアウトしない場合は {@link Long#MAX_VALUE})
+	 * @throws TimeoutException 転送時間がタイムアウト時刻を超える場合
+	 * @throws USBException 割り込まれた場合
+	 */
+	private void delay(int length, long limit) throws USBException{
+		long nanos = latency * 1000;
+		long bps = bandwidth;
+		if(bps > 0){
+			nanos += length * 1000L * 1000 * 1000 / bps;
+		}
+		boolean timeout = false;
+		if(limit != Long.MAX_VALUE){
+			long remain = Math.max(0, limit - System.currentTimeMillis()) * 1000 * 1000;
+			if(nanos > remain){
+				nanos = remain;
+				timeout = true;
+			}
+		}
+		if(nanos > 0){
+			sleep(nanos);
+		}
+		if(timeout){
+			throw new TimeoutException("operation timeout");
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 期限までの転送量の算出
+	// ======================================================================
+	/**
+	 * 指定された長さの OUT 転送がタイムアウトする場合に、期限までに送信を完了できる
+	 * パケット境界のバイト数を算出します。
+	 * <p>
+	 * @param length 転送バイト数
+	 * @param limit 転送のタイムアウト時刻 (タイムアウトしない場合は {@link Long#MAX_VALUE})
+	 * @return 期限までに送信できるバイト数 (length 未満)
+	 */
+	private int capacity(int length, long limit){
+		long bps = bandwidth;
+		if(limit == Long.MAX_VALUE || bps <= 0 || length == 0){
+			return 0;
+		}
+		long nanos = (limit - System.currentTimeMillis()) * 1000 * 1000 - latency * 1000;
+		if(nanos <= 0){
+			return 0;
+		}
+		long n = (long)((double)nanos * bps / (1000L * 1000 * 1000));
+		n = Math.min(n, length - 1);
+		return (int)(n / maxPacketSize * maxPacketSize);
+	}
+
+	// ======================================================================
+	// 接続先への受け渡し
+	// ======================================================================
+	/**
+	 * OUT 転送で受信したデータを接続先の IN エンドポイントへ渡します。
+	 * <p>
+	 * @param buffer バッファ
+	 * @param offset オフセット
+	 * @param length 長さ
+	 */
+	private void deliver(byte[] buffer, int offset, int length){
+		SimulatedEndpoint in = peer;
+		if(in != null){
+			byte[] data = new byte[length];
+			System.arraycopy(buffer, offset, data, 0, length);
+			in.offer(data);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 待機
+	// ======================================================================
+	/**
+	 * 指定された時間だけ待機します。
+	 * <p>
+	 * @param nanos 待機時間 (ナノ秒)
+	 * @throws USBException 割り込まれた場合
+	 */
+	private static void sleep(long nanos) throws USBException{
+		long deadline = System.nanoTime() + nanos;
+		long remain = nanos;
+		while(remain > 0){
+			LockSupport.parkNanos(remain);
+			if(Thread.interrupted()){
+				Thread.currentThread().interrupt();
+				throw new USBException("transfer interrupted");
+			}
+			remain = deadline - System.nanoTime();
+		}
+		return;
+	}
+
+}
@@ -0,0 +1,54 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.impl.sim;
+
+import org.koiroha.usb.impl.USBServiceImpl;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// SimulatedService: 模擬 USB サービス
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * {@link SimulatedBridge} を使用する USB サービス実装です。ネイティブライブラリを必要としない
+ * ため、システムプロパティ {@code org.koiroha.usb.services} にこのクラス名を指定する事でハード
+ * ウェアのない環境でもアプリケーションやベンチマークを実行できます。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ */
+public class SimulatedService extends USBServiceImpl{
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * {@link SimulatedBridge#getDefault()} を使用して構築を行います。
+	 * <p>
+	 */
+	public SimulatedService() {
+		this(SimulatedBridge.getDefault());
+		return;
+	}
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * 指定されたブリッジを使用して構築を行います。
+	 * <p>
+	 * @param bridge ブリッジ
+	 */
+	public SimulatedService(SimulatedBridge bridge) {
+		super(bridge);
+		return;
+	}
+
+}
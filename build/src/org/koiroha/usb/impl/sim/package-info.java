@@ -0,0 +1,19 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+/**
+ * 実デバイスやネイティブライブラリを使用せずに usb4j を動作させるための Pure Java の模擬実装
+ * パッケージです。{@link org.koiroha.usb.impl.sim.SimulatedDevice} で記述子とエンドポイントの
+ * 帯域、応答時間、ストールを設定したデバイスを {@link org.koiroha.usb.impl.sim.SimulatedBridge}
+ * に取り付けて使用します。
+ * <p>
+ * 単体テストや性能計測 (<code>build/src.bench</code>) での使用を目的としています。
+ */
+package org.koiroha.usb.impl.sim;
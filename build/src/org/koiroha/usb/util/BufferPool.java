@@ -0,0 +1,393 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.util;
+
+import java.lang.ref.*;
+import java.nio.ByteBuffer;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// BufferPool: バッファプール
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * 転送に使用するダイレクトバッファを再利用するためのプールです。
+ * <p>
+ * ダイレクトバッファはネイティブライブラリへコピーなしで渡すことが出来ますが、確保と解放の
+ * コストが大きいため転送ごとに確保すると性能が低下します。このクラスは 2 のべき乗の容量ごとに
+ * 返却されたバッファを保持し、次の {@link #allocate(int)} で再利用します。定常的なストリー
+ * ミング処理では最初の数回を除いてバッファの確保が発生しません。
+ * <p>
+ * プールは確保したバッファごとに 1 つの管理エントリを弱参照で保持し、貸し出し状態をその
+ * エントリに記録します。エントリはバッファの同一性ハッシュで検索されバッファと共に再利用
+ * されるため、定常状態の確保と返却ではオブジェクトの生成が発生しません。このプールで確保して
+ * いないバッファや既に返却されたバッファを返却しようとすると例外が発生します。返却されなかった
+ * バッファは通常のダイレクトバッファと同様に GC によって解放されます。
+ * <p>
+ * このクラスはスレッドセーフです。同期は容量の分類ごとに行われるため、異なる容量のバッファの
+ * 確保と返却は互いに待機しません。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ */
+public class BufferPool {
+
+	// ======================================================================
+	// 最小容量
+	// ======================================================================
+	/**
+	 * プールが確保するバッファの最小容量です。
+	 * <p>
+	 */
+	private static final int MIN_CAPACITY = 64;
+
+	// ======================================================================
+	// デフォルトプール
+	// ======================================================================
+	/**
+	 * デフォルトのバッファプールです。
+	 * <p>
+	 */
+	private static final BufferPool DEFAULT = new BufferPool(16);
+
+	// ======================================================================
+	// 容量分類
+	// ======================================================================
+	/**
+	 * 容量ごとの分類です。インデックス i には容量 {@code MIN_CAPACITY << i} のバッファを管理
+	 * する分類が格納されます。
+	 * <p>
+	 */
+	private final SizeClass[] classes;
+
+	// ======================================================================
+	// 最大保持数
+	// ======================================================================
+	/**
+	 * 容量ごとに保持する空きバッファの最大数です。
+	 * <p>
+	 */
+	private final int maxPooled;
+
+	// ======================================================================
+	// 確保数
+	// ======================================================================
+	/**
+	 * このプールが新規に確保したバッファの数です。
+	 * <p>
+	 */
+	private long allocated = 0;
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * 容量ごとに保持する空きバッファの最大数を指定して構築を行います。
+	 * <p>
+	 * @param maxPooled 容量ごとに保持する空きバッファの最大数
+	 */
+	public BufferPool(int maxPooled) {
+		if(maxPooled < 0){
+			throw new IllegalArgumentException("maxPooled<0; " + maxPooled);
+		}
+		this.maxPooled = maxPooled;
+		this.classes = new SizeClass[Integer.numberOfLeadingZeros(MIN_CAPACITY)];
+		for(int i=0; i<classes.length; i++){
+			classes[i] = new SizeClass();
+		}
+		return;
+	}
+
+	// ======================================================================
+	// デフォルトプールの参照
+	// ======================================================================
+	/**
+	 * アプリケーションで共有するデフォルトのバッファプールを参照します。
+	 * <p>
+	 * @return デフォルトのバッファプール
+	 */
+	public static BufferPool getDefault(){
+		return DEFAULT;
+	}
+
+	// ======================================================================
+	// バッファの確保
+	// ======================================================================
+	/**
+	 * 指定されたサイズ以上の容量を持つダイレクトバッファを確保します。返値のバッファは位置が
+	 * 0、リミットが {@code size} に設定されており、バイト順序は {@link org.koiroha.usb.USB#BYTE_ORDER}
+	 * です。内容は不定です。
+	 * <p>
+	 * @param size 必要なサイズ
+	 * @return ダイレクトバッファ
+	 */
+	public ByteBuffer allocate(int size){
+		if(size < 0){
+			throw new IllegalArgumentException("size<0; " + size);
+		}
+		int index = indexOf(size);
+		SizeClass sc = classes[index];
+		ByteBuffer buffer = null;
+		synchronized(sc){
+			sc.expunge();
+			if(sc.top > 0){
+				Slot slot = sc.stack[-- sc.top];
+				sc.stack[sc.top] = null;
+				buffer = slot.pooled;
+				slot.pooled = null;
+				slot.lent = true;
+			}
+		}
+
+		// 空きバッファがなければ新規に確保して管理エントリを登録
+		if(buffer == null){
+			buffer = ByteBuffer.allocateDirect(MIN_CAPACITY << index);
+			synchronized(sc){
+				sc.register(buffer).lent = true;
+			}
+			synchronized(this){
+				allocated ++;
+			}
+		}
+		buffer.clear();
+		buffer.limit(size);
+		buffer.order(org.koiroha.usb.USB.BYTE_ORDER);
+		return buffer;
+	}
+
+	// ======================================================================
+	// バッファの返却
+	// ======================================================================
+	/**
+	 * {@link #allocate(int)} で確保したバッファをプールに返却します。返却後のバッファを
+	 * アプリケーションが使用してはいけません。null を指定した場合は何も行いません。
+	 * <p>
+	 * @param buffer 返却するバッファ
+	 * @throws IllegalArgumentException このプールで確保していないバッファや既に返却された
+	 *	バッファを指定した場合
+	 */
+	public void release(ByteBuffer buffer){
+		if(buffer == null){
+			return;
+		}
+		SizeClass sc = (buffer.isDirect())? classOf(buffer.capacity()): null;
+		Slot slot = null;
+		if(sc != null){
+			synchronized(sc){
+				sc.expunge();
+				slot = sc.lookup(buffer);
+				if(slot != null && slot.lent){
+					slot.lent = false;
+					if(sc.top < maxPooled){
+						slot.pooled = buffer;
+						sc.stack[sc.top ++] = slot;
+					} else {
+						sc.unregister(slot);
+					}
+					return;
+				}
+			}
+		}
+		throw new IllegalArgumentException("buffer not lent from this pool or already released: " + buffer);
+	}
+
+	// ======================================================================
+	// 確保数の参照
+	// ======================================================================
+	/**
+	 * このプールがこれまでに新規確保したバッファの数を参照します。
+	 * <p>
+	 * @return 新規確保したバッファ数
+	 */
+	public synchronized long getAllocatedCount(){
+		return allocated;
+	}
+
+	// ======================================================================
+	// インデックスの算出
+	// ======================================================================
+	/**
+	 * 指定されたサイズを格納できる最小の容量分類を算出します。
+	 * <p>
+	 * @param size サイズ
+	 * @return 容量分類のインデックス
+	 */
+	private int indexOf(int size){
+		if(size <= MIN_CAPACITY){
+			return 0;
+		}
+		int index = (32 - Integer.numberOfLeadingZeros(size - 1)) - (32 - Integer.numberOfLeadingZeros(MIN_CAPACITY - 1));
+		if(index >= classes.length){
+			throw new IllegalArgumentException("too large buffer size: " + size);
+		}
+		return index;
+	}
+
+	// ======================================================================
+	// 容量分類の参照
+	// ======================================================================
+	/**
+	 * 指定された容量のバッファを管理する容量分類を参照します。このプールが確保する容量でない
+	 * 場合は null を返します。
+	 * <p>
+	 * @param capacity バッファの容量
+	 * @return 容量分類
+	 */
+	private SizeClass classOf(int capacity){
+		if(capacity < MIN_CAPACITY || Integer.bitCount(capacity) != 1){
+			return null;
+		}
+		int index = Integer.numberOfTrailingZeros(capacity) - Integer.numberOfTrailingZeros(MIN_CAPACITY);
+		return (index < classes.length)? classes[index]: null;
+	}
+
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	// SizeClass: 容量分類
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	/**
+	 * 同じ容量のバッファの空きスタックと管理エントリの表です。全ての操作はこのインスタンスの
+	 * 同期を取得して行います。
+	 * <p>
+	 */
+	private class SizeClass {
+
+		/** 返却された管理エントリのスタックです。 */
+		public final Slot[] stack = new Slot[maxPooled];
+
+		/** スタックに格納されている管理エントリの数です。 */
+		public int top = 0;
+
+		/** バッファの同一性ハッシュで分類した管理エントリの表です。 */
+		public Slot[] table = new Slot[16];
+
+		/** 表に登録されている管理エントリの数です。 */
+		public int size = 0;
+
+		/** 返却されずに GC されたバッファの管理エントリを受け取るキューです。 */
+		public final ReferenceQueue<ByteBuffer> collected = new ReferenceQueue<ByteBuffer>();
+
+		/**
+		 * 新規に確保したバッファの管理エントリを登録します。
+		 * <p>
+		 * @param buffer バッファ
+		 * @return 管理エントリ
+		 */
+		public Slot register(ByteBuffer buffer){
+			if(size >= table.length * 3 / 4){
+				Slot[] old = table;
+				table = new Slot[old.length * 2];
+				for(int i=0; i<old.length; i++){
+					Slot s = old[i];
+					while(s != null){
+						Slot next = s.next;
+						int j = s.hash & (table.length - 1);
+						s.next = table[j];
+						table[j] = s;
+						s = next;
+					}
+				}
+			}
+			Slot slot = new Slot(buffer, collected);
+			int i = slot.hash & (table.length - 1);
+			slot.next = table[i];
+			table[i] = slot;
+			size ++;
+			return slot;
+		}
+
+		/**
+		 * 指定されたバッファの管理エントリを検索します。
+		 * <p>
+		 * @param buffer バッファ
+		 * @return 管理エントリ、このプールのバッファでない場合は null
+		 */
+		public Slot lookup(ByteBuffer buffer){
+			int hash = System.identityHashCode(buffer);
+			for(Slot s=table[hash & (table.length - 1)]; s!=null; s=s.next){
+				if(s.hash == hash && s.get() == buffer){
+					return s;
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * 指定された管理エントリを表から削除します。
+		 * <p>
+		 * @param slot 管理エントリ
+		 */
+		public void unregister(Slot slot){
+			int i = slot.hash & (table.length - 1);
+			Slot prev = null;
+			for(Slot s=table[i]; s!=null; prev=s, s=s.next){
+				if(s == slot){
+					if(prev == null){
+						table[i] = s.next;
+					} else {
+						prev.next = s.next;
+					}
+					s.next = null;
+					size --;
+					break;
+				}
+			}
+			return;
+		}
+
+		/**
+		 * 返却されずに GC されたバッファの管理エントリを表から削除します。
+		 * <p>
+		 */
+		public void expunge(){
+			Reference<? extends ByteBuffer> ref;
+			while((ref = collected.poll()) != null){
+				unregister((Slot)ref);
+			}
+			return;
+		}
+	}
+
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	// Slot: 管理エントリ
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	/**
+	 * このプールが確保した 1 つのバッファの管理エントリです。バッファを弱参照で保持し、空き
+	 * スタックに格納されている間だけ強参照で保持します。{@link ByteBuffer} の {@code equals()}
+	 * と {@code hashCode()} は内容に基づくため、同一性ハッシュで検索します。
+	 * <p>
+	 */
+	private static class Slot extends WeakReference<ByteBuffer> {
+
+		/** バッファの同一性ハッシュ値です。 */
+		public final int hash;
+
+		/** 表の同じ位置に登録されている次の管理エントリです。 */
+		public Slot next = null;
+
+		/** 空きスタックに格納されている間のバッファです。 */
+		public ByteBuffer pooled = null;
+
+		/** バッファが貸し出し中の場合 true です。 */
+		public boolean lent = false;
+
+		/**
+		 * バッファを指定して構築を行います。
+		 * <p>
+		 * @param buffer バッファ
+		 * @param queue GC 後に参照を登録するキュー
+		 */
+		public Slot(ByteBuffer buffer, ReferenceQueue<ByteBuffer> queue) {
+			super(buffer, queue);
+			this.hash = System.identityHashCode(buffer);
+			return;
+		}
+	}
+
+}
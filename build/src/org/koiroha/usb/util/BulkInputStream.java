@@ -0,0 +1,526 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+
+import org.koiroha.usb.*;
+import org.koiroha.usb.desc.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// BulkInputStream: バルク入力ストリーム
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * BULK IN エンドポイントから読み込む先読みバッファ付きの入力ストリームです。
+ * <p>
+ * 読み込みは常に {@code wMaxPacketSize} の倍数で要求されます。内部バッファが空の状態で小さな
+ * 読み込みを行うとバッファサイズ分を 1 回の転送で先読みし、以降の読み込みはバッファから返し
+ * ます。バッファサイズ以上の読み込みは呼び出し側の領域へ直接転送します。パケット境界に
+ * 揃わない要求を行わないため、デバイスが要求より大きなパケットを送信するオーバーフローは
+ * 発生しません。
+ * <p>
+ * USB の転送境界 (ショートパケット) はストリームからは見えません。長さ 0 のパケット (ZLP)
+ * はデータを持たないためデフォルトでは読み飛ばされ、読み込みはデータを受信するかタイムアウト
+ * するまで継続します。{@link #setZeroLengthPacket(boolean)} を指定した場合、ZLP を受信した
+ * 時点で読み込みは 0 を返し、呼び出し側は転送の終端を認識できます ({@link #read()} は常に ZLP
+ * を読み飛ばします)。バルク転送には終端がないため {@link #read()} が -1 を返す事はありません。
+ * <p>
+ * タイムアウトは 1 回の読み込みに適用され、ZLP を読み飛ばして再度転送する場合も読み込みの
+ * 開始からの残り時間が使用されます。期限までにデータを受信しなかった場合は
+ * {@link TimeoutException} が発生します。先読みしたデータはストリームが保持するため、同じ
+ * エンドポイントをストリームと直接の読み込みで併用しないでください。{@link #close()} は
+ * エンドポイントやデバイスを解放しません。
+ * <p>
+ * {@link #getChannel()} で同じバッファを共有する {@link ReadableByteChannel} を参照できます。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ * @see BulkOutputStream
+ */
+public class BulkInputStream extends InputStream {
+
+	// ======================================================================
+	// デフォルトバッファサイズ
+	// ======================================================================
+	/**
+	 * 先読みバッファのデフォルトサイズ {@value} バイトです。実際のサイズは
+	 * {@code wMaxPacketSize} の倍数に切り上げられます。
+	 * <p>
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 4096;
+
+	// ======================================================================
+	// エンドポイント
+	// ======================================================================
+	/**
+	 * 読み込みを行うエンドポイントです。
+	 * <p>
+	 */
+	private final Endpoint endpoint;
+
+	// ======================================================================
+	// 最大パケットサイズ
+	// ======================================================================
+	/**
+	 * エンドポイントの最大パケットサイズです。
+	 * <p>
+	 */
+	private final int packetSize;
+
+	// ======================================================================
+	// 先読みバッファ
+	// ======================================================================
+	/**
+	 * 先読みしたデータを保持するバッファです。
+	 * <p>
+	 */
+	private final byte[] buffer;
+
+	// ======================================================================
+	// 読み込み位置
+	// ======================================================================
+	/**
+	 * 先読みバッファ内の次に読み込む位置です。
+	 * <p>
+	 */
+	private int position = 0;
+
+	// ======================================================================
+	// 有効データ長
+	// ======================================================================
+	/**
+	 * 先読みバッファ内の有効なデータの終端です。
+	 * <p>
+	 */
+	private int limit = 0;
+
+	// ======================================================================
+	// タイムアウト
+	// ======================================================================
+	/**
+	 * 1 回の転送のタイムアウト (ミリ秒) です。
+	 * <p>
+	 */
+	private volatile int timeout = 0;
+
+	// ======================================================================
+	// ZLP の通知
+	// ======================================================================
+	/**
+	 * ZLP を受信した場合に読み込みが 0 を返すかどうかです。
+	 * <p>
+	 */
+	private volatile boolean zeroLengthPacket = false;
+
+	// ======================================================================
+	// クローズ状態
+	// ======================================================================
+	/**
+	 * このストリームがクローズされているかどうかです。
+	 * <p>
+	 */
+	private volatile boolean closed = false;
+
+	// ======================================================================
+	// チャネル
+	// ======================================================================
+	/**
+	 * このストリームのチャネルです。
+	 * <p>
+	 */
+	private ReadableByteChannel channel = null;
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * デフォルトのバッファサイズで構築を行います。
+	 * <p>
+	 * @param endpoint BULK IN エンドポイント
+	 * @throws IllegalArgumentException エンドポイントが BULK IN でない場合
+	 */
+	public BulkInputStream(Endpoint endpoint) {
+		this(endpoint, DEFAULT_BUFFER_SIZE);
+		return;
+	}
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * 先読みバッファのサイズを指定して構築を行います。サイズは {@code wMaxPacketSize} の倍数
+	 * に切り上げられます。
+	 * <p>
+	 * @param endpoint BULK IN エンドポイント
+	 * @param size 先読みバッファのサイズ
+	 * @throws IllegalArgumentException エンドポイントが BULK IN でない場合やサイズが 0 以下の場合
+	 */
+	public BulkInputStream(Endpoint endpoint, int size) {
+		EndpointDescriptor desc = endpoint.getDescriptor();
+		if(desc.getTransferType() != TransferType.BULK || desc.getDirection() != Direction.IN){
+			throw new IllegalArgumentException("not a bulk in endpoint: " + desc);
+		}
+		if(size <= 0){
+			throw new IllegalArgumentException("size<=0; " + size);
+		}
+		this.endpoint = endpoint;
+		this.packetSize = Math.max(1, desc.getMaxPacketSize() & 0x7FF);
+		this.buffer = new byte[(size + packetSize - 1) / packetSize * packetSize];
+		return;
+	}
+
+	// ======================================================================
+	// タイムアウトの参照
+	// ======================================================================
+	/**
+	 * 1 回の転送のタイムアウトを参照します。
+	 * <p>
+	 * @return タイムアウト (ミリ秒)
+	 */
+	public int getTimeout(){
+		return timeout;
+	}
+
+	// ======================================================================
+	// タイムアウトの設定
+	// ======================================================================
+	/**
+	 * 1 回の転送のタイムアウトを設定します。0 を指定した場合はブリッジのデフォルト (libusb
+	 * では無制限) となります。デフォルトは 0 です。
+	 * <p>
+	 * @param timeout タイムアウト (ミリ秒)
+	 * @throws IllegalArgumentException タイムアウトが負の場合
+	 */
+	public void setTimeout(int timeout){
+		if(timeout < 0){
+			throw new IllegalArgumentException("timeout<0; " + timeout);
+		}
+		this.timeout = timeout;
+		return;
+	}
+
+	// ======================================================================
+	// ZLP の通知の参照
+	// ======================================================================
+	/**
+	 * ZLP を受信した場合に読み込みが 0 を返すかどうかを参照します。
+	 * <p>
+	 * @return ZLP の受信で 0 を返す場合 true
+	 */
+	public boolean isZeroLengthPacket(){
+		return zeroLengthPacket;
+	}
+
+	// ======================================================================
+	// ZLP の通知の設定
+	// ======================================================================
+	/**
+	 * ZLP を受信した場合に読み込みが 0 を返すかどうかを設定します。false の場合 ZLP は読み
+	 * 飛ばされます。デフォルトは false です。
+	 * <p>
+	 * @param zlp ZLP の受信で 0 を返す場合 true
+	 */
+	public void setZeroLengthPacket(boolean zlp){
+		this.zeroLengthPacket = zlp;
+		return;
+	}
+
+	// ======================================================================
+	// バッファサイズの参照
+	// ======================================================================
+	/**
+	 * 先読みバッファのサイズを参照します。
+	 * <p>
+	 * @return バッファサイズ
+	 */
+	public int getBufferSize(){
+		return buffer.length;
+	}
+
+	// ======================================================================
+	// 1 バイトの読み込み
+	// ======================================================================
+	/**
+	 * 1 バイトを読み込みます。先読みバッファが空の場合はデータを受信するまで待機します。
+	 * <p>
+	 * @return 読み込んだバイト
+	 * @throws IOException 読み込みに失敗した場合
+	 */
+	@Override
+	public synchronized int read() throws IOException{
+		ensureOpen();
+		if(position == limit){
+			fill(true);
+		}
+		return buffer[position ++] & 0xFF;
+	}
+
+	// ======================================================================
+	// データの読み込み
+	// ======================================================================
+	/**
+	 * 指定された領域にデータを読み込みます。先読みバッファにデータがある場合はバッファの
+	 * データのみを返します。バッファが空の場合は少なくとも 1 バイトを受信するまで待機します。
+	 * {@link #setZeroLengthPacket(boolean)} が指定されている場合は ZLP の受信で 0 を返します。
+	 * <p>
+	 * @param b バッファ
+	 * @param off バッファ内の開始位置
+	 * @param len 読み込む最大の長さ
+	 * @return 読み込んだ長さ
+	 * @throws IOException 読み込みに失敗した場合
+	 */
+	@Override
+	public synchronized int read(byte[] b, int off, int len) throws IOException{
+		if(off < 0 || len < 0 || off + len > b.length){
+			throw new IndexOutOfBoundsException("buffer=" + b.length + ",offset=" + off + ",length=" + len);
+		}
+		ensureOpen();
+		if(len == 0){
+			return 0;
+		}
+
+		// バッファサイズ以上の要求はパケット境界に揃えて直接読み込み
+		if(position == limit && len >= buffer.length){
+			int size = len / packetSize * packetSize;
+			return receive(b, off, size, ! zeroLengthPacket);
+		}
+
+		if(position == limit){
+			fill(! zeroLengthPacket);
+		}
+		int n = Math.min(len, limit - position);
+		System.arraycopy(buffer, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	// ======================================================================
+	// 読み込み可能サイズの参照
+	// ======================================================================
+	/**
+	 * 先読みバッファに残っているバイト数を参照します。
+	 * <p>
+	 * @return ブロックせずに読み込めるバイト数
+	 * @throws IOException ストリームがクローズされている場合
+	 */
+	@Override
+	public synchronized int available() throws IOException{
+		ensureOpen();
+		return limit - position;
+	}
+
+	// ======================================================================
+	// ストリームのクローズ
+	// ======================================================================
+	/**
+	 * このストリームをクローズします。先読みバッファに残っているデータは破棄されます。
+	 * エンドポイントやデバイスは解放されません。
+	 * <p>
+	 */
+	@Override
+	public synchronized void close(){
+		closed = true;
+		position = limit = 0;
+		return;
+	}
+
+	// ======================================================================
+	// チャネルの参照
+	// ======================================================================
+	/**
+	 * このストリームと先読みバッファを共有するチャネルを参照します。チャネルをクローズすると
+	 * このストリームもクローズされます。
+	 * <p>
+	 * @return チャネル
+	 */
+	public synchronized ReadableByteChannel getChannel(){
+		if(channel == null){
+			channel = new Channel();
+		}
+		return channel;
+	}
+
+	// ======================================================================
+	// 先読み
+	// ======================================================================
+	/**
+	 * 先読みバッファのサイズで転送を行います。
+	 * <p>
+	 * @param skip ZLP を読み飛ばしてデータを受信するまで繰り返す場合 true
+	 * @throws USBException 転送に失敗した場合
+	 */
+	private void fill(boolean skip) throws USBException{
+		int n = receive(buffer, 0, buffer.length, skip);
+		position = 0;
+		limit = n;
+		return;
+	}
+
+	// ======================================================================
+	// 転送の実行
+	// ======================================================================
+	/**
+	 * 指定された領域への転送を行います。ZLP を読み飛ばす場合は読み込みの開始からの残り時間で
+	 * 再度転送を行います。
+	 * <p>
+	 * @param b バッファ
+	 * @param off バッファ内の開始位置
+	 * @param len 読み込む長さ
+	 * @param skip ZLP を読み飛ばす場合 true
+	 * @return 読み込んだ長さ
+	 * @throws USBException 転送に失敗した場合
+	 */
+	private int receive(byte[] b, int off, int len, boolean skip) throws USBException{
+		long deadline = deadline();
+		int n = endpoint.read(b, off, len, timeout);
+		while(n == 0 && skip){
+			n = endpoint.read(b, off, len, remaining(deadline));
+		}
+		return n;
+	}
+
+	// ======================================================================
+	// 転送の実行
+	// ======================================================================
+	/**
+	 * 指定されたバッファの残りへの転送を行います。ZLP を読み飛ばす場合は読み込みの開始からの
+	 * 残り時間で再度転送を行います。
+	 * <p>
+	 * @param b バッファ
+	 * @param skip ZLP を読み飛ばす場合 true
+	 * @return 読み込んだ長さ
+	 * @throws USBException 転送に失敗した場合
+	 */
+	private int receive(ByteBuffer b, boolean skip) throws USBException{
+		long deadline = deadline();
+		int n = endpoint.read(b, timeout);
+		while(n == 0 && skip){
+			n = endpoint.read(b, remaining(deadline));
+		}
+		return n;
+	}
+
+	// ======================================================================
+	// 期限の算出
+	// ======================================================================
+	/**
+	 * 現在時刻から読み込みの期限を算出します。タイムアウトが 0 の場合は
+	 * {@link Long#MAX_VALUE} を返します。
+	 * <p>
+	 * @return 読み込みの期限
+	 */
+	private long deadline(){
+		int t = timeout;
+		return (t == 0)? Long.MAX_VALUE: System.currentTimeMillis() + t;
+	}
+
+	// ======================================================================
+	// 残り時間の算出
+	// ======================================================================
+	/**
+	 * 指定された期限までの残り時間を転送のタイムアウトとして算出します。
+	 * <p>
+	 * @param deadline 読み込みの期限
+	 * @return 転送のタイムアウト (ミリ秒、期限がない場合は 0)
+	 * @throws TimeoutException 期限を過ぎている場合
+	 */
+	private static int remaining(long deadline) throws TimeoutException{
+		if(deadline == Long.MAX_VALUE){
+			return 0;
+		}
+		long remain = deadline - System.currentTimeMillis();
+		if(remain <= 0){
+			throw new TimeoutException("operation timeout");
+		}
+		return (int)remain;
+	}
+
+	// ======================================================================
+	// クローズ状態の確認
+	// ======================================================================
+	/**
+	 * このストリームがクローズされていない事を確認します。
+	 * <p>
+	 * @throws IOException クローズされている場合
+	 */
+	private void ensureOpen() throws IOException{
+		if(closed){
+			throw new IOException("stream closed");
+		}
+		return;
+	}
+
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	// Channel: チャネル
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	/**
+	 * ストリームの先読みバッファを共有するチャネルです。
+	 * <p>
+	 */
+	private class Channel implements ReadableByteChannel {
+
+		/**
+		 * 指定されたバッファの残りにデータを読み込みます。先読みバッファが空でバッファの残りが
+		 * 先読みバッファのサイズ以上の場合は直接読み込みます。
+		 * <p>
+		 * @param dst バッファ
+		 * @return 読み込んだ長さ
+		 * @throws IOException 読み込みに失敗した場合
+		 */
+		public int read(ByteBuffer dst) throws IOException{
+			synchronized(BulkInputStream.this){
+				if(closed){
+					throw new ClosedChannelException();
+				}
+				if(! dst.hasRemaining()){
+					return 0;
+				}
+
+				// バッファサイズ以上の要求はパケット境界に揃えて直接読み込み
+				if(position == limit && dst.remaining() >= buffer.length){
+					ByteBuffer b = dst.duplicate();
+					b.limit(b.position() + dst.remaining() / packetSize * packetSize);
+					int n = receive(b, ! zeroLengthPacket);
+					dst.position(dst.position() + n);
+					return n;
+				}
+
+				if(position == limit){
+					fill(! zeroLengthPacket);
+				}
+				int n = Math.min(dst.remaining(), limit - position);
+				dst.put(buffer, position, n);
+				position += n;
+				return n;
+			}
+		}
+
+		/**
+		 * @return チャネルがオープンしている場合 true
+		 */
+		public boolean isOpen(){
+			return ! closed;
+		}
+
+		/**
+		 * ストリームをクローズします。
+		 * <p>
+		 */
+		public void close(){
+			BulkInputStream.this.close();
+			return;
+		}
+	}
+
+}
@@ -0,0 +1,509 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+
+import org.koiroha.usb.*;
+import org.koiroha.usb.desc.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// BulkOutputStream: バルク出力ストリーム
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * BULK OUT エンドポイントへ書き込むバッファ付きの出力ストリームです。
+ * <p>
+ * 小さな書き込みは内部バッファに蓄積され、バッファが一杯になった時点で 1 回の転送として送信
+ * されます。バッファサイズは {@code wMaxPacketSize} の倍数であるため、{@link #flush()} 以外
+ * で送信される転送は全て完全なパケットのみで構成されます。バッファが空の状態でバッファサイズ
+ * 以上の書き込みを行った場合はパケット境界までを直接送信し、残りをバッファに蓄積します。
+ * <p>
+ * {@link #flush()} はバッファに残っているデータを送信します。デバイスは
+ * {@code wMaxPacketSize} 未満のパケット (ショートパケット) で転送の終了を認識するため、
+ * 送信したデータの終端がパケット境界に一致する場合は転送が終了しません。
+ * {@link #setZeroLengthPacket(boolean)} を指定した場合、flush 時の終端がパケット境界に一致
+ * していれば長さ 0 のパケット (ZLP) を送信して転送を終了させます。ZLP を必要とするかどうかは
+ * デバイスのプロトコルに依存するためデフォルトでは送信しません。送信するデータがなければ
+ * flush は何も行いません。{@link #close()} は flush を行いますが、エンドポイントやデバイスは
+ * 解放しません。
+ * <p>
+ * 転送に失敗した場合、送信しようとしたデータはバッファに残ります。タイムアウトした転送の
+ * 一部がデバイスに届いている場合、ブリッジが {@link TimeoutException#getTransferred()} で
+ * 報告したデータはバッファから取り除かれ、次の送信ではデバイスが受け付けていないデータのみ
+ * が送信されます。{@link #write(byte[], int, int)} がタイムアウトした場合の
+ * {@link TimeoutException#getTransferred()} は、その呼び出しのデータのうちストリームが
+ * 受け付けた (送信済みまたはバッファに蓄積した) バイト数となります。
+ * <p>
+ * {@link #getChannel()} で同じバッファを共有する {@link WritableByteChannel} を参照できます。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ * @see BulkInputStream
+ */
+public class BulkOutputStream extends OutputStream {
+
+	// ======================================================================
+	// デフォルトバッファサイズ
+	// ======================================================================
+	/**
+	 * 書き込みバッファのデフォルトサイズ {@value} バイトです。実際のサイズは
+	 * {@code wMaxPacketSize} の倍数に切り上げられます。
+	 * <p>
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 4096;
+
+	// ======================================================================
+	// エンドポイント
+	// ======================================================================
+	/**
+	 * 書き込みを行うエンドポイントです。
+	 * <p>
+	 */
+	private final Endpoint endpoint;
+
+	// ======================================================================
+	// 最大パケットサイズ
+	// ======================================================================
+	/**
+	 * エンドポイントの最大パケットサイズです。
+	 * <p>
+	 */
+	private final int packetSize;
+
+	// ======================================================================
+	// 書き込みバッファ
+	// ======================================================================
+	/**
+	 * 送信前のデータを蓄積するバッファです。
+	 * <p>
+	 */
+	private final byte[] buffer;
+
+	// ======================================================================
+	// 蓄積データ長
+	// ======================================================================
+	/**
+	 * 書き込みバッファに蓄積されているデータの長さです。
+	 * <p>
+	 */
+	private int count = 0;
+
+	// ======================================================================
+	// 未終了転送
+	// ======================================================================
+	/**
+	 * 最後に送信したパケットが完全なパケットであり、デバイス側で転送が終了していないかどうか
+	 * です。
+	 * <p>
+	 */
+	private boolean unterminated = false;
+
+	// ======================================================================
+	// ZLP 送信
+	// ======================================================================
+	/**
+	 * flush 時に転送の終端がパケット境界と一致する場合に ZLP を送信するかどうかです。
+	 * <p>
+	 */
+	private volatile boolean zeroLengthPacket = false;
+
+	// ======================================================================
+	// タイムアウト
+	// ======================================================================
+	/**
+	 * 1 回の転送のタイムアウト (ミリ秒) です。
+	 * <p>
+	 */
+	private volatile int timeout = 0;
+
+	// ======================================================================
+	// クローズ状態
+	// ======================================================================
+	/**
+	 * このストリームがクローズされているかどうかです。
+	 * <p>
+	 */
+	private volatile boolean closed = false;
+
+	// ======================================================================
+	// チャネル
+	// ======================================================================
+	/**
+	 * このストリームのチャネルです。
+	 * <p>
+	 */
+	private WritableByteChannel channel = null;
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * デフォルトのバッファサイズで構築を行います。
+	 * <p>
+	 * @param endpoint BULK OUT エンドポイント
+	 * @throws IllegalArgumentException エンドポイントが BULK OUT でない場合
+	 */
+	public BulkOutputStream(Endpoint endpoint) {
+		this(endpoint, DEFAULT_BUFFER_SIZE);
+		return;
+	}
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * 書き込みバッファのサイズを指定して構築を行います。サイズは {@code wMaxPacketSize} の
+	 * 倍数に切り上げられます。
+	 * <p>
+	 * @param endpoint BULK OUT エンドポイント
+	 * @param size 書き込みバッファのサイズ
+	 * @throws IllegalArgumentException エンドポイントが BULK OUT でない場合やサイズが 0 以下の場合
+	 */
+	public BulkOutputStream(Endpoint endpoint, int size) {
+		EndpointDescriptor desc = endpoint.getDescriptor();
+		if(desc.getTransferType() != TransferType.BULK || desc.getDirection() != Direction.OUT){
+			throw new IllegalArgumentException("not a bulk out endpoint: " + desc);
+		}
+		if(size <= 0){
+			throw new IllegalArgumentException("size<=0; " + size);
+		}
+		this.endpoint = endpoint;
+		this.packetSize = Math.max(1, desc.getMaxPacketSize() & 0x7FF);
+		this.buffer = new byte[(size + packetSize - 1) / packetSize * packetSize];
+		return;
+	}
+
+	// ======================================================================
+	// タイムアウトの参照
+	// ======================================================================
+	/**
+	 * 1 回の転送のタイムアウトを参照します。
+	 * <p>
+	 * @return タイムアウト (ミリ秒)
+	 */
+	public int getTimeout(){
+		return timeout;
+	}
+
+	// ======================================================================
+	// タイムアウトの設定
+	// ======================================================================
+	/**
+	 * 1 回の転送のタイムアウトを設定します。0 を指定した場合はブリッジのデフォルト (libusb
+	 * では無制限) となります。デフォルトは 0 です。
+	 * <p>
+	 * @param timeout タイムアウト (ミリ秒)
+	 * @throws IllegalArgumentException タイムアウトが負の場合
+	 */
+	public void setTimeout(int timeout){
+		if(timeout < 0){
+			throw new IllegalArgumentException("timeout<0; " + timeout);
+		}
+		this.timeout = timeout;
+		return;
+	}
+
+	// ======================================================================
+	// ZLP 送信の参照
+	// ======================================================================
+	/**
+	 * flush 時に ZLP を送信するかどうかを参照します。
+	 * <p>
+	 * @return ZLP を送信する場合 true
+	 */
+	public boolean isZeroLengthPacket(){
+		return zeroLengthPacket;
+	}
+
+	// ======================================================================
+	// ZLP 送信の設定
+	// ======================================================================
+	/**
+	 * flush 時に転送の終端がパケット境界と一致する場合に ZLP を送信するかどうかを設定します。
+	 * <p>
+	 * @param zlp ZLP を送信する場合 true
+	 */
+	public void setZeroLengthPacket(boolean zlp){
+		this.zeroLengthPacket = zlp;
+		return;
+	}
+
+	// ======================================================================
+	// バッファサイズの参照
+	// ======================================================================
+	/**
+	 * 書き込みバッファのサイズを参照します。
+	 * <p>
+	 * @return バッファサイズ
+	 */
+	public int getBufferSize(){
+		return buffer.length;
+	}
+
+	// ======================================================================
+	// 1 バイトの書き込み
+	// ======================================================================
+	/**
+	 * 1 バイトをバッファに書き込みます。バッファが一杯になった場合は送信します。
+	 * <p>
+	 * @param b 書き込むバイト
+	 * @throws IOException 書き込みに失敗した場合
+	 */
+	@Override
+	public synchronized void write(int b) throws IOException{
+		ensureOpen();
+		if(count == buffer.length){
+			drain();
+		}
+		buffer[count ++] = (byte)b;
+		if(count == buffer.length){
+			drain();
+		}
+		return;
+	}
+
+	// ======================================================================
+	// データの書き込み
+	// ======================================================================
+	/**
+	 * 指定された領域のデータを書き込みます。
+	 * <p>
+	 * @param b バッファ
+	 * @param off バッファ内の開始位置
+	 * @param len 書き込む長さ
+	 * @throws IOException 書き込みに失敗した場合
+	 */
+	@Override
+	public synchronized void write(byte[] b, int off, int len) throws IOException{
+		if(off < 0 || len < 0 || off + len > b.length){
+			throw new IndexOutOfBoundsException("buffer=" + b.length + ",offset=" + off + ",length=" + len);
+		}
+		ensureOpen();
+		int start = off;
+		try{
+			while(len > 0){
+
+				// 以前の送信に失敗したバッファは先に送信
+				if(count == buffer.length){
+					drain();
+				}
+
+				// バッファが空でバッファサイズ以上のデータはパケット境界までを直接送信
+				if(count == 0 && len >= buffer.length){
+					int size = len / packetSize * packetSize;
+					try{
+						endpoint.write(b, off, size, timeout);
+					} catch(TimeoutException ex){
+						off += ex.getTransferred();
+						unterminated |= (ex.getTransferred() > 0);
+						throw ex;
+					}
+					unterminated = true;
+					off += size;
+					len -= size;
+					continue;
+				}
+
+				int n = Math.min(len, buffer.length - count);
+				System.arraycopy(b, off, buffer, count, n);
+				count += n;
+				off += n;
+				len -= n;
+				if(count == buffer.length){
+					drain();
+				}
+			}
+		} catch(TimeoutException ex){
+			throw new TimeoutException(ex.getMessage(), off - start, ex);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// フラッシュ
+	// ======================================================================
+	/**
+	 * バッファに蓄積されているデータを送信します。ZLP の送信が指定されていて転送の終端が
+	 * パケット境界と一致する場合は続けて ZLP を送信します。
+	 * <p>
+	 * @throws IOException 送信に失敗した場合
+	 */
+	@Override
+	public synchronized void flush() throws IOException{
+		ensureOpen();
+		if(count > 0){
+			drain();
+		}
+		if(unterminated && zeroLengthPacket){
+			endpoint.write(buffer, 0, 0, timeout);
+		}
+		unterminated = false;
+		return;
+	}
+
+	// ======================================================================
+	// ストリームのクローズ
+	// ======================================================================
+	/**
+	 * バッファに蓄積されているデータを flush してこのストリームをクローズします。エンドポイント
+	 * やデバイスは解放されません。
+	 * <p>
+	 * @throws IOException 送信に失敗した場合
+	 */
+	@Override
+	public synchronized void close() throws IOException{
+		if(! closed){
+			flush();
+			closed = true;
+		}
+		return;
+	}
+
+	// ======================================================================
+	// チャネルの参照
+	// ======================================================================
+	/**
+	 * このストリームと書き込みバッファを共有するチャネルを参照します。チャネルをクローズすると
+	 * このストリームもクローズされます。
+	 * <p>
+	 * @return チャネル
+	 */
+	public synchronized WritableByteChannel getChannel(){
+		if(channel == null){
+			channel = new Channel();
+		}
+		return channel;
+	}
+
+	// ======================================================================
+	// バッファの送信
+	// ======================================================================
+	/**
+	 * バッファに蓄積されているデータを 1 回の転送で送信します。失敗した場合はバッファの内容を
+	 * 保持しますが、タイムアウトまでにデバイスが受け付けたデータはバッファから取り除きます。
+	 * <p>
+	 * @throws USBException 送信に失敗した場合
+	 */
+	private void drain() throws USBException{
+		try{
+			endpoint.write(buffer, 0, count, timeout);
+		} catch(TimeoutException ex){
+			int n = Math.min(ex.getTransferred(), count);
+			if(n > 0){
+				System.arraycopy(buffer, n, buffer, 0, count - n);
+				count -= n;
+				unterminated = (n % packetSize == 0);
+			}
+			throw ex;
+		}
+		unterminated = (count % packetSize == 0);
+		count = 0;
+		return;
+	}
+
+	// ======================================================================
+	// クローズ状態の確認
+	// ======================================================================
+	/**
+	 * このストリームがクローズされていない事を確認します。
+	 * <p>
+	 * @throws IOException クローズされている場合
+	 */
+	private void ensureOpen() throws IOException{
+		if(closed){
+			throw new IOException("stream closed");
+		}
+		return;
+	}
+
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	// Channel: チャネル
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	/**
+	 * ストリームの書き込みバッファを共有するチャネルです。
+	 * <p>
+	 */
+	private class Channel implements WritableByteChannel {
+
+		/**
+		 * 指定されたバッファの残りを全て書き込みます。バッファが一杯になった場合は送信し、
+		 * 書き込みバッファが空でバッファの残りが書き込みバッファのサイズ以上の場合はパケット
+		 * 境界までを直接送信します。
+		 * <p>
+		 * @param src バッファ
+		 * @return 書き込んだ長さ
+		 * @throws IOException 書き込みに失敗した場合
+		 */
+		public int write(ByteBuffer src) throws IOException{
+			synchronized(BulkOutputStream.this){
+				if(closed){
+					throw new ClosedChannelException();
+				}
+				int written = 0;
+				while(src.hasRemaining()){
+
+					// 以前の送信に失敗したバッファは先に送信
+					if(count == buffer.length){
+						drain();
+					}
+
+					// バッファが空でバッファサイズ以上のデータはパケット境界までを直接送信
+					if(count == 0 && src.remaining() >= buffer.length){
+						ByteBuffer b = src.duplicate();
+						int size = src.remaining() / packetSize * packetSize;
+						b.limit(b.position() + size);
+						try{
+							endpoint.write(b, timeout);
+						} catch(TimeoutException ex){
+							unterminated |= (b.position() > src.position());
+							src.position(b.position());
+							throw ex;
+						}
+						unterminated = true;
+						src.position(src.position() + size);
+						written += size;
+						continue;
+					}
+
+					int n = Math.min(src.remaining(), buffer.length - count);
+					src.get(buffer, count, n);
+					count += n;
+					written += n;
+					if(count == buffer.length){
+						drain();
+					}
+				}
+				return written;
+			}
+		}
+
+		/**
+		 * @return チャネルがオープンしている場合 true
+		 */
+		public boolean isOpen(){
+			return ! closed;
+		}
+
+		/**
+		 * ストリームを flush してクローズします。
+		 * <p>
+		 * @throws IOException 送信に失敗した場合
+		 */
+		public void close() throws IOException{
+			BulkOutputStream.this.close();
+			return;
+		}
+	}
+
+}
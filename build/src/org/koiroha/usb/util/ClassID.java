@@ -29,6 +29,11 @@ import org.xml.sax.*;
  * ID に対する名称を定義
  * した ClassID XML ファイルを作成しアプリケーションにバンドルすることで
  * <p>
+ * XML や IDS ファイルからの構築は DOM の解析を伴うため時間とメモリを必要とします。
+ * {@link #writeDatabase(OutputStream)} で出力したバイナリ形式のデータベースを
+ * {@link #getClassIDFromDatabase(File)} で使用すると、ファイルはメモリマップされ参照した
+ * 名称のみが読み出されます。
+ * <p>
  * 構築したインスタンスは不変です。複数のスレッドで共有することが出来ます。
  * <p>
  * @version usb4j 1.0 $Revision: 1.4 $ $Date: 2009/05/14 17:03:59 $
@@ -57,31 +62,13 @@ public final class ClassID {
 	public static final String XMLNS = "http://www.koiroha.org/xmlns/usb4j/usbclassid";
 
 	// ======================================================================
-	// ベンダー名マップ
-	// ======================================================================
-	/**
-	 * idVendor/idProduct に対する名前のマップです。
-	 * <p>
-	 */
-	private final Map<ID,String> vendorName = new HashMap<ID,String>();
-
-	// ======================================================================
-	// クラス名マップ
-	// ======================================================================
-	/**
-	 * デバイスクラスとクラス名のマップです。
-	 * <p>
-	 */
-	private final Map<ID,String> className = new HashMap<ID,String>();
-
-	// ======================================================================
-	// 言語名マップ
+	// データベース
 	// ======================================================================
 	/**
-	 * 言語 ID に対する名前のマップです。
+	 * ID に対する名称を保持するデータベースです。
 	 * <p>
 	 */
-	private final Map<ID,LANGID> langid = new HashMap<ID,LANGID>();
+	private final ClassIDDatabase db;
 
 	// ======================================================================
 	// コンストラクタ
@@ -94,9 +81,24 @@ public final class ClassID {
 	 * @throws SAXException ファイル形式が不正な場合
 	 */
 	private ClassID(InputSource[] in) throws IOException, SAXException{
+		ClassIDDatabase.Builder builder = new ClassIDDatabase.Builder();
 		for(int i=0; i<in.length; i++){
-			parse(in[i]);
+			parse(in[i], builder);
 		}
+		this.db = builder.build();
+		return;
+	}
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * 指定されたデータベースを使用して構築を行います。
+	 * <p>
+	 * @param db データベース
+	 */
+	private ClassID(ClassIDDatabase db){
+		this.db = db;
 		return;
 	}
 
@@ -111,7 +113,7 @@ public final class ClassID {
 	 * @return ベンダー名
 	 */
 	public String getVendor(int idVendor){
-		String name = vendorName.get(new ID(idVendor & 0xFFFF));
+		String name = db.getLabel(ClassIDDatabase.VENDOR, idVendor & 0xFFFF);
 		if(name == null){
 			return "";
 		}
@@ -145,7 +147,7 @@ public final class ClassID {
 	 * @return 製品名
 	 */
 	public String getProduct(int idVendor, int idProduct){
-		String name = vendorName.get(new ID(idVendor & 0xFFFF, idProduct & 0xFFFF));
+		String name = db.getLabel(ClassIDDatabase.VENDOR, idVendor & 0xFFFF, idProduct & 0xFFFF);
 		if(name == null){
 			return "";
 		}
@@ -178,7 +180,7 @@ public final class ClassID {
 	 * @return ID に対する名前
 	 */
 	public String getClass(int classId){
-		String name = className.get(new ID(classId & 0xFF));
+		String name = db.getLabel(ClassIDDatabase.CLASS, classId & 0xFF);
 		if(name == null){
 			return "";
 		}
@@ -227,7 +229,7 @@ public final class ClassID {
 	 * @return ID に対する名前
 	 */
 	public String getSubClass(int classId, int subClassId){
-		String name = className.get(new ID(classId & 0xFF, subClassId & 0xFF));
+		String name = db.getLabel(ClassIDDatabase.CLASS, classId & 0xFF, subClassId & 0xFF);
 		if(name == null){
 			return "";
 		}
@@ -279,7 +281,7 @@ public final class ClassID {
 	 * @return ID に対する名前
 	 */
 	public String getProtocol(int classId, int subClassId, int protocol){
-		String name = className.get(new ID(classId & 0xFF, subClassId & 0xFF, protocol & 0xFF));
+		String name = db.getLabel(ClassIDDatabase.CLASS, classId & 0xFF, subClassId & 0xFF, protocol & 0xFF);
 		if(name == null){
 			return "";
 		}
@@ -325,11 +327,11 @@ public final class ClassID {
 	 * @return ID に対する名前
 	 */
 	public String getLanguage(int langid){
-		LANGID lang = getLangID(langid);
-		if(lang == null){
+		int[] id = getLangID(langid);
+		if(id == null){
 			return "";
 		}
-		return lang.label;
+		return db.getLabel(ClassIDDatabase.LANG, id);
 	}
 
 	// ======================================================================
@@ -343,11 +345,11 @@ public final class ClassID {
 	 * @return ID に対する名前
 	 */
 	public Locale getLanguageLocale(int langid){
-		LANGID lang = getLangID(langid);
-		if(lang == null){
+		int[] id = getLangID(langid);
+		if(id == null){
 			return null;
 		}
-		return lang.locale;
+		return getLocale(db.getLocale(ClassIDDatabase.LANG, id));
 	}
 
 	// ======================================================================
@@ -360,11 +362,11 @@ public final class ClassID {
 	 */
 	public Set<Short> getAvailableLangIDs(){
 		Set<Short> s = new HashSet<Short>();
-		for(ID id: langid.keySet()){
-			if(id.id.length == 1){
-				s.add(LangID.getLangID(id.id[0], 0x01));
-			} else if(id.id.length == 2){
-				s.add(LangID.getLangID(id.id[0], id.id[1]));
+		for(int[] id: db.getIDs(ClassIDDatabase.LANG)){
+			if(id.length == 1){
+				s.add(LangID.getLangID(id[0], 0x01));
+			} else if(id.length == 2){
+				s.add(LangID.getLangID(id[0], id[1]));
 			} else {
 				assert(false);
 			}
@@ -376,19 +378,22 @@ public final class ClassID {
 	// 言語 ID の参照
 	// ======================================================================
 	/**
-	 * 指定された言語 ID に対するオブジェクトを参照します。
+	 * 指定された言語 ID に対してデータベースに定義されている ID を参照します。方言が定義されて
+	 * いない場合は言語の ID を返します。
 	 * <p>
 	 * @param langid 言語 ID
-	 * @return ID に対するオブジェクト
+	 * @return データベース上の ID (定義されていない場合は null)
 	 */
-	private LANGID getLangID(int langid){
+	private int[] getLangID(int langid){
 		int primary = LangID.getPrimaryLanguage(langid);
 		int sub = LangID.getSubLanguage(langid);
-		LANGID lang = this.langid.get(new ID(primary, sub));
-		if(lang == null){
-			lang = this.langid.get(new ID(primary));
+		if(db.getLabel(ClassIDDatabase.LANG, primary, sub) != null){
+			return new int[]{ primary, sub };
+		}
+		if(db.getLabel(ClassIDDatabase.LANG, primary) != null){
+			return new int[]{ primary };
 		}
-		return lang;
+		return null;
 	}
 
 	// ======================================================================
@@ -477,7 +482,7 @@ public final class ClassID {
 	public static final ClassID getClassIDFromIDS(InputStream... in) throws IOException, SAXException{
 		InputSource[] is = new InputSource[in.length];
 		for(int i=0; i<in.length; i++){
-			is[i] = new InputSource(in[i]);
+			is[i] = new InputSource(new Ids2XmlReader(new InputStreamReader(in[i], "UTF-8")));
 		}
 		return new ClassID(is);
 	}
@@ -498,6 +503,54 @@ public final class ClassID {
 		return new Ids2XmlReader(in);
 	}
 
+	// ======================================================================
+	// データベースの出力
+	// ======================================================================
+	/**
+	 * このインスタンスの定義をバイナリ形式のデータベースとして出力します。出力したデータベース
+	 * は {@link #getClassIDFromDatabase(File)} で読み込むことが出来ます。
+	 * <p>
+	 * @param out 出力先のストリーム
+	 * @throws IOException 出力に失敗した場合
+	 */
+	public void writeDatabase(OutputStream out) throws IOException{
+		db.write(out);
+		return;
+	}
+
+	// ======================================================================
+	// インスタンスの参照
+	// ======================================================================
+	/**
+	 * 指定されたバイナリ形式のデータベースファイルをメモリマップしてインスタンスを構築します。
+	 * 名称は参照時にファイルから読み出されるため、XML や IDS ファイルから構築する場合と比べて
+	 * 構築時間とヒープの使用量が大幅に小さくなります。
+	 * <p>
+	 * @param file {@link #writeDatabase(OutputStream)} で出力したデータベースファイル
+	 * @return ClassID のインスタンス
+	 * @throws IOException 読み込みに失敗した場合
+	 */
+	public static final ClassID getClassIDFromDatabase(File file) throws IOException{
+		logger.finer("mapping class id database: " + file);
+		return new ClassID(ClassIDDatabase.open(file));
+	}
+
+	// ======================================================================
+	// インスタンスの参照
+	// ======================================================================
+	/**
+	 * 指定された入力ストリームから読み出されるバイナリ形式のデータベースに基づいたインスタンスを
+	 * 構築します。JAR ファイル内のリソースなどメモリマップ出来ない場合に使用します。
+	 * ストリームはクローズされません。
+	 * <p>
+	 * @param in {@link #writeDatabase(OutputStream)} で出力したデータベースの入力ストリーム
+	 * @return ClassID のインスタンス
+	 * @throws IOException 読み込みに失敗した場合
+	 */
+	public static final ClassID getClassIDFromDatabase(InputStream in) throws IOException{
+		return new ClassID(ClassIDDatabase.read(in));
+	}
+
 	// ======================================================================
 	// ストリームの解析
 	// ======================================================================
@@ -505,16 +558,17 @@ public final class ClassID {
 	 * 指定された入力ストリームから読み出される定義を解析します。
 	 * <p>
 	 * @param in ClassID XML の入力ソース
+	 * @param builder 定義を追加するデータベース
 	 * @throws IOException 読み込みに失敗した場合
 	 * @throws SAXException データ形式が不正な場合
 	 */
-	private void parse(InputSource in) throws IOException, SAXException{
+	private static void parse(InputSource in, ClassIDDatabase.Builder builder) throws IOException, SAXException{
 		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
 		factory.setNamespaceAware(true);
 		try{
-			DocumentBuilder builder = factory.newDocumentBuilder();
-			Document doc = builder.parse(in);
-			parseChild(doc);
+			DocumentBuilder db = factory.newDocumentBuilder();
+			Document doc = db.parse(in);
+			parseChild(doc, builder);
 		} catch(ParserConfigurationException ex){
 			throw new IllegalStateException(ex);
 		}
@@ -528,61 +582,61 @@ public final class ClassID {
 	 * 指定された要素を解析します。
 	 * <p>
 	 * @param elem 解析する要素
+	 * @param builder 定義を追加するデータベース
 	 */
-	private void parse(Element elem){
+	private static void parse(Element elem, ClassIDDatabase.Builder builder){
 
 		// 名前空間が一致しなければこの要素は解析しない
 		if(! XMLNS.equals(elem.getNamespaceURI())){
-			parseChild(elem);
+			parseChild(elem, builder);
 			return;
 		}
 
+		String label = elem.getAttribute("label");
 		if(elem.getLocalName().equals("vendor")){
-			String label = elem.getAttribute("label");
-			ID id = getID(elem, "vendor");
-			vendorName.put(id, label);
-			logger.finest("vendor[" + id + "] " + label);
+			put(builder, ClassIDDatabase.VENDOR, label, null, getID(elem, "vendor"));
 		} else if(elem.getLocalName().equals("product")){
-			String label = elem.getAttribute("label");
-			ID id = getID(elem, "vendor", "product");
-			vendorName.put(id, label);
-			logger.finest("vendor[" + id + "] " + label);
+			put(builder, ClassIDDatabase.VENDOR, label, null, getID(elem, "vendor", "product"));
 		} else if(elem.getLocalName().equals("interface")){
-			String label = elem.getAttribute("label");
-			ID id = getID(elem, "vendor", "product", "interface");
-			vendorName.put(id, label);
-			logger.finest("vendor[" + id + "] " + label);
+			put(builder, ClassIDDatabase.VENDOR, label, null, getID(elem, "vendor", "product", "interface"));
 		} else if(elem.getLocalName().equals("class")){
-			String label = elem.getAttribute("label");
-			ID id = getID(elem, "class");
-			className.put(id, label);
-			logger.finest("class[" + id + "] " + label);
+			put(builder, ClassIDDatabase.CLASS, label, null, getID(elem, "class"));
 		} else if(elem.getLocalName().equals("subclass")){
-			String label = elem.getAttribute("label");
-			ID id = getID(elem, "class", "subclass");
-			className.put(id, label);
-			logger.finest("class[" + id + "] " + label);
+			put(builder, ClassIDDatabase.CLASS, label, null, getID(elem, "class", "subclass"));
 		} else if(elem.getLocalName().equals("protocol")){
-			String label = elem.getAttribute("label");
-			ID id = getID(elem, "class", "subclass", "protocol");
-			className.put(id, label);
-			logger.finest("class[" + id + "] " + label);
+			put(builder, ClassIDDatabase.CLASS, label, null, getID(elem, "class", "subclass", "protocol"));
 		} else if(elem.getLocalName().equals("lang")){
-			String label = elem.getAttribute("label");
-			ID id = getID(elem, "lang");
-			Locale locale = getLocale(elem.getAttribute("locale"));
-			langid.put(id, new LANGID(label, locale));
-			logger.finest("lang[" + id + "] " + label);
+			put(builder, ClassIDDatabase.LANG, label, elem.getAttribute("locale"), getID(elem, "lang"));
 		} else if(elem.getLocalName().equals("dialect")){
-			String label = elem.getAttribute("label");
-			ID id = getID(elem, "lang", "dialect");
-			Locale locale = getLocale(elem.getAttribute("locale"));
-			langid.put(id, new LANGID(label, locale));
-			logger.finest("lang[" + id + "] " + label);
+			put(builder, ClassIDDatabase.LANG, label, elem.getAttribute("locale"), getID(elem, "lang", "dialect"));
 		} else {
 			logger.fine("unknown element: " + elem.getLocalName());
 		}
-		parseChild(elem);
+		parseChild(elem, builder);
+		return;
+	}
+
+	// ======================================================================
+	// 定義の追加
+	// ======================================================================
+	/**
+	 * 解析した定義をデータベースに追加します。ID が不正な場合は何も行いません。
+	 * <p>
+	 * @param builder 定義を追加するデータベース
+	 * @param category 分類
+	 * @param label 名称
+	 * @param locale ロケール
+	 * @param id ID
+	 */
+	private static void put(ClassIDDatabase.Builder builder, int category, String label, String locale, int[] id){
+		if(id == null){
+			logger.fine("invalid element hierarchy: " + label);
+			return;
+		}
+		builder.put(category, label, locale, id);
+		if(logger.isLoggable(java.util.logging.Level.FINEST)){
+			logger.finest("[" + category + ":" + Arrays.toString(id) + "] " + label);
+		}
 		return;
 	}
 
@@ -593,12 +647,13 @@ public final class ClassID {
 	 * 指定されたノードの子要素を再帰的に解析します。
 	 * <p>
 	 * @param node ノード
+	 * @param builder 定義を追加するデータベース
 	 */
-	private void parseChild(Node node){
+	private static void parseChild(Node node, ClassIDDatabase.Builder builder){
 		NodeList nl = node.getChildNodes();
 		for(int i=0; i<nl.getLength(); i++){
 			if(nl.item(i) instanceof Element){
-				parse((Element)nl.item(i));
+				parse((Element)nl.item(i), builder);
 			}
 		}
 		return;
@@ -614,6 +669,9 @@ public final class ClassID {
 	 * @return ロケール
 	 */
 	private static Locale getLocale(String locale){
+		if(locale == null){
+			return null;
+		}
 		String[] l = locale.split("_");
 		if(l.length == 1){
 			return new Locale(l[0]);
@@ -634,11 +692,12 @@ public final class ClassID {
 	 * @param localName ローカル名のリスト
 	 * @return 検出した ID
 	 */
-	private static ID getID(Element target, String... localName){
+	private static int[] getID(Element target, String... localName){
 		List<Integer> id = new ArrayList<Integer>();
 		Node mover = target;
 		while(mover instanceof Element){
 			Element elem = (Element)mover;
+			mover = mover.getParentNode();
 			if(! XMLNS.equals(elem.getNamespaceURI())){
 				continue;
 			}
@@ -651,144 +710,10 @@ public final class ClassID {
 				for(int i=0; i<id.size(); i++){
 					array[i] = id.get(i);
 				}
-				return new ID(array);
+				return array;
 			}
-			mover = mover.getParentNode();
 		}
 		return null;
 	}
 
-	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
-	// ID: ID クラス
-	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
-	/**
-	 * クラス/サブクラス/プロトコルをキーとして使用するためのクラスです。
-	 * <p>
-	 */
-	private static class ID{
-
-		// ==================================================================
-		// ID 数値
-		// ==================================================================
-		/**
-		 * この ID を表す数値です。
-		 * <p>
-		 */
-		private final int[] id;
-
-		// ==================================================================
-		// コンストラクタ
-		// ==================================================================
-		/**
-		 * ID を指定して構築を行います。
-		 * <p>
-		 * @param id ID
-		 */
-		public ID(int... id){
-			this.id = id;
-			return;
-		}
-
-		// ==================================================================
-		// ハッシュ値の参照
-		// ==================================================================
-		/**
-		 * ハッシュ値を参照します。
-		 * <p>
-		 * @return ハッシュ値
-		 */
-		@Override
-		public int hashCode(){
-			int hash = 0;
-			for(int i=0; i<id.length; i++){
-				hash += id.length;
-			}
-			return hash;
-		}
-
-		// ==================================================================
-		// 等価判定
-		// ==================================================================
-		/**
-		 * 指定されたインスタンスと等しいかどうかを判定します。
-		 * <p>
-		 * @param o 比較するオブジェクト
-		 */
-		@Override
-		public boolean equals(Object o){
-			if(! (o instanceof ID)){
-				return false;
-			}
-			ID other = (ID)o;
-			return Arrays.equals(this.id, other.id);
-		}
-
-		// ==================================================================
-		// インスタンスの文字列化
-		// ==================================================================
-		/**
-		 * このインスタンスを文字列化します。
-		 * <p>
-		 * @return インスタンスの文字列
-		 */
-		@Override
-		public String toString(){
-			StringBuilder buffer = new StringBuilder();
-			for(int i=0; i<id.length; i++){
-				if(i != 0){
-					buffer.append(':');
-				}
-				if(id[i] < 0){
-					buffer.append('-');
-				} else {
-					buffer.append(Integer.toHexString(id[i]).toUpperCase());
-				}
-			}
-			return buffer.toString();
-		}
-
-	}
-
-	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
-	// ID: ID クラス
-	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
-	/**
-	 * クラス/サブクラス/プロトコルをキーとして使用するためのクラスです。
-	 * <p>
-	 */
-	private static class LANGID {
-
-		// ==================================================================
-		// ラベル
-		// ==================================================================
-		/**
-		 * 言語 ID のラベルです。
-		 */
-		private final String label;
-
-		// ==================================================================
-		// ロケール
-		// ==================================================================
-		/**
-		 * 言語 ID に対するロケールです。
-		 */
-		private final Locale locale;
-
-		// ==================================================================
-		// コンストラクタ
-		// ==================================================================
-		/**
-		 * ラベルとロケールを指定して構築を行います。
-		 * <p>
-		 * @param label ラベル
-		 * @param locale ロケール
-		 */
-		public LANGID(String label, Locale locale){
-			this.label = label;
-			this.locale = locale;
-			return;
-		}
-
-	}
-
 }
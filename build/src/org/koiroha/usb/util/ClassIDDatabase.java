@@ -0,0 +1,523 @@
+/* **************************************************************************
+ * Copyright (C) 2009 koiroha.org All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                        takami torao <torao@mars.dti.ne.jp>
+ *                                                     http://www.koiroha.org
+ * $Id$
+*/
+package org.koiroha.usb.util;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// ClassIDDatabase: クラス ID データベース
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * {@link ClassID} が名称の参照に使用するバイナリ形式のデータベースです。
+ * <p>
+ * データベースは整列された 64 ビットのキーの配列と、キーに対応する文字列表のオフセットの
+ * 配列、および同じ文字列を 1 度だけ格納した文字列表で構成されます。参照は配列を直接二分探索し
+ * 見つかった名称のみを文字列に変換するため、メモリマップしたファイルを使用する場合は
+ * 全体をヒープに展開する必要がありません。
+ * <p>
+ * ファイル形式は以下の通りです (ビッグエンディアン)。
+ * <pre>
+ * int    MAGIC ('UCID')
+ * int    VERSION
+ * int    エントリ数 n
+ * int    文字列表のバイト数
+ * long[n] キー (昇順)
+ * int[n]  名称の文字列表オフセット
+ * int[n]  ロケールの文字列表オフセット (ない場合は -1)
+ * byte[]  文字列表 (UINT16 のバイト長に続く UTF-8 バイナリの並び)
+ * </pre>
+ * <p>
+ * 構築したインスタンスは不変です。複数のスレッドで共有することが出来ます。
+ * <p>
+ * @version usb4j 1.0 $Revision$ $Date$
+ * @author torao
+ * @since 2009/05/24 Java2 SE 5.0
+ */
+final class ClassIDDatabase {
+
+	// ======================================================================
+	// マジックナンバー
+	// ======================================================================
+	/**
+	 * データベースファイルの先頭を表す定数 'UCID' です。
+	 * <p>
+	 */
+	public static final int MAGIC = 0x55434944;
+
+	// ======================================================================
+	// バージョン
+	// ======================================================================
+	/**
+	 * データベースファイルの形式バージョンです。
+	 * <p>
+	 */
+	public static final int VERSION = 1;
+
+	// ======================================================================
+	// ベンダー分類
+	// ======================================================================
+	/**
+	 * ベンダー/製品/インターフェースの名称を表す分類です。
+	 * <p>
+	 */
+	public static final int VENDOR = 0;
+
+	// ======================================================================
+	// クラス分類
+	// ======================================================================
+	/**
+	 * クラス/サブクラス/プロトコルの名称を表す分類です。
+	 * <p>
+	 */
+	public static final int CLASS = 1;
+
+	// ======================================================================
+	// 言語分類
+	// ======================================================================
+	/**
+	 * 言語/方言の名称を表す分類です。
+	 * <p>
+	 */
+	public static final int LANG = 2;
+
+	// ======================================================================
+	// ヘッダサイズ
+	// ======================================================================
+	/**
+	 * ファイルヘッダのバイト数です。
+	 * <p>
+	 */
+	private static final int HEADER = 16;
+
+	// ======================================================================
+	// データベースバイナリ
+	// ======================================================================
+	/**
+	 * データベース全体のバイナリです。複数のスレッドから参照できるよう位置を変更しない絶対位置
+	 * のメソッドのみを使用します。
+	 * <p>
+	 */
+	private final ByteBuffer buffer;
+
+	// ======================================================================
+	// エントリ数
+	// ======================================================================
+	/**
+	 * データベースのエントリ数です。
+	 * <p>
+	 */
+	private final int count;
+
+	// ======================================================================
+	// 名称オフセット位置
+	// ======================================================================
+	/**
+	 * 名称オフセット配列の開始位置です。
+	 * <p>
+	 */
+	private final int labels;
+
+	// ======================================================================
+	// ロケールオフセット位置
+	// ======================================================================
+	/**
+	 * ロケールオフセット配列の開始位置です。
+	 * <p>
+	 */
+	private final int locales;
+
+	// ======================================================================
+	// 文字列表位置
+	// ======================================================================
+	/**
+	 * 文字列表の開始位置です。
+	 * <p>
+	 */
+	private final int strings;
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * 指定されたバイナリを使用するデータベースを構築します。
+	 * <p>
+	 * @param buffer データベースのバイナリ
+	 * @throws IOException データベースの形式が不正な場合
+	 */
+	private ClassIDDatabase(ByteBuffer buffer) throws IOException{
+		buffer.order(ByteOrder.BIG_ENDIAN);
+		if(buffer.limit() < HEADER || buffer.getInt(0) != MAGIC){
+			throw new IOException("not a class id database");
+		}
+		if(buffer.getInt(4) != VERSION){
+			throw new IOException("unsupported class id database version: " + buffer.getInt(4));
+		}
+		this.buffer = buffer;
+		this.count = buffer.getInt(8);
+		this.labels = HEADER + count * 8;
+		this.locales = labels + count * 4;
+		this.strings = locales + count * 4;
+		if(count < 0 || strings + buffer.getInt(12) > buffer.limit()){
+			throw new IOException("broken class id database");
+		}
+		return;
+	}
+
+	// ======================================================================
+	// データベースのオープン
+	// ======================================================================
+	/**
+	 * 指定されたファイルをメモリマップしてデータベースを参照します。
+	 * <p>
+	 * @param file データベースファイル
+	 * @return データベース
+	 * @throws IOException ファイルの読み込みに失敗した場合
+	 */
+	public static ClassIDDatabase open(File file) throws IOException{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try{
+			FileChannel channel = raf.getChannel();
+			return new ClassIDDatabase(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			raf.close();
+		}
+	}
+
+	// ======================================================================
+	// データベースの読み込み
+	// ======================================================================
+	/**
+	 * 指定された入力ストリームからデータベースを読み込みます。ストリームはクローズされません。
+	 * <p>
+	 * @param in データベースの入力ストリーム
+	 * @return データベース
+	 * @throws IOException 読み込みに失敗した場合
+	 */
+	public static ClassIDDatabase read(InputStream in) throws IOException{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		while(true){
+			int len = in.read(buffer);
+			if(len < 0){
+				break;
+			}
+			out.write(buffer, 0, len);
+		}
+		return new ClassIDDatabase(ByteBuffer.wrap(out.toByteArray()));
+	}
+
+	// ======================================================================
+	// データベースの出力
+	// ======================================================================
+	/**
+	 * このデータベースのバイナリを出力します。
+	 * <p>
+	 * @param out 出力先のストリーム
+	 * @throws IOException 出力に失敗した場合
+	 */
+	public void write(OutputStream out) throws IOException{
+		ByteBuffer b = buffer.duplicate();
+		b.clear();
+		byte[] binary = new byte[4096];
+		while(b.hasRemaining()){
+			int len = Math.min(binary.length, b.remaining());
+			b.get(binary, 0, len);
+			out.write(binary, 0, len);
+		}
+		out.flush();
+		return;
+	}
+
+	// ======================================================================
+	// 名称の参照
+	// ======================================================================
+	/**
+	 * 指定された分類と ID に対する名称を参照します。
+	 * <p>
+	 * @param category 分類
+	 * @param id ID
+	 * @return 名称 (定義されていない場合は null)
+	 */
+	public String getLabel(int category, int... id){
+		int i = search(toKey(category, id));
+		if(i < 0){
+			return null;
+		}
+		return getString(buffer.getInt(labels + i * 4));
+	}
+
+	// ======================================================================
+	// ロケールの参照
+	// ======================================================================
+	/**
+	 * 指定された分類と ID に対するロケール文字列を参照します。
+	 * <p>
+	 * @param category 分類
+	 * @param id ID
+	 * @return ロケール (定義されていない場合は null)
+	 */
+	public String getLocale(int category, int... id){
+		int i = search(toKey(category, id));
+		if(i < 0){
+			return null;
+		}
+		return getString(buffer.getInt(locales + i * 4));
+	}
+
+	// ======================================================================
+	// ID の参照
+	// ======================================================================
+	/**
+	 * 指定された分類に定義されている全ての ID を参照します。
+	 * <p>
+	 * @param category 分類
+	 * @return ID のリスト
+	 */
+	public List<int[]> getIDs(int category){
+		List<int[]> list = new ArrayList<int[]>();
+		for(int i=lowerBound(toKey(category)); i<count; i++){
+			long key = buffer.getLong(HEADER + i * 8);
+			if((int)(key >>> 56) != category){
+				break;
+			}
+			int[] id = new int[(int)(key >>> 48) & 0x0F];
+			for(int j=0; j<id.length; j++){
+				id[j] = (int)(key >>> (32 - j * 16)) & 0xFFFF;
+			}
+			list.add(id);
+		}
+		return list;
+	}
+
+	// ======================================================================
+	// エントリ数の参照
+	// ======================================================================
+	/**
+	 * このデータベースのエントリ数を参照します。
+	 * <p>
+	 * @return エントリ数
+	 */
+	public int size(){
+		return count;
+	}
+
+	// ======================================================================
+	// キーの検索
+	// ======================================================================
+	/**
+	 * 指定されたキーのインデックスを二分探索します。
+	 * <p>
+	 * @param key キー
+	 * @return インデックス (存在しない場合は負の値)
+	 */
+	private int search(long key){
+		int i = lowerBound(key);
+		if(i < count && buffer.getLong(HEADER + i * 8) == key){
+			return i;
+		}
+		return -1;
+	}
+
+	// ======================================================================
+	// 下限の検索
+	// ======================================================================
+	/**
+	 * 指定されたキー以上となる最初のインデックスを二分探索します。
+	 * <p>
+	 * @param key キー
+	 * @return インデックス
+	 */
+	private int lowerBound(long key){
+		int low = 0;
+		int high = count;
+		while(low < high){
+			int mid = (low + high) >>> 1;
+			if(buffer.getLong(HEADER + mid * 8) < key){
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	// ======================================================================
+	// 文字列の参照
+	// ======================================================================
+	/**
+	 * 文字列表の指定されたオフセットから文字列を復元します。
+	 * <p>
+	 * @param offset 文字列表のオフセット
+	 * @return 文字列 (オフセットが負の場合は null)
+	 */
+	private String getString(int offset){
+		if(offset < 0){
+			return null;
+		}
+		int pos = strings + offset;
+		byte[] binary = new byte[buffer.getShort(pos) & 0xFFFF];
+		for(int i=0; i<binary.length; i++){
+			binary[i] = buffer.get(pos + 2 + i);
+		}
+		try{
+			return new String(binary, "UTF-8");
+		} catch(UnsupportedEncodingException ex){
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	// ======================================================================
+	// キーの算出
+	// ======================================================================
+	/**
+	 * 分類と ID から整列可能なキーを算出します。上位から分類 8 ビット、ID の数 8 ビット、
+	 * 各 ID 16 ビットを格納します。同じ分類のキーは連続して整列されます。
+	 * <p>
+	 * @param category 分類
+	 * @param id ID (最大 3 つ)
+	 * @return キー
+	 */
+	private static long toKey(int category, int... id){
+		assert(id.length <= 3);
+		long key = ((long)category << 56) | ((long)id.length << 48);
+		for(int i=0; i<id.length; i++){
+			key |= (long)(id[i] & 0xFFFF) << (32 - i * 16);
+		}
+		return key;
+	}
+
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	// Builder: データベース構築
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	/**
+	 * 名称を追加してデータベースのバイナリを構築するためのクラスです。
+	 * <p>
+	 */
+	public static class Builder {
+
+		/** キーに対する名称とロケールです。 */
+		private final SortedMap<Long,String[]> entries = new TreeMap<Long,String[]>();
+
+		// ==================================================================
+		// 名称の追加
+		// ==================================================================
+		/**
+		 * 指定された分類と ID に対する名称を追加します。既に定義されている場合は置き換えます。
+		 * <p>
+		 * @param category 分類
+		 * @param label 名称
+		 * @param locale ロケール (ない場合は null)
+		 * @param id ID
+		 */
+		public void put(int category, String label, String locale, int... id){
+			entries.put(toKey(category, id), new String[]{ label, locale });
+			return;
+		}
+
+		// ==================================================================
+		// バイナリの出力
+		// ==================================================================
+		/**
+		 * 追加された名称をデータベース形式で出力します。
+		 * <p>
+		 * @param out 出力先のストリーム
+		 * @throws IOException 出力に失敗した場合
+		 */
+		public void write(OutputStream out) throws IOException{
+
+			// 文字列表を構築
+			ByteArrayOutputStream table = new ByteArrayOutputStream();
+			DataOutputStream st = new DataOutputStream(table);
+			Map<String,Integer> interned = new HashMap<String,Integer>();
+			int[] label = new int[entries.size()];
+			int[] locale = new int[entries.size()];
+			int i = 0;
+			for(String[] e: entries.values()){
+				label[i] = intern(e[0], interned, st);
+				locale[i] = intern(e[1], interned, st);
+				i ++;
+			}
+			st.flush();
+
+			// データベースの出力
+			DataOutputStream o = new DataOutputStream(new BufferedOutputStream(out));
+			o.writeInt(MAGIC);
+			o.writeInt(VERSION);
+			o.writeInt(entries.size());
+			o.writeInt(table.size());
+			for(Long key: entries.keySet()){
+				o.writeLong(key);
+			}
+			for(int l: label){
+				o.writeInt(l);
+			}
+			for(int l: locale){
+				o.writeInt(l);
+			}
+			table.writeTo(o);
+			o.flush();
+			return;
+		}
+
+		// ==================================================================
+		// データベースの構築
+		// ==================================================================
+		/**
+		 * 追加された名称からヒープ上のデータベースを構築します。
+		 * <p>
+		 * @return データベース
+		 */
+		public ClassIDDatabase build(){
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try{
+				write(out);
+				return new ClassIDDatabase(ByteBuffer.wrap(out.toByteArray()));
+			} catch(IOException ex){
+				throw new IllegalStateException(ex);
+			}
+		}
+
+		// ==================================================================
+		// 文字列の格納
+		// ==================================================================
+		/**
+		 * 指定された文字列を文字列表に格納しオフセットを返します。同じ文字列が既に格納されて
+		 * いる場合はそのオフセットを返します。
+		 * <p>
+		 * @param str 文字列
+		 * @param interned 格納済みの文字列とオフセット
+		 * @param out 文字列表の出力先
+		 * @return 文字列表のオフセット (文字列が null の場合は -1)
+		 * @throws IOException 出力に失敗した場合
+		 */
+		private static int intern(String str, Map<String,Integer> interned, DataOutputStream out) throws IOException{
+			if(str == null){
+				return -1;
+			}
+			Integer offset = interned.get(str);
+			if(offset == null){
+				offset = out.size();
+				byte[] binary = str.getBytes("UTF-8");
+				if(binary.length > 0xFFFF){
+					throw new IOException("too long label: " + binary.length);
+				}
+				out.writeShort(binary.length);
+				out.write(binary);
+				interned.put(str, offset);
+			}
+			return offset;
+		}
+	}
+
+}